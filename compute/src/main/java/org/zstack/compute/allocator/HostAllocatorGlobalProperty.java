@@ -0,0 +1,18 @@
+package org.zstack.compute.allocator;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+@GlobalPropertyDefinition
+public class HostAllocatorGlobalProperty {
+    @GlobalProperty(name = "hostAllocator.capacityLedger.enabled", defaultValue = "true")
+    public static boolean CAPACITY_LEDGER_ENABLED;
+    /**
+     * how long reserved cpu and memory are kept in the ledger before written to HostCapacityVO, 0 writes them
+     * through. Other management nodes, e.g. while taking over hosts during a management node
+     * change, only see the reservations once flushed, so a host is overcommitted by at most what is reserved
+     * on it within one interval.
+     */
+    @GlobalProperty(name = "hostAllocator.capacityLedger.flushIntervalInMillis", defaultValue = "1000")
+    public static long CAPACITY_LEDGER_FLUSH_INTERVAL;
+}
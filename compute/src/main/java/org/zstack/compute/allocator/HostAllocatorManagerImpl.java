@@ -73,6 +73,8 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
     @Autowired
     private HostCapacityOverProvisioningManager ratioMgr;
     @Autowired
+    private HostCapacityLedger ledger;
+    @Autowired
     private HostCpuOverProvisioningManager cpuRatioMgr;
     @Autowired
     private ErrorFacade errf;
@@ -274,6 +276,8 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
         long availCpu = totalCpu - msg.getUsedCpu();
         availCpu = availCpu > 0 ? availCpu : 0;
 
+        // the reported capacity replaces the one in the database, including the reservations not flushed
+        ledger.flush(msg.getHostUuid());
         HostCapacityVO vo = dbf.findByUuid(msg.getHostUuid(), HostCapacityVO.class);
         if (vo == null) {
             vo = new HostCapacityVO();
@@ -817,7 +821,7 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
 
     @Override
     public void returnComputeResourceCapacity(final String hostUuid, final long cpu, final long memory) {
-        new HostCapacityUpdater(hostUuid).run(new HostCapacityUpdaterRunnable() {
+        HostCapacityUpdaterRunnable runnable = new HostCapacityUpdaterRunnable() {
             @Override
             public HostCapacityVO call(HostCapacityVO cap) {
                 {
@@ -855,7 +859,13 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
                 logger.debug(String.format("[Host Allocation]: successfully return cpu[%s], memory[%s bytes] on host[uuid:%s]", cpu, memory, hostUuid));
                 return cap;
             }
-        });
+        };
+
+        if (ledger.keeps(hostUuid)) {
+            ledger.run(hostUuid, runnable);
+        } else {
+            new HostCapacityUpdater(hostUuid).run(runnable);
+        }
     }
 
     @Override
@@ -7,6 +7,7 @@ import org.zstack.core.Platform;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.header.allocator.AbstractHostAllocatorFlow;
 import org.zstack.header.allocator.HostCapacityOverProvisioningManager;
+import org.zstack.header.allocator.HostCapacityVO;
 import org.zstack.header.allocator.HostCpuOverProvisioningManager;
 import org.zstack.header.host.HostVO;
 import org.zstack.utils.Utils;
@@ -27,22 +28,32 @@ public class HostCapacityAllocatorFlow extends AbstractHostAllocatorFlow {
     private HostCapacityOverProvisioningManager ratioMgr;
     @Autowired
     private HostCpuOverProvisioningManager cpuRatioMgr;
+    @Autowired
+    private HostCapacityLedger ledger;
+
+    private HostCapacityVO getCapacity(HostVO hvo) {
+        HostCapacityVO cap = ledger.getCapacity(hvo.getUuid());
+        return cap == null ? hvo.getCapacity() : cap;
+    }
 
-    private boolean memoryCheck(long vmMemSize, long oldMemory, HostVO hvo) {
+    private boolean memoryCheck(long vmMemSize, long oldMemory, HostVO hvo, HostCapacityVO cap) {
         if (HostAllocatorGlobalConfig.HOST_ALLOCATOR_MAX_MEMORY.value(Boolean.class)) {
-            if ((vmMemSize + oldMemory) >= hvo.getCapacity().getTotalPhysicalMemory()) {
+            if ((vmMemSize + oldMemory) >= cap.getTotalPhysicalMemory()) {
                 return false;
             }
         }
 
-        return ratioMgr.calculateHostAvailableMemoryByRatio(hvo.getUuid(), hvo.getCapacity().getAvailableMemory()) >= vmMemSize;
+        return ratioMgr.calculateHostAvailableMemoryByRatio(hvo.getUuid(), cap.getAvailableMemory()) >= vmMemSize;
     }
 
 
     private List<HostVO> allocate(List<HostVO> vos, long cpu, long memory, long oldMemory) {
         return vos.parallelStream()
-                .filter(hvo -> (cpu == 0 || hvo.getCapacity().getAvailableCpu() >= cpu)
-                        && (memory == 0 || memoryCheck(memory, oldMemory, hvo))).collect(Collectors.toList());
+                .filter(hvo -> {
+                    HostCapacityVO cap = getCapacity(hvo);
+                    return (cpu == 0 || cap.getAvailableCpu() >= cpu)
+                            && (memory == 0 || memoryCheck(memory, oldMemory, hvo, cap));
+                }).collect(Collectors.toList());
     }
 
     private boolean isNoCpu(int cpu) {
@@ -50,7 +61,7 @@ public class HostCapacityAllocatorFlow extends AbstractHostAllocatorFlow {
     }
 
     private boolean isNoMemory(long mem) {
-        return !candidates.stream().anyMatch(vo -> ratioMgr.calculateHostAvailableMemoryByRatio(vo.getUuid(), vo.getCapacity().getAvailableMemory()) >= mem);
+        return !candidates.stream().anyMatch(vo -> ratioMgr.calculateHostAvailableMemoryByRatio(vo.getUuid(), getCapacity(vo).getAvailableMemory()) >= mem);
     }
 
     @Override
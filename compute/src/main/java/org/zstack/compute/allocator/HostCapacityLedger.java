@@ -0,0 +1,99 @@
+package org.zstack.compute.allocator;
+
+import org.springframework.transaction.annotation.Transactional;
+import org.zstack.core.db.DeadlockAutoRestart;
+import org.zstack.core.db.WriteBehindCapacityLedger;
+import org.zstack.header.allocator.HostCapacityVO;
+import org.zstack.header.allocator.HostCapacityVO_;
+
+import javax.persistence.metamodel.SingularAttribute;
+
+/**
+ * Keeps the available cpu and memory of the hosts managed by this management node, so the
+ * allocator reserves and returns capacity in memory instead of locking HostCapacityVO rows.
+ * Capacity of other hosts is still updated in the database by HostCapacityUpdater, which also
+ * flushes the host before setting absolute values of its row.
+ */
+public class HostCapacityLedger extends WriteBehindCapacityLedger<HostCapacityVO> {
+    @Override
+    protected Class<HostCapacityVO> getCapacityClass() {
+        return HostCapacityVO.class;
+    }
+
+    @Override
+    protected SingularAttribute<HostCapacityVO, String> getUuidAttribute() {
+        return HostCapacityVO_.uuid;
+    }
+
+    @Override
+    protected String getUuid(HostCapacityVO cap) {
+        return cap.getUuid();
+    }
+
+    @Override
+    protected String getResourceName() {
+        return "host";
+    }
+
+    @Override
+    protected int getAvailableCapacityCount() {
+        return 2;
+    }
+
+    @Override
+    protected long[] getAvailableCapacities(HostCapacityVO cap) {
+        return new long[]{cap.getAvailableCpu(), cap.getAvailableMemory()};
+    }
+
+    @Override
+    protected HostCapacityVO copy(HostCapacityVO s, long[] available) {
+        HostCapacityVO cap = new HostCapacityVO();
+        cap.setUuid(s.getUuid());
+        cap.setCpuNum(s.getCpuNum());
+        cap.setCpuSockets(s.getCpuSockets());
+        cap.setTotalCpu(s.getTotalCpu());
+        cap.setAvailableCpu(available[0]);
+        cap.setTotalMemory(s.getTotalMemory());
+        cap.setAvailableMemory(available[1]);
+        cap.setTotalPhysicalMemory(s.getTotalPhysicalMemory());
+        cap.setAvailablePhysicalMemory(s.getAvailablePhysicalMemory());
+        return cap;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return HostAllocatorGlobalProperty.CAPACITY_LEDGER_ENABLED;
+    }
+
+    @Override
+    protected long getFlushIntervalInMillis() {
+        return HostAllocatorGlobalProperty.CAPACITY_LEDGER_FLUSH_INTERVAL;
+    }
+
+    /**
+     * changes the capacity of a host kept by the ledger atomically, only the changes of the
+     * available cpu and memory made by the runnable are kept
+     *
+     * @return false if the host has been deleted or the runnable returns null
+     */
+    boolean run(String hostUuid, HostCapacityUpdaterRunnable runnable) {
+        return update(hostUuid, runnable::call);
+    }
+
+    @Override
+    @DeadlockAutoRestart
+    protected void addAvailableCapacities(String hostUuid, long[] deltas) {
+        _addCapacity(hostUuid, deltas[0], deltas[1]);
+    }
+
+    @Transactional
+    private void _addCapacity(String hostUuid, long cpu, long memory) {
+        String sql = "update HostCapacityVO cap set cap.availableCpu = cap.availableCpu + :cpu," +
+                " cap.availableMemory = cap.availableMemory + :memory where cap.uuid = :uuid";
+        dbf.getEntityManager().createQuery(sql)
+                .setParameter("cpu", cpu)
+                .setParameter("memory", memory)
+                .setParameter("uuid", hostUuid)
+                .executeUpdate();
+    }
+}
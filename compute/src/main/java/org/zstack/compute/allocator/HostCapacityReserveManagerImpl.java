@@ -7,6 +7,7 @@ import org.zstack.core.db.SimpleQuery;
 import org.zstack.core.db.SimpleQuery.Op;
 import org.zstack.header.Component;
 import org.zstack.header.allocator.HostCapacityOverProvisioningManager;
+import org.zstack.header.allocator.HostCapacityVO;
 import org.zstack.header.allocator.HostReservedCapacityExtensionPoint;
 import org.zstack.header.allocator.ReservedHostCapacity;
 import org.zstack.header.allocator.UnableToReserveHostCapacityException;
@@ -38,6 +39,8 @@ public class HostCapacityReserveManagerImpl implements HostCapacityReserveManage
     private PluginRegistry pluginRgty;
     @Autowired
     private HostCapacityOverProvisioningManager ratioMgr;
+    @Autowired
+    private HostCapacityLedger ledger;
 
     private Map<String, HostReservedCapacityExtensionPoint> exts = new HashMap<>();
 
@@ -154,17 +157,19 @@ public class HostCapacityReserveManagerImpl implements HostCapacityReserveManage
         return candidates.parallelStream()
                 .filter(hvo -> {
                     ReservedHostCapacity hc = reserves.get(hvo.getUuid());
-                    if (requiredMemory == 0 || hvo.getCapacity().getAvailableMemory() - hc.getReservedMemoryCapacity() >= ratioMgr.calculateMemoryByRatio(hvo.getUuid(), requiredMemory)) {
+                    HostCapacityVO cap = ledger.getCapacity(hvo.getUuid());
+                    cap = cap == null ? hvo.getCapacity() : cap;
+                    if (requiredMemory == 0 || cap.getAvailableMemory() - hc.getReservedMemoryCapacity() >= ratioMgr.calculateMemoryByRatio(hvo.getUuid(), requiredMemory)) {
                         return true;
                     } else {
                         if (logger.isTraceEnabled()) {
-                            if (hvo.getCapacity().getAvailableMemory() - hc.getReservedMemoryCapacity() < requiredMemory) {
+                            if (cap.getAvailableMemory() - hc.getReservedMemoryCapacity() < requiredMemory) {
                                 logger.trace(String.format("remove host[uuid:%s] from candidates;because after subtracting reserved memory[%s bytes]," +
                                                 " it cannot provide required memory[%s bytes]",
                                         hvo.getUuid(), hc.getReservedMemoryCapacity(), requiredMemory));
                             }
 
-                            if (hvo.getCapacity().getAvailableCpu() - hc.getReservedCpuCapacity() < requiredCpu) {
+                            if (cap.getAvailableCpu() - hc.getReservedCpuCapacity() < requiredCpu) {
                                 logger.trace(String.format("remove host[uuid:%s] from candidates;because after subtracting reserved cpu[%s]," +
                                                 " it cannot provide required cpu[%s]",
                                         hvo.getUuid(), hc.getReservedCpuCapacity(), requiredCpu));
@@ -249,8 +254,15 @@ public class HostCapacityReserveManagerImpl implements HostCapacityReserveManage
         }
     }
 
+    private void updateCapacity(String hostUuid, HostCapacityUpdaterRunnable runnable) {
+        if (ledger.keeps(hostUuid)) {
+            ledger.run(hostUuid, runnable);
+        } else {
+            new HostCapacityUpdater(hostUuid).run(runnable);
+        }
+    }
+
     private void reserveCapacityWithChecking(String hostUuid, long requestCpu, long requestMemory) {
-        HostCapacityUpdater updater = new HostCapacityUpdater(hostUuid);
         HostVO host = dbf.findByUuid(hostUuid, HostVO.class);
         HostReservedCapacityExtensionPoint ext = exts.get(host.getHypervisorType());
 
@@ -264,7 +276,7 @@ public class HostCapacityReserveManagerImpl implements HostCapacityReserveManage
             ret.setReservedMemoryCapacity(0);
         }
 
-        updater.run(cap -> {
+        updateCapacity(hostUuid, cap -> {
             long availCpu = cap.getAvailableCpu() - requestCpu;
             if (requestCpu != 0 && availCpu < 0) {
                 throw new UnableToReserveHostCapacityException(
@@ -286,8 +298,7 @@ public class HostCapacityReserveManagerImpl implements HostCapacityReserveManage
     }
 
     private void updateCapacityWithoutChecking(String hostUuid, long cpuNum, long memorySize) {
-        HostCapacityUpdater updater = new HostCapacityUpdater(hostUuid);
-        updater.run(cap -> {
+        updateCapacity(hostUuid, cap -> {
             long availCpu = cap.getAvailableCpu() - cpuNum;
             cap.setAvailableCpu(availCpu);
             long availMemory = cap.getAvailableMemory() - ratioMgr.calculateMemoryByRatio(hostUuid, memorySize);
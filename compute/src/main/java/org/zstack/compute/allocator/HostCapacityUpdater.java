@@ -23,6 +23,8 @@ public class HostCapacityUpdater {
 
     @Autowired
     private DatabaseFacade dbf;
+    @Autowired
+    private HostCapacityLedger ledger;
 
     private String hostUuid;
     private TypedQuery<HostCapacityVO> query;
@@ -115,6 +117,13 @@ public class HostCapacityUpdater {
 
     @DeadlockAutoRestart
     public boolean run(HostCapacityUpdaterRunnable runnable) {
+        // write the changes kept in memory before changing the capacity in database
+        if (hostUuid != null) {
+            ledger.flush(hostUuid);
+        } else {
+            ledger.flushAll();
+        }
+
         return _run(runnable);
     }
 
@@ -7,6 +7,7 @@ import org.zstack.header.allocator.HostAllocatorStrategyType;
 import org.zstack.header.host.HostAllocateExtensionPoint;
 import org.zstack.header.vm.VmInstanceVO;
 import org.zstack.header.vm.VmInstanceVO_;
+import org.zstack.identity.QuotaUsageLedger;
 
 public class LeastVmPreferredHostAllocatorStrategyFactory extends AbstractHostAllocatorStrategyFactory implements HostAllocateExtensionPoint {
 	private static final HostAllocatorStrategyType type = new HostAllocatorStrategyType(HostAllocatorConstant.LEAST_VM_PREFERRED_HOST_ALLOCATOR_STRATEGY_TYPE);
@@ -32,5 +33,6 @@ public class LeastVmPreferredHostAllocatorStrategyFactory extends AbstractHostAl
 						.update();
 			}
 		}.execute();
+		QuotaUsageLedger.resourcesChanged(vmInstanceUuid);
 	}
 }
@@ -47,6 +47,7 @@ import org.zstack.header.tag.SystemTagVO;
 import org.zstack.header.tag.SystemTagVO_;
 import org.zstack.header.vm.*;
 import org.zstack.tag.SystemTagCreator;
+import org.zstack.tag.SystemTagStore;
 import org.zstack.utils.*;
 import org.zstack.utils.data.Pair;
 import org.zstack.utils.function.ForEachFunction;
@@ -90,6 +91,8 @@ public abstract class HostBase extends AbstractHost {
     protected HostMaintenancePolicyManager hostMaintenancePolicyMgr;
     @Autowired
     protected UpgradeChecker upgradeChecker;
+    @Autowired
+    protected SystemTagStore tagStore;
 
     public static class HostDisconnectedCanonicalEvent extends CanonicalEventEmitter {
         HostCanonicalEvents.HostDisconnectedData data;
@@ -1108,6 +1111,7 @@ public abstract class HostBase extends AbstractHost {
                     .eq(SystemTagVO_.resourceType, HostVO.class.getSimpleName())
                     .like(SystemTagVO_.tag, "ConnectedTime::%")
                     .hardDelete();
+            tagStore.resourceChanged(self.getUuid());
         }
     }
 
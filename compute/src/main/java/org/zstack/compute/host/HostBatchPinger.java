@@ -0,0 +1,16 @@
+package org.zstack.compute.host;
+
+import org.zstack.core.cloudbus.CloudBusSteppingCallback;
+import org.zstack.header.host.PingHostMsg;
+
+import java.util.List;
+
+/**
+ * Lets a hypervisor backend ping all its hosts that fall in the same tick of the host
+ * tracker at once. The callback must be called exactly once for each message.
+ */
+public interface HostBatchPinger {
+    void ping(List<PingHostMsg> msgs, CloudBusSteppingCallback callback);
+
+    String getHypervisorType();
+}
@@ -8,7 +8,7 @@ import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.db.Q;
 import org.zstack.core.db.SQLBatch;
 import org.zstack.core.thread.AsyncThread;
-import org.zstack.core.thread.AsyncTimer;
+import org.zstack.core.thread.PeriodicTask;
 import org.zstack.core.thread.ThreadFacade;
 import org.zstack.header.Component;
 import org.zstack.header.core.Completion;
@@ -20,6 +20,7 @@ import org.zstack.header.managementnode.ManagementNodeChangeListener;
 import org.zstack.header.managementnode.ManagementNodeInventory;
 import org.zstack.header.managementnode.ManagementNodeReadyExtensionPoint;
 import org.zstack.header.message.MessageReply;
+import org.zstack.header.message.NeedReplyMessage;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
@@ -27,6 +28,7 @@ import javax.persistence.Tuple;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
@@ -35,6 +37,11 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
 
     private Map<String, Tracker> trackers = new ConcurrentHashMap<>();
     private static boolean alwaysStartRightNow = false;
+    private static final int MAX_WHEEL_SIZE = 3600;
+    private Wheel wheel;
+    // guards the wheel, so trackers are never scheduled onto a wheel being replaced
+    // by reScanHost() and the tick never advances a wheel being replaced
+    private final Object wheelLock = new Object();
 
     @Autowired
     private DatabaseFacade dbf;
@@ -50,6 +57,7 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
     protected EventFacade evtf;
 
     private static Map<String, HostReconnectTaskFactory> hostReconnectTaskFactories = new HashMap<>();
+    private static Map<String, HostBatchPinger> hostBatchPingers = new HashMap<>();
 
     private Map<String, AtomicInteger> hostDisconnectCount = new ConcurrentHashMap<>();
 
@@ -82,94 +90,103 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
         });
     }
 
-    private class Tracker extends AsyncTimer {
-        private final CLogger logger = Utils.getLogger(HostTrackImpl.class);
-
-        private String uuid;
-        private String hypervisorType;
-        private HostReconnectTask reconnectTask;
-
-        Tracker(String uuid) {
-            super(TimeUnit.SECONDS, HostGlobalConfig.PING_HOST_INTERVAL.value(Long.class));
-            this.uuid = uuid;
-            hypervisorType = Q.New(HostVO.class).select(HostVO_.hypervisorType)
-                    .eq(HostVO_.uuid, uuid).findValue();
-            if (hypervisorType == null) {
-                throw new CloudRuntimeException(String.format("host[uuid:%s] is deleted, why you submit a tracker for it???", uuid));
+    /**
+     * one-second slots, a tracker is put into the slot of the tick it's due, with the rounds to
+     * wait when the tick is further than the wheel, and all trackers due in the same tick are
+     * handled together. Every host has a stable phase in the ping interval, hash(uuid) mod
+     * interval, and is pinged at the ticks of its phase, so the pings spread evenly over the
+     * interval instead of following the hosts connected together.
+     */
+    private class Wheel {
+        // tracker -> remaining rounds
+        private final List<Map<Tracker, Long>> slots;
+        // ticks are counted in seconds since the epoch, so phases are kept across rescans
+        private long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+
+        Wheel(int size) {
+            slots = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                slots.add(new HashMap<>());
             }
-
-
-            __name__ = String.format("host-tracker-%s-hypervisor-%s", uuid, hypervisorType);
         }
 
-        @Override
-        protected void execute() {
-            track();
+        /**
+         * @return the first tick of the phase at least minDelay ticks from now
+         */
+        long nextTickOfPhase(long phase, long interval, long minDelay) {
+            long earliest = now + Math.max(minDelay, 1);
+            return earliest + Math.floorMod(phase - earliest, interval);
         }
 
-        private void track()  {
-            Tuple t = Q.New(HostVO.class).select(HostVO_.state, HostVO_.status)
-                    .eq(HostVO_.uuid, uuid).findTuple();
-
-            if (t == null) {
-                logger.debug(String.format("host[uuid:%s] seems to be deleted, stop tracking it", uuid));
-                return;
-            }
-
-            HostState state = t.get(0, HostState.class);
+        void schedule(Tracker t, long tick) {
+            long delay = Math.max(tick - now, 1);
+            int slot = (int) ((now + delay) % slots.size());
+            slots.get(slot).put(t, (delay - 1) / slots.size());
+        }
 
-            if (state == HostState.PreMaintenance || state == HostState.Maintenance) {
-                logger.debug(String.format("host[uuid:%s] is in state of %s, not tracking it this time", uuid, state));
-                continueToRunThisTimer();
-                return;
+        List<Tracker> advance() {
+            now++;
+            List<Tracker> due = new ArrayList<>();
+            Iterator<Map.Entry<Tracker, Long>> it = slots.get((int) (now % slots.size())).entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Tracker, Long> e = it.next();
+                if (e.getValue() == 0) {
+                    due.add(e.getKey());
+                    it.remove();
+                } else {
+                    e.setValue(e.getValue() - 1);
+                }
             }
+            return due;
+        }
+    }
 
-            PingHostMsg msg = new PingHostMsg();
-            msg.setHostUuid(uuid);
-            bus.makeLocalServiceId(msg, HostConstant.SERVICE_ID);
-            bus.send(msg, new CloudBusCallBack(null) {
-                @Override
-                public void run(MessageReply reply) {
-                    decideWhatToDoNext(makeReconnectDecision(reply));
-                }
+    private class Tracker {
+        private final String uuid;
+        private final String hypervisorType;
+        private HostReconnectTask reconnectTask;
+        private final AtomicBoolean cancelled = new AtomicBoolean(false);
 
-                private ReconnectDecision makeReconnectDecision(MessageReply reply) {
-                    if (!reply.isSuccess()) {
-                        logger.warn(String.format("[Host Tracker]: unable track host[uuid:%s], %s", uuid, reply.getError()));
-                        return ReconnectDecision.DoNothing;
-                    }
+        Tracker(String uuid, String hypervisorType) {
+            this.uuid = uuid;
+            this.hypervisorType = hypervisorType;
+        }
 
-                    PingHostReply r = reply.castReply();
-                    if (r.isNoReconnect()) {
-                        return ReconnectDecision.DoNothing;
-                    }
+        private ReconnectDecision makeReconnectDecision(MessageReply reply) {
+            if (!reply.isSuccess()) {
+                logger.warn(String.format("[Host Tracker]: unable track host[uuid:%s], %s", uuid, reply.getError()));
+                return ReconnectDecision.DoNothing;
+            }
 
-                    AtomicInteger disconnectCount = hostDisconnectCount.get(uuid);
-                    int threshold = HostGlobalConfig.AUTO_RECONNECT_ON_ERROR_MAX_ATTEMPT_NUM.value(Integer.class);
-                    if (threshold > 0 && disconnectCount != null && disconnectCount.get() >= threshold) {
-                        logger.warn(String.format("stop pinging host[uuid:%s, hypervisorType:%s] because it fail to reconnect too many times", uuid, hypervisorType));
-                        return ReconnectDecision.StopPing;
-                    }
+            PingHostReply r = reply.castReply();
+            if (r.isNoReconnect()) {
+                return ReconnectDecision.DoNothing;
+            }
 
-                    boolean autoReconnect = HostGlobalConfig.AUTO_RECONNECT_ON_ERROR.value(Boolean.class);
-                    if (!r.isConnected() && autoReconnect) {
-                        return ReconnectDecision.SubmitReconnectTask;
-                    }
+            AtomicInteger disconnectCount = hostDisconnectCount.get(uuid);
+            int threshold = HostGlobalConfig.AUTO_RECONNECT_ON_ERROR_MAX_ATTEMPT_NUM.value(Integer.class);
+            if (threshold > 0 && disconnectCount != null && disconnectCount.get() >= threshold) {
+                logger.warn(String.format("stop pinging host[uuid:%s, hypervisorType:%s] because it fail to reconnect too many times", uuid, hypervisorType));
+                return ReconnectDecision.StopPing;
+            }
 
-                    // host can be successfully pinged
-                    if (r.getCurrentHostStatus().equals(HostStatus.Disconnected.toString())) {
-                        if (autoReconnect) {
-                            return ReconnectDecision.ReconnectNow;
-                        } else {
-                            logger.warn(String.format("stop pinging host[uuid:%s, hypervisorType:%s] because it's disconnected and connection.autoReconnectOnError is false", uuid, hypervisorType));
-                            return ReconnectDecision.StopPing;
-                        }
-                    }
+            boolean autoReconnect = HostGlobalConfig.AUTO_RECONNECT_ON_ERROR.value(Boolean.class);
+            if (!r.isConnected() && autoReconnect) {
+                return ReconnectDecision.SubmitReconnectTask;
+            }
 
-                    // host can be pinged and the current status is Connected
-                    return ReconnectDecision.DoNothing;
+            // host can be successfully pinged
+            if (r.getCurrentHostStatus().equals(HostStatus.Disconnected.toString())) {
+                if (autoReconnect) {
+                    return ReconnectDecision.ReconnectNow;
+                } else {
+                    logger.warn(String.format("stop pinging host[uuid:%s, hypervisorType:%s] because it's disconnected and connection.autoReconnectOnError is false", uuid, hypervisorType));
+                    return ReconnectDecision.StopPing;
                 }
-            });
+            }
+
+            // host can be pinged and the current status is Connected
+            return ReconnectDecision.DoNothing;
         }
 
         private void decideWhatToDoNext(ReconnectDecision decision) {
@@ -228,34 +245,138 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
                     factory.createTaskWithLastConnectError(uuid, lastConnectError, completion);
         }
 
-        @Override
-        public void cancel() {
+        private void schedule(boolean rightNow, long minDelay) {
+            synchronized (wheelLock) {
+                if (isCanceled()) {
+                    return;
+                }
+
+                long interval = getPingInterval();
+                wheel.schedule(this, rightNow ? wheel.nextTickOfPhase(0, 1, 1) :
+                        wheel.nextTickOfPhase(Math.floorMod((long) uuid.hashCode(), interval), interval, minDelay));
+            }
+        }
+
+        void start(boolean rightNow) {
+            // not pinged within an interval after tracked, as the per-host timers did
+            schedule(rightNow, getPingInterval());
+        }
+
+        void continueToRunThisTimer() {
+            schedule(false, 1);
+        }
+
+        boolean isCanceled() {
+            return cancelled.get();
+        }
+
+        void cancel() {
+            cancelled.set(true);
+
             if (reconnectTask != null) {
                 reconnectTask.cancel();
             }
 
-            super.cancel();
+            trackers.remove(uuid, this);
+        }
+    }
 
-            trackers.remove(uuid);
+    private void tick() {
+        List<Tracker> due;
+        synchronized (wheelLock) {
+            due = wheel.advance();
+        }
+        if (due.isEmpty()) {
+            return;
+        }
+
+        try {
+            track(due);
+        } catch (Throwable t) {
+            logger.warn(String.format("unhandled exception while tracking %s hosts", due.size()), t);
+            due.forEach(Tracker::continueToRunThisTimer);
         }
     }
 
+    private void track(List<Tracker> due) {
+        Map<String, Tracker> dueTrackers = new HashMap<>();
+        due.stream().filter(t -> !t.isCanceled()).forEach(t -> dueTrackers.put(t.uuid, t));
+        if (dueTrackers.isEmpty()) {
+            return;
+        }
+
+        List<Tuple> ts = Q.New(HostVO.class).select(HostVO_.uuid, HostVO_.state, HostVO_.status)
+                .in(HostVO_.uuid, dueTrackers.keySet()).listTuple();
+
+        Map<String, Tracker> pinged = new HashMap<>();
+        Map<String, List<PingHostMsg>> pingsByHypervisor = new HashMap<>();
+        for (Tuple t : ts) {
+            String uuid = t.get(0, String.class);
+            HostState state = t.get(1, HostState.class);
+            Tracker tracker = dueTrackers.remove(uuid);
+
+            if (state == HostState.PreMaintenance || state == HostState.Maintenance) {
+                logger.debug(String.format("host[uuid:%s] is in state of %s, not tracking it this time", uuid, state));
+                tracker.continueToRunThisTimer();
+                continue;
+            }
+
+            PingHostMsg msg = new PingHostMsg();
+            msg.setHostUuid(uuid);
+            bus.makeLocalServiceId(msg, HostConstant.SERVICE_ID);
+            pingsByHypervisor.computeIfAbsent(tracker.hypervisorType, k -> new ArrayList<>()).add(msg);
+            pinged.put(uuid, tracker);
+        }
+
+        dueTrackers.values().forEach(tracker -> {
+            logger.debug(String.format("host[uuid:%s] seems to be deleted, stop tracking it", tracker.uuid));
+            trackers.remove(tracker.uuid, tracker);
+        });
+
+        CloudBusSteppingCallback callback = new CloudBusSteppingCallback(null) {
+            @Override
+            public void run(NeedReplyMessage msg, MessageReply reply) {
+                Tracker tracker = pinged.get(((PingHostMsg) msg).getHostUuid());
+                tracker.decideWhatToDoNext(tracker.makeReconnectDecision(reply));
+            }
+        };
+
+        pingsByHypervisor.forEach((hvType, msgs) -> {
+            HostBatchPinger pinger = hostBatchPingers.get(hvType);
+            if (pinger != null) {
+                pinger.ping(msgs, callback);
+                return;
+            }
+
+            msgs.forEach(msg -> bus.send(msg, new CloudBusCallBack(null) {
+                @Override
+                public void run(MessageReply reply) {
+                    callback.run(msg, reply);
+                }
+            }));
+        });
+    }
 
     public void trackHost(String hostUuid) {
-        Tracker t = trackers.get(hostUuid);
-        if (t != null) {
-            t.cancel();
+        String hypervisorType = Q.New(HostVO.class).select(HostVO_.hypervisorType)
+                .eq(HostVO_.uuid, hostUuid).findValue();
+        if (hypervisorType == null) {
+            throw new CloudRuntimeException(String.format("host[uuid:%s] is deleted, why you submit a tracker for it???", hostUuid));
         }
 
-        t = new Tracker(hostUuid);
-        trackers.put(hostUuid, t);
+        trackHost(hostUuid, hypervisorType);
+    }
 
-        if (CoreGlobalProperty.UNIT_TEST_ON && !alwaysStartRightNow) {
-            t.start();
-        } else {
-            t.startRightNow();
+    private void trackHost(String hostUuid, String hypervisorType) {
+        // swap atomically, concurrent rescans must not leave a tracker neither cancelled nor in the map
+        Tracker t = new Tracker(hostUuid, hypervisorType);
+        Tracker old = trackers.put(hostUuid, t);
+        if (old != null) {
+            old.cancel();
         }
 
+        t.start(!CoreGlobalProperty.UNIT_TEST_ON || alwaysStartRightNow);
+
         logger.debug(String.format("starting tracking hosts[uuid:%s]", hostUuid));
     }
 
@@ -271,7 +392,13 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
 
     @Override
     public void trackHost(Collection<String> huuids) {
-        huuids.forEach(this::trackHost);
+        if (huuids.isEmpty()) {
+            return;
+        }
+
+        List<Tuple> ts = Q.New(HostVO.class).select(HostVO_.uuid, HostVO_.hypervisorType)
+                .in(HostVO_.uuid, huuids).listTuple();
+        ts.forEach(t -> trackHost(t.get(0, String.class), t.get(1, String.class)));
     }
 
     @Override
@@ -285,7 +412,10 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
 
     private void reScanHost(boolean skipExisting) {
         if (!skipExisting) {
-            new HashSet<>(trackers.values()).forEach(Tracker::cancel);
+            synchronized (wheelLock) {
+                new HashSet<>(trackers.values()).forEach(Tracker::cancel);
+                wheel = new Wheel(getWheelSize());
+            }
         }
 
         new SQLBatch() {
@@ -337,11 +467,44 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
         return f;
     }
 
+    private static long getPingInterval() {
+        return HostGlobalConfig.PING_HOST_INTERVAL.value(Long.class);
+    }
+
+    private static int getWheelSize() {
+        return (int) Math.max(1, Math.min(getPingInterval(), MAX_WHEEL_SIZE));
+    }
+
     @Override
     public boolean start() {
         populateExtensions();
         onHostStatusChange();
 
+        synchronized (wheelLock) {
+            wheel = new Wheel(getWheelSize());
+        }
+        thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return 1;
+            }
+
+            @Override
+            public String getName() {
+                return "host-tracker-wheel";
+            }
+
+            @Override
+            public void run() {
+                tick();
+            }
+        });
+
         HostGlobalConfig.PING_HOST_INTERVAL.installUpdateExtension((oldConfig, newConfig) -> {
             logger.debug(String.format("%s change from %s to %s, restart host trackers",
                     oldConfig.getCanonicalName(), oldConfig.value(), newConfig.value()));
@@ -368,6 +531,15 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
 
             hostReconnectTaskFactories.put(f.getHypervisorType(), f);
         });
+
+        pluginRgty.getExtensionList(HostBatchPinger.class).forEach(p -> {
+            HostBatchPinger old = hostBatchPingers.get(p.getHypervisorType());
+            if (old != null) {
+                throw new CloudRuntimeException(String.format("duplicate HostBatchPinger[%s, %s] with the same type[%s]", p, old, p.getHypervisorType()));
+            }
+
+            hostBatchPingers.put(p.getHypervisorType(), p);
+        });
     }
 
     private void onHostStatusChange() {
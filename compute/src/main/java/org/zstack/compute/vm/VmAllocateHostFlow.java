@@ -27,6 +27,7 @@ import org.zstack.header.storage.primary.PrimaryStorageClusterRefVO;
 import org.zstack.header.storage.primary.PrimaryStorageClusterRefVO_;
 import org.zstack.header.vm.*;
 import org.zstack.header.vm.VmInstanceConstant.VmOperation;
+import org.zstack.identity.QuotaUsageLedger;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.function.Function;
@@ -193,6 +194,8 @@ public class VmAllocateHostFlow implements Flow {
                             .set(VmInstanceVO_.hostUuid, spec.getDestHost().getUuid())
                             .set(VmInstanceVO_.hypervisorType, spec.getDestHost().getHypervisorType())
                             .update();
+                    // a Starting vm is counted as running once it has a host
+                    QuotaUsageLedger.resourcesChanged(spec.getVmInventory().getUuid());
                     chain.next();
                 } else {
                     chain.fail(reply.getError());
@@ -19,6 +19,7 @@ import org.zstack.header.message.MessageReply;
 import org.zstack.header.network.l3.L3NetworkInventory;
 import org.zstack.header.vm.*;
 import org.zstack.header.volume.VolumeInventory;
+import org.zstack.identity.QuotaUsageLedger;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.function.Function;
 
@@ -116,6 +117,7 @@ public class VmAllocateHostForStoppedVmFlow implements Flow {
                                 .update();
                     }
                 }.execute();
+                QuotaUsageLedger.resourcesChanged(spec.getVmInventory().getUuid());
 
                 data.put(SUCCESS, true);
                 chain.next();
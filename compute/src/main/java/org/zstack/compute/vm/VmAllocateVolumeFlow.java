@@ -31,6 +31,7 @@ import org.zstack.header.vm.VmInstanceVO_;
 import org.zstack.header.volume.*;
 import org.zstack.header.volume.VolumeDeletionPolicyManager.VolumeDeletionPolicy;
 import org.zstack.identity.AccountManager;
+import org.zstack.identity.QuotaUsageLedger;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.DebugUtils;
 import org.zstack.utils.function.Function;
@@ -153,6 +154,7 @@ public class VmAllocateVolumeFlow implements Flow {
                                     .set(VmInstanceVO_.rootVolumeUuid, inv.getUuid())
                                     .condAnd(VmInstanceVO_.uuid, Op.EQ, spec.getVmInventory().getUuid())
                                     .update();
+                            QuotaUsageLedger.resourcesChanged(spec.getVmInventory().getUuid());
                         } else {
                             spec.getDestDataVolumes().add(inv);
                         }
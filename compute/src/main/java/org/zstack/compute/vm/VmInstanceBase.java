@@ -63,6 +63,7 @@ import org.zstack.header.vo.ResourceVO;
 import org.zstack.header.volume.*;
 import org.zstack.identity.Account;
 import org.zstack.identity.AccountManager;
+import org.zstack.identity.QuotaUsageLedger;
 import org.zstack.network.l3.IpRangeHelper;
 import org.zstack.network.l3.L3NetworkManager;
 import org.zstack.resourceconfig.ResourceConfig;
@@ -1014,6 +1015,7 @@ public class VmInstanceBase extends AbstractVmInstance {
                         }
 
                         sql.update();
+                        QuotaUsageLedger.resourcesChanged(self.getUuid());
 
                         startVm(msg, new Completion(msg, chain) {
                             @Override
@@ -6903,6 +6905,7 @@ public class VmInstanceBase extends AbstractVmInstance {
                                 .set(VmInstanceVO_.lastHostUuid, lastHostUuid)
                                 .set(VmInstanceVO_.hostUuid, host.getUuid())
                                 .update();
+                        QuotaUsageLedger.resourcesChanged(self.getUuid());
                         self = dbf.reload(self);
                         trigger.next();
                     }
@@ -7841,6 +7844,7 @@ public class VmInstanceBase extends AbstractVmInstance {
                                 .set(VmInstanceVO_.state, originState)
                                 .eq(VmInstanceVO_.uuid, self.getUuid())
                                 .update();
+                        QuotaUsageLedger.resourcesChanged(self.getUuid());
                     }
 
                     completion.fail(errCode);
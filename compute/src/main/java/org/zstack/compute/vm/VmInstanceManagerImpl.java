@@ -65,6 +65,7 @@ import org.zstack.header.volume.*;
 import org.zstack.header.zone.ZoneInventory;
 import org.zstack.header.zone.ZoneVO;
 import org.zstack.identity.AccountManager;
+import org.zstack.identity.QuotaUsageLedger;
 import org.zstack.identity.QuotaUtil;
 import org.zstack.network.l3.L3NetworkManager;
 import org.zstack.resourceconfig.*;
@@ -1602,6 +1603,8 @@ public class VmInstanceManagerImpl extends AbstractService implements
             createVmFlowChainBuilder();
             installSystemTagValidator();
             installGlobalConfigUpdater();
+            QuotaUsageLedger.track(VmInstanceVO.class);
+            QuotaUsageLedger.track(VolumeVO.class);
             vmExtensionManagers.addAll(pluginRgty.getExtensionList(VmInstanceExtensionManager.class));
 
             bus.installBeforeDeliveryMessageInterceptor(new AbstractBeforeDeliveryMessageInterceptor() {
@@ -14,9 +14,11 @@ import org.zstack.header.volume.VolumeStatus;
 import org.zstack.header.volume.VolumeType;
 import org.zstack.header.volume.VolumeVO;
 import org.zstack.header.volume.VolumeVO_;
+import org.zstack.identity.QuotaUsageLedger;
 
 import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
+import java.util.Objects;
 
 import static org.zstack.utils.CollectionDSL.list;
 
@@ -28,15 +30,53 @@ public class VmQuotaUtil {
     @Autowired
     private DatabaseFacade dbf;
 
+    private static final String VM_QUOTA_USAGE = "vm.quota";
+
     public class VmQuota {
         public long totalVmNum;
         public long runningVmNum;
         public long runningVmCpuNum;
         public long runningVmMemorySize;
+
+        VmQuota copy() {
+            VmQuota q = new VmQuota();
+            q.totalVmNum = totalVmNum;
+            q.runningVmNum = runningVmNum;
+            q.runningVmCpuNum = runningVmCpuNum;
+            q.runningVmMemorySize = runningVmMemorySize;
+            return q;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof VmQuota)) {
+                return false;
+            }
+
+            VmQuota q = (VmQuota) o;
+            return totalVmNum == q.totalVmNum && runningVmNum == q.runningVmNum
+                    && runningVmCpuNum == q.runningVmCpuNum && runningVmMemorySize == q.runningVmMemorySize;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(totalVmNum, runningVmNum, runningVmCpuNum, runningVmMemorySize);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[totalVmNum:%s, runningVmNum:%s, runningVmCpuNum:%s, runningVmMemorySize:%s]",
+                    totalVmNum, runningVmNum, runningVmCpuNum, runningVmMemorySize);
+        }
     }
 
     @Transactional(readOnly = true)
     public long getUsedDataVolumeCount(String accountUuid) {
+        return QuotaUsageLedger.get(accountUuid, VmQuotaConstant.DATA_VOLUME_NUM, () -> calculateUsedDataVolumeCount(accountUuid));
+    }
+
+    @Transactional(readOnly = true)
+    public long calculateUsedDataVolumeCount(String accountUuid) {
         String sql = "select count(vol)" +
                 " from VolumeVO vol, AccountResourceRefVO ref " +
                 " where vol.type = :vtype" +
@@ -56,6 +96,11 @@ public class VmQuotaUtil {
 
     @Transactional(readOnly = true)
     public long getUsedAllVolumeSize(String accountUuid) {
+        return QuotaUsageLedger.get(accountUuid, VmQuotaConstant.VOLUME_SIZE, () -> calculateUsedAllVolumeSize(accountUuid));
+    }
+
+    @Transactional(readOnly = true)
+    public long calculateUsedAllVolumeSize(String accountUuid) {
         String sql = "select sum(vol.size)" +
                 " from VolumeVO vol, AccountResourceRefVO ref" +
                 " where ref.resourceUuid = vol.uuid" +
@@ -71,6 +116,16 @@ public class VmQuotaUtil {
 
     @Transactional(readOnly = true)
     public VmQuota getUsedVmCpuMemory(String accountUUid, String excludeVmUuid) {
+        if (excludeVmUuid != null) {
+            return calculateUsedVmCpuMemory(accountUUid, excludeVmUuid);
+        }
+
+        // callers may change the returned quota
+        return QuotaUsageLedger.get(accountUUid, VM_QUOTA_USAGE, () -> calculateUsedVmCpuMemory(accountUUid, null)).copy();
+    }
+
+    @Transactional(readOnly = true)
+    public VmQuota calculateUsedVmCpuMemory(String accountUUid, String excludeVmUuid) {
         VmQuota quota = new VmQuota();
         // get running info
         String sql = "select count(vm), sum(vm.cpuNum), sum(vm.memorySize)" +
@@ -1 +1,18 @@
-ALTER TABLE `zstack`.`ExternalPrimaryStorageVO` modify column config varchar(2048) DEFAULT NULL;
\ No newline at end of file
+ALTER TABLE `zstack`.`ExternalPrimaryStorageVO` modify column config varchar(2048) DEFAULT NULL;
+
+CREATE TABLE IF NOT EXISTS `zstack`.`GLockLeaseVO` (
+    `name` varchar(255) NOT NULL,
+    `owner` varchar(255) NOT NULL,
+    `token` bigint unsigned NOT NULL,
+    `expireDate` datetime(3) NOT NULL,
+    PRIMARY KEY (`name`),
+    KEY `idxGLockLeaseVOExpireDate` (`expireDate`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+CREATE TABLE IF NOT EXISTS `zstack`.`GLockSequenceVO` (
+    `id` int unsigned NOT NULL,
+    `token` bigint unsigned NOT NULL,
+    PRIMARY KEY (`id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+INSERT IGNORE INTO `zstack`.`GLockSequenceVO` (`id`, `token`) VALUES (1, 0);
@@ -8,6 +8,7 @@ import org.zstack.header.exception.CloudConfigureFailException;
 import org.zstack.header.message.*;
 
 import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Consumer;
 
@@ -93,6 +94,15 @@ public interface CloudBus extends Component {
         throw new AbstractMethodError("not supported");
     }
 
+    /**
+     *  this method should be inherited by implementations supporting the batched HTTP transport
+     * @param e
+     * @param rsp
+     */
+    default void handleHttpBatchRequest(HttpEntity<String> e, HttpServletResponse rsp) {
+        throw new AbstractMethodError("not supported");
+    }
+
     String HEADER_NO_NEED_REPLY_MSG = "noReply";
     String HEADER_CORRELATION_ID = "correlationId";
     String HEADER_REPLY_TO = "replyTo";
@@ -106,4 +116,8 @@ public interface CloudBus extends Component {
     default int getEnvelopeSize() {
         return 0;
     }
+
+    default List<PeerStatistic> getPeerStatistics() {
+        return new ArrayList<>();
+    }
 }
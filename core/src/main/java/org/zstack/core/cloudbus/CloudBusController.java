@@ -49,4 +49,10 @@ public class CloudBusController {
         //Platform.getComponentLoader().getComponent(CloudBusImpl3.class).handleHttpRequest(entity, response);
         bus.handleHttpRequest(entity, response);
     }
+
+    @RequestMapping(value = CloudBusImpl3.HTTP_BATCH_URL, method = RequestMethod.POST)
+    public void handleBatch(HttpServletRequest request, HttpServletResponse response) {
+        HttpEntity<String> entity = toHttpEntity(request);
+        bus.handleHttpBatchRequest(entity, response);
+    }
 }
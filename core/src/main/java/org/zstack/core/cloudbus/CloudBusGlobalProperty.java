@@ -54,6 +54,17 @@ public class CloudBusGlobalProperty {
     public static boolean HTTP_ALWAYS;
     @GlobalProperty(name="CloudBus.httpContextPath", defaultValue = "/zstack")
     public static String HTTP_CONTEXT_PATH;
+    @GlobalProperty(name="CloudBus.httpBatchTransport", defaultValue = "false")
+    public static boolean HTTP_BATCH_TRANSPORT;
+    // Unit of HTTP_BATCH_LINGER: millisecond
+    @GlobalProperty(name="CloudBus.httpBatchLinger", defaultValue = "5")
+    public static int HTTP_BATCH_LINGER;
+    @GlobalProperty(name="CloudBus.httpBatchMaxSize", defaultValue = "100")
+    public static int HTTP_BATCH_MAX_SIZE;
+    @GlobalProperty(name="CloudBus.httpPeerPipelineDepth", defaultValue = "4")
+    public static int HTTP_PEER_PIPELINE_DEPTH;
+    @GlobalProperty(name="CloudBus.httpPeerQueueCapacity", defaultValue = "10000")
+    public static int HTTP_PEER_QUEUE_CAPACITY;
     // Unit of SYNC_CALL_TIMEOUT: millisecond
     @GlobalProperty(name="Cloudbus.syncCallTimeout", defaultValue = "900000")
     public static int SYNC_CALL_TIMEOUT;
@@ -132,6 +132,20 @@ public class CloudBusGson {
         return gson.fromJson(json, clazz);
     }
 
+    public static Message fromJson(JsonElement json) {
+        return gson.fromJson(json, Message.class);
+    }
+
+    public static Map toRawMap(JsonElement json) {
+        return gson.fromJson(json, LinkedHashMap.class);
+    }
+
+    public static List<JsonElement> splitBatch(String json) {
+        List<JsonElement> ret = new ArrayList<>();
+        new JsonParser().parse(json).getAsJsonArray().forEach(ret::add);
+        return ret;
+    }
+
     public static String toJson(Message msg) {
         return gson.toJson(msg, Message.class);
     }
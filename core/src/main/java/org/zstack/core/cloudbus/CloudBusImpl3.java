@@ -1,5 +1,6 @@
 package org.zstack.core.cloudbus;
 
+import com.google.gson.JsonElement;
 import org.apache.logging.log4j.ThreadContext;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.*;
@@ -26,6 +27,8 @@ import org.zstack.header.errorcode.OperationFailureException;
 import org.zstack.header.errorcode.SysErrors;
 import org.zstack.header.exception.CloudConfigureFailException;
 import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.managementnode.ManagementNodeChangeListener;
+import org.zstack.header.managementnode.ManagementNodeInventory;
 import org.zstack.header.message.*;
 import org.zstack.header.rest.RESTFacade;
 import org.zstack.header.rest.RestAPIExtensionPoint;
@@ -52,7 +55,7 @@ import static org.zstack.core.cloudbus.CloudBusGlobalProperty.SYNC_CALL_TIMEOUT;
 import static org.zstack.utils.BeanUtils.getProperty;
 import static org.zstack.utils.BeanUtils.setProperty;
 
-public class CloudBusImpl3 implements CloudBus, CloudBusIN {
+public class CloudBusImpl3 implements CloudBus, CloudBusIN, ManagementNodeChangeListener {
     private static final CLogger logger = Utils.getLogger(CloudBusImpl3.class);
 
     @Autowired
@@ -98,9 +101,11 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
     private final Map<String, EndPoint> endPoints = new HashMap<>();
     private final Map<String, Envelope> envelopes = new ConcurrentHashMap<>();
     private final Map<String, java.util.function.Consumer> messageConsumers = new ConcurrentHashMap<>();
+    private final Map<String, CloudBusPeerChannel> peerChannels = new ConcurrentHashMap<>();
     private final static TimeoutRestTemplate http = RESTFacade.createRestTemplate(CoreGlobalProperty.REST_FACADE_READ_TIMEOUT, CoreGlobalProperty.REST_FACADE_CONNECT_TIMEOUT);
 
     public static final String HTTP_BASE_URL = "/cloudbus";
+    public static final String HTTP_BATCH_URL = "/cloudbus/batch";
 
     {
         if (CloudBusGlobalProperty.MESSAGE_LOG != null) {
@@ -548,6 +553,11 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
         }
 
         private void httpSendInQueue(String ip) {
+            if (CloudBusGlobalProperty.HTTP_BATCH_TRANSPORT) {
+                httpSendInBatch(ip);
+                return;
+            }
+
             thdf.chainSubmit(new ChainTask(null) {
                 @Override
                 public String getSyncSignature() {
@@ -572,6 +582,26 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
             });
         }
 
+        private void httpSendInBatch(String ip) {
+            String body = CloudBusGson.toJson(msg);
+            CloudBusPeerChannel channel = peerChannels.computeIfAbsent(ip, k -> new CloudBusPeerChannel(k, thdf));
+            boolean queued = channel.offer(new CloudBusPeerChannel.Frame() {
+                @Override
+                public String getBody() {
+                    return body;
+                }
+
+                @Override
+                public void fail(ErrorCode err) {
+                    replyErrorIfNeeded(err);
+                }
+            });
+
+            if (!queued) {
+                replyErrorIfNeeded(operr("the send queue to the management node[ip:%s] is full", ip));
+            }
+        }
+
         private void httpSend() {
             buildSchema(msg);
             try {
@@ -632,7 +662,7 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
 
         private void buildSchema(Message msg) {
             try {
-                msg.putHeaderEntry(CloudBus.HEADER_SCHEMA, new JsonSchemaBuilder(msg).build());
+                msg.putHeaderEntry(CloudBus.HEADER_SCHEMA, new MessageSchemaBuilder(msg).build());
             } catch (Exception e) {
                 throw new CloudRuntimeException(e);
             }
@@ -1267,24 +1297,91 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
         return CloudBusGson.fromJson(CloudBusGson.toJson(obj), clazz);
     }
 
+    private void deliverHttpMessage(Message msg, Map raw) {
+        try {
+            restoreFromSchema(msg, raw);
+        } catch (ClassNotFoundException e1) {
+            throw new CloudRuntimeException(e1);
+        }
+
+        new MessageSender(msg).localSend();
+    }
+
     @AsyncThread
     public void handleHttpRequest(HttpEntity<String> e, HttpServletResponse rsp) {
         try {
             Message msg = CloudBusGson.fromJson(e.getBody());
             Map raw = JSONObjectUtil.toObject(e.getBody(), LinkedHashMap.class);
-            try {
-                restoreFromSchema(msg, raw);
-            } catch (ClassNotFoundException e1) {
-                throw new CloudRuntimeException(e1);
-            }
-
-            new MessageSender(msg).localSend();
+            deliverHttpMessage(msg, raw);
             rsp.setStatus(HttpStatus.OK.value());
         } catch (Throwable t) {
             logger.warn(String.format("unable to deliver a message received from HTTP. HTTP body: %s", e.getBody()), t);
         }
     }
 
+    @Override
+    public void handleHttpBatchRequest(HttpEntity<String> e, HttpServletResponse rsp) {
+        List<JsonElement> frames;
+        try {
+            frames = CloudBusGson.splitBatch(e.getBody());
+        } catch (Throwable t) {
+            logger.warn(String.format("unable to parse a message batch received from HTTP. HTTP body: %s", e.getBody()), t);
+            rsp.setStatus(HttpStatus.BAD_REQUEST.value());
+            return;
+        }
+
+        // the batch is acknowledged once it's decoded, each message is then
+        // delivered independently just like a message received by handleHttpRequest
+        frames.forEach(this::deliverHttpFrame);
+        rsp.setStatus(HttpStatus.OK.value());
+    }
+
+    @AsyncThread
+    private void deliverHttpFrame(JsonElement frame) {
+        try {
+            deliverHttpMessage(CloudBusGson.fromJson(frame), CloudBusGson.toRawMap(frame));
+        } catch (Throwable t) {
+            logger.warn(String.format("unable to deliver a message received from HTTP batch. message: %s", frame), t);
+        }
+    }
+
+    private void closePeerChannel(ManagementNodeInventory inv) {
+        if (inv.getHostName() == null) {
+            return;
+        }
+
+        CloudBusPeerChannel channel = peerChannels.remove(inv.getHostName());
+        if (channel != null) {
+            logger.debug(String.format("management node[uuid:%s, ip:%s] left, close the batch channel to it",
+                    inv.getUuid(), inv.getHostName()));
+            channel.close();
+        }
+    }
+
+    @Override
+    public void nodeJoin(ManagementNodeInventory inv) {
+    }
+
+    @Override
+    public void nodeLeft(ManagementNodeInventory inv) {
+        closePeerChannel(inv);
+    }
+
+    @Override
+    public void iAmDead(ManagementNodeInventory inv) {
+    }
+
+    @Override
+    public void iJoin(ManagementNodeInventory inv) {
+    }
+
+    @Override
+    public List<PeerStatistic> getPeerStatistics() {
+        List<PeerStatistic> ret = new ArrayList<>();
+        peerChannels.values().forEach(c -> ret.add(c.getStatistic()));
+        return ret;
+    }
+
     @Override
     public int getEnvelopeSize() {
         return envelopes.size();
@@ -202,4 +202,9 @@ public class CloudBusJMX implements Component, BeforeSendMessageInterceptor,
                 longest
         );
     }
+
+    @Override
+    public List<PeerStatistic> getPeerStatistics() {
+        return bus.getPeerStatistics();
+    }
 }
@@ -0,0 +1,272 @@
+package org.zstack.core.cloudbus;
+
+import org.apache.http.impl.client.HttpClients;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import org.zstack.core.CoreGlobalProperty;
+import org.zstack.core.retry.Retry;
+import org.zstack.core.retry.RetryCondition;
+import org.zstack.core.thread.ChainTask;
+import org.zstack.core.thread.SyncTaskChain;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.errorcode.OperationFailureException;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.zstack.core.Platform.operr;
+
+/**
+ * A batched transport to one peer management node.
+ *
+ * Messages to the same peer are queued and coalesced within a short linger window
+ * into one framed POST to {@link CloudBusImpl3#HTTP_BATCH_URL}. Each peer has its own
+ * bounded queue, its own keep-alive connection pool and its own send chain whose
+ * sync level caps the number of in-flight batches, so a slow peer only backs up
+ * the senders talking to it. The channel is closed when the peer leaves, failing the
+ * messages still queued.
+ */
+public class CloudBusPeerChannel {
+    private static final CLogger logger = Utils.getLogger(CloudBusPeerChannel.class);
+
+    interface Frame {
+        String getBody();
+
+        void fail(ErrorCode err);
+    }
+
+    private static class QueuedFrame {
+        final Frame frame;
+        final long enqueueTime = System.currentTimeMillis();
+
+        QueuedFrame(Frame frame) {
+            this.frame = frame;
+        }
+    }
+
+    private final String peerIp;
+    private final String url;
+    private final ThreadFacade thdf;
+    private final HttpComponentsClientHttpRequestFactory factory;
+    private final RestTemplate http;
+    private final BlockingQueue<QueuedFrame> queue = new LinkedBlockingQueue<>(CloudBusGlobalProperty.HTTP_PEER_QUEUE_CAPACITY);
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private volatile boolean closed;
+
+    private final AtomicLong sentMessages = new AtomicLong();
+    private final AtomicLong sentBatches = new AtomicLong();
+    private final AtomicLong failedMessages = new AtomicLong();
+    private final AtomicLong rejectedMessages = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    CloudBusPeerChannel(String peerIp, ThreadFacade thdf) {
+        this.peerIp = peerIp;
+        this.thdf = thdf;
+
+        url = CloudBusGlobalProperty.HTTP_CONTEXT_PATH.isEmpty() ? String.format("http://%s:%s%s",
+                peerIp, CloudBusGlobalProperty.HTTP_PORT, CloudBusImpl3.HTTP_BATCH_URL) : String.format("http://%s:%s/%s/%s",
+                peerIp, CloudBusGlobalProperty.HTTP_PORT, CloudBusGlobalProperty.HTTP_CONTEXT_PATH, CloudBusImpl3.HTTP_BATCH_URL);
+
+        // one pooled keep-alive client per peer, sized to the pipeline depth
+        factory = new HttpComponentsClientHttpRequestFactory(HttpClients.custom()
+                .setMaxConnPerRoute(CloudBusGlobalProperty.HTTP_PEER_PIPELINE_DEPTH)
+                .setMaxConnTotal(CloudBusGlobalProperty.HTTP_PEER_PIPELINE_DEPTH)
+                .build());
+        factory.setReadTimeout(CoreGlobalProperty.REST_FACADE_READ_TIMEOUT);
+        factory.setConnectTimeout(CoreGlobalProperty.REST_FACADE_CONNECT_TIMEOUT);
+        factory.setConnectionRequestTimeout(CoreGlobalProperty.REST_FACADE_CONNECT_TIMEOUT * 2);
+        http = new RestTemplate(factory);
+    }
+
+    /**
+     * never blocks the sender
+     *
+     * @return false if the peer queue is full; the caller must fail the message
+     */
+    boolean offer(Frame frame) {
+        if (closed) {
+            rejectedMessages.incrementAndGet();
+            return false;
+        }
+
+        if (!queue.offer(new QueuedFrame(frame))) {
+            rejectedMessages.incrementAndGet();
+            return false;
+        }
+
+        if (closed) {
+            // raced with close(), which may have drained the queue already
+            failQueued(operr("the management node[ip:%s] has left", peerIp));
+            return true;
+        }
+
+        if (queue.size() >= CloudBusGlobalProperty.HTTP_BATCH_MAX_SIZE) {
+            flush();
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            thdf.submitTimeoutTask(() -> {
+                flushScheduled.set(false);
+                flush();
+            }, TimeUnit.MILLISECONDS, CloudBusGlobalProperty.HTTP_BATCH_LINGER);
+        }
+
+        return true;
+    }
+
+    private void flush() {
+        while (!queue.isEmpty()) {
+            List<QueuedFrame> batch = new ArrayList<>();
+            queue.drainTo(batch, CloudBusGlobalProperty.HTTP_BATCH_MAX_SIZE);
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            sendInQueue(batch);
+        }
+    }
+
+    private void sendInQueue(List<QueuedFrame> batch) {
+        thdf.chainSubmit(new ChainTask(null) {
+            @Override
+            public String getSyncSignature() {
+                return String.format("cloudbus-peer-channel-%s", peerIp);
+            }
+
+            @Override
+            public void run(SyncTaskChain chain) {
+                send(batch);
+                chain.next();
+            }
+
+            @Override
+            protected int getSyncLevel() {
+                return CloudBusGlobalProperty.HTTP_PEER_PIPELINE_DEPTH;
+            }
+
+            @Override
+            public String getName() {
+                return getSyncSignature();
+            }
+        });
+    }
+
+    private void send(List<QueuedFrame> batch) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < batch.size(); i++) {
+            if (i != 0) {
+                sb.append(",");
+            }
+            sb.append(batch.get(i).frame.getBody());
+        }
+        sb.append("]");
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        HttpEntity<String> req = new HttpEntity<>(sb.toString(), headers);
+
+        ErrorCode err = null;
+        try {
+            ResponseEntity<String> rsp = new Retry<ResponseEntity<String>>() {
+                {
+                    interval = 2;
+                }
+
+                @Override
+                @RetryCondition(onExceptions = {IOException.class, RestClientException.class, HttpClientErrorException.class})
+                protected ResponseEntity<String> call() {
+                    return http.exchange(url, HttpMethod.POST, req, String.class);
+                }
+            }.run();
+
+            if (!rsp.getStatusCode().is2xxSuccessful()) {
+                err = operr("HTTP ERROR, status code: %s, body: %s", rsp.getStatusCode(), rsp.getBody());
+            }
+        } catch (OperationFailureException e) {
+            err = e.getErrorCode();
+        } catch (Throwable e) {
+            err = operr(e.getMessage());
+        }
+
+        long now = System.currentTimeMillis();
+        if (err == null) {
+            sentBatches.incrementAndGet();
+            sentMessages.addAndGet(batch.size());
+            for (QueuedFrame f : batch) {
+                long latency = now - f.enqueueTime;
+                totalLatency.addAndGet(latency);
+                maxLatency.accumulateAndGet(latency, Math::max);
+            }
+            return;
+        }
+
+        logger.warn(String.format("failed to send a batch of %s messages to the peer[%s], %s", batch.size(), peerIp, err));
+        failedMessages.addAndGet(batch.size());
+        fail(batch, err);
+    }
+
+    private void fail(List<QueuedFrame> frames, ErrorCode err) {
+        for (QueuedFrame f : frames) {
+            try {
+                f.frame.fail(err);
+            } catch (Throwable t) {
+                logger.warn(String.format("unhandled exception when failing a message to the peer[%s]", peerIp), t);
+            }
+        }
+    }
+
+    private void failQueued(ErrorCode err) {
+        List<QueuedFrame> left = new ArrayList<>();
+        queue.drainTo(left);
+        if (!left.isEmpty()) {
+            failedMessages.addAndGet(left.size());
+            fail(left, err);
+        }
+    }
+
+    /**
+     * fails the queued messages and releases the connections to the peer, batches being
+     * sent fail on their own
+     */
+    void close() {
+        closed = true;
+        failQueued(operr("the management node[ip:%s] has left", peerIp));
+
+        try {
+            factory.destroy();
+        } catch (Exception e) {
+            logger.warn(String.format("failed to close the connections to the peer[%s]", peerIp), e);
+        }
+    }
+
+    PeerStatistic getStatistic() {
+        long sent = sentMessages.get();
+        long batches = sentBatches.get();
+        return new PeerStatistic(
+                peerIp,
+                queue.size(),
+                sent,
+                batches,
+                failedMessages.get(),
+                rejectedMessages.get(),
+                batches == 0 ? 0 : sent / batches,
+                sent == 0 ? 0 : totalLatency.get() / sent,
+                maxLatency.get()
+        );
+    }
+}
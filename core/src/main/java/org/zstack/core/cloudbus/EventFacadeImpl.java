@@ -2,9 +2,13 @@ package org.zstack.core.cloudbus;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.zstack.core.Platform;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.EntityEvent;
 import org.zstack.core.db.Q;
 import org.zstack.core.thread.AsyncThread;
-import org.zstack.core.webhook.WebhookCaller;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.core.webhook.WebhookConstants;
+import org.zstack.core.webhook.WebhookDeliveryQueue;
 import org.zstack.header.core.webhooks.WebhookVO_;
 import org.zstack.header.Component;
 import org.zstack.header.apimediator.ApiMessageInterceptionException;
@@ -22,7 +26,7 @@ import static org.zstack.core.Platform.argerr;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Collectors;
+import java.util.regex.Pattern;
 
 import static java.util.Arrays.asList;
 
@@ -35,12 +39,30 @@ import static java.util.Arrays.asList;
 public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Component, GlobalApiMessageInterceptor {
     @Autowired
     private CloudBus bus;
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private ThreadFacade thdf;
 
-    private final Map<String, CallbackWrapper> global = new ConcurrentHashMap<>();
-    private final Map<String, CallbackWrapper> local =  new ConcurrentHashMap<>();
+    private final CallbackRegistry global = new CallbackRegistry();
+    private final CallbackRegistry local = new CallbackRegistry();
 
     private EventSubscriberReceipt unsubscriber;
 
+    private volatile List<WebhookSubscription> webhookSubscriptions = new ArrayList<>();
+    private volatile boolean webhookSubscriptionsStale = true;
+    private WebhookDeliveryQueue webhookDeliveryQueue;
+
+    private static class WebhookSubscription {
+        final WebhookInventory inventory;
+        final Pattern pattern;
+
+        WebhookSubscription(WebhookInventory inventory, Pattern pattern) {
+            this.inventory = inventory;
+            this.pattern = pattern;
+        }
+    }
+
     @Override
     public List<Class> getMessageClassToIntercept() {
         return asList(APICreateWebhookMsg.class);
@@ -70,37 +92,114 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
         }
     }
 
+    /**
+     * callbacks whose path only has literal and {token} segments are indexed
+     * in a trie, the rest (paths with glob wildcards like * and ?) fall back
+     * to a regex compiled once at registration
+     */
+    private class CallbackRegistry {
+        private final Map<String, CallbackWrapper> wrappers = new ConcurrentHashMap<>();
+        private final EventPathTrie<CallbackWrapper> trie = new EventPathTrie<>();
+        private final Map<String, CallbackWrapper> globs = new ConcurrentHashMap<>();
+
+        void put(String identity, CallbackWrapper w) {
+            CallbackWrapper old = wrappers.put(identity, w);
+            if (old != null) {
+                unindex(identity, old);
+            }
+
+            if (w.pattern == null) {
+                trie.add(w.segments, w);
+            } else {
+                globs.put(identity, w);
+            }
+        }
+
+        void remove(String identity) {
+            CallbackWrapper old = wrappers.remove(identity);
+            if (old != null) {
+                unindex(identity, old);
+            }
+        }
+
+        private void unindex(String identity, CallbackWrapper w) {
+            if (w.pattern == null) {
+                trie.remove(w.segments, w);
+            } else {
+                globs.remove(identity, w);
+            }
+        }
+
+        void dispatch(CanonicalEvent evt) {
+            String[] segments = EventPathTrie.split(evt.getPath());
+            trie.match(segments).forEach(w -> w.call(evt, segments));
+
+            if (globs.isEmpty()) {
+                return;
+            }
+
+            for (CallbackWrapper w : globs.values()) {
+                if (w.pattern.matcher(evt.getPath()).matches()) {
+                    w.call(evt, segments);
+                }
+            }
+        }
+    }
+
     private class CallbackWrapper {
         String path;
-        String glob;
+        String[] segments;
+        Pattern pattern;
+        int[] tokenIndexes;
+        String[] tokenNames;
         AbstractEventFacadeCallback callback;
         AtomicBoolean hasRun;
 
         CallbackWrapper(String path, AbstractEventFacadeCallback callback) {
             this.path = path;
-            this.glob = createRegexFromGlob(path.replaceAll("\\{.*\\}", ".*"));
+            this.segments = EventPathTrie.split(path);
+            if (!EventPathTrie.isIndexable(segments)) {
+                this.pattern = Pattern.compile(createRegexFromGlob(path.replaceAll("\\{.*\\}", ".*")));
+            }
             this.callback = callback;
             if (callback instanceof AutoOffEventCallback) {
                 hasRun = new AtomicBoolean(false);
             }
+
+            List<Integer> indexes = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i < segments.length; i++) {
+                if (EventPathTrie.isToken(segments[i])) {
+                    indexes.add(i);
+                    names.add(EventPathTrie.tokenName(segments[i]));
+                }
+            }
+            tokenIndexes = indexes.stream().mapToInt(Integer::intValue).toArray();
+            tokenNames = names.toArray(new String[0]);
         }
 
         Object getIdentity() {
             return callback;
         }
 
-        public String getGlob() {
-            return glob;
+        private Map<String, String> tokenize(String[] eventSegments) {
+            Map<String, String> ret = new HashMap<>();
+            for (int i = 0; i < tokenIndexes.length; i++) {
+                if (tokenIndexes[i] < eventSegments.length) {
+                    ret.put(tokenNames[i], eventSegments[tokenIndexes[i]]);
+                }
+            }
+            return ret;
         }
 
         @AsyncThread
-        void call(CanonicalEvent e) {
+        void call(CanonicalEvent e, String[] eventSegments) {
             TaskContext.removeTaskContext();
 
             if (callback instanceof EventRunnable) {
                 ((EventRunnable) callback).run();
             } else {
-                Map<String, String> tokens = tokenize(e.getPath(), path);
+                Map<String, String> tokens = tokenize(eventSegments);
                 tokens.put(EventFacade.META_DATA_MANAGEMENT_NODE_ID, e.getManagementNodeId());
                 tokens.put(EventFacade.META_DATA_PATH, e.getPath());
                 Object data = null;
@@ -142,33 +241,6 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
         return out;
     }
 
-    private Map<String, String> tokenize(String str1, String str2) {
-        StringTokenizer token = new StringTokenizer(str1, "/");
-        List<String> origins =  new ArrayList<String>();
-        while (token.hasMoreElements()) {
-            origins.add(token.nextToken());
-        }
-
-        token = new StringTokenizer(str2, "/");
-        List<String> t = new ArrayList<String>();
-        while (token.hasMoreElements()) {
-            t.add(token.nextToken());
-        }
-
-        Map ret = new HashMap();
-        for (int i=0;i<t.size(); i++) {
-            String key = t.get(i);
-            if (!key.startsWith("{") || !key.endsWith("}")) {
-                continue;
-            }
-
-            key = key.replaceAll("\\{", "").replaceAll("\\}", "");
-            ret.put(key, origins.get(i));
-        }
-
-        return ret;
-    }
-
     @Override
     public void on(String path, AutoOffEventCallback cb) {
         global.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
@@ -228,34 +300,57 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
         bus.publish(evt);
     }
 
+    // serialized, so a list queried before a change is never installed after one queried later
+    private synchronized void reloadWebhookSubscriptions() {
+        webhookSubscriptionsStale = false;
+
+        List<WebhookSubscription> subscriptions = new ArrayList<>();
+        List<WebhookInventory> hooks = new ArrayList<>();
+        List<WebhookVO> vos = Q.New(WebhookVO.class).eq(WebhookVO_.type, EventFacade.WEBHOOK_TYPE).list();
+        for (WebhookVO vo : vos) {
+            WebhookInventory inv = WebhookInventory.valueOf(vo);
+            hooks.add(inv);
+            subscriptions.add(new WebhookSubscription(inv,
+                    Pattern.compile(createRegexFromGlob(vo.getOpaque().replaceAll("\\{.*\\}", ".*")))));
+        }
+
+        webhookSubscriptions = subscriptions;
+        webhookDeliveryQueue.retain(hooks);
+    }
+
     private void callWebhooks(CanonicalEvent event) {
-        new WebhookCaller() {
-            @Override
-            public void call() {
-                List<WebhookVO> vos = Q.New(WebhookVO.class).eq(WebhookVO_.type, EventFacade.WEBHOOK_TYPE).list();
-                vos = vos.stream().filter(
-                        vo -> event.getPath().matches(
-                                createRegexFromGlob(vo.getOpaque().replaceAll("\\{.*\\}", ".*"))
-                        )).collect(Collectors.toList());
-
-                if (!vos.isEmpty()) {
-                    postToWebhooks(WebhookInventory.valueOf(vos), JSONObjectUtil.toJsonString(event));
+        if (webhookSubscriptionsStale) {
+            synchronized (this) {
+                // reloaded by another thread meanwhile
+                if (webhookSubscriptionsStale) {
+                    reloadWebhookSubscriptions();
                 }
             }
-        }.call();
-    }
+        }
 
-    private void fireLocal(CanonicalEvent cevt) {
-        Map<String, CallbackWrapper> wrappers = new HashMap<>();
-        wrappers.putAll(local);
+        List<WebhookSubscription> subscriptions = webhookSubscriptions;
+        if (subscriptions.isEmpty()) {
+            return;
+        }
 
-        for (CallbackWrapper w : wrappers.values()) {
-            if (cevt.getPath().matches(w.getGlob())) {
-                w.call(cevt);
+        String body = null;
+        for (WebhookSubscription s : subscriptions) {
+            if (!s.pattern.matcher(event.getPath()).matches()) {
+                continue;
             }
+
+            if (body == null) {
+                body = JSONObjectUtil.toJsonString(event);
+            }
+
+            webhookDeliveryQueue.offer(s.inventory, body);
         }
     }
 
+    private void fireLocal(CanonicalEvent cevt) {
+        local.dispatch(cevt);
+    }
+
     @Override
     public boolean isFromThisManagementNode(Map tokens) {
         return Platform.getManagementServerId().equals(tokens.get(EventFacade.META_DATA_MANAGEMENT_NODE_ID));
@@ -267,21 +362,27 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
             return false;
         }
 
-        CanonicalEvent cevt = (CanonicalEvent)evt;
-        Map<String, CallbackWrapper> wrappers = new HashMap<>();
-        wrappers.putAll(global);
-        for (CallbackWrapper w : wrappers.values()) {
-            if (cevt.getPath().matches(w.getGlob())) {
-                w.call(cevt);
-            }
-        }
-
+        global.dispatch((CanonicalEvent) evt);
         return false;
     }
 
     @Override
     public boolean start() {
         unsubscriber =  bus.subscribeEvent(this, new CanonicalEvent());
+
+        webhookDeliveryQueue = new WebhookDeliveryQueue(thdf);
+        // WebhookManagerImpl fires the changed event on all management nodes after its transaction
+        // is committed, reload at once so the endpoints of deleted webhooks are evicted; the entity
+        // callbacks only mark the subscriptions stale for the next fired event
+        on(WebhookConstants.WEBHOOK_CHANGED_EVENT_PATH, new EventRunnable() {
+            @Override
+            protected void run() {
+                reloadWebhookSubscriptions();
+            }
+        });
+        dbf.installEntityLifeCycleCallback(WebhookVO.class, EntityEvent.POST_PERSIST, (evt, o) -> webhookSubscriptionsStale = true);
+        dbf.installEntityLifeCycleCallback(WebhookVO.class, EntityEvent.POST_UPDATE, (evt, o) -> webhookSubscriptionsStale = true);
+        dbf.installEntityLifeCycleCallback(WebhookVO.class, EntityEvent.POST_REMOVE, (evt, o) -> webhookSubscriptionsStale = true);
         return true;
     }
 
@@ -0,0 +1,174 @@
+package org.zstack.core.cloudbus;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A segment trie of canonical event paths.
+ *
+ * Paths are split on '/' and other segments match literally. A path with {token} segments keeps
+ * the semantics of the regex it used to be compiled to, where everything from the first token to
+ * the last one became '..*': it matches any path having the same segments before the first token
+ * and after the last one, with at least one segment of any content in between.
+ *
+ * Looking up a path costs the depth of the path plus the number of token paths sharing its
+ * prefixes, not the number of registered paths. Subscribing and unsubscribing are serialized,
+ * nodes left empty are pruned.
+ */
+public class EventPathTrie<T> {
+    private static class Node<T> {
+        final Map<String, Node<T>> children = new ConcurrentHashMap<>();
+        final Set<T> values = ConcurrentHashMap.newKeySet();
+        // values of paths with tokens after this node, by the segments after their last token
+        final Map<List<String>, Set<T>> spans = new ConcurrentHashMap<>();
+
+        boolean isEmpty() {
+            return children.isEmpty() && values.isEmpty() && spans.isEmpty();
+        }
+    }
+
+    private final Node<T> root = new Node<>();
+
+    public static String[] split(String path) {
+        StringTokenizer token = new StringTokenizer(path, "/");
+        String[] ret = new String[token.countTokens()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = token.nextToken();
+        }
+        return ret;
+    }
+
+    public static boolean isToken(String segment) {
+        return segment.length() > 2 && segment.charAt(0) == '{' && segment.charAt(segment.length() - 1) == '}'
+                && segment.indexOf('{', 1) == -1 && segment.indexOf('}') == segment.length() - 1;
+    }
+
+    public static String tokenName(String segment) {
+        return segment.substring(1, segment.length() - 1);
+    }
+
+    /**
+     * @return true if the path only consists of literal and {token} segments and
+     * can be indexed by the trie
+     */
+    public static boolean isIndexable(String[] segments) {
+        for (String s : segments) {
+            if (isToken(s)) {
+                continue;
+            }
+
+            if (s.indexOf('{') != -1 || s.indexOf('}') != -1 || s.indexOf('*') != -1 || s.indexOf('?') != -1) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int firstToken(String[] segments) {
+        for (int i = 0; i < segments.length; i++) {
+            if (isToken(segments[i])) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static List<String> suffix(String[] segments) {
+        int last = segments.length - 1;
+        while (!isToken(segments[last])) {
+            last--;
+        }
+
+        return Arrays.asList(segments).subList(last + 1, segments.length);
+    }
+
+    public synchronized void add(String[] segments, T value) {
+        int first = firstToken(segments);
+        int prefixLength = first == -1 ? segments.length : first;
+
+        Node<T> n = root;
+        for (int i = 0; i < prefixLength; i++) {
+            n = n.children.computeIfAbsent(segments[i], k -> new Node<>());
+        }
+
+        if (first == -1) {
+            n.values.add(value);
+        } else {
+            n.spans.computeIfAbsent(new ArrayList<>(suffix(segments)), k -> ConcurrentHashMap.newKeySet()).add(value);
+        }
+    }
+
+    public synchronized void remove(String[] segments, T value) {
+        int first = firstToken(segments);
+        int prefixLength = first == -1 ? segments.length : first;
+
+        List<Node<T>> nodes = new ArrayList<>();
+        Node<T> n = root;
+        nodes.add(n);
+        for (int i = 0; i < prefixLength; i++) {
+            n = n.children.get(segments[i]);
+            if (n == null) {
+                return;
+            }
+            nodes.add(n);
+        }
+
+        if (first == -1) {
+            n.values.remove(value);
+        } else {
+            List<String> suffix = suffix(segments);
+            Set<T> values = n.spans.get(suffix);
+            if (values != null && values.remove(value) && values.isEmpty()) {
+                n.spans.remove(suffix);
+            }
+        }
+
+        for (int i = prefixLength; i > 0 && nodes.get(i).isEmpty(); i--) {
+            nodes.get(i - 1).children.remove(segments[i - 1], nodes.get(i));
+        }
+    }
+
+    public boolean isEmpty() {
+        return root.isEmpty();
+    }
+
+    public List<T> match(String[] segments) {
+        List<T> ret = new ArrayList<>();
+        Node<T> n = root;
+        for (int i = 0; ; i++) {
+            if (!n.spans.isEmpty()) {
+                matchSpans(n, segments, i, ret);
+            }
+
+            if (i == segments.length) {
+                ret.addAll(n.values);
+                return ret;
+            }
+
+            n = n.children.get(segments[i]);
+            if (n == null) {
+                return ret;
+            }
+        }
+    }
+
+    private void matchSpans(Node<T> n, String[] segments, int index, List<T> ret) {
+        n.spans.forEach((suffix, values) -> {
+            int start = segments.length - suffix.size();
+            // at least one segment for the tokens
+            if (start <= index) {
+                return;
+            }
+
+            for (int i = 0; i < suffix.size(); i++) {
+                if (!suffix.get(i).equals(segments[start + i])) {
+                    return;
+                }
+            }
+
+            ret.addAll(values);
+        });
+    }
+}
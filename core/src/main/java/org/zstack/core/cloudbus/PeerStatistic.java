@@ -0,0 +1,68 @@
+package org.zstack.core.cloudbus;
+
+import java.beans.ConstructorProperties;
+
+/**
+ */
+public class PeerStatistic {
+    private String peerIp;
+    private long queuedMessages;
+    private long sentMessages;
+    private long sentBatches;
+    private long failedMessages;
+    private long rejectedMessages;
+    private long averageBatchSize;
+    private long averageLatency;
+    private long maxLatency;
+
+    @ConstructorProperties({"peerIp", "queuedMessages", "sentMessages", "sentBatches", "failedMessages",
+            "rejectedMessages", "averageBatchSize", "averageLatency", "maxLatency"})
+    public PeerStatistic(String peerIp, long queuedMessages, long sentMessages, long sentBatches, long failedMessages,
+                         long rejectedMessages, long averageBatchSize, long averageLatency, long maxLatency) {
+        this.peerIp = peerIp;
+        this.queuedMessages = queuedMessages;
+        this.sentMessages = sentMessages;
+        this.sentBatches = sentBatches;
+        this.failedMessages = failedMessages;
+        this.rejectedMessages = rejectedMessages;
+        this.averageBatchSize = averageBatchSize;
+        this.averageLatency = averageLatency;
+        this.maxLatency = maxLatency;
+    }
+
+    public String getPeerIp() {
+        return peerIp;
+    }
+
+    public long getQueuedMessages() {
+        return queuedMessages;
+    }
+
+    public long getSentMessages() {
+        return sentMessages;
+    }
+
+    public long getSentBatches() {
+        return sentBatches;
+    }
+
+    public long getFailedMessages() {
+        return failedMessages;
+    }
+
+    public long getRejectedMessages() {
+        return rejectedMessages;
+    }
+
+    public long getAverageBatchSize() {
+        return averageBatchSize;
+    }
+
+    public long getAverageLatency() {
+        return averageLatency;
+    }
+
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+}
@@ -28,6 +28,8 @@ import java.lang.reflect.Field;
 import java.sql.SQLIntegrityConstraintViolationException;
 import java.sql.Timestamp;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static org.zstack.utils.CollectionDSL.list;
@@ -66,7 +68,8 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
         Field eoSoftDeleteColumn;
         Class eoClass;
         Class voClass;
-        Map<EntityEvent, EntityLifeCycleCallback> listeners = new HashMap<EntityEvent, EntityLifeCycleCallback>();
+        // components install callbacks of the same entity independently, all of them are called
+        Map<EntityEvent, List<EntityLifeCycleCallback>> listeners = new ConcurrentHashMap<>();
 
         EntityInfo(Class voClazz) {
             voClass = voClazz;
@@ -438,13 +441,13 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
         }
 
         void installLifeCycleCallback(EntityEvent evt, EntityLifeCycleCallback l) {
-            listeners.put(evt, l);
+            listeners.computeIfAbsent(evt, k -> new CopyOnWriteArrayList<>()).add(l);
         }
 
         void fireLifeCycleEvent(EntityEvent evt, Object o) {
-            EntityLifeCycleCallback cb = listeners.get(evt);
-            if (cb != null) {
-                cb.entityLifeCycleEvent(evt, o);
+            List<EntityLifeCycleCallback> cbs = listeners.get(evt);
+            if (cbs != null) {
+                cbs.forEach(cb -> cb.entityLifeCycleEvent(evt, o));
             }
         }
     }
@@ -24,6 +24,10 @@ public class DatabaseGlobalProperty {
     public static String DbMaxIdleTime;
     @GlobalProperty(name="DB.glock.waitTimeout", defaultValue = "28800")
     public static Long GLockWaitTimeout;
+    @GlobalProperty(name="DB.glock.lease", defaultValue = "false")
+    public static boolean GLockUseLease;
+    @GlobalProperty(name="DB.glock.lease.duration", defaultValue = "30")
+    public static long GLockLeaseDuration;
     @GlobalProperty(name="RESTFacade.hostname")
     @Vip(value = false)
     public static Long RESTFacade_hostname;
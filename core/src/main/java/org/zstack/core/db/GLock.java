@@ -14,18 +14,27 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
+ * A lock across management nodes. By default it's MySQL get_lock() that pins a database
+ * connection until unlock(); with DB.glock.lease it's a lease renewed by {@link GLockLeaseService}
+ * which only borrows a connection for acquiring and releasing.
  */
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
 public class GLock {
     private static final CLogger logger = Utils.getLogger(GLock.class);
 
-    private static final Map<String, ReentrantLock> memLocks = new HashMap<String, ReentrantLock>();
+    private static class MemoryLock {
+        final ReentrantLock lock = new ReentrantLock();
+        // number of GLocks holding or waiting for the lock, guarded by the map entry
+        int refs;
+    }
+
+    // an entry is removed as soon as no GLock refers to it
+    private static final ConcurrentHashMap<String, MemoryLock> memLocks = new ConcurrentHashMap<>();
 
     private static long defaultWaitTimeout = DatabaseGlobalProperty.GLockWaitTimeout;
 
@@ -34,6 +43,9 @@ public class GLock {
     private final String name;
     private final long timeout;
     private boolean success = false;
+    private MemoryLock mlock;
+    private GLockLeaseService.Lease lease;
+    private long lockedTime;
     private static final ThreadLocal<List<String>> isLocked = new ThreadLocal<List<String>>() {
         @Override
         protected List<String> initialValue()
@@ -46,6 +58,8 @@ public class GLock {
 
     @Autowired
     private DatabaseFacade dbf;
+    @Autowired
+    private GLockLeaseService leaseService;
 
     public GLock(String name, long timeout) {
         this.name = name;
@@ -75,6 +89,40 @@ public class GLock {
         locks.remove(name);
     }
 
+    private static MemoryLock refMemoryLock(String name) {
+        return memLocks.compute(name, (k, v) -> {
+            if (v == null) {
+                v = new MemoryLock();
+            }
+            v.refs++;
+            return v;
+        });
+    }
+
+    private static void unrefMemoryLock(String name) {
+        memLocks.computeIfPresent(name, (k, v) -> --v.refs == 0 ? null : v);
+    }
+
+    static int getMemoryLockCount() {
+        return memLocks.size();
+    }
+
+    /**
+     * @return the fencing token of the lease, only available with DB.glock.lease after lock() succeeds.
+     * A larger token means a later holder, pass it to whatever the lock protects to reject stale holders.
+     */
+    public Long getFencingToken() {
+        return lease == null ? null : lease.getToken();
+    }
+
+    /**
+     * @return false if the lease expired or exceeded its max holding time before unlock(),
+     * always true for MySQL get_lock()
+     */
+    public boolean isHeld() {
+        return success && (lease == null || !lease.isLost());
+    }
+
     public void lock() {
         lock(defaultWaitTimeout);
     }
@@ -84,19 +132,9 @@ public class GLock {
             checkInThread();
         }
 
-        ReentrantLock mlock = null;
+        long startTime = System.currentTimeMillis();
         if (alsoUseMemoryLock) {
-            synchronized (memLocks) {
-                mlock = memLocks.get(name);
-                if (mlock == null) {
-                    mlock = new ReentrantLock();
-                    memLocks.put(name, mlock);
-                }
-
-                if (memLocks.size() > 100) {
-                    logger.warn(String.format("there are more than 100 GLocks[num:%s] are created, something must be wrong in our program", memLocks.size()));
-                }
-            }
+            mlock = refMemoryLock(name);
         }
 
         try {
@@ -105,44 +143,51 @@ public class GLock {
             }
 
             if (alsoUseMemoryLock) {
-                mlock.lock();
+                mlock.lock.lock();
                 if (logger.isTraceEnabled()) {
                     logger.trace(String.format("[GLock Memory Lock]: thread[%s] got memory lock[%s]", Thread.currentThread().getName(), name));
                 }
             }
 
-            PreparedStatement pstmt = null;
-            try {
-                conn = dataSource.getConnection();
-                conn.setAutoCommit(true);
-                pstmt = conn.prepareStatement(String.format("select get_lock('%s', %s)", name, timeout),ResultSet.TYPE_SCROLL_INSENSITIVE,ResultSet.CONCUR_READ_ONLY);
-                //pstmt = conn.prepareStatement(String.format("select get_lock('%s', %s)", name, timeout));
-                if (waitTimeout > 0) {
-                    pstmt.execute(String.format("set wait_timeout=%d", waitTimeout));
-                }
-                ResultSet rs = pstmt.executeQuery();
-                if (rs == null) {
-                    String err = "Unable to get DB lock: " + name + ", internal database error happened";
-                    throw new CloudRuntimeException(err);
-                } else if (rs.first() && rs.getInt(1) == 0) {
-                    throw new CloudRuntimeException(String.format("lock[%s] failed, timeout after %s seconds", name, timeout));
-                }
+            if (DatabaseGlobalProperty.GLockUseLease) {
+                lease = leaseService.acquire(name, timeout, waitTimeout);
+            } else {
+                PreparedStatement pstmt = null;
+                try {
+                    conn = dataSource.getConnection();
+                    conn.setAutoCommit(true);
+                    pstmt = conn.prepareStatement(String.format("select get_lock('%s', %s)", name, timeout),ResultSet.TYPE_SCROLL_INSENSITIVE,ResultSet.CONCUR_READ_ONLY);
+                    //pstmt = conn.prepareStatement(String.format("select get_lock('%s', %s)", name, timeout));
+                    if (waitTimeout > 0) {
+                        pstmt.execute(String.format("set wait_timeout=%d", waitTimeout));
+                    }
+                    ResultSet rs = pstmt.executeQuery();
+                    if (rs == null) {
+                        String err = "Unable to get DB lock: " + name + ", internal database error happened";
+                        throw new CloudRuntimeException(err);
+                    } else if (rs.first() && rs.getInt(1) == 0) {
+                        throw new CloudRuntimeException(String.format("lock[%s] failed, timeout after %s seconds", name, timeout));
+                    }
 
-                if (logger.isTraceEnabled()) {
-                    logger.trace(String.format("[GLock DB Lock]: thread: %s got DB lock[%s], during timeout[%s secs]", Thread.currentThread().getName(), name, timeout));
-                }
-            } catch (SQLException e) {
-                throw new CloudRuntimeException(String.format("[GLock Error]: cannon get DB connection for lock[%s]", name), e);
-            } finally {
-                if (pstmt != null) {
-                    try {
-                        pstmt.close();
-                    } catch (SQLException e) {
-                        logger.warn("Unable to close PreparedStatement for lock: " + name, e);
+                    if (logger.isTraceEnabled()) {
+                        logger.trace(String.format("[GLock DB Lock]: thread: %s got DB lock[%s], during timeout[%s secs]", Thread.currentThread().getName(), name, timeout));
+                    }
+                } catch (SQLException e) {
+                    throw new CloudRuntimeException(String.format("[GLock Error]: cannon get DB connection for lock[%s]", name), e);
+                } finally {
+                    if (pstmt != null) {
+                        try {
+                            pstmt.close();
+                        } catch (SQLException e) {
+                            logger.warn("Unable to close PreparedStatement for lock: " + name, e);
+                        }
                     }
                 }
             }
+
             success = true;
+            lockedTime = System.currentTimeMillis();
+            leaseService.recordWaitTime(lockedTime - startTime);
         } catch (Throwable t) {
             if (conn != null) {
                 try {
@@ -153,7 +198,9 @@ public class GLock {
             }
 
             if (alsoUseMemoryLock) {
-                mlock.unlock();
+                mlock.lock.unlock();
+                unrefMemoryLock(name);
+                mlock = null;
             }
 
             success = false;
@@ -182,9 +229,7 @@ public class GLock {
 
         ReentrantLock lock = null;
         if (alsoUseMemoryLock) {
-            synchronized (memLocks) {
-                lock = memLocks.get(name);
-            }
+            lock = mlock == null ? null : mlock.lock;
         }
 
         try {
@@ -196,6 +241,12 @@ public class GLock {
                 logger.trace(String.format("[GLock]: thread[%s] is releasing lock[%s]", Thread.currentThread().getName(), name));
             }
 
+            leaseService.recordHoldTime(System.currentTimeMillis() - lockedTime);
+            if (lease != null) {
+                leaseService.release(lease);
+                return;
+            }
+
             PreparedStatement pstmt = null;
             try {
                 if (!conn.isValid(15)) {
@@ -243,6 +294,8 @@ public class GLock {
             if (alsoUseMemoryLock) {
                 if (lock != null) {
                     lock.unlock();
+                    unrefMemoryLock(name);
+                    mlock = null;
                 }
             }
 
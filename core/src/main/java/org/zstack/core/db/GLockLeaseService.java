@@ -0,0 +1,345 @@
+package org.zstack.core.db;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.Platform;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.utils.LatencyHistogram;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.management.MXBean;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Backs GLock with a lease in GLockLeaseVO instead of MySQL get_lock(). A connection is
+ * only borrowed for each acquiring attempt, for the renewal round and for the release,
+ * never for the whole critical section.
+ *
+ * Every acquired lease carries a fencing token taken from GLockSequenceVO, tokens only
+ * grow so a holder whose lease expired can be told apart from the one that took it over.
+ * The expiry is computed by the database clock, management nodes don't need synced clocks.
+ */
+@MXBean
+public class GLockLeaseService implements Component, GLockMXBean {
+    private static final CLogger logger = Utils.getLogger(GLockLeaseService.class);
+
+    private static final long MIN_BACKOFF_MILLIS = 20;
+    private static final long MAX_BACKOFF_MILLIS = 1000;
+    // leases expired for so long are left by crashed management nodes
+    private static final long STALE_LEASE_SECONDS = TimeUnit.HOURS.toSeconds(1);
+    private static final int MYSQL_DUPLICATE_ENTRY = 1062;
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private JmxFacade jmxf;
+
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+    private final LatencyHistogram holdTime = new LatencyHistogram();
+    private final AtomicLong acquireTimeouts = new AtomicLong();
+    private final AtomicLong lostLeases = new AtomicLong();
+    private Future<Void> renewTask;
+
+    public static class Lease {
+        private final String name;
+        private final String owner;
+        private final long token;
+        private final long acquiredTime = System.currentTimeMillis();
+        private final long maxHoldMillis;
+        private volatile boolean lost;
+
+        Lease(String name, String owner, long token, long maxHoldMillis) {
+            this.name = name;
+            this.owner = owner;
+            this.token = token;
+            this.maxHoldMillis = maxHoldMillis;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getToken() {
+            return token;
+        }
+
+        public boolean isLost() {
+            return lost;
+        }
+    }
+
+    private long nextToken(Connection conn) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("update GLockSequenceVO set token = last_insert_id(token + 1) where id = 1")) {
+            if (pstmt.executeUpdate() != 1) {
+                throw new CloudRuntimeException("GLockSequenceVO is not initialized");
+            }
+        }
+
+        try (PreparedStatement pstmt = conn.prepareStatement("select last_insert_id()");
+             ResultSet rs = pstmt.executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    // a lease just got carries no token until it's taken, tokens start from 1
+    private static final long NO_TOKEN = 0;
+
+    private Long tryAcquire(String name, String owner) throws SQLException {
+        long duration = DatabaseGlobalProperty.GLockLeaseDuration;
+        try (Connection conn = dbf.getDataSource().getConnection()) {
+            conn.setAutoCommit(true);
+            if (!insertLease(conn, name, owner, duration) && !takeOverLease(conn, name, owner, duration)) {
+                return null;
+            }
+
+            // only attempts getting the lease contend on the GLockSequenceVO row for a token
+            long token = nextToken(conn);
+            try (PreparedStatement pstmt = conn.prepareStatement("update GLockLeaseVO set token = ?" +
+                    " where name = ? and owner = ? and token = ?")) {
+                pstmt.setLong(1, token);
+                pstmt.setString(2, name);
+                pstmt.setString(3, owner);
+                pstmt.setLong(4, NO_TOKEN);
+                return pstmt.executeUpdate() == 1 ? token : null;
+            }
+        }
+    }
+
+    private boolean insertLease(Connection conn, String name, String owner, long duration) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("insert into GLockLeaseVO (name, owner, token, expireDate)" +
+                " values (?, ?, ?, date_add(now(3), interval ? second))")) {
+            pstmt.setString(1, name);
+            pstmt.setString(2, owner);
+            pstmt.setLong(3, NO_TOKEN);
+            pstmt.setLong(4, duration);
+            pstmt.executeUpdate();
+            return true;
+        } catch (SQLIntegrityConstraintViolationException e) {
+            // the lease is held, other errors are not swallowed like by insert ignore
+            if (e.getErrorCode() != MYSQL_DUPLICATE_ENTRY) {
+                throw e;
+            }
+
+            return false;
+        }
+    }
+
+    // take over the lease if its holder failed to renew it
+    private boolean takeOverLease(Connection conn, String name, String owner, long duration) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("update GLockLeaseVO set owner = ?, token = ?," +
+                " expireDate = date_add(now(3), interval ? second) where name = ? and expireDate < now(3)")) {
+            pstmt.setString(1, owner);
+            pstmt.setLong(2, NO_TOKEN);
+            pstmt.setLong(3, duration);
+            pstmt.setString(4, name);
+            return pstmt.executeUpdate() == 1;
+        }
+    }
+
+    /**
+     * @param timeout seconds to wait for the lease, 0 to try only once
+     * @param maxHold seconds after which the lease is no longer renewed, 0 for no limit
+     */
+    public Lease acquire(String name, long timeout, long maxHold) {
+        String owner = String.format("%s:%s", Platform.getManagementServerId(), Thread.currentThread().getName());
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeout);
+        long backoff = MIN_BACKOFF_MILLIS;
+
+        while (true) {
+            Long token;
+            try {
+                token = tryAcquire(name, owner);
+            } catch (SQLException e) {
+                throw new CloudRuntimeException(String.format("[GLock Error]: unable to acquire lease of lock[%s]", name), e);
+            }
+
+            if (token != null) {
+                Lease lease = new Lease(name, owner, token, TimeUnit.SECONDS.toMillis(maxHold));
+                leases.put(name, lease);
+                if (logger.isTraceEnabled()) {
+                    logger.trace(String.format("[GLock Lease]: %s got lease of lock[%s], token: %s", owner, name, token));
+                }
+                return lease;
+            }
+
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                acquireTimeouts.incrementAndGet();
+                throw new CloudRuntimeException(String.format("lock[%s] failed, timeout after %s seconds", name, timeout));
+            }
+
+            try {
+                TimeUnit.MILLISECONDS.sleep(Math.min(backoff, remaining));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CloudRuntimeException(String.format("interrupted while waiting for lock[%s]", name), e);
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    public void release(Lease lease) {
+        leases.remove(lease.name, lease);
+
+        try (Connection conn = dbf.getDataSource().getConnection()) {
+            conn.setAutoCommit(true);
+            try (PreparedStatement pstmt = conn.prepareStatement("delete from GLockLeaseVO where name = ? and token = ?")) {
+                pstmt.setString(1, lease.name);
+                pstmt.setLong(2, lease.token);
+                if (pstmt.executeUpdate() == 0) {
+                    lostLeases.incrementAndGet();
+                    logger.warn(String.format("[GLock Lease]: lease of lock[%s, token:%s] held by %s had expired before" +
+                            " it was released, the critical section may have overlapped with another holder", lease.name, lease.token, lease.owner));
+                }
+            }
+        } catch (SQLException e) {
+            // the lease expires by itself
+            logger.warn(String.format("unable to release lease of lock[%s, token:%s]", lease.name, lease.token), e);
+        }
+    }
+
+    private void markLost(Lease lease, String reason) {
+        lease.lost = true;
+        leases.remove(lease.name, lease);
+        lostLeases.incrementAndGet();
+        logger.warn(String.format("[GLock Lease]: lease of lock[%s, token:%s] held by %s is lost, %s",
+                lease.name, lease.token, lease.owner, reason));
+    }
+
+    private void renewLeases() {
+        List<Lease> toRenew = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Lease lease : leases.values()) {
+            if (lease.maxHoldMillis > 0 && now - lease.acquiredTime > lease.maxHoldMillis) {
+                markLost(lease, String.format("it has been held for more than %s seconds", TimeUnit.MILLISECONDS.toSeconds(lease.maxHoldMillis)));
+            } else {
+                toRenew.add(lease);
+            }
+        }
+
+        try (Connection conn = dbf.getDataSource().getConnection()) {
+            conn.setAutoCommit(true);
+            if (!toRenew.isEmpty()) {
+                try (PreparedStatement pstmt = conn.prepareStatement("update GLockLeaseVO set expireDate = date_add(now(3), interval ? second)" +
+                        " where name = ? and token = ?")) {
+                    for (Lease lease : toRenew) {
+                        pstmt.setLong(1, DatabaseGlobalProperty.GLockLeaseDuration);
+                        pstmt.setString(2, lease.name);
+                        pstmt.setLong(3, lease.token);
+                        pstmt.addBatch();
+                    }
+
+                    int[] ret = pstmt.executeBatch();
+                    for (int i = 0; i < ret.length; i++) {
+                        if (ret[i] == 0) {
+                            markLost(toRenew.get(i), "it expired before renewal");
+                        }
+                    }
+                }
+            }
+
+            try (PreparedStatement pstmt = conn.prepareStatement("delete from GLockLeaseVO where expireDate < date_sub(now(3), interval ? second)")) {
+                pstmt.setLong(1, STALE_LEASE_SECONDS);
+                pstmt.executeUpdate();
+            }
+        } catch (SQLException e) {
+            logger.warn("unable to renew GLock leases", e);
+        }
+    }
+
+    void recordWaitTime(long millis) {
+        waitTime.record(millis);
+    }
+
+    void recordHoldTime(long millis) {
+        holdTime.record(millis);
+    }
+
+    @Override
+    public Map<String, Long> getWaitTimeHistogram() {
+        return waitTime.getBuckets();
+    }
+
+    @Override
+    public Map<String, Long> getHoldTimeHistogram() {
+        return holdTime.getBuckets();
+    }
+
+    @Override
+    public long getAcquireTimeoutCount() {
+        return acquireTimeouts.get();
+    }
+
+    @Override
+    public long getLostLeaseCount() {
+        return lostLeases.get();
+    }
+
+    @Override
+    public int getMemoryLockCount() {
+        return GLock.getMemoryLockCount();
+    }
+
+    @Override
+    public int getHeldLeaseCount() {
+        return leases.size();
+    }
+
+    @Override
+    public boolean start() {
+        jmxf.registerBean("GLock", this);
+
+        if (DatabaseGlobalProperty.GLockUseLease) {
+            renewTask = thdf.submitPeriodicTask(new PeriodicTask() {
+                @Override
+                public TimeUnit getTimeUnit() {
+                    return TimeUnit.SECONDS;
+                }
+
+                @Override
+                public long getInterval() {
+                    return Math.max(1, DatabaseGlobalProperty.GLockLeaseDuration / 3);
+                }
+
+                @Override
+                public String getName() {
+                    return "glock-lease-renewal";
+                }
+
+                @Override
+                public void run() {
+                    renewLeases();
+                }
+            });
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (renewTask != null) {
+            renewTask.cancel(true);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,17 @@
+package org.zstack.core.db;
+
+import java.util.Map;
+
+public interface GLockMXBean {
+    Map<String, Long> getWaitTimeHistogram();
+
+    Map<String, Long> getHoldTimeHistogram();
+
+    long getAcquireTimeoutCount();
+
+    long getLostLeaseCount();
+
+    int getMemoryLockCount();
+
+    int getHeldLeaseCount();
+}
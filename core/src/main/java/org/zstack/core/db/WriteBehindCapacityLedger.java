@@ -0,0 +1,345 @@
+package org.zstack.core.db;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.cloudbus.ResourceDestinationMaker;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.metamodel.SingularAttribute;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Keeps the available capacities of the resources managed by this management node, so they are
+ * reserved and returned in memory instead of locking the capacity row of the resource, which is
+ * a hot row during bulk provisioning. Resources are partitioned by ResourceDestinationMaker, the
+ * capacity of others is still updated in the database.
+ *
+ * An entry is a snapshot of the capacity row plus the available capacities reserved (negative) or
+ * returned (positive) since the last flush. A change checks and updates the entry under its lock,
+ * so it either sees all changes before it or fails. The deltas are added to the row every flush
+ * interval, so concurrent updates of the database by other management nodes are not lost, and the
+ * snapshots are reloaded afterwards to see them. With a zero interval the deltas are written through
+ * on each change.
+ *
+ * Updates setting absolute values of the row must flush the entry before locking the row; the
+ * entry is reloaded after the update by the entity events of the row.
+ *
+ * @param <V> the capacity entity, whose uuid is the uuid of the resource
+ */
+public abstract class WriteBehindCapacityLedger<V> implements Component {
+    private static final CLogger logger = Utils.getLogger(WriteBehindCapacityLedger.class);
+
+    @Autowired
+    protected DatabaseFacade dbf;
+    @Autowired
+    protected ThreadFacade thdf;
+    @Autowired
+    protected ResourceDestinationMaker destMaker;
+
+    private static final int RELOAD_BATCH_SIZE = 500;
+
+    private class Entry {
+        final String uuid;
+        // null if the snapshot must be reloaded
+        V snapshot;
+        long version;
+        final long[] pending;
+
+        Entry(String uuid) {
+            this.uuid = uuid;
+            this.pending = new long[getAvailableCapacityCount()];
+        }
+
+        boolean isDirty() {
+            for (long p : pending) {
+                if (p != 0) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    protected abstract Class<V> getCapacityClass();
+
+    protected abstract SingularAttribute<V, String> getUuidAttribute();
+
+    protected abstract String getUuid(V cap);
+
+    /**
+     * @return the name of the resource kind, used in logs and the name of the flush task
+     */
+    protected abstract String getResourceName();
+
+    /**
+     * @return the number of available capacities kept as deltas
+     */
+    protected abstract int getAvailableCapacityCount();
+
+    /**
+     * @return a new array of the available capacities kept as deltas
+     */
+    protected abstract long[] getAvailableCapacities(V cap);
+
+    /**
+     * @return a copy of the capacity with the available capacities replaced
+     */
+    protected abstract V copy(V cap, long[] available);
+
+    /**
+     * adds the deltas to the available capacities of the row in the database
+     */
+    protected abstract void addAvailableCapacities(String uuid, long[] deltas);
+
+    public abstract boolean isEnabled();
+
+    protected abstract long getFlushIntervalInMillis();
+
+    /**
+     * @return true if the capacity of the resource is kept by the ledger of this management node
+     */
+    public boolean keeps(String uuid) {
+        return isEnabled() && destMaker.isManagedByUs(uuid);
+    }
+
+    /**
+     * loads the snapshot of the entry if needed, must be called with the entry locked
+     *
+     * @return false if the resource has been deleted
+     */
+    private boolean ensureLoaded(Entry entry) {
+        if (entry.snapshot == null) {
+            entry.snapshot = dbf.findByUuid(entry.uuid, getCapacityClass());
+        }
+
+        if (entry.snapshot == null && !entry.isDirty()) {
+            entries.remove(entry.uuid, entry);
+        }
+
+        return entry.snapshot != null;
+    }
+
+    private V view(Entry entry) {
+        long[] available = getAvailableCapacities(entry.snapshot);
+        for (int i = 0; i < available.length; i++) {
+            available[i] += entry.pending[i];
+        }
+
+        return copy(entry.snapshot, available);
+    }
+
+    /**
+     * @return a copy of the capacity of the resource including the changes not flushed,
+     * null if the resource is not kept by the ledger
+     */
+    public V getCapacity(String uuid) {
+        if (!keeps(uuid)) {
+            return null;
+        }
+
+        Entry entry = entries.computeIfAbsent(uuid, Entry::new);
+        synchronized (entry) {
+            return ensureLoaded(entry) ? view(entry) : null;
+        }
+    }
+
+    /**
+     * changes the capacity of a resource kept by the ledger atomically, only the changes of the
+     * available capacities made by the updater are kept. The updater sees the result of all changes
+     * before it, so checking the capacity and reserving it can't be interleaved.
+     *
+     * @return false if the resource has been deleted or the updater returns null
+     */
+    protected boolean update(String uuid, Function<V, V> updater) {
+        Entry entry = entries.computeIfAbsent(uuid, Entry::new);
+        synchronized (entry) {
+            if (!ensureLoaded(entry)) {
+                logger.warn(String.format("unable to update capacity of the %s[uuid:%s]. It may have been deleted, cannot find it in database",
+                        getResourceName(), uuid));
+                return false;
+            }
+
+            V cap = updater.apply(view(entry));
+            if (cap == null) {
+                return false;
+            }
+
+            long[] pending = entry.pending.clone();
+            long[] snapshot = getAvailableCapacities(entry.snapshot);
+            long[] available = getAvailableCapacities(cap);
+            for (int i = 0; i < available.length; i++) {
+                entry.pending[i] = available[i] - snapshot[i];
+            }
+
+            if (getFlushIntervalInMillis() <= 0) {
+                try {
+                    flush(entry);
+                } catch (RuntimeException e) {
+                    System.arraycopy(pending, 0, entry.pending, 0, pending.length);
+                    throw e;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * writes the changes of the resource not flushed to the database, called before updating
+     * the capacity row of the resource in other ways
+     */
+    public void flush(String uuid) {
+        Entry entry = entries.get(uuid);
+        if (entry == null) {
+            return;
+        }
+
+        synchronized (entry) {
+            flush(entry);
+        }
+    }
+
+    public void flushAll() {
+        entries.values().forEach(entry -> {
+            synchronized (entry) {
+                flush(entry);
+            }
+        });
+    }
+
+    private void flush(Entry entry) {
+        if (!entry.isDirty()) {
+            return;
+        }
+
+        addAvailableCapacities(entry.uuid, entry.pending);
+        // a snapshot being reloaded may miss the flushed changes
+        entry.version++;
+        if (entry.snapshot != null) {
+            long[] available = getAvailableCapacities(entry.snapshot);
+            for (int i = 0; i < available.length; i++) {
+                available[i] += entry.pending[i];
+            }
+            entry.snapshot = copy(entry.snapshot, available);
+        }
+        Arrays.fill(entry.pending, 0);
+    }
+
+    /**
+     * reloads the snapshot of the resource on next use
+     */
+    public void invalidate(String uuid) {
+        Entry entry = entries.get(uuid);
+        if (entry == null) {
+            return;
+        }
+
+        synchronized (entry) {
+            entry.version++;
+            entry.snapshot = null;
+        }
+    }
+
+    protected void flushAndReload() {
+        List<Entry> kept = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            boolean keeps = keeps(entry.uuid);
+            synchronized (entry) {
+                try {
+                    flush(entry);
+                } catch (Throwable t) {
+                    logger.warn(String.format("failed to flush the capacity of the %s[uuid:%s], retry later",
+                            getResourceName(), entry.uuid), t);
+                    continue;
+                }
+
+                if (keeps) {
+                    kept.add(entry);
+                } else {
+                    // taken over by another management node
+                    entries.remove(entry.uuid, entry);
+                }
+            }
+        }
+
+        for (int i = 0; i < kept.size(); i += RELOAD_BATCH_SIZE) {
+            List<Entry> batch = kept.subList(i, Math.min(i + RELOAD_BATCH_SIZE, kept.size()));
+            Map<String, Long> versions = new HashMap<>();
+            batch.forEach(e -> versions.put(e.uuid, e.version));
+
+            List<V> caps = Q.New(getCapacityClass())
+                    .in(getUuidAttribute(), versions.keySet())
+                    .list();
+            Map<String, V> capMap = new HashMap<>();
+            caps.forEach(c -> capMap.put(getUuid(c), c));
+
+            for (Entry entry : batch) {
+                synchronized (entry) {
+                    // changed meanwhile, reloaded on next use
+                    if (entry.version != versions.get(entry.uuid)) {
+                        continue;
+                    }
+
+                    V cap = capMap.get(entry.uuid);
+                    if (cap == null) {
+                        if (!entry.isDirty()) {
+                            entries.remove(entry.uuid, entry);
+                        }
+                        continue;
+                    }
+
+                    // flushed changes are in the database, changes made meanwhile are pending
+                    entry.snapshot = cap;
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean start() {
+        for (EntityEvent evt : new EntityEvent[]{EntityEvent.POST_PERSIST, EntityEvent.POST_UPDATE, EntityEvent.POST_REMOVE}) {
+            dbf.installEntityLifeCycleCallback(getCapacityClass(), evt, (e, o) -> invalidate(getUuid(getCapacityClass().cast(o))));
+        }
+
+        thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.MILLISECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                // changes are written through with a zero interval, only reload the snapshots
+                long interval = getFlushIntervalInMillis();
+                return interval > 0 ? interval : TimeUnit.SECONDS.toMillis(1);
+            }
+
+            @Override
+            public String getName() {
+                return String.format("%s-capacity-ledger-flush", getResourceName().replace(" ", "-"));
+            }
+
+            @Override
+            public void run() {
+                flushAndReload();
+            }
+        });
+
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        flushAll();
+        return true;
+    }
+}
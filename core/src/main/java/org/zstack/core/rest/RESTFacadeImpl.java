@@ -1,5 +1,7 @@
 package org.zstack.core.rest;
 
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
 import org.apache.http.HttpStatus;
 import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.apache.http.impl.nio.client.HttpAsyncClients;
@@ -21,8 +23,8 @@ import org.zstack.core.retry.Retry;
 import org.zstack.core.retry.RetryCondition;
 import org.zstack.core.thread.AsyncThread;
 import org.zstack.core.thread.CancelablePeriodicTask;
+import org.zstack.core.thread.PeriodicTask;
 import org.zstack.core.thread.ThreadFacade;
-import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
 import org.zstack.core.timeout.ApiTimeoutManager;
 import org.zstack.core.validation.ValidationFacade;
 import org.zstack.header.core.Completion;
@@ -42,6 +44,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.net.URI;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -73,6 +76,8 @@ public class RESTFacadeImpl implements RESTFacade {
     private final int notifiedFailureHttpTasksSize = 128;
 
     final private Map<String, HttpCallStatistic> statistics = new ConcurrentHashMap<String, HttpCallStatistic>();
+    final private Map<String, AsyncHttpCallStatistic> asyncCallStatistics = new ConcurrentHashMap<>();
+    private TimeoutWheel timeoutWheel;
     final private Map<String, HttpCallHandlerWrapper> httpCallhandlers = new ConcurrentHashMap<String, HttpCallHandlerWrapper>();
     private final List<BeforeAsyncJsonPostInterceptor> interceptors = new ArrayList<BeforeAsyncJsonPostInterceptor>();
 
@@ -80,6 +85,13 @@ public class RESTFacadeImpl implements RESTFacade {
         void fail(ErrorCode err);
 
         void success(HttpEntity<String> responseEntity);
+
+        /**
+         * @return the class the callback body is decoded to, or null if the callback takes the raw body
+         */
+        Class getReturnClass();
+
+        void success(Object decoded);
     }
 
     private interface HttpCallHandlerWrapper {
@@ -110,6 +122,12 @@ public class RESTFacadeImpl implements RESTFacade {
                     sb.append("\n");
                 }
             }
+            List<AsyncHttpCallStatistic> astats = new ArrayList<>(getAsyncCallStatistics().values());
+            astats.sort(Comparator.comparing(AsyncHttpCallStatistic::getPath));
+            for (AsyncHttpCallStatistic stat : astats) {
+                sb.append(stat.toString());
+                sb.append("\n");
+            }
             sb.append("================ END: REST CALL Statistics =====================\n");
             logger.debug(sb.toString());
         });
@@ -158,6 +176,29 @@ public class RESTFacadeImpl implements RESTFacade {
                 CoreGlobalProperty.REST_FACADE_CONNECT_TIMEOUT,
                 CoreGlobalProperty.REST_FACADE_MAX_PER_ROUTE,
                 CoreGlobalProperty.REST_FACADE_MAX_TOTAL);
+
+        timeoutWheel = new TimeoutWheel(CoreGlobalProperty.REST_FACADE_TIMEOUT_TICK_IN_MILLIS);
+        thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.MILLISECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return timeoutWheel.getTickMillis();
+            }
+
+            @Override
+            public String getName() {
+                return "async-http-call-timeout-wheel";
+            }
+
+            @Override
+            public void run() {
+                timeoutWheel.advance();
+            }
+        });
     }
 
     // timeout are in milliseconds
@@ -190,8 +231,8 @@ public class RESTFacadeImpl implements RESTFacade {
     void notifyCallback(HttpServletRequest req, HttpServletResponse rsp) {
         String taskUuid = req.getHeader(RESTConstant.TASK_UUID);
         try {
-            HttpEntity<String> entity = this.httpServletRequestToHttpEntity(req);
             if (taskUuid == null) {
+                HttpEntity<String> entity = this.httpServletRequestToHttpEntity(req);
                 rsp.sendError(HttpStatus.SC_BAD_REQUEST, "No 'taskUuid' found in the header");
                 logger.warn(String.format("Received a callback request, but no 'taskUuid' found in headers. request body: %s", entity.getBody()));
                 return;
@@ -199,12 +240,36 @@ public class RESTFacadeImpl implements RESTFacade {
 
             AsyncHttpWrapper wrapper = wrappers.get(taskUuid);
             if (wrapper == null) {
+                HttpEntity<String> entity = this.httpServletRequestToHttpEntity(req);
                 rsp.sendError(HttpStatus.SC_NOT_FOUND, String.format("No callback found for taskUuid[%s]", taskUuid));
                 logger.warn(String.format("Received a callback request, but no 'callback found for taskUuid[%s]. request body: %s", taskUuid, entity.getBody()));
                 notifiedFailureHttpTasks.put(taskUuid, entity.getBody());
                 return;
             }
 
+            // the body is traced as it is, otherwise it's decoded from the request
+            // without being read into a string first
+            Class returnClass = wrapper.getReturnClass();
+            if (returnClass != null && !logger.isTraceEnabled()) {
+                Object obj;
+                try (Reader reader = req.getReader()) {
+                    obj = JSONObjectUtil.toObject(reader, returnClass);
+                } catch (JsonIOException e) {
+                    logger.warn(e.getMessage(), e);
+                    return;
+                } catch (JsonParseException e) {
+                    logger.warn(e.getMessage(), e);
+                    rsp.setStatus(HttpStatus.SC_OK);
+                    wrapper.fail(inerr(e.getMessage()));
+                    return;
+                }
+
+                rsp.setStatus(HttpStatus.SC_OK);
+                wrapper.success(obj);
+                return;
+            }
+
+            HttpEntity<String> entity = this.httpServletRequestToHttpEntity(req);
             rsp.setStatus(HttpStatus.SC_OK);
             wrapper.success(entity);
         } catch (IOException e) {
@@ -341,11 +406,15 @@ public class RESTFacadeImpl implements RESTFacade {
 
         HttpEntity<String> req = new HttpEntity<String>(body, requestHeaders);
 
+        final AsyncHttpCallStatistic asyncStat = getAsyncCallStatistic(url);
+        asyncStat.submit();
+        final long submitTime = System.currentTimeMillis();
+
         AsyncHttpWrapper wrapper = new AsyncHttpWrapper() {
             final AtomicBoolean called = new AtomicBoolean(false);
 
             final AsyncHttpWrapper self = this;
-            final TimeoutTaskReceipt timeoutTaskReceipt = thdf.submitTimeoutTask(new Runnable() {
+            final TimeoutWheel.Timeout timeoutTask = timeoutWheel.schedule(new Runnable() {
                 @Override
                 public void run() {
                     self.fail(touterr(
@@ -353,17 +422,41 @@ public class RESTFacadeImpl implements RESTFacade {
                             url, timeout, unit.toString(), body
                     ));
                 }
-            }, unit, timeout);
 
-            private void cancelTimeout() {
-                timeoutTaskReceipt.cancel();
+                @Override
+                public String toString() {
+                    return String.format("async-http-timeout[url: %s, taskUuid: %s]", url, taskUuid);
+                }
+            }, unit.toMillis(timeout));
+
+            private boolean complete(boolean timeout) {
+                if (!called.compareAndSet(false, true)) {
+                    return false;
+                }
+
+                wrappers.remove(taskUuid);
+                timeoutTask.cancel();
+                asyncStat.complete(System.currentTimeMillis() - submitTime, timeout);
+                return true;
+            }
+
+            private void decoded(Object obj, String body) {
+                JsonAsyncRESTCallback<Object> jcallback = (JsonAsyncRESTCallback) callback;
+                ErrorCode err = vf.validateErrorByErrorCode(obj);
+                if (err != null) {
+                    logger.warn(String.format("error response that causes validation failure: %s",
+                            body == null ? JSONObjectUtil.toJsonString(obj) : body));
+                    jcallback.fail(err);
+                } else {
+                    jcallback.success(obj);
+                }
             }
 
             final ReturnValueCompletion<HttpEntity<String>> completion = new ReturnValueCompletion<HttpEntity<String>>(callback) {
                 @Override
                 @AsyncThread
                 public void success(HttpEntity<String> responseEntity) {
-                    if (!called.compareAndSet(false, true)) {
+                    if (!complete(false)) {
                         logger.warn(String.format("Success callback many times, taskId=%s, currentTimeMillis=%s", taskUuid, System.currentTimeMillis()));
                         return;
                     }
@@ -373,9 +466,6 @@ public class RESTFacadeImpl implements RESTFacade {
                         stat.addStatistic(System.currentTimeMillis() - finalStime);
                     }
 
-                    wrappers.remove(taskUuid);
-                    cancelTimeout();
-
                     if (logger.isTraceEnabled()) {
                         List<String> hs = responseEntity.getHeaders().get(RESTConstant.TASK_UUID);
                         String taskUuid = hs == null || hs.isEmpty() ? null : hs.get(0);
@@ -392,13 +482,7 @@ public class RESTFacadeImpl implements RESTFacade {
                         JsonAsyncRESTCallback<Object> jcallback = (JsonAsyncRESTCallback)callback;
                         try {
                             Object obj = JSONObjectUtil.toObject(responseEntity.getBody(), jcallback.getReturnClass());
-                            ErrorCode err = vf.validateErrorByErrorCode(obj);
-                            if (err != null) {
-                                logger.warn(String.format("error response that causes validation failure: %s", responseEntity.getBody()));
-                                jcallback.fail(err);
-                            } else {
-                                jcallback.success(obj);
-                            }
+                            decoded(obj, responseEntity.getBody());
                         } catch (Throwable t) {
                             logger.warn(t.getMessage(), t);
                             callback.fail(inerr(t.getMessage()));
@@ -411,21 +495,44 @@ public class RESTFacadeImpl implements RESTFacade {
                 @Override
                 @AsyncThread
                 public void fail(ErrorCode err) {
-                    if (!called.compareAndSet(false, true)) {
+                    if (!complete(SysErrors.TIMEOUT.toString().equals(err.getCode()))) {
                         logger.warn(String.format("Failed callback many times, taskId=%s, currentTimeMillis=%s", taskUuid, System.currentTimeMillis()));
                         return;
                     }
 
-                    wrappers.remove(taskUuid);
-                    if (!SysErrors.TIMEOUT.toString().equals(err.getCode())) {
-                        cancelTimeout();
-                    }
-
                     logger.warn(String.format("Unable to post to %s: %s", url, err.getDetails()));
                     callback.fail(err);
                 }
             };
 
+            final ReturnValueCompletion<Object> decodedCompletion = new ReturnValueCompletion<Object>(callback) {
+                @Override
+                @AsyncThread
+                public void success(Object obj) {
+                    if (!complete(false)) {
+                        logger.warn(String.format("Success callback many times, taskId=%s, currentTimeMillis=%s", taskUuid, System.currentTimeMillis()));
+                        return;
+                    }
+
+                    if (CoreGlobalProperty.PROFILER_HTTP_CALL) {
+                        HttpCallStatistic stat = statistics.get(url);
+                        stat.addStatistic(System.currentTimeMillis() - finalStime);
+                    }
+
+                    try {
+                        decoded(obj, null);
+                    } catch (Throwable t) {
+                        logger.warn(t.getMessage(), t);
+                        callback.fail(inerr(t.getMessage()));
+                    }
+                }
+
+                @Override
+                public void fail(ErrorCode err) {
+                    completion.fail(err);
+                }
+            };
+
             @Override
             public void fail(ErrorCode err) {
                 completion.fail(err);
@@ -435,6 +542,16 @@ public class RESTFacadeImpl implements RESTFacade {
             public void success(HttpEntity<String> responseEntity) {
                 completion.success(responseEntity);
             }
+
+            @Override
+            public Class getReturnClass() {
+                return callback instanceof JsonAsyncRESTCallback ? ((JsonAsyncRESTCallback) callback).getReturnClass() : null;
+            }
+
+            @Override
+            public void success(Object decoded) {
+                decodedCompletion.success(decoded);
+            }
         };
 
         try {
@@ -702,6 +819,28 @@ public class RESTFacadeImpl implements RESTFacade {
         return statistics;
     }
 
+    @Override
+    public Map<String, AsyncHttpCallStatistic> getAsyncCallStatistics() {
+        return asyncCallStatistics;
+    }
+
+    private AsyncHttpCallStatistic getAsyncCallStatistic(String url) {
+        String path = getUrlPath(url);
+        return asyncCallStatistics.computeIfAbsent(path, AsyncHttpCallStatistic::new);
+    }
+
+    // agents of the same kind are called at the same paths on different hosts
+    static String getUrlPath(String url) {
+        int start = url.indexOf("://");
+        start = start < 0 ? 0 : url.indexOf('/', start + 3);
+        if (start < 0) {
+            return "/";
+        }
+
+        int end = url.indexOf('?', start);
+        return end < 0 ? url.substring(start) : url.substring(start, end);
+    }
+
     @Override
     public <T> void registerSyncHttpCallHandler(String path, final Class<T> objectType, final SyncHttpCallHandler<T> handler) {
         HttpCallHandlerWrapper wrapper = httpCallhandlers.get(path);
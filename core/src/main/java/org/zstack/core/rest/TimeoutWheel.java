@@ -0,0 +1,208 @@
+package org.zstack.core.rest;
+
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hierarchical timer wheel holding the timeouts of all async http calls waiting for their
+ * callbacks. Scheduling and cancelling a timeout are O(1), and one periodic task advances the
+ * wheel every tick instead of one timer task per call.
+ *
+ * The wheel has LEVELS levels of WHEEL_SIZE slots; a slot of level n spans WHEEL_SIZE^n ticks.
+ * A timeout is put in the lowest level able to hold it and moves to lower levels when its slot
+ * of a higher level is reached, it expires when its slot of level 0 is reached. Timeouts beyond
+ * the span of the wheel are parked at the top level and placed again when their slot is reached.
+ */
+class TimeoutWheel {
+    private static final CLogger logger = Utils.getLogger(TimeoutWheel.class);
+
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+
+    private final long tickMillis;
+    private final long startTime;
+    private final Slot[][] slots = new Slot[LEVELS][WHEEL_SIZE];
+    private long currentTick;
+    private int size;
+
+    class Timeout {
+        private final long deadlineTick;
+        private final Runnable task;
+        private Slot slot;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(long deadlineTick, Runnable task) {
+            this.deadlineTick = deadlineTick;
+            this.task = task;
+        }
+
+        /**
+         * @return false if the timeout has expired or been cancelled
+         */
+        boolean cancel() {
+            synchronized (TimeoutWheel.this) {
+                if (slot == null) {
+                    return false;
+                }
+
+                slot.remove(this);
+                size--;
+                return true;
+            }
+        }
+    }
+
+    private static class Slot {
+        private Timeout head;
+
+        void add(Timeout t) {
+            t.slot = this;
+            t.prev = null;
+            t.next = head;
+            if (head != null) {
+                head.prev = t;
+            }
+            head = t;
+        }
+
+        void remove(Timeout t) {
+            if (t.prev == null) {
+                head = t.next;
+            } else {
+                t.prev.next = t.next;
+            }
+
+            if (t.next != null) {
+                t.next.prev = t.prev;
+            }
+
+            t.slot = null;
+            t.prev = null;
+            t.next = null;
+        }
+
+        List<Timeout> drain() {
+            List<Timeout> ret = new ArrayList<>();
+            Timeout t = head;
+            while (t != null) {
+                Timeout next = t.next;
+                t.slot = null;
+                t.prev = null;
+                t.next = null;
+                ret.add(t);
+                t = next;
+            }
+            head = null;
+            return ret;
+        }
+    }
+
+    TimeoutWheel(long tickMillis) {
+        this(tickMillis, System.currentTimeMillis());
+    }
+
+    TimeoutWheel(long tickMillis, long startTime) {
+        this.tickMillis = tickMillis;
+        this.startTime = startTime;
+
+        for (int level = 0; level < LEVELS; level++) {
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                slots[level][i] = new Slot();
+            }
+        }
+    }
+
+    long getTickMillis() {
+        return tickMillis;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    Timeout schedule(Runnable task, long delayMillis) {
+        return schedule(task, delayMillis, System.currentTimeMillis());
+    }
+
+    synchronized Timeout schedule(Runnable task, long delayMillis, long now) {
+        long deadline = now + delayMillis - startTime;
+        // a timeout never expires before its deadline, and not earlier than the next tick
+        long deadlineTick = Math.max(currentTick + 1, (deadline + tickMillis - 1) / tickMillis);
+        Timeout t = new Timeout(deadlineTick, task);
+        place(t);
+        size++;
+        return t;
+    }
+
+    private static long span(int level) {
+        return 1L << (WHEEL_BITS * level);
+    }
+
+    private Slot slotOf(int level, long tick) {
+        return slots[level][(int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK)];
+    }
+
+    private void place(Timeout t) {
+        long ticks = t.deadlineTick - currentTick;
+        for (int level = 0; level < LEVELS; level++) {
+            if (ticks < span(level + 1)) {
+                slotOf(level, t.deadlineTick).add(t);
+                return;
+            }
+        }
+
+        slotOf(LEVELS - 1, currentTick + span(LEVELS) - 1).add(t);
+    }
+
+    void advance() {
+        advance(System.currentTimeMillis());
+    }
+
+    void advance(long now) {
+        List<Timeout> expired = new ArrayList<>();
+
+        synchronized (this) {
+            long targetTick = (now - startTime) / tickMillis;
+            if (size == 0 && targetTick > currentTick) {
+                currentTick = targetTick;
+            }
+
+            while (currentTick < targetTick) {
+                currentTick++;
+
+                for (int level = LEVELS - 1; level > 0; level--) {
+                    if ((currentTick & (span(level) - 1)) == 0) {
+                        relocate(slotOf(level, currentTick).drain(), expired);
+                    }
+                }
+
+                relocate(slotOf(0, currentTick).drain(), expired);
+            }
+        }
+
+        for (Timeout t : expired) {
+            try {
+                t.task.run();
+            } catch (Throwable e) {
+                logger.warn(String.format("unhandled exception happened when running timeout task %s", t.task), e);
+            }
+        }
+    }
+
+    private void relocate(List<Timeout> timeouts, List<Timeout> expired) {
+        for (Timeout t : timeouts) {
+            if (t.deadlineTick <= currentTick) {
+                size--;
+                expired.add(t);
+            } else {
+                place(t);
+            }
+        }
+    }
+}
@@ -42,18 +42,18 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     @Autowired
     private org.zstack.core.timeout.Timer zTimer;
 
-    private final HashMap<String, SyncTaskQueueWrapper> syncTasks = new HashMap<>();
-    private final Map<String, ChainTaskQueueWrapper> chainTasks = Collections.synchronizedMap(new HashMap<>());
+    // queues of different signatures never share a lock, a queue is removed from the map
+    // once its last runner exits and marked retired so a late submitter creates a new one
+    private final Map<String, SyncTaskQueueWrapper> syncTasks = new ConcurrentHashMap<>();
+    private final Map<String, ChainTaskQueueWrapper> chainTasks = new ConcurrentHashMap<>();
     private final Map<String, SingleFlightQueueWrapper> singleFlightTasks = Collections.synchronizedMap(new HashMap<>());
     private final Map<String, List<String>> apiRunningSignature = new ConcurrentHashMap<>();
     private static final CLogger _logger = CLoggerImpl.getLogger(DispatchQueueImpl.class);
 
     private String dumpChainTaskQueue() {
         List<String> asyncTasks = new ArrayList<>();
-        synchronized (chainTasks) {
-            for (Map.Entry<String, ChainTaskQueueWrapper> e : chainTasks.entrySet()) {
-                asyncTasks.add(e.getValue().dumpTaskQueueInfo());
-            }
+        for (ChainTaskQueueWrapper w : chainTasks.values()) {
+            asyncTasks.add(w.dumpTaskQueueInfo());
         }
 
         StringBuilder sb = new StringBuilder();
@@ -65,10 +65,8 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
 
     private String dumpSyncTaskQueue() {
         List<String> queueSyncTasks = new ArrayList<>();
-        synchronized (syncTasks) {
-            for (Map.Entry<String, SyncTaskQueueWrapper> e : syncTasks.entrySet()) {
-                queueSyncTasks.add(e.getValue().dumpTaskQueueInfo());
-            }
+        for (SyncTaskQueueWrapper w : syncTasks.values()) {
+            queueSyncTasks.add(w.dumpTaskQueueInfo());
         }
 
         StringBuilder sb = new StringBuilder();
@@ -122,32 +120,28 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
         sb.append(String.format("\nTASK QUEUE NUMBER: %s\n", chainTasks.size()));
         List<String> asyncTasks = new ArrayList<>();
         long now = System.currentTimeMillis();
-        synchronized (chainTasks) {
-            ChainTaskQueueWrapper w = chainTasks.get(signatureName);
-            if (w == null) {
-                sb.append(String.format("\n===== NO QUEUE SYNC SIGNATURE: %s =====", signatureName));
-                sb.append(StringUtils.join(asyncTasks, "\n"));
-                sb.append("\n================= END TASK QUEUE DUMP ==================\n");
-                _threadFacade.printThreadsAndTasks();
-                logger.debug(sb.toString());
-                return;
-            }
-            StringBuilder tb = new StringBuilder(String.format("\nQUEUE SYNC SIGNATURE: %s", signatureName));
-            tb.append(String.format("\nRUNNING TASK NUMBER: %s", w.runningQueue.size()));
-            tb.append(String.format("\nPENDING TASK NUMBER: %s", w.pendingQueue.size()));
-            tb.append(String.format("\nASYNC LEVEL: %s", w.maxThreadNum));
-            int index = 0;
-            for (Object obj : w.runningQueue) {
-                ChainFuture cf = (ChainFuture) obj;
-                tb.append(TaskInfoBuilder.buildRunningTaskInfo(cf, now, index++));
-            }
+        ChainTaskQueueWrapper w = chainTasks.get(signatureName);
+        if (w == null) {
+            sb.append(String.format("\n===== NO QUEUE SYNC SIGNATURE: %s =====", signatureName));
+            sb.append(StringUtils.join(asyncTasks, "\n"));
+            sb.append("\n================= END TASK QUEUE DUMP ==================\n");
+            _threadFacade.printThreadsAndTasks();
+            logger.debug(sb.toString());
+            return;
+        }
+        StringBuilder tb = new StringBuilder(String.format("\nQUEUE SYNC SIGNATURE: %s", signatureName));
+        tb.append(String.format("\nRUNNING TASK NUMBER: %s", w.runningQueue.size()));
+        tb.append(String.format("\nPENDING TASK NUMBER: %s", w.pendingQueue.size()));
+        tb.append(String.format("\nASYNC LEVEL: %s", w.maxThreadNum));
+        int index = 0;
+        for (ChainFuture cf : w.runningQueue) {
+            tb.append(TaskInfoBuilder.buildRunningTaskInfo(cf, now, index++));
+        }
 
-            for (Object obj : w.pendingQueue) {
-                ChainFuture cf = (ChainFuture) obj;
-                tb.append(TaskInfoBuilder.buildPendingTaskInfo(cf, now, index++));
-            }
-            asyncTasks.add(tb.toString());
+        for (ChainFuture cf : w.pendingQueue) {
+            tb.append(TaskInfoBuilder.buildPendingTaskInfo(cf, now, index++));
         }
+        asyncTasks.add(tb.toString());
 
         sb.append(StringUtils.join(asyncTasks, "\n"));
         sb.append("\n================= END TASK QUEUE DUMP ==================\n");
@@ -158,42 +152,39 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     @Override
     public ChainInfo getChainTaskInfo(String signature) {
         long now = System.currentTimeMillis();
-        synchronized (chainTasks) {
-            ChainInfo info = new ChainInfo();
-            ChainTaskQueueWrapper w = chainTasks.get(signature);
-            if (w == null) {
-                return info;
-            }
+        ChainInfo info = new ChainInfo();
+        ChainTaskQueueWrapper w = chainTasks.get(signature);
+        if (w == null) {
+            return info;
+        }
 
-            int index = 0;
-            for (Object obj : w.runningQueue) {
-                ChainFuture cf = (ChainFuture) obj;
-                info.addRunningTask(TaskInfoBuilder.buildRunningTaskInfo(cf, now, index++));
-            }
+        int index = 0;
+        for (ChainFuture cf : w.runningQueue) {
+            info.addRunningTask(TaskInfoBuilder.buildRunningTaskInfo(cf, now, index++));
+        }
 
-            for (Object obj : w.pendingQueue) {
-                ChainFuture cf = (ChainFuture) obj;
-                info.addPendingTask(TaskInfoBuilder.buildPendingTaskInfo(cf, now, index++));
-            }
-            return info;
+        for (ChainFuture cf : w.pendingQueue) {
+            info.addPendingTask(TaskInfoBuilder.buildPendingTaskInfo(cf, now, index++));
         }
+        return info;
     }
 
     @Override
     public ChainInfo cleanChainTaskInfo(String signature, Integer index, Boolean cleanUp, Boolean isRunningTask) {
         beforeCleanQueuedumpThread(signature);
         long now = System.currentTimeMillis();
-        synchronized (chainTasks) {
-            ChainInfo info = new ChainInfo();
-            ChainTaskQueueWrapper w = chainTasks.get(signature);
-            if (w == null) {
-                logger.warn(String.format("no queue with a corresponding signatureName[%s]", signature));
-                return null;
-            }
+        ChainTaskQueueWrapper w = chainTasks.get(signature);
+        if (w == null) {
+            logger.warn(String.format("no queue with a corresponding signatureName[%s]", signature));
+            return null;
+        }
 
+        synchronized (w) {
+            ChainInfo info = new ChainInfo();
             ChainInfo Tmp = getChainTaskInfo(signature);
             if (cleanUp) {
-                chainTasks.remove(signature);
+                w.retired = true;
+                chainTasks.remove(signature, w);
                 afterCleanQueuedumpThread(signature);
                 return Tmp;
             }
@@ -211,17 +202,18 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
             }
 
             if (isRunningTask) {
-                ChainFuture cf = (ChainFuture) w.runningQueue.get(index);
+                ChainFuture cf = new ArrayList<>(w.runningQueue).get(index);
                 info.addRunningTask(TaskInfoBuilder.buildRunningTaskInfo(cf, now, index));
-                w.runningQueue.remove(index.intValue());
+                w.runningQueue.remove(cf);
             } else {
-                ChainFuture cf = (ChainFuture) w.pendingQueue.get(index);
+                ChainFuture cf = new ArrayList<>(w.pendingQueue).get(index);
                 info.addPendingTask(TaskInfoBuilder.buildPendingTaskInfo(cf, now, index));
-                w.pendingQueue.remove(index.intValue());
+                w.pendingQueue.remove(cf);
             }
 
             if (w.runningQueue.isEmpty() && w.pendingQueue.isEmpty()) {
-                chainTasks.remove(signature);
+                w.retired = true;
+                chainTasks.remove(signature, w);
             }
             afterCleanQueuedumpThread(signature);       
             return info;
@@ -308,7 +300,9 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     }
 
     private abstract class AbstractTaskQueueWrapper {
-        String syncSignature;
+        volatile String syncSignature;
+        // set under the wrapper's monitor when the wrapper is removed from its map
+        boolean retired;
         private final AtomicInteger abnormalPendingQueueThreshold = new AtomicInteger(CoreGlobalProperty.PENDING_QUEUE_MINIMUM_THRESHOLD);
 
         /**
@@ -381,11 +375,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
 
         public String dumpTaskQueueInfo() {
             StringBuilder tb = new StringBuilder(String.format("\nQUEUE SYNC SIGNATURE: %s", syncSignature));
-
-            synchronized (chainTasks) {
-                tb.append(getTaskQueueInfo());
-            }
-
+            tb.append(getTaskQueueInfo());
             return tb.toString();
         }
     }
@@ -393,7 +383,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     private class SyncTaskQueueWrapper extends AbstractTaskQueueWrapper {
         ConcurrentLinkedQueue queue = new ConcurrentLinkedQueue();
         AtomicInteger counter = new AtomicInteger(0);
-        int maxThreadNum = -1;
+        volatile int maxThreadNum = -1;
 
         void addTask(SyncTaskFuture task) {
             queue.offer(task);
@@ -428,10 +418,11 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
                             stask.run();
                         }
 
-                        synchronized (syncTasks) {
+                        synchronized (SyncTaskQueueWrapper.this) {
                             if (queue.isEmpty()) {
                                 if (counter.decrementAndGet() == 0) {
-                                    syncTasks.remove(syncSignature);
+                                    retired = true;
+                                    syncTasks.remove(syncSignature, SyncTaskQueueWrapper.this);
                                 }
 
                                 break;
@@ -489,19 +480,20 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     private <T> Future<T> doSyncSubmit(final SyncTask<T> syncTask) {
         assert syncTask.getSyncSignature() != null : "How can you submit a sync task without sync signature ???";
 
-        SyncTaskFuture f;
-        synchronized (syncTasks) {
-            SyncTaskQueueWrapper wrapper = syncTasks.get(syncTask.getSyncSignature());
-            if (wrapper == null) {
-                wrapper = new SyncTaskQueueWrapper();
-                syncTasks.put(syncTask.getSyncSignature(), wrapper);
+        SyncTaskFuture f = new SyncTaskFuture(syncTask);
+        while (true) {
+            SyncTaskQueueWrapper wrapper = syncTasks.computeIfAbsent(syncTask.getSyncSignature(), k -> new SyncTaskQueueWrapper());
+            synchronized (wrapper) {
+                if (wrapper.retired) {
+                    continue;
+                }
+
+                wrapper.addTask(f);
+                wrapper.startThreadIfNeeded();
             }
-            f = new SyncTaskFuture(syncTask);
-            wrapper.addTask(f);
-            wrapper.startThreadIfNeeded();
-        }
 
-        return f;
+            return f;
+        }
     }
 
     @Override
@@ -744,6 +736,12 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
 
         @Override
         protected String getTaskQueueInfo() {
+            synchronized (singleFlightTasks) {
+                return getSingleFlightTaskQueueInfo();
+            }
+        }
+
+        private String getSingleFlightTaskQueueInfo() {
             StringBuilder tb = new StringBuilder();
             if (runningTask != null) {
                 tb.append("\nRUNNING SINGLE FLIGHT TASK NUMBER: 1");
@@ -782,11 +780,14 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     }
 
     private class ChainTaskQueueWrapper extends AbstractTaskQueueWrapper {
-        LinkedList pendingQueue = new LinkedList();
+        // tasks are offered under the wrapper's monitor but polled and moved to the
+        // running queue without it, the monitor is only taken again when a runner
+        // finds the pending queue empty and has to decide whether to exit
+        final Queue<ChainFuture> pendingQueue = new ConcurrentLinkedQueue<>();
         final Map<String, AtomicInteger> subPendingMap = new ConcurrentHashMap<>();
-        final LinkedList runningQueue = new LinkedList();
+        final Queue<ChainFuture> runningQueue = new ConcurrentLinkedQueue<>();
         AtomicInteger counter = new AtomicInteger(0);
-        int maxThreadNum = -1;
+        volatile int maxThreadNum = -1;
 
         int addSubPending(String deduplicateStr) {
             subPendingMap.compute(deduplicateStr, (k, v) -> {
@@ -832,13 +833,9 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
                 DebugUtils.Assert(task.getTask().getDeduplicateString() != null, "deduplicate String must be set if max pending string has been set!");
                 AtomicInteger r = subPendingMap.get(task.getTask().getDeduplicateString());
                 int queueLength = addSubPending(task.getTask().getDeduplicateString());
-                if (queueLength > length) {
-                    synchronized (runningQueue) {
-                        if (length != 0 || queueLength != 1 || r != null) {
-                            warningAndRemove(task, length, queueLength);
-                            return false;
-                        }
-                    }
+                if (queueLength > length && (length != 0 || queueLength != 1 || r != null)) {
+                    warningAndRemove(task, length, queueLength);
+                    return false;
                 }
             }
             pendingQueue.offer(task);
@@ -875,29 +872,31 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
                 // start a new thread every time to avoid stack overflow
                 @AsyncThread
                 private void runQueue() {
-                    ChainFuture cf;
-                    synchronized (chainTasks) {
-                        // remove from pending queue and add to running queue later
-                        cf = (ChainFuture) pendingQueue.poll();
-
-                        if (cf == null) {
-                            if (counter.decrementAndGet() == 0) {
-                                chainTasks.remove(syncSignature);
-                            }
+                    // remove from pending queue and add to running queue later
+                    ChainFuture cf = pendingQueue.poll();
+                    if (cf == null) {
+                        synchronized (ChainTaskQueueWrapper.this) {
+                            // a submitter may have offered a task after the poll above
+                            // while seeing this runner still counted
+                            cf = pendingQueue.poll();
+                            if (cf == null) {
+                                if (counter.decrementAndGet() == 0) {
+                                    retired = true;
+                                    chainTasks.remove(syncSignature, ChainTaskQueueWrapper.this);
+                                }
 
-                            return;
+                                return;
+                            }
                         }
                     }
 
-                    synchronized (runningQueue) {
-                        processTimeoutTask(cf);
-                        cf.setStartExecutionTimeInMills(zTimer.getCurrentTimeMillis());
-                        // add to running queue
-                        runningQueue.offer(cf);
-                        Optional.ofNullable(getApiId(cf))
-                                .ifPresent(apiId -> apiRunningSignature.computeIfAbsent(apiId,
-                                        k -> Collections.synchronizedList(new ArrayList<>())).add(syncSignature));
-                    }
+                    processTimeoutTask(cf);
+                    cf.setStartExecutionTimeInMills(zTimer.getCurrentTimeMillis());
+                    // add to running queue
+                    runningQueue.offer(cf);
+                    Optional.ofNullable(getApiId(cf))
+                            .ifPresent(apiId -> apiRunningSignature.computeIfAbsent(apiId,
+                                    k -> Collections.synchronizedList(new ArrayList<>())).add(syncSignature));
 
                     // recover task context from backup
                     if (cf.getTask().getTaskContext() != null) {
@@ -910,19 +909,18 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
                         removeSubPending(cf.getTask().getDeduplicateString(), false);
                     }
 
-                    cf.run(() -> {
-                        synchronized (runningQueue) {
-                            Optional.ofNullable(getApiId(cf))
-                                    .ifPresent(apiId -> apiRunningSignature.computeIfPresent(apiId, (k, sigs) -> {
-                                        sigs.remove(syncSignature);
-                                        return sigs.isEmpty() ? null : sigs;
-                                    }));
-                            runningQueue.remove(cf);
-                            logger.debug(String.format("Finish executing runningQueue: %s, task name: %s", syncSignature, cf.getTask().getName()));
-
-                            if (cf.getTask().getDeduplicateString() != null) {
-                                removeSubPendingZero(cf.getTask().getDeduplicateString());
-                            }
+                    final ChainFuture running = cf;
+                    running.run(() -> {
+                        Optional.ofNullable(getApiId(running))
+                                .ifPresent(apiId -> apiRunningSignature.computeIfPresent(apiId, (k, sigs) -> {
+                                    sigs.remove(syncSignature);
+                                    return sigs.isEmpty() ? null : sigs;
+                                }));
+                        runningQueue.remove(running);
+                        logger.debug(String.format("Finish executing runningQueue: %s, task name: %s", syncSignature, running.getTask().getName()));
+
+                        if (running.getTask().getDeduplicateString() != null) {
+                            removeSubPendingZero(running.getTask().getDeduplicateString());
                         }
 
                         /*
@@ -965,18 +963,12 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
             tb.append(String.format("\nASYNC LEVEL: %s", maxThreadNum));
 
             int index = 0;
-            synchronized (runningQueue) {
-                for (Object obj : runningQueue) {
-                    ChainFuture cf = (ChainFuture) obj;
-                    tb.append(TaskInfoBuilder.buildRunningTaskInfo(cf, now, index++));
-                }
+            for (ChainFuture cf : runningQueue) {
+                tb.append(TaskInfoBuilder.buildRunningTaskInfo(cf, now, index++));
             }
 
-            synchronized (pendingQueue) {
-                for (Object obj : pendingQueue) {
-                    ChainFuture cf = (ChainFuture) obj;
-                    tb.append(TaskInfoBuilder.buildPendingTaskInfo(cf, now, index++));
-                }
+            for (ChainFuture cf : pendingQueue) {
+                tb.append(TaskInfoBuilder.buildPendingTaskInfo(cf, now, index++));
             }
 
             return tb.toString();
@@ -1008,25 +1000,31 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
         assert task.getSyncSignature() != null : "How can you submit a chain task without sync signature ???";
         DebugUtils.Assert(task.getSyncLevel() >= 1, "getSyncLevel() must return 1 at least ");
 
-        synchronized (chainTasks) {
-            final String signature = task.getSyncSignature();
-            ChainTaskQueueWrapper wrapper = chainTasks.get(signature);
-            if (wrapper == null) {
-                wrapper = new ChainTaskQueueWrapper();
-                chainTasks.put(signature, wrapper);
-            }
+        final String signature = task.getSyncSignature();
+        ChainFuture cf = new ChainFuture(task);
+        boolean succeed;
+        while (true) {
+            ChainTaskQueueWrapper wrapper = chainTasks.computeIfAbsent(signature, k -> new ChainTaskQueueWrapper());
+            synchronized (wrapper) {
+                if (wrapper.retired) {
+                    continue;
+                }
 
-            ChainFuture cf = new ChainFuture(task);
-            boolean succeed = wrapper.addTask(cf, task.getMaxPendingTasks());
-            if (!succeed) {
-                cf.cancel();
-                logger.debug(String.format("Pending queue[%s] exceed max size, task name: %s, start execute callback", task.getSyncSignature(), task.getName()));
-                task.exceedMaxPendingCallback();
-            } else {
-                wrapper.startThreadIfNeeded();
+                succeed = wrapper.addTask(cf, task.getMaxPendingTasks());
+                if (succeed) {
+                    wrapper.startThreadIfNeeded();
+                }
             }
-            return cf;
+
+            break;
         }
+
+        if (!succeed) {
+            cf.cancel();
+            logger.debug(String.format("Pending queue[%s] exceed max size, task name: %s, start execute callback", task.getSyncSignature(), task.getName()));
+            task.exceedMaxPendingCallback();
+        }
+        return cf;
     }
 
 
@@ -1061,18 +1059,16 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     @Override
     public Map<String, SyncTaskStatistic> getSyncTaskStatistics() {
         Map<String, SyncTaskStatistic> ret = new ConcurrentHashMap<>();
-        synchronized (syncTasks) {
-            for (SyncTaskQueueWrapper wrapper : syncTasks.values()) {
-                SyncTaskStatistic statistic = new SyncTaskStatistic(
-                        wrapper.syncSignature,
-                        wrapper.maxThreadNum,
-                        wrapper.counter.intValue(),
-                        wrapper.queue.size()
-                );
-                ret.put(statistic.getSyncSignature(), statistic);
-
-                logger.warn(JSONObjectUtil.toJsonString(statistic));
-            }
+        for (SyncTaskQueueWrapper wrapper : syncTasks.values()) {
+            SyncTaskStatistic statistic = new SyncTaskStatistic(
+                    wrapper.syncSignature,
+                    wrapper.maxThreadNum,
+                    wrapper.counter.intValue(),
+                    wrapper.queue.size()
+            );
+            ret.put(statistic.getSyncSignature(), statistic);
+
+            logger.warn(JSONObjectUtil.toJsonString(statistic));
         }
 
         return ret;
@@ -1081,24 +1077,20 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     @Override
     public Map<String, ChainTaskStatistic> getChainTaskStatistics() {
         Map<String, ChainTaskStatistic> ret =  new ConcurrentHashMap<>();
-        synchronized (chainTasks) {
-            for (ChainTaskQueueWrapper wrapper : chainTasks.values()) {
-                ChainTaskStatistic statistic = new ChainTaskStatistic(
-                        wrapper.syncSignature,
-                        wrapper.maxThreadNum,
-                        wrapper.counter.intValue(),
-                        wrapper.pendingQueue.size()
-                );
-                ret.put(statistic.getSyncSignature(), statistic);
-            }
+        for (ChainTaskQueueWrapper wrapper : chainTasks.values()) {
+            ChainTaskStatistic statistic = new ChainTaskStatistic(
+                    wrapper.syncSignature,
+                    wrapper.maxThreadNum,
+                    wrapper.counter.intValue(),
+                    wrapper.pendingQueue.size()
+            );
+            ret.put(statistic.getSyncSignature(), statistic);
         }
         return ret;
     }
 
     @Override
     public boolean isChainTaskRunning(String signature) {
-        synchronized (chainTasks) {
-            return chainTasks.containsKey(signature);
-        }
+        return chainTasks.containsKey(signature);
     }
 }
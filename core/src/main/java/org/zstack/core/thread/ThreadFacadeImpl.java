@@ -21,6 +21,9 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
     private static final AtomicInteger seqNum = new AtomicInteger(0);
     private ScheduledThreadPoolExecutorExt _pool;
     private ScheduledThreadPoolExecutorExt _syncpool;  // for sync tasks
+    // set when ThreadFacade.virtualThread is on, periodic and scheduled tasks stay in _pool
+    private VirtualThreadExecutor _vpool;
+    private VirtualThreadExecutor _vsyncpool;
     private DispatchQueue dpq;
     private final TimerPool timerPool = new TimerPool(5);
 
@@ -86,6 +89,18 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
 
     @Override
     public ThreadPoolStatistic getThreadPoolStatistic() {
+        if (_vpool != null) {
+            return new ThreadPoolStatistic(
+                    (int) _vpool.getPendingTaskCount(),
+                    _vpool.getActiveCount(),
+                    _vpool.getCompletedTaskCount(),
+                    _vpool.getPendingTaskCount(),
+                    _vpool.getActiveCount(),
+                    _vpool.getLargestActiveCount(),
+                    _vpool.getWaitingTaskCount()
+            );
+        }
+
         long completedTask = _pool.getCompletedTaskCount();
         long pendingTask = _pool.getTaskCount() - completedTask;
         return new ThreadPoolStatistic(
@@ -136,6 +151,16 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
         _pool = new ScheduledThreadPoolExecutorExt(totalThreadNum, this, this);
         _syncpool = new ScheduledThreadPoolExecutorExt(getSyncThreadNum(totalThreadNum), this, this);
         _logger.debug(String.format("create ThreadFacade with max thread number:%s", totalThreadNum));
+
+        if (ThreadGlobalProperty.VIRTUAL_THREAD) {
+            if (VirtualThreadExecutor.isSupported()) {
+                _vpool = new VirtualThreadExecutor("pool");
+                _vsyncpool = new VirtualThreadExecutor("sync-pool");
+                _logger.debug("ThreadFacade runs tasks on virtual threads");
+            } else {
+                _logger.warn("ThreadFacade.virtualThread is set but the JVM doesn't support virtual threads, use the thread pools");
+            }
+        }
         dpq = new DispatchQueueImpl();
 
         jmxf.registerBean("ThreadFacade", this);
@@ -144,14 +169,27 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
     public void destroy() {
         _pool.shutdownNow();
         _syncpool.shutdown();
+
+        if (_vpool != null) {
+            _vpool.shutdownNow();
+            _vsyncpool.shutdown();
+        }
     }
 
     @Override
     public <T> Future<T> submit(Task<T> task) {
+        if (_vpool != null) {
+            return _vpool.submit(new Worker<T>(task));
+        }
+
         return _pool.submit(new Worker<T>(task));
     }
 
     public <T> Future<T> submitSyncPool(Task<T> task) {
+        if (_vsyncpool != null) {
+            return _vsyncpool.submit(new Worker<T>(task));
+        }
+
         return _syncpool.submit(new Worker<T>(task));
     }
 
@@ -206,12 +244,22 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
     public void registerHook(ThreadAroundHook hook) {
         _pool.registerHook(hook);
         _syncpool.registerHook(hook);
+
+        if (_vpool != null) {
+            _vpool.registerHook(hook);
+            _vsyncpool.registerHook(hook);
+        }
     }
 
     @Override
     public void unregisterHook(ThreadAroundHook hook) {
         _pool.unregisterHook(hook);
         _syncpool.unregisterHook(hook);
+
+        if (_vpool != null) {
+            _vpool.unregisterHook(hook);
+            _vsyncpool.unregisterHook(hook);
+        }
     }
 
     @Override
@@ -316,6 +364,9 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
     @Override
     public boolean stop() {
         _pool.shutdown();
+        if (_vpool != null) {
+            _vpool.shutdown();
+        }
         timerPool.stop();
         return true;
     }
@@ -375,6 +426,15 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
                 _syncpool.getCorePoolSize(), _syncpool.getMaximumPoolSize(), completedSyncTask, pendingSyncTask,
                 _syncpool.getQueue().size()));
 
+        if (_vpool != null) {
+            builder.append("check virtual thread tasks: ");
+            builder.append(String.format("largestActiveTasks: %s, activeTasks: %s, waitingTasks: %s, completedTasks: %s, " +
+                            "syncLargestActiveTasks: %s, syncActiveTasks: %s, syncWaitingTasks: %s, syncCompletedTasks: %s",
+                    _vpool.getLargestActiveCount(), _vpool.getActiveCount(), _vpool.getWaitingTaskCount(), _vpool.getCompletedTaskCount(),
+                    _vsyncpool.getLargestActiveCount(), _vsyncpool.getActiveCount(), _vsyncpool.getWaitingTaskCount(),
+                    _vsyncpool.getCompletedTaskCount()));
+        }
+
         _logger.debug(builder.toString());
     }
 }
@@ -9,4 +9,7 @@ import org.zstack.core.GlobalPropertyDefinition;
 public class ThreadGlobalProperty {
     @GlobalProperty(name="ThreadFacade.maxThreadNum", defaultValue = "150")
     public static int MAX_THREAD_NUM;
+
+    @GlobalProperty(name="ThreadFacade.virtualThread", defaultValue = "false")
+    public static boolean VIRTUAL_THREAD;
 }
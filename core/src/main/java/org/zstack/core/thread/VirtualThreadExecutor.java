@@ -0,0 +1,162 @@
+package org.zstack.core.thread;
+
+import org.apache.logging.log4j.ThreadContext;
+import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.logging.CLoggerImpl;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs every task on its own virtual thread. There is no cap on the tasks running at the
+ * same time: a task blocked in IO or waiting for another task only parks its virtual
+ * thread, so blocking tasks neither exhaust a pool nor wait for each other's permits.
+ * The concurrency of sync queues is still limited per sync signature by
+ * {@link DispatchQueueImpl}, in the same way as with the thread pools.
+ *
+ * Virtual threads are looked up by reflection since the code is built for Java 8,
+ * {@link #isSupported()} tells whether the running JVM has them.
+ */
+public class VirtualThreadExecutor {
+    private static final CLogger _logger = CLoggerImpl.getLogger(VirtualThreadExecutor.class);
+
+    private static final ThreadFactory virtualThreadFactory = createVirtualThreadFactory();
+
+    private final String name;
+    private final ExecutorService executor;
+    private final List<ThreadAroundHook> hooks = new ArrayList<>(8);
+
+    private final AtomicLong submittedTasks = new AtomicLong();
+    private final AtomicLong completedTasks = new AtomicLong();
+    private final AtomicInteger runningTasks = new AtomicInteger();
+    private final AtomicInteger largestRunningTasks = new AtomicInteger();
+
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "zs-vthread-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public static boolean isSupported() {
+        return virtualThreadFactory != null;
+    }
+
+    public VirtualThreadExecutor(String name) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("virtual threads are not supported by the running JVM");
+        }
+
+        this.name = name;
+
+        try {
+            Method m = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            executor = (ExecutorService) m.invoke(null, virtualThreadFactory);
+        } catch (Exception e) {
+            throw new UnsupportedOperationException("virtual threads are not supported by the running JVM", e);
+        }
+    }
+
+    public void registerHook(ThreadAroundHook hook) {
+        synchronized (hooks) {
+            hooks.add(hook);
+        }
+    }
+
+    public void unregisterHook(ThreadAroundHook hook) {
+        synchronized (hooks) {
+            hooks.remove(hook);
+        }
+    }
+
+    private List<ThreadAroundHook> getHooks() {
+        synchronized (hooks) {
+            return new ArrayList<>(hooks);
+        }
+    }
+
+    private void runTask(FutureTask<?> task) {
+        largestRunningTasks.accumulateAndGet(runningTasks.incrementAndGet(), Math::max);
+        try {
+            ThreadContext.clearMap();
+            ThreadContext.clearStack();
+            for (ThreadAroundHook hook : getHooks()) {
+                try {
+                    hook.beforeExecute(Thread.currentThread(), task);
+                } catch (Exception e) {
+                    _logger.warn("Unhandled exception happened during executing ThreadAroundHook: " + hook.getClass().getCanonicalName(), e);
+                }
+            }
+
+            task.run();
+
+            for (ThreadAroundHook hook : getHooks()) {
+                try {
+                    hook.afterExecute(task, null);
+                } catch (Exception e) {
+                    _logger.warn("Unhandled exception happened during executing ThreadAroundHook: " + hook.getClass().getCanonicalName(), e);
+                }
+            }
+        } finally {
+            ThreadContext.clearMap();
+            ThreadContext.clearStack();
+            runningTasks.decrementAndGet();
+            completedTasks.incrementAndGet();
+        }
+    }
+
+    public <T> Future<T> submit(Callable<T> callable) {
+        FutureTask<T> task = new FutureTask<>(callable);
+        submittedTasks.incrementAndGet();
+        try {
+            executor.execute(() -> runTask(task));
+        } catch (RejectedExecutionException e) {
+            completedTasks.incrementAndGet();
+            _logger.warn(String.format("task got rejected by the virtual thread executor[%s], it's shut down", name));
+            task.cancel(false);
+        }
+        return task;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public void shutdownNow() {
+        executor.shutdownNow();
+    }
+
+    public int getActiveCount() {
+        return runningTasks.get();
+    }
+
+    /**
+     * @return the largest number of tasks that have run at the same time
+     */
+    public int getLargestActiveCount() {
+        return largestRunningTasks.get();
+    }
+
+    /**
+     * @return number of tasks that have been submitted but not finished, running or not started yet
+     */
+    public long getPendingTaskCount() {
+        return submittedTasks.get() - completedTasks.get();
+    }
+
+    public long getWaitingTaskCount() {
+        return Math.max(0, getPendingTaskCount() - getActiveCount());
+    }
+
+    public long getCompletedTaskCount() {
+        return completedTasks.get();
+    }
+}
@@ -31,23 +31,27 @@ public abstract class WebhookCaller {
 
     protected void postToWebhooks(List<WebhookInventory> hooks, String body) {
         for (WebhookInventory hook : hooks) {
-            HttpHeaders requestHeaders = new HttpHeaders();
-            requestHeaders.setContentType(MediaType.valueOf(RESTConstant.APP_JSON_UTF8));
-            requestHeaders.setContentLength(body.length());
-            HttpEntity<String> req = new HttpEntity<String>(body, requestHeaders);
-
-            ResponseEntity<String> rsp = new Retry<ResponseEntity<String>>() {
-                @Override
-                @RetryCondition(onExceptions = {IOException.class, RestClientException.class})
-                protected ResponseEntity<String> call() {
-                    return restTemplate.exchange(hook.getUrl(), HttpMethod.POST, req, String.class);
-                }
-            }.run();
-
-            if (!rsp.getStatusCode().is2xxSuccessful()) {
-                logger.warn(String.format("unable to call the webhook[uuid:%s, name:%s, url:%s], status code: %s, body: %s",
-                        hook.getUuid(), hook.getName(), hook.getUrl(), rsp.getStatusCode(), rsp.getBody()));
+            postToWebhook(hook, body);
+        }
+    }
+
+    static void postToWebhook(WebhookInventory hook, String body) {
+        HttpHeaders requestHeaders = new HttpHeaders();
+        requestHeaders.setContentType(MediaType.valueOf(RESTConstant.APP_JSON_UTF8));
+        requestHeaders.setContentLength(body.length());
+        HttpEntity<String> req = new HttpEntity<String>(body, requestHeaders);
+
+        ResponseEntity<String> rsp = new Retry<ResponseEntity<String>>() {
+            @Override
+            @RetryCondition(onExceptions = {IOException.class, RestClientException.class})
+            protected ResponseEntity<String> call() {
+                return restTemplate.exchange(hook.getUrl(), HttpMethod.POST, req, String.class);
             }
+        }.run();
+
+        if (!rsp.getStatusCode().is2xxSuccessful()) {
+            logger.warn(String.format("unable to call the webhook[uuid:%s, name:%s, url:%s], status code: %s, body: %s",
+                    hook.getUuid(), hook.getName(), hook.getUrl(), rsp.getStatusCode(), rsp.getBody()));
         }
     }
 
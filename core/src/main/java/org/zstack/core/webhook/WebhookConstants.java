@@ -5,4 +5,6 @@ package org.zstack.core.webhook;
  */
 public interface WebhookConstants {
     String SERVICE_ID = "webhook";
+
+    String WEBHOOK_CHANGED_EVENT_PATH = "/webhook/changed";
 }
@@ -0,0 +1,132 @@
+package org.zstack.core.webhook;
+
+import org.zstack.core.thread.ChainTask;
+import org.zstack.core.thread.SyncTaskChain;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.core.webhooks.WebhookInventory;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Delivers webhook calls asynchronously.
+ *
+ * Each endpoint URL has a bounded queue drained by its own send chain, up to
+ * Webhook.deliveryBatchSize calls are posted in one chain task run and each call
+ * is retried by {@link WebhookCaller}. When a slow receiver lets its queue fill up,
+ * the oldest pending call is dropped so the caller firing events never blocks.
+ *
+ * The endpoints are kept only for the URLs of existing webhooks, see {@link #retain(Collection)}.
+ */
+public class WebhookDeliveryQueue {
+    private static final CLogger logger = Utils.getLogger(WebhookDeliveryQueue.class);
+
+    private final ThreadFacade thdf;
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    private static class Delivery {
+        final WebhookInventory hook;
+        final String body;
+
+        Delivery(WebhookInventory hook, String body) {
+            this.hook = hook;
+            this.body = body;
+        }
+    }
+
+    private class Endpoint {
+        final String url;
+        final BlockingQueue<Delivery> queue = new LinkedBlockingQueue<>(WebhookGlobalProperty.DELIVERY_QUEUE_CAPACITY);
+        final AtomicBoolean draining = new AtomicBoolean(false);
+
+        Endpoint(String url) {
+            this.url = url;
+        }
+
+        void offer(Delivery d) {
+            while (!queue.offer(d)) {
+                Delivery dropped = queue.poll();
+                if (dropped != null) {
+                    logger.warn(String.format("the delivery queue of the webhook endpoint[%s] is full, drop a call to the webhook[uuid:%s]",
+                            url, dropped.hook.getUuid()));
+                }
+            }
+
+            if (draining.compareAndSet(false, true)) {
+                drain();
+            }
+        }
+
+        private void drain() {
+            thdf.chainSubmit(new ChainTask(null) {
+                @Override
+                public String getSyncSignature() {
+                    return String.format("webhook-delivery-%s", url);
+                }
+
+                @Override
+                public void run(SyncTaskChain chain) {
+                    List<Delivery> batch = new ArrayList<>();
+                    queue.drainTo(batch, WebhookGlobalProperty.DELIVERY_BATCH_SIZE);
+                    for (Delivery d : batch) {
+                        try {
+                            WebhookCaller.postToWebhook(d.hook, d.body);
+                        } catch (Throwable t) {
+                            logger.warn(String.format("unable to call the webhook[uuid:%s, name:%s, url:%s]",
+                                    d.hook.getUuid(), d.hook.getName(), d.hook.getUrl()), t);
+                        }
+                    }
+
+                    draining.set(false);
+                    if (!queue.isEmpty() && draining.compareAndSet(false, true)) {
+                        drain();
+                    }
+
+                    chain.next();
+                }
+
+                @Override
+                public String getName() {
+                    return getSyncSignature();
+                }
+            });
+        }
+    }
+
+    public WebhookDeliveryQueue(ThreadFacade thdf) {
+        this.thdf = thdf;
+    }
+
+    public void offer(WebhookInventory hook, String body) {
+        endpoints.computeIfAbsent(hook.getUrl(), Endpoint::new).offer(new Delivery(hook, body));
+    }
+
+    /**
+     * Evicts the endpoints no webhook posts to anymore and drops the pending calls of
+     * webhooks not in the given list, e.g. after webhooks are deleted or their URLs changed.
+     */
+    public void retain(Collection<WebhookInventory> hooks) {
+        Set<String> urls = hooks.stream().map(WebhookInventory::getUrl).collect(Collectors.toSet());
+        Set<String> uuids = hooks.stream().map(WebhookInventory::getUuid).collect(Collectors.toSet());
+
+        Iterator<Endpoint> it = endpoints.values().iterator();
+        while (it.hasNext()) {
+            Endpoint e = it.next();
+            if (!urls.contains(e.url)) {
+                it.remove();
+            }
+
+            e.queue.removeIf(d -> !uuids.contains(d.hook.getUuid()));
+        }
+    }
+
+    public Set<String> getEndpointUrls() {
+        return new HashSet<>(endpoints.keySet());
+    }
+}
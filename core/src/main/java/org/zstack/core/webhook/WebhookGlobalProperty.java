@@ -0,0 +1,14 @@
+package org.zstack.core.webhook;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+/**
+ */
+@GlobalPropertyDefinition
+public class WebhookGlobalProperty {
+    @GlobalProperty(name="Webhook.deliveryQueueCapacity", defaultValue = "1000")
+    public static int DELIVERY_QUEUE_CAPACITY;
+    @GlobalProperty(name="Webhook.deliveryBatchSize", defaultValue = "50")
+    public static int DELIVERY_BATCH_SIZE;
+}
@@ -0,0 +1,111 @@
+package org.zstack.core.workflow;
+
+import org.zstack.header.core.workflow.*;
+import org.zstack.utils.FieldUtils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What SimpleFlowChain learns of a flow class by reflection, built once per class instead of
+ * for every flow it runs: the fields annotated by @AfterDone, @AfterError and @AfterFinal,
+ * the __name__ field, the default name and whether the flow has anything to roll back.
+ */
+class FlowMetadata {
+    private static final Map<Class, FlowMetadata> metadata = new ConcurrentHashMap<>();
+
+    private final Field nameField;
+    private final String defaultName;
+    private final String fileName;
+    private final Field[] afterDoneFields;
+    private final Field[] afterErrorFields;
+    private final Field[] afterFinalFields;
+    private final boolean rollbackable;
+
+    static FlowMetadata get(Flow flow) {
+        return metadata.computeIfAbsent(flow.getClass(), FlowMetadata::new);
+    }
+
+    private FlowMetadata(Class<?> clz) {
+        nameField = FieldUtils.getField("__name__", clz);
+        if (nameField != null) {
+            nameField.setAccessible(true);
+        }
+
+        defaultName = clz.getSimpleName().isEmpty() ? clz.getName() : clz.getSimpleName();
+
+        String[] ff = clz.getName().split("\\.");
+        String filename = ff[ff.length - 1];
+        if (filename.contains("$")) {
+            filename = filename.substring(0, filename.indexOf("$"));
+        }
+        fileName = filename;
+
+        afterDoneFields = getAnnotatedFields(AfterDone.class, clz);
+        afterErrorFields = getAnnotatedFields(AfterError.class, clz);
+        afterFinalFields = getAnnotatedFields(AfterFinal.class, clz);
+
+        rollbackable = !isRollbackDeclaredBy(NoRollbackFlow.class, clz);
+    }
+
+    private static Field[] getAnnotatedFields(Class annotation, Class clz) {
+        List<Field> fields = FieldUtils.getAnnotatedFieldsOnThisClass(annotation, clz);
+        fields.forEach(f -> f.setAccessible(true));
+        return fields.toArray(new Field[0]);
+    }
+
+    private static boolean isRollbackDeclaredBy(Class declaringClass, Class clz) {
+        try {
+            Method m = clz.getMethod("rollback", FlowRollback.class, Map.class);
+            return m.getDeclaringClass() == declaringClass;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    String getName(Flow flow) {
+        if (nameField == null) {
+            return defaultName;
+        }
+
+        try {
+            String name = (String) nameField.get(flow);
+            return name == null ? defaultName : name;
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return false if the flow rolls back by calling FlowRollback.rollback() only
+     */
+    boolean isRollbackable() {
+        return rollbackable;
+    }
+
+    void collectAfterRunnable(Flow flow, List<List<Runnable>> afterDone, List<List<Runnable>> afterError, List<List<Runnable>> afterFinal) {
+        collect(flow, afterDoneFields, afterDone);
+        collect(flow, afterErrorFields, afterError);
+        collect(flow, afterFinalFields, afterFinal);
+    }
+
+    private static void collect(Flow flow, Field[] fields, List<List<Runnable>> to) {
+        for (Field f : fields) {
+            try {
+                List lst = (List) f.get(flow);
+                if (lst != null) {
+                    to.add(lst);
+                }
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
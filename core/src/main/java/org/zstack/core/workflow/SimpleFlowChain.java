@@ -14,13 +14,11 @@ import org.zstack.header.errorcode.OperationFailureException;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.DebugUtils;
-import org.zstack.utils.FieldUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.function.ForEachFunction;
 import org.zstack.utils.function.Function;
 import org.zstack.utils.logging.CLogger;
 
-import java.lang.reflect.Field;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
@@ -84,12 +82,11 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
 
             String fname = getFlowNameWithoutLocation(flow);
             beginTime.put(fname, btime);
-            WorkFlowStatistic stat = statistics.get(fname);
-            if (stat == null) {
-                stat = new WorkFlowStatistic();
-                stat.setName(fname);
-                statistics.put(fname, stat);
-            }
+            statistics.computeIfAbsent(fname, k -> {
+                WorkFlowStatistic stat = new WorkFlowStatistic();
+                stat.setName(k);
+                return stat;
+            });
         }
 
         void stop() {
@@ -279,29 +276,7 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
     }
 
     private void collectAfterRunnable(Flow flow) {
-        List<Field> ad = FieldUtils.getAnnotatedFieldsOnThisClass(AfterDone.class, flow.getClass());
-        for (Field f : ad) {
-            List lst = FieldUtils.getFieldValue(f.getName(), flow);
-            if (lst != null) {
-                afterDone.add(lst);
-            }
-        }
-
-        ad = FieldUtils.getAnnotatedFieldsOnThisClass(AfterError.class, flow.getClass());
-        for (Field f : ad) {
-            List lst = FieldUtils.getFieldValue(f.getName(), flow);
-            if (lst != null) {
-                afterError.add(lst);
-            }
-        }
-
-        ad = FieldUtils.getAnnotatedFieldsOnThisClass(AfterFinal.class, flow.getClass());
-        for (Field f : ad) {
-            List lst = FieldUtils.getFieldValue(f.getName(), flow);
-            if (lst != null) {
-                afterFinal.add(lst);
-            }
-        }
+        FlowMetadata.get(flow).collectAfterRunnable(flow, afterDone, afterError, afterFinal);
     }
 
     private void printDebugLog(String msg) {
@@ -407,6 +382,9 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
             if (skippedFlows.contains(flow)) {
                 printDebugLog(String.format("[FlowChain(%s): %s] skip rollback flow[%s] because it's skip() returns true", id, name, getFlowName(flow)));
                 rollback();
+            } else if (!FlowMetadata.get(flow).isRollbackable()) {
+                // NoRollbackFlow.rollback() does nothing but this
+                rollback();
             } else {
                 flow.rollback(this, data);
             }
@@ -451,38 +429,16 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
     }
 
     private String getFlowNameWithoutLocation(Flow flow) {
-        String name = getFlowName(flow);
-        if (name.indexOf(" (location:") > 0) {
-            return name.substring(0, name.indexOf(" (location:"));
+        FlowMetadata metadata = FlowMetadata.get(flow);
+        String name = metadata.getName(flow);
+        if (logger.isTraceEnabled()) {
+            return metadata.getFileName() + ".java: " + name;
         }
         return name;
     }
 
     private String getFlowName(Flow flow) {
-        StringBuilder name = new StringBuilder();
-        String innerName = FieldUtils.getFieldValue("__name__", flow);
-        if (innerName == null) {
-            name.append(flow.getClass().getSimpleName());
-            if (name.length() == 0) {
-                name.append(flow.getClass().getName());
-            }
-        } else {
-            name.append(innerName);
-        }
-
-        if (logger.isTraceEnabled()) {
-            String className = flow.getClass().getName();
-            String[] ff = className.split("\\.");
-            String filename = ff[ff.length-1];
-            if (filename.contains("$")) {
-                int index = filename.indexOf("$");
-                filename = filename.substring(0, index);
-            }
-            name.insert(0, String.format("%s.java: ", filename));
-        }
-        name.append(String.format(" (location:%d/%d)", currentLoop, flows.size()));
-
-        return name.toString();
+        return getFlowNameWithoutLocation(flow) + " (location:" + currentLoop + "/" + flows.size() + ")";
     }
 
     @Override
@@ -12,6 +12,8 @@ public class IdentityCanonicalEvents {
     public static final String USER_DELETED_PATH = "/user/delete";
     public static final String ACCOUNT_LOGIN_PATH = "/account/login";
     public static final String SESSION_FORCE_LOGOUT_PATH = "/session/logout";
+    public static final String POLICY_CHANGED_PATH = "/policy/changed";
+    public static final String QUOTA_USAGE_CHANGED_PATH = "/quota/usage/changed";
 
     public static final String SESSION_FORCE_LOGOUT = "SessionForceLogout";
 
@@ -147,4 +149,75 @@ public class IdentityCanonicalEvents {
             this.userUuid = userUuid;
         }
     }
+
+    @NeedJsonSchema
+    public static class PolicyChangedData {
+        private String managementNodeUuid;
+        private Date date = new Date();
+
+        public String getManagementNodeUuid() {
+            return managementNodeUuid;
+        }
+
+        public void setManagementNodeUuid(String managementNodeUuid) {
+            this.managementNodeUuid = managementNodeUuid;
+        }
+
+        public Date getDate() {
+            return date;
+        }
+
+        public void setDate(Date date) {
+            this.date = date;
+        }
+    }
+
+    @NeedJsonSchema
+    public static class QuotaUsageChangedData {
+        private String managementNodeUuid;
+        private List<String> resourceUuids;
+        private List<String> accountUuids;
+        private boolean all;
+        private Date date = new Date();
+
+        public String getManagementNodeUuid() {
+            return managementNodeUuid;
+        }
+
+        public void setManagementNodeUuid(String managementNodeUuid) {
+            this.managementNodeUuid = managementNodeUuid;
+        }
+
+        public List<String> getResourceUuids() {
+            return resourceUuids;
+        }
+
+        public void setResourceUuids(List<String> resourceUuids) {
+            this.resourceUuids = resourceUuids;
+        }
+
+        public List<String> getAccountUuids() {
+            return accountUuids;
+        }
+
+        public void setAccountUuids(List<String> accountUuids) {
+            this.accountUuids = accountUuids;
+        }
+
+        public boolean isAll() {
+            return all;
+        }
+
+        public void setAll(boolean all) {
+            this.all = all;
+        }
+
+        public Date getDate() {
+            return date;
+        }
+
+        public void setDate(Date date) {
+            this.date = date;
+        }
+    }
 }
@@ -0,0 +1,174 @@
+package org.zstack.header.message;
+
+import org.apache.commons.lang.StringUtils;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.utils.FieldUtils;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds the schema of a message sent through CloudBus.
+ *
+ * Compared to {@link JsonSchemaBuilder}, the reflective field layout of each class is
+ * resolved once and cached, fields that can never carry an org.zstack object (primitives,
+ * enums, final JRE classes, collections of JRE classes) are dropped from the layout, and
+ * only paths whose runtime type differs from the type Gson deserializes them to are
+ * recorded. Those polymorphic leaves are the only entries the receiver needs in
+ * restoreFromSchema(), all other entries are skipped there anyway.
+ */
+public class MessageSchemaBuilder {
+    private static final CLogger logger = Utils.getLogger(MessageSchemaBuilder.class);
+
+    private static final Map<Class, List<SchemaField>> layouts = new ConcurrentHashMap<>();
+
+    private static class SchemaField {
+        final Field field;
+        // generic element type for Collection fields, value type for Map fields
+        final Class elementType;
+
+        SchemaField(Field field, Class elementType) {
+            this.field = field;
+            this.elementType = elementType;
+        }
+    }
+
+    private final Object object;
+    private final LinkedHashMap<String, String> schema = new LinkedHashMap<>();
+
+    public MessageSchemaBuilder(Object object) {
+        this.object = object;
+    }
+
+    private static boolean isSkip(Field f) {
+        return f.isAnnotationPresent(NoJsonSchema.class) || Modifier.isStatic(f.getModifiers())
+                || f.isAnnotationPresent(GsonTransient.class);
+    }
+
+    private static List<SchemaField> layoutOf(Class clz) {
+        List<SchemaField> layout = layouts.get(clz);
+        if (layout == null) {
+            layout = layouts.computeIfAbsent(clz, MessageSchemaBuilder::buildLayout);
+        }
+
+        return layout;
+    }
+
+    private static List<SchemaField> buildLayout(Class clz) {
+        List<SchemaField> layout = new ArrayList<>();
+        for (Field f : FieldUtils.getAllFields(clz)) {
+            // transient fields are never serialized by Gson
+            if (isSkip(f) || Modifier.isTransient(f.getModifiers())) {
+                continue;
+            }
+
+            Class type = f.getType();
+            if (type.isPrimitive() || type.isEnum()) {
+                continue;
+            }
+
+            Class elementType = null;
+            if (Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type)) {
+                elementType = FieldUtils.getGenericType(f);
+                if (elementType == null || elementType.getName().startsWith("java.")) {
+                    continue;
+                }
+            } else if (type.getName().startsWith("java.") && Modifier.isFinal(type.getModifiers())) {
+                // String, boxed primitives and other final JRE classes
+                continue;
+            }
+
+            f.setAccessible(true);
+            layout.add(new SchemaField(f, elementType));
+        }
+
+        return Collections.unmodifiableList(layout);
+    }
+
+    private void build(Object o, Class expectedType, Stack<String> paths) throws IllegalAccessException {
+        for (SchemaField sf : layoutOf(o.getClass())) {
+            Field f = sf.field;
+            try {
+                Object value = f.get(o);
+                if (value == null) {
+                    continue;
+                }
+
+                final String valueClassCanonicalName = value.getClass().getCanonicalName();
+                if (valueClassCanonicalName == null) {
+                    continue;
+                }
+
+                if (valueClassCanonicalName.startsWith("java.")) {
+                    if (sf.elementType == null) {
+                        continue;
+                    }
+
+                    if (value instanceof Collection) {
+                        int i = 0;
+                        for (Object co : (Collection) value) {
+                            String path = String.format("%s[%s]", f.getName(), i++);
+                            if (co == null) {
+                                continue;
+                            }
+
+                            paths.push(path);
+                            build(co, sf.elementType, paths);
+                            paths.pop();
+                        }
+                    } else if (value instanceof Map) {
+                        for (Object me : ((Map) value).entrySet()) {
+                            Map.Entry e = (Map.Entry) me;
+                            if (e.getValue() == null) {
+                                continue;
+                            }
+
+                            paths.push(String.format("%s.%s", f.getName(), e.getKey().toString()));
+                            build(e.getValue(), sf.elementType, paths);
+                            paths.pop();
+                        }
+                    }
+                } else if (valueClassCanonicalName.startsWith("org.zstack")) {
+                    paths.push(f.getName());
+                    build(value, f.getType(), paths);
+                    paths.pop();
+                }
+            } catch (StackOverflowError e) {
+                throw new CloudRuntimeException(String.format("StackOverflowError at object: %s, o: %s, field[name:%s, type: %s], paths: %s",
+                        object.getClass(), o.getClass(), f.getName(), f.getType(), paths));
+            }
+        }
+
+        if (!paths.isEmpty() && o.getClass() != expectedType) {
+            schema.put(StringUtils.join(paths, "."), o.getClass().getName());
+        }
+    }
+
+    public Map<String, String> build() {
+        if (!object.getClass().getName().startsWith("org.zstack")) {
+            throw new CloudRuntimeException(String.format("only a org.zstack.* object can be built schema, %s is not", object.getClass()));
+        }
+
+        try {
+            build(object, object.getClass(), new Stack<>());
+        } catch (CloudRuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.warn(String.format("failed to build schema of %s", object.getClass()));
+            throw new CloudRuntimeException(e);
+        }
+
+        List<String> keys = new ArrayList<>(schema.keySet());
+        Collections.reverse(keys);
+        LinkedHashMap<String, String> ret = new LinkedHashMap<>(schema.size());
+        for (String key : keys) {
+            ret.put(key, schema.get(key));
+        }
+
+        return ret;
+    }
+}
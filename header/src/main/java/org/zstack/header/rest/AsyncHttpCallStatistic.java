@@ -0,0 +1,89 @@
+package org.zstack.header.rest;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * statistics of async http calls to an agent path, latencies are of the calls
+ * completed most recently
+ */
+public class AsyncHttpCallStatistic {
+    private static final int LATENCY_SAMPLES = 1024;
+
+    private final String path;
+    private final AtomicLong pendingCount = new AtomicLong();
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyIndex;
+    private int latencySize;
+
+    public AsyncHttpCallStatistic(String path) {
+        this.path = path;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getPendingCount() {
+        return pendingCount.get();
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    public void submit() {
+        pendingCount.incrementAndGet();
+    }
+
+    public void complete(long latency, boolean timeout) {
+        pendingCount.decrementAndGet();
+        count.incrementAndGet();
+        if (timeout) {
+            timeoutCount.incrementAndGet();
+        }
+
+        synchronized (latencies) {
+            latencies[latencyIndex] = latency;
+            latencyIndex = (latencyIndex + 1) % LATENCY_SAMPLES;
+            latencySize = Math.min(latencySize + 1, LATENCY_SAMPLES);
+        }
+    }
+
+    /**
+     * @param percentile in (0, 100]
+     * @return latency in milliseconds, or 0 if no call completed
+     */
+    public long getLatencyPercentile(double percentile) {
+        long[] samples;
+        synchronized (latencies) {
+            samples = Arrays.copyOf(latencies, latencySize);
+        }
+
+        if (samples.length == 0) {
+            return 0;
+        }
+
+        Arrays.sort(samples);
+        int rank = (int) Math.ceil(percentile / 100 * samples.length);
+        return samples[Math.min(Math.max(rank, 1), samples.length) - 1];
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PATH[%s]: pending: %s, total count: %s, timeout count: %s, latency p50: %s ms, p90: %s ms, p99: %s ms",
+                path,
+                getPendingCount(),
+                getCount(),
+                getTimeoutCount(),
+                getLatencyPercentile(50),
+                getLatencyPercentile(90),
+                getLatencyPercentile(99));
+    }
+}
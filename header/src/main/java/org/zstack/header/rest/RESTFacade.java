@@ -76,6 +76,11 @@ public interface RESTFacade {
 
     Map<String, HttpCallStatistic> getStatistics();
 
+    /**
+     * @return statistics of async calls keyed by the agent paths called
+     */
+    Map<String, AsyncHttpCallStatistic> getAsyncCallStatistics();
+
     <T> void registerSyncHttpCallHandler(String path, Class<T> objectType, SyncHttpCallHandler<T> handler);
 
     String getBaseUrl();
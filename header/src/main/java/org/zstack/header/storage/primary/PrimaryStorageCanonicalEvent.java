@@ -3,6 +3,9 @@ package org.zstack.header.storage.primary;
 import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.message.NeedJsonSchema;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * Created by xing5 on 2016/3/23.
  */
@@ -12,6 +15,7 @@ public class PrimaryStorageCanonicalEvent {
     public static final String PRIMARY_STORAGE_STATE_CHANGED_PATH = "/primaryStorage/state/change";
     public static final String PRIMARY_STORAGE_HOST_STATUS_CHANGED_PATH = "/primaryStorage/host/status/change";
     public static final String PRIMARY_STORAGE_DISCONNECTED = "/primaryStorage/disconnected";
+    public static final String PRIMARY_STORAGE_USED_CAPACITY_CHANGED_PATH = "/primaryStorage/usedCapacity/change";
 
     public static class DisconnectedData {
         private String primaryStorageUuid;
@@ -184,4 +188,37 @@ public class PrimaryStorageCanonicalEvent {
             this.reason = reason;
         }
     }
+
+    @NeedJsonSchema
+    public static class UsedCapacityChangedData {
+        private String managementNodeUuid;
+        // names of the used capacity kinds to uuids of the primary storage changed
+        private Map<String, List<String>> changes;
+        // names of the used capacity kinds changed on all primary storage
+        private List<String> allChanged;
+
+        public String getManagementNodeUuid() {
+            return managementNodeUuid;
+        }
+
+        public void setManagementNodeUuid(String managementNodeUuid) {
+            this.managementNodeUuid = managementNodeUuid;
+        }
+
+        public Map<String, List<String>> getChanges() {
+            return changes;
+        }
+
+        public void setChanges(Map<String, List<String>> changes) {
+            this.changes = changes;
+        }
+
+        public List<String> getAllChanged() {
+            return allChanged;
+        }
+
+        public void setAllChanged(List<String> allChanged) {
+            this.allChanged = allChanged;
+        }
+    }
 }
@@ -8,6 +8,9 @@ import org.zstack.header.message.NeedReplyMessage;
 public class RecalculatePrimaryStorageCapacityMsg extends NeedReplyMessage implements PrimaryStorageMessage{
     private String zoneUuid;
     private String primaryStorageUuid;
+    // sum all used capacity instead of reusing the sums not changed,
+    // set it if the used capacity is changed without entity events
+    private boolean full;
 
     public String getPrimaryStorageUuid() {
         return primaryStorageUuid;
@@ -24,4 +27,12 @@ public class RecalculatePrimaryStorageCapacityMsg extends NeedReplyMessage imple
     public void setZoneUuid(String zoneUuid) {
         this.zoneUuid = zoneUuid;
     }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    public void setFull(boolean full) {
+        this.full = full;
+    }
 }
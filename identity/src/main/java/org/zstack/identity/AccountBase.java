@@ -31,6 +31,7 @@ import org.zstack.header.identity.role.RoleVO;
 import org.zstack.header.identity.role.RoleVO_;
 import org.zstack.header.message.APIMessage;
 import org.zstack.header.message.Message;
+import org.zstack.identity.rbac.RBACDecisionCache;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.ExceptionDSL;
 import org.zstack.utils.Utils;
@@ -363,6 +364,7 @@ public class AccountBase extends AbstractAccount {
         q.setParameter("puuids", msg.getPolicyUuids());
         q.setParameter("userUuid", msg.getUserUuid());
         q.executeUpdate();
+        RBACDecisionCache.policiesChanged();
 
         APIDetachPoliciesFromUserEvent evt = new APIDetachPoliciesFromUserEvent(msg.getId());
         bus.publish(evt);
@@ -9,4 +9,14 @@ public class IdentityGlobalProperty {
     public static int AUTHORIZATION_SESSION_CACHE_SIZE;
     @GlobalProperty(name = "identity.init.type", defaultValue = "IAM,IAM2")
     public static String IDENTITY_INIT_TYPE;
+    @GlobalProperty(name = "identity.rbac.decisionCache.size", defaultValue = "1000")
+    public static int RBAC_DECISION_CACHE_SIZE;
+    @GlobalProperty(name = "identity.rbac.decisionCache.ttl", defaultValue = "600")
+    public static long RBAC_DECISION_CACHE_TTL;
+    @GlobalProperty(name = "identity.quotaUsageLedger.enabled", defaultValue = "true")
+    public static boolean QUOTA_USAGE_LEDGER_ENABLED;
+    @GlobalProperty(name = "identity.quotaUsageLedger.syncInterval", defaultValue = "2")
+    public static int QUOTA_USAGE_LEDGER_SYNC_INTERVAL;
+    @GlobalProperty(name = "identity.quotaUsageLedger.reconcileInterval", defaultValue = "600")
+    public static int QUOTA_USAGE_LEDGER_RECONCILE_INTERVAL;
 }
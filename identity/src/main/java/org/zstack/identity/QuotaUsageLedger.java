@@ -0,0 +1,386 @@
+package org.zstack.identity;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.EntityEvent;
+import org.zstack.core.db.Q;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.header.identity.*;
+import org.zstack.header.vo.ResourceVO;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.zstack.core.Platform.getComponentLoader;
+
+/**
+ * Keeps the quota usages of accounts once calculated from the source tables, so quota checks
+ * don't run the aggregate queries on every API.
+ *
+ * A usage is dropped when the resources of its account change: entity events of the tracked
+ * resource classes mark the resources changed, which are resolved to their owners on the next
+ * read, and entity events of AccountResourceRefVO and owner changes drop the accounts directly.
+ * The changes are marked again after the transaction completes, so a usage read before the
+ * commit is not kept. Changes made by bulk SQL don't fire entity events, their callers report
+ * them by resourcesChanged().
+ *
+ * Other management nodes learn the changes by the canonical event QUOTA_USAGE_CHANGED_PATH sent
+ * every sync interval. A reconciliation job recalculates the kept usages periodically, fixes
+ * and reports the ones drifted from the source tables.
+ */
+public class QuotaUsageLedger implements Component, ResourceOwnerAfterChangeExtensionPoint {
+    private static final CLogger logger = Utils.getLogger(QuotaUsageLedger.class);
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private EventFacade evtf;
+    @Autowired
+    private ThreadFacade thdf;
+
+    private static class Usage {
+        final Object value;
+        final Supplier<?> loader;
+
+        Usage(Object value, Supplier<?> loader) {
+            this.value = value;
+            this.loader = loader;
+        }
+    }
+
+    private static final int RESOLVE_BATCH_SIZE = 500;
+
+    private static final Map<String, Map<String, Usage>> usages = new ConcurrentHashMap<>();
+    private static final Set<String> changedResources = ConcurrentHashMap.newKeySet();
+    private static final Set<String> trackedResourceTypes = ConcurrentHashMap.newKeySet();
+    private static final AtomicLong generation = new AtomicLong();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong drifts = new AtomicLong();
+
+    // changes to tell other management nodes
+    private static final Set<String> outgoingResources = ConcurrentHashMap.newKeySet();
+    private static final Set<String> outgoingAccounts = ConcurrentHashMap.newKeySet();
+    private static volatile boolean outgoingAll;
+
+    public static boolean isEnabled() {
+        return IdentityGlobalProperty.QUOTA_USAGE_LEDGER_ENABLED;
+    }
+
+    /**
+     * tracks changes of the resource class whose usages are kept in the ledger
+     */
+    public static void track(Class<? extends ResourceVO> entityClass) {
+        if (!trackedResourceTypes.add(entityClass.getSimpleName())) {
+            return;
+        }
+
+        DatabaseFacade dbf = getComponentLoader().getComponent(DatabaseFacade.class);
+        dbf.installEntityLifeCycleCallback(entityClass, EntityEvent.POST_PERSIST, (e, o) -> markChanged(() -> resourceChanged(((ResourceVO) o).getUuid())));
+        dbf.installEntityLifeCycleCallback(entityClass, EntityEvent.POST_UPDATE, (e, o) -> markChanged(() -> resourceChanged(((ResourceVO) o).getUuid())));
+        // the owner of a removed resource may not be found any more
+        dbf.installEntityLifeCycleCallback(entityClass, EntityEvent.POST_REMOVE, (e, o) -> markChanged(QuotaUsageLedger::allChanged));
+    }
+
+    /**
+     * @param name the name of the usage, usually the quota name
+     * @param loader calculates the usage from the source tables on a miss
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T get(String accountUuid, String name, Supplier<T> loader) {
+        if (!isEnabled()) {
+            return loader.get();
+        }
+
+        resolveChangedResources();
+
+        Map<String, Usage> accountUsages = usages.get(accountUuid);
+        Usage usage = accountUsages == null ? null : accountUsages.get(name);
+        if (usage != null) {
+            hits.incrementAndGet();
+            return (T) usage.value;
+        }
+
+        misses.incrementAndGet();
+        long gen = generation.get();
+        T value = loader.get();
+        if (value != null) {
+            put(accountUuid, name, new Usage(value, loader), gen);
+        }
+
+        return value;
+    }
+
+    private static void put(String accountUuid, String name, Usage usage, long gen) {
+        // invalidation bumps the generation before dropping the account, so a usage calculated
+        // before that is either not put or dropped
+        usages.compute(accountUuid, (k, m) -> {
+            if (generation.get() != gen) {
+                return m;
+            }
+
+            m = m == null ? new ConcurrentHashMap<>() : m;
+            m.put(name, usage);
+            return m;
+        });
+    }
+
+    /**
+     * reports resources changed by bulk SQL
+     */
+    public static void resourcesChanged(Collection<String> resourceUuids) {
+        resourceUuids.forEach(uuid -> markChanged(() -> resourceChanged(uuid)));
+    }
+
+    public static void resourcesChanged(String... resourceUuids) {
+        resourcesChanged(Arrays.asList(resourceUuids));
+    }
+
+    private static void markChanged(Runnable mark) {
+        mark.run();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    mark.run();
+                }
+            });
+        }
+    }
+
+    private static void resourceChanged(String resourceUuid) {
+        changedResources.add(resourceUuid);
+        outgoingResources.add(resourceUuid);
+    }
+
+    private static void accountChanged(String accountUuid) {
+        invalidate(accountUuid);
+        outgoingAccounts.add(accountUuid);
+    }
+
+    private static void allChanged() {
+        invalidateAll();
+        outgoingAll = true;
+    }
+
+    private static void invalidate(String accountUuid) {
+        generation.incrementAndGet();
+        usages.remove(accountUuid);
+    }
+
+    public static void invalidateAll() {
+        generation.incrementAndGet();
+        usages.clear();
+    }
+
+    private static void resolveChangedResources() {
+        if (changedResources.isEmpty()) {
+            return;
+        }
+
+        List<String> uuids = drain(changedResources);
+        // a resource not owned yet is counted by nobody, the owner is dropped when its
+        // AccountResourceRefVO is created
+        for (int i = 0; i < uuids.size(); i += RESOLVE_BATCH_SIZE) {
+            List<String> batch = uuids.subList(i, Math.min(i + RESOLVE_BATCH_SIZE, uuids.size()));
+            List<String> accountUuids = Q.New(AccountResourceRefVO.class)
+                    .select(AccountResourceRefVO_.accountUuid)
+                    .in(AccountResourceRefVO_.resourceUuid, batch)
+                    .listValues();
+            accountUuids.stream().distinct().forEach(QuotaUsageLedger::invalidate);
+        }
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    public static long getDrifts() {
+        return drifts.get();
+    }
+
+    /**
+     * recalculates all kept usages, fixes and reports the ones drifted from the source tables
+     *
+     * @return the number of usages drifted
+     */
+    public static int reconcile() {
+        resolveChangedResources();
+
+        int drifted = 0;
+        for (Map.Entry<String, Map<String, Usage>> ae : new HashMap<>(usages).entrySet()) {
+            String accountUuid = ae.getKey();
+            for (Map.Entry<String, Usage> ue : new HashMap<>(ae.getValue()).entrySet()) {
+                Usage kept = ue.getValue();
+                long gen = generation.get();
+                Object value;
+                try {
+                    value = kept.loader.get();
+                } catch (Throwable t) {
+                    logger.warn(String.format("unable to recalculate the quota usage[name:%s] of the account[uuid:%s]",
+                            ue.getKey(), accountUuid), t);
+                    continue;
+                }
+
+                // changed meanwhile, the kept usage is dropped anyway
+                if (generation.get() != gen || Objects.equals(value, kept.value)) {
+                    continue;
+                }
+
+                drifted++;
+                drifts.incrementAndGet();
+                logger.warn(String.format("the quota usage[name:%s] of the account[uuid:%s] drifted, it's %s in the ledger" +
+                                " but %s in the database, fix it",
+                        ue.getKey(), accountUuid, kept.value, value));
+                put(accountUuid, ue.getKey(), new Usage(value, kept.loader), gen);
+            }
+        }
+
+        return drifted;
+    }
+
+    private void syncChanges() {
+        if (outgoingResources.isEmpty() && outgoingAccounts.isEmpty() && !outgoingAll) {
+            return;
+        }
+
+        IdentityCanonicalEvents.QuotaUsageChangedData data = new IdentityCanonicalEvents.QuotaUsageChangedData();
+        data.setManagementNodeUuid(Platform.getManagementServerId());
+        data.setAll(outgoingAll);
+        outgoingAll = false;
+        data.setResourceUuids(drain(outgoingResources));
+        data.setAccountUuids(drain(outgoingAccounts));
+        evtf.fire(IdentityCanonicalEvents.QUOTA_USAGE_CHANGED_PATH, data);
+    }
+
+    private static List<String> drain(Set<String> set) {
+        List<String> ret = new ArrayList<>();
+        for (Iterator<String> it = set.iterator(); it.hasNext(); ) {
+            ret.add(it.next());
+            it.remove();
+        }
+        return ret;
+    }
+
+    @Override
+    public void resourceOwnerAfterChange(AccountResourceRefInventory ref, String newOwnerUuid) {
+        if (trackedResourceTypes.contains(ref.getResourceType())) {
+            markChanged(() -> {
+                accountChanged(ref.getAccountUuid());
+                accountChanged(newOwnerUuid);
+            });
+        }
+    }
+
+    @Override
+    public boolean start() {
+        for (EntityEvent evt : Arrays.asList(EntityEvent.POST_PERSIST, EntityEvent.POST_UPDATE, EntityEvent.POST_REMOVE)) {
+            dbf.installEntityLifeCycleCallback(AccountResourceRefVO.class, evt, (e, o) -> {
+                AccountResourceRefVO ref = (AccountResourceRefVO) o;
+                if (trackedResourceTypes.contains(ref.getResourceType())) {
+                    markChanged(() -> accountChanged(ref.getAccountUuid()));
+                }
+            });
+        }
+
+        evtf.on(IdentityCanonicalEvents.QUOTA_USAGE_CHANGED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                IdentityCanonicalEvents.QuotaUsageChangedData d = (IdentityCanonicalEvents.QuotaUsageChangedData) data;
+                if (Platform.getManagementServerId().equals(d.getManagementNodeUuid())) {
+                    return;
+                }
+
+                if (d.isAll()) {
+                    invalidateAll();
+                }
+
+                if (d.getAccountUuids() != null) {
+                    d.getAccountUuids().forEach(QuotaUsageLedger::invalidate);
+                }
+
+                if (d.getResourceUuids() != null) {
+                    changedResources.addAll(d.getResourceUuids());
+                }
+            }
+        });
+
+        evtf.on(IdentityCanonicalEvents.ACCOUNT_DELETED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                invalidate(((IdentityCanonicalEvents.AccountDeletedData) data).getAccountUuid());
+            }
+        });
+
+        thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return IdentityGlobalProperty.QUOTA_USAGE_LEDGER_SYNC_INTERVAL;
+            }
+
+            @Override
+            public String getName() {
+                return "quota-usage-ledger-sync";
+            }
+
+            @Override
+            public void run() {
+                syncChanges();
+            }
+        });
+
+        thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return IdentityGlobalProperty.QUOTA_USAGE_LEDGER_RECONCILE_INTERVAL;
+            }
+
+            @Override
+            public String getName() {
+                return "quota-usage-ledger-reconcile";
+            }
+
+            @Override
+            public void run() {
+                int drifted = reconcile();
+                if (drifted > 0) {
+                    logger.warn(String.format("reconciled the quota usage ledger, %s usages drifted", drifted));
+                }
+            }
+        });
+
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+}
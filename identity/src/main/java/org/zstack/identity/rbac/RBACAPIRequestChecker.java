@@ -61,6 +61,11 @@ public class RBACAPIRequestChecker implements APIRequestChecker {
      * 5. then deny by default
      */
     protected void check() {
+        // subclasses may collect policies or evaluate statements differently
+        if (getClass() == RBACAPIRequestChecker.class && RBACDecisionCache.isEnabled() && checkByDecisionTable()) {
+            return;
+        }
+
         List<PolicyInventory> polices = getPoliciesForAPI();
         Map<PolicyInventory, List<PolicyStatement>> denyStatements = RBACManager.collectDenyStatements(polices);
         Map<PolicyInventory, List<PolicyStatement>> allowStatements = RBACManager.collectAllowedStatements(polices);
@@ -80,6 +85,52 @@ public class RBACAPIRequestChecker implements APIRequestChecker {
         throw new OperationFailureException(operr("operation[API:%s] is denied by default, please contact admin to correct it", rbacEntity.getApiMessage().getClass().getName()));
     }
 
+    /**
+     * @return false if the decision table of the identity can't be compiled
+     */
+    private boolean checkByDecisionTable() {
+        RBACDecisionCache.DecisionTable table;
+        try {
+            table = RBACDecisionCache.getDecisionTable(rbacEntity.getApiMessage().getSession(),
+                    () -> RBACDecisionCache.DecisionTable.compile(getPoliciesForAPI(), this::isPrincipalMatched));
+        } catch (CloudRuntimeException e) {
+            // e.g. an unknown principal, let the statements be evaluated one by one as before
+            logger.debug(String.format("unable to compile RBAC decision table, %s", e.getMessage()));
+            return false;
+        }
+
+        Set<String> apis = new LinkedHashSet<>();
+        apis.add(rbacEntity.getApiName());
+        apis.addAll(rbacEntity.getAdditionalApisToCheck());
+
+        List<RBACDecisionCache.Decision> decisions = new ArrayList<>();
+        apis.forEach(api -> decisions.add(table.decide(api)));
+
+        Map<Integer, RBACDecisionCache.Rule> denies = new TreeMap<>();
+        decisions.forEach(d -> d.denies.forEach(r -> denies.put(r.order, r)));
+        denies.values().forEach(r -> evalDenyStatement(r.policy, r.action, r.apiFields));
+
+        if (RBAC.permissionCheckers.containsKey(rbacEntity.getApiMessage().getClass())) {
+            // the checkers decide by the message, evaluate the statements for it
+            if (evalAllowStatements(table.allowStatements)) {
+                return true;
+            }
+        } else if (decisions.stream().allMatch(d -> d.allow != null)) {
+            if (logger.isTraceEnabled()) {
+                RBACDecisionCache.Rule r = decisions.get(decisions.size() - 1).allow;
+                logger.trace(String.format("[RBAC] policy[name:%s, uuid:%s]'s statement[%s] allows the API:\n%s", r.policy.getName(),
+                        r.policy.getUuid(), r.action, jsonMessage()));
+            }
+            return true;
+        }
+
+        if (logger.isTraceEnabled()) {
+            logger.trace(String.format("[RBAC]operation is denied by default, API:\n%s", jsonMessage()));
+        }
+
+        throw new OperationFailureException(operr("operation[API:%s] is denied by default, please contact admin to correct it", rbacEntity.getApiMessage().getClass().getName()));
+    }
+
     private String jsonMessage() {
         return CloudBusGson.toLogSafeJson(rbacEntity.getApiMessage());
     }
@@ -176,35 +227,38 @@ public class RBACAPIRequestChecker implements APIRequestChecker {
                 }
 
                 // the statement matching this API
+                evalDenyStatement(p, statement, apiFields);
+            });
+        }));
+    }
+
+    private void evalDenyStatement(PolicyInventory p, String statement, String apiFields) {
+        if (apiFields == null) {
+            // no API fields specified, the API is denied by this statement
+            if (logger.isTraceEnabled()) {
+                logger.trace(String.format("[RBAC] policy[name:%s, uuid:%s]'s statement[%s] denies the API:\n%s", p.getName(),
+                        p.getUuid(), statement, jsonMessage()));
+            }
+
+            throw new OperationFailureException(operr("the operation is denied by the policy[name:%s uuid:%s]", p.getName(), p.getUuid()));
+        }
 
-                if (apiFields == null) {
-                    // no API fields specified, the API is denied by this statement
+        Entity entity = Entity.getEntity(rbacEntity.getApiMessage().getClass());
+
+        for (String fname : apiFields.split(",")) {
+            Field field = entity.getFields().get(fname);
+            try {
+                if (field != null && field.get(rbacEntity.getApiMessage()) != null) {
                     if (logger.isTraceEnabled()) {
                         logger.trace(String.format("[RBAC] policy[name:%s, uuid:%s]'s statement[%s] denies the API:\n%s", p.getName(),
                                 p.getUuid(), statement, jsonMessage()));
                     }
-
-                    throw new OperationFailureException(operr("the operation is denied by the policy[name:%s uuid:%s]", p.getName(), p.getUuid()));
-                }
-
-                Entity entity = Entity.getEntity(rbacEntity.getApiMessage().getClass());
-
-                for (String fname : apiFields.split(",")) {
-                    Field field = entity.getFields().get(fname);
-                    try {
-                        if (field != null && field.get(rbacEntity.getApiMessage()) != null) {
-                            if (logger.isTraceEnabled()) {
-                                logger.trace(String.format("[RBAC] policy[name:%s, uuid:%s]'s statement[%s] denies the API:\n%s", p.getName(),
-                                        p.getUuid(), statement, jsonMessage()));
-                            }
-                            throw new OperationFailureException(operr("the operation is denied by the policy[name:%s, uuid:%s], field[%s] is not permitted to set", p.getName(), p.getUuid(), fname));
-                        }
-                    } catch (IllegalAccessException e) {
-                        throw new CloudRuntimeException(e);
-                    }
+                    throw new OperationFailureException(operr("the operation is denied by the policy[name:%s, uuid:%s], field[%s] is not permitted to set", p.getName(), p.getUuid(), fname));
                 }
-            });
-        }));
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException(e);
+            }
+        }
     }
 
     protected boolean checkUserPrincipal(String uuidRegex) {
@@ -0,0 +1,256 @@
+package org.zstack.identity.rbac;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.EntityEvent;
+import org.zstack.header.Component;
+import org.zstack.header.identity.*;
+import org.zstack.header.identity.role.*;
+import org.zstack.header.identity.rbac.PolicyMatcher;
+import org.zstack.identity.IdentityGlobalProperty;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import static org.zstack.core.Platform.getComponentLoader;
+
+/**
+ * Caches the policies of an identity (account uuid + user uuid) compiled into a decision table,
+ * which remembers the deny and allow statements matching an API class once it has been checked.
+ *
+ * The tables are dropped when policies, roles, user groups or their attachments change, on all
+ * management nodes by the canonical event POLICY_CHANGED_PATH once the change is committed. Changes
+ * made by bulk SQL don't fire entity events, their callers invalidate the tables by policiesChanged();
+ * the ttl bounds how long a table could be stale if one is missed.
+ */
+public class RBACDecisionCache implements Component {
+    private static final CLogger logger = Utils.getLogger(RBACDecisionCache.class);
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private EventFacade evtf;
+
+    private static final PolicyMatcher policyMatcher = new PolicyMatcher();
+    private static final AtomicLong generation = new AtomicLong();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final Cache<String, DecisionTable> tables = CacheBuilder.newBuilder()
+            .maximumSize(Math.max(IdentityGlobalProperty.RBAC_DECISION_CACHE_SIZE, 0))
+            .expireAfterWrite(IdentityGlobalProperty.RBAC_DECISION_CACHE_TTL, TimeUnit.SECONDS)
+            .build();
+
+    private static final List<Class> policyEntities = Arrays.asList(
+            PolicyVO.class, UserPolicyRefVO.class, UserGroupVO.class, UserGroupPolicyRefVO.class, UserGroupUserRefVO.class,
+            RoleVO.class, RolePolicyRefVO.class, RolePolicyStatementVO.class, RoleAccountRefVO.class,
+            RoleUserRefVO.class, RoleUserGroupRefVO.class
+    );
+
+    static class Rule {
+        final int order;
+        final PolicyInventory policy;
+        final String action;
+        final String apiPattern;
+        // for deny rules, null means the whole API is denied
+        final String apiFields;
+
+        Rule(int order, PolicyInventory policy, String action, String apiPattern, String apiFields) {
+            this.order = order;
+            this.policy = policy;
+            this.action = action;
+            this.apiPattern = apiPattern;
+            this.apiFields = apiFields;
+        }
+    }
+
+    static class Decision {
+        final List<Rule> denies = new ArrayList<>();
+        // the first rule allowing the API, null if none
+        Rule allow;
+    }
+
+    static class DecisionTable {
+        private final List<Rule> denyRules = new ArrayList<>();
+        private final List<Rule> allowRules = new ArrayList<>();
+        private final Map<String, Decision> decisions = new ConcurrentHashMap<>();
+        // statements kept for APIs having permission checkers, which must be evaluated per message
+        Map<PolicyInventory, List<PolicyStatement>> allowStatements;
+
+        /**
+         * @param principalMatcher tells if the principals of a statement match the identity
+         */
+        static DecisionTable compile(List<PolicyInventory> policies, Predicate<List<String>> principalMatcher) {
+            DecisionTable table = new DecisionTable();
+            table.allowStatements = RBACManager.collectAllowedStatements(policies);
+
+            int order = 0;
+            for (Map.Entry<PolicyInventory, List<PolicyStatement>> e : RBACManager.collectDenyStatements(policies).entrySet()) {
+                for (PolicyStatement st : e.getValue()) {
+                    if (!principalMatcher.test(st.getPrincipals())) {
+                        continue;
+                    }
+
+                    for (String action : st.getActions()) {
+                        // action string format is:
+                        // api-full-name:optional-api-field-list-split-by-comma
+                        String[] ss = action.split(":", 2);
+                        table.denyRules.add(new Rule(order++, e.getKey(), action, ss[0], ss.length > 1 ? ss[1] : null));
+                    }
+                }
+            }
+
+            for (Map.Entry<PolicyInventory, List<PolicyStatement>> e : table.allowStatements.entrySet()) {
+                for (PolicyStatement st : e.getValue()) {
+                    if (!principalMatcher.test(st.getPrincipals())) {
+                        continue;
+                    }
+
+                    for (String action : st.getActions()) {
+                        table.allowRules.add(new Rule(order++, e.getKey(), action, PolicyUtils.apiNamePatternFromAction(action, true), null));
+                    }
+                }
+            }
+
+            return table;
+        }
+
+        Decision decide(String apiName) {
+            return decisions.computeIfAbsent(apiName, this::compileDecision);
+        }
+
+        private Decision compileDecision(String apiName) {
+            Decision d = new Decision();
+            for (Rule r : denyRules) {
+                if (policyMatcher.match(r.apiPattern, apiName)) {
+                    d.denies.add(r);
+                }
+            }
+
+            for (Rule r : allowRules) {
+                if (policyMatcher.match(r.apiPattern, apiName)) {
+                    d.allow = r;
+                    break;
+                }
+            }
+
+            return d;
+        }
+    }
+
+    static boolean isEnabled() {
+        return IdentityGlobalProperty.RBAC_DECISION_CACHE_SIZE > 0;
+    }
+
+    /**
+     * @param compiler compiles the table on a miss
+     */
+    static DecisionTable getDecisionTable(SessionInventory session, Supplier<DecisionTable> compiler) {
+        String key = session.getAccountUuid() + ":" + session.getUserUuid();
+        DecisionTable table = tables.getIfPresent(key);
+        if (table != null) {
+            hits.incrementAndGet();
+            return table;
+        }
+
+        misses.incrementAndGet();
+        long gen = generation.get();
+        table = compiler.get();
+        // don't keep a table compiled from policies changed meanwhile
+        if (generation.get() == gen) {
+            tables.put(key, table);
+        }
+
+        return table;
+    }
+
+    public static void invalidateAll() {
+        generation.incrementAndGet();
+        tables.invalidateAll();
+    }
+
+    /**
+     * invalidates the decision tables on all management nodes. Called in a transaction, the tables
+     * are invalidated again and other management nodes are notified after the transaction completes,
+     * for a table may be compiled from the old policies before the change is committed
+     */
+    public static void policiesChanged() {
+        invalidateAll();
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            notifyPolicyChanged();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                invalidateAll();
+                notifyPolicyChanged();
+            }
+        });
+    }
+
+    private static void notifyPolicyChanged() {
+        IdentityCanonicalEvents.PolicyChangedData data = new IdentityCanonicalEvents.PolicyChangedData();
+        data.setManagementNodeUuid(Platform.getManagementServerId());
+        getComponentLoader().getComponent(EventFacade.class).fire(IdentityCanonicalEvents.POLICY_CHANGED_PATH, data);
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public boolean start() {
+        for (Class clz : policyEntities) {
+            for (EntityEvent evt : Arrays.asList(EntityEvent.POST_PERSIST, EntityEvent.POST_UPDATE, EntityEvent.POST_REMOVE)) {
+                dbf.installEntityLifeCycleCallback(clz, evt, (e, o) -> policiesChanged());
+            }
+        }
+
+        evtf.on(IdentityCanonicalEvents.POLICY_CHANGED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                invalidateAll();
+            }
+        });
+
+        evtf.on(IdentityCanonicalEvents.ACCOUNT_DELETED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                invalidateAll();
+            }
+        });
+
+        evtf.on(IdentityCanonicalEvents.USER_DELETED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                invalidateAll();
+            }
+        });
+
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+}
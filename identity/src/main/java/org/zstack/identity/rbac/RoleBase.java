@@ -130,6 +130,8 @@ public class RoleBase implements Role {
                 return RoleInventory.valueOf(self);
             }
         }.execute();
+        // the statements and policies are replaced by bulk deletes
+        RBACDecisionCache.policiesChanged();
         evt.setInventory(inv);
         bus.publish(evt);
     }
@@ -150,6 +152,7 @@ public class RoleBase implements Role {
     private void handle(APIRemovePolicyStatementsFromRoleMsg msg) {
         SQL.New(RolePolicyStatementVO.class).eq(RolePolicyStatementVO_.roleUuid, self.getUuid())
                 .in(RolePolicyStatementVO_.uuid, msg.getPolicyStatementUuids()).hardDelete();
+        RBACDecisionCache.policiesChanged();
         bus.publish(new APIRemovePolicyStatementsFromRoleEvent(msg.getId()));
     }
 
@@ -173,6 +176,7 @@ public class RoleBase implements Role {
     private void handle(APIDetachPolicyFromRoleMsg msg) {
         SQL.New(RolePolicyRefVO.class).eq(RolePolicyRefVO_.policyUuid, msg.getPolicyUuid())
                 .eq(RolePolicyRefVO_.roleUuid, msg.getRoleUuid()).hardDelete();
+        RBACDecisionCache.policiesChanged();
         bus.publish(new APIDetachPolicyFromRoleEvent(msg.getId()));
     }
 
@@ -187,6 +191,7 @@ public class RoleBase implements Role {
     private void handle(APIDetachRoleFromAccountMsg msg) {
         SQL.New(RoleAccountRefVO.class).eq(RoleAccountRefVO_.accountUuid, msg.getAccountUuid())
                 .eq(RoleAccountRefVO_.roleUuid, msg.getRoleUuid()).hardDelete();
+        RBACDecisionCache.policiesChanged();
 
         APIDetachRoleFromAccountEvent evt = new APIDetachRoleFromAccountEvent(msg.getId());
         bus.publish(evt);
@@ -24,5 +24,6 @@ public class RoleUtils {
 
         SQL.New(RoleVO.class).eq(RoleVO_.uuid, uuid).hardDelete();
         SQL.New(RolePolicyStatementVO.class).eq(RolePolicyStatementVO_.roleUuid, uuid).hardDelete();
+        RBACDecisionCache.policiesChanged();
     }
 }
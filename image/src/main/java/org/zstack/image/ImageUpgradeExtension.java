@@ -162,6 +162,8 @@ public class ImageUpgradeExtension implements Component {
                                 .map((psvo) -> {
                                     RecalculatePrimaryStorageCapacityMsg rmsg = new RecalculatePrimaryStorageCapacityMsg();
                                     rmsg.setPrimaryStorageUuid(psvo.getUuid());
+                                    // sizes of image caches are updated by bulk SQL
+                                    rmsg.setFull(true);
                                     bus.makeLocalServiceId(rmsg, PrimaryStorageConstant.SERVICE_ID);
                                     return rmsg;
                                 }).collect(Collectors.toList());
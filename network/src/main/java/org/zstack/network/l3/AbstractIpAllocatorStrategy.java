@@ -35,6 +35,21 @@ public abstract class AbstractIpAllocatorStrategy implements IpAllocatorStrategy
     protected ErrorFacade errf;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    protected IpRangeBitmapCache bitmapCache;
+
+    /**
+     * reserves an IP allocated from the bitmap cache; the IP is given back to the bitmap if reserving
+     * it fails with an error, while an IP already taken in the database stays marked used
+     */
+    protected UsedIpInventory reserveIpFromBitmap(IpRangeVO ipr, String ip) {
+        try {
+            return l3NwMgr.reserveIp(ipr, ip, false);
+        } catch (RuntimeException e) {
+            bitmapCache.release(ipr.getUuid(), ip);
+            throw e;
+        }
+    }
 
     protected String getReqIpRangeType(IpAllocateMessage msg) {
         if (msg.getIpRangeUuid() != null) {
@@ -47,8 +47,20 @@ public class FirstAvailableIpAllocatorStrategy extends AbstractIpAllocatorStrate
         do {
             String ip = null;
             IpRangeVO tr = null;
+            boolean fromBitmap = false;
             
             for (IpRangeVO r : ranges) {
+                if (!msg.isDuplicatedIpAllowed() && bitmapCache.isApplicable(r)) {
+                    ip = bitmapCache.allocate(r, null, excludeIp);
+                    tr = r;
+                    fromBitmap = true;
+                    if (ip != null) {
+                        break;
+                    }
+
+                    continue;
+                }
+
                 if (l3NwMgr.isIpRangeFull(r)) {
                     logger.debug(String.format("Ip range[uuid:%s, name: %s] is exhausted, try next one", r.getUuid(), r.getName()));
                     continue;
@@ -56,6 +68,7 @@ public class FirstAvailableIpAllocatorStrategy extends AbstractIpAllocatorStrate
 
                 ip = allocateIp(r, excludeIp);
                 tr = r;
+                fromBitmap = false;
                 if (ip != null) {
                     break;
                 }
@@ -66,7 +79,7 @@ public class FirstAvailableIpAllocatorStrategy extends AbstractIpAllocatorStrate
                 return null;
             }
             
-            UsedIpInventory inv = l3NwMgr.reserveIp(tr, ip, msg.isDuplicatedIpAllowed());
+            UsedIpInventory inv = fromBitmap ? reserveIpFromBitmap(tr, ip) : l3NwMgr.reserveIp(tr, ip, msg.isDuplicatedIpAllowed());
             if (inv != null) {
                 return inv;
             }
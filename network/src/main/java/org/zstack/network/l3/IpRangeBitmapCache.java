@@ -0,0 +1,99 @@
+package org.zstack.network.l3;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.cloudbus.ResourceDestinationMaker;
+import org.zstack.core.db.Q;
+import org.zstack.header.network.l3.IpRangeAO;
+import org.zstack.header.network.l3.UsedIpVO;
+import org.zstack.header.network.l3.UsedIpVO_;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.network.IPv6Constants;
+import org.zstack.utils.network.Ipv4RangeBitmap;
+import org.zstack.utils.network.NetworkUtils;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps an {@link Ipv4RangeBitmap} per IPv4 range of the L3 networks managed by this
+ * management node, so allocating an IP doesn't have to load and sort the used IPs of
+ * the range every time.
+ *
+ * The bitmap is only a hint: the unique key of UsedIpVO stays the arbiter, an IP the
+ * bitmap believes free but is taken in the database fails in reserveIp() and stays marked
+ * used in the bitmap, while an IP failing to be reserved with an error is released back to
+ * the bitmap. IPs released behind our back are picked up when the entry expires
+ * or when the bitmap looks full and is reloaded.
+ */
+public class IpRangeBitmapCache {
+    private static final CLogger logger = Utils.getLogger(IpRangeBitmapCache.class);
+
+    @Autowired
+    private ResourceDestinationMaker destMaker;
+
+    private final Cache<String, Ipv4RangeBitmap> bitmaps = CacheBuilder.newBuilder()
+            .maximumSize(NetworkGlobalProperty.IP_ALLOCATOR_BITMAP_MAX_RANGES)
+            .expireAfterWrite(NetworkGlobalProperty.IP_ALLOCATOR_BITMAP_TTL, TimeUnit.SECONDS)
+            .build();
+
+    public boolean isApplicable(IpRangeAO vo) {
+        return NetworkGlobalProperty.IP_ALLOCATOR_BITMAP && vo.getIpVersion() == IPv6Constants.IPv4
+                && destMaker.isManagedByUs(vo.getL3NetworkUuid());
+    }
+
+    private Ipv4RangeBitmap load(IpRangeAO vo, long start, long end) {
+        Ipv4RangeBitmap bitmap = new Ipv4RangeBitmap(start, end);
+        List<Long> used = Q.New(UsedIpVO.class).select(UsedIpVO_.ipInLong)
+                .eq(UsedIpVO_.ipRangeUuid, vo.getUuid()).listValues();
+        used.forEach(bitmap::setUsed);
+        bitmaps.put(vo.getUuid(), bitmap);
+        logger.debug(String.format("loaded ip bitmap of range[uuid:%s, %s ~ %s], %s of %s used", vo.getUuid(),
+                vo.getStartIp(), vo.getEndIp(), bitmap.getUsedCount(), bitmap.size()));
+        return bitmap;
+    }
+
+    /**
+     * allocates an IP from the bitmap of the range, the IP is marked used and must be
+     * reserved in the database by the caller
+     *
+     * @param random null to allocate the first available IP
+     * @return null if the range has no IP available
+     */
+    public String allocate(IpRangeAO vo, Random random, String excludedIp) {
+        // the range may have been stripped of its network and broadcast address
+        long start = NetworkUtils.ipv4StringToLong(vo.getStartIp());
+        long end = NetworkUtils.ipv4StringToLong(vo.getEndIp());
+        Long ex = excludedIp == null ? null : NetworkUtils.ipv4StringToLong(excludedIp);
+
+        Ipv4RangeBitmap bitmap = bitmaps.getIfPresent(vo.getUuid());
+        boolean loaded = false;
+        if (bitmap == null || bitmap.getStart() != start || bitmap.getEnd() != end) {
+            bitmap = load(vo, start, end);
+            loaded = true;
+        }
+
+        Long ip = random == null ? bitmap.allocateFirst(ex) : bitmap.allocateRandom(random, ex);
+        if (ip == null && !loaded) {
+            // IPs may have been released by others, reload once before giving up the range
+            bitmap = load(vo, start, end);
+            ip = random == null ? bitmap.allocateFirst(ex) : bitmap.allocateRandom(random, ex);
+        }
+
+        return ip == null ? null : NetworkUtils.longToIpv4String(ip);
+    }
+
+    public void release(String ipRangeUuid, String ip) {
+        if (ipRangeUuid == null || !NetworkUtils.isIpv4Address(ip)) {
+            return;
+        }
+
+        Ipv4RangeBitmap bitmap = bitmaps.getIfPresent(ipRangeUuid);
+        if (bitmap != null) {
+            bitmap.setFree(NetworkUtils.ipv4StringToLong(ip));
+        }
+    }
+}
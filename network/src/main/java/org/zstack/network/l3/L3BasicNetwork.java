@@ -94,6 +94,8 @@ public class L3BasicNetwork implements L3Network {
     private ResourceConfigFacade rcf;
     @Autowired
     private NetworkServiceManager nsMgr;
+    @Autowired
+    private IpRangeBitmapCache bitmapCache;
 
     private L3NetworkVO self;
 
@@ -273,11 +275,14 @@ public class L3BasicNetwork implements L3Network {
             @RetryCondition(times = 6)
             protected Void call() {
                 String reserveRangeUuid = null;
-                Tuple t = Q.New(UsedIpVO.class).select(UsedIpVO_.ip, UsedIpVO_.ipVersion)
+                String ip = null;
+                String ipRangeUuid = null;
+                Tuple t = Q.New(UsedIpVO.class).select(UsedIpVO_.ip, UsedIpVO_.ipVersion, UsedIpVO_.ipRangeUuid)
                         .eq(UsedIpVO_.uuid, msg.getUsedIpUuid()).findTuple();
                 if (t != null) {
-                    String ip = t.get(0, String.class);
+                    ip = t.get(0, String.class);
                     Integer ipVersion = t.get(1, Integer.class);
+                    ipRangeUuid = t.get(2, String.class);
                     List<ReservedIpRangeVO> ranges = self.getReservedIpRanges()
                             .stream().filter(r -> r.getIpVersion() == ipVersion).collect(Collectors.toList());
                     for (ReservedIpRangeVO ripr : ranges) {
@@ -296,6 +301,9 @@ public class L3BasicNetwork implements L3Network {
                             .update();
                 } else {
                     SQL.New(UsedIpVO.class).eq(UsedIpVO_.uuid, msg.getUsedIpUuid()).hardDelete();
+                    if (ip != null) {
+                        bitmapCache.release(ipRangeUuid, ip);
+                    }
                 }
 
                 return null;
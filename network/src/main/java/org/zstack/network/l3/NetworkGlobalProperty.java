@@ -15,4 +15,13 @@ public class NetworkGlobalProperty {
 
     @GlobalProperty(name = "bridge.disable.iptables", defaultValue = "false")
     public static boolean BRIDGE_DISABLE_IPTABLES;
+
+    @GlobalProperty(name = "ipAllocator.bitmap", defaultValue = "false")
+    public static boolean IP_ALLOCATOR_BITMAP;
+
+    @GlobalProperty(name = "ipAllocator.bitmap.ttl", defaultValue = "300")
+    public static long IP_ALLOCATOR_BITMAP_TTL;
+
+    @GlobalProperty(name = "ipAllocator.bitmap.maxRanges", defaultValue = "1000")
+    public static long IP_ALLOCATOR_BITMAP_MAX_RANGES;
 }
@@ -37,9 +37,15 @@ public class RandomIpAllocatorStrategy extends AbstractIpAllocatorStrategy {
         do {
             String ip = null;
             IpRangeVO tr = null;
+            boolean fromBitmap = false;
 
             for (IpRangeVO r : ranges) {
-                ip = allocateIp(r, msg.getExcludedIp());
+                fromBitmap = !msg.isDuplicatedIpAllowed() && bitmapCache.isApplicable(r);
+                if (fromBitmap) {
+                    ip = bitmapCache.allocate(r, random, msg.getExcludedIp());
+                } else {
+                    ip = allocateIp(r, msg.getExcludedIp());
+                }
                 tr = r;
                 if (ip != null) {
                     break;
@@ -51,7 +57,7 @@ public class RandomIpAllocatorStrategy extends AbstractIpAllocatorStrategy {
                 return null;
             }
 
-            UsedIpInventory inv = l3NwMgr.reserveIp(tr, ip, msg.isDuplicatedIpAllowed());
+            UsedIpInventory inv = fromBitmap ? reserveIpFromBitmap(tr, ip) : l3NwMgr.reserveIp(tr, ip, msg.isDuplicatedIpAllowed());
             if (inv != null) {
                 return inv;
             }
@@ -0,0 +1,115 @@
+package org.zstack.network.service.flat;
+
+import org.zstack.core.asyncbatch.While;
+import org.zstack.header.core.Completion;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.core.WhileDoneCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.errorcode.ErrorCodeList;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+
+/**
+ * Runs a DHCP operation on many hosts, at most flatNetworkProvider.dhcp.fanout.parallelism hosts
+ * at a time. All hosts are tried even if some of them fail, the error of every failed host and the
+ * time all hosts took to converge are reported in Result.
+ */
+public class DhcpHostFanout<T> {
+    private static final CLogger logger = Utils.getLogger(DhcpHostFanout.class);
+
+    public interface HostTask<T> {
+        void run(String hostUuid, T arg, Completion completion);
+    }
+
+    public static class Result {
+        private final List<String> hostUuids;
+        private final Map<String, ErrorCode> errors = new HashMap<>();
+        private long timeToConverge;
+
+        private Result(List<String> hostUuids) {
+            this.hostUuids = hostUuids;
+        }
+
+        public List<String> getHostUuids() {
+            return hostUuids;
+        }
+
+        public synchronized Map<String, ErrorCode> getErrors() {
+            return new HashMap<>(errors);
+        }
+
+        public synchronized boolean isSuccess() {
+            return errors.isEmpty();
+        }
+
+        /**
+         * @return the error of the first failed host in the order hosts are given, or null
+         */
+        public synchronized ErrorCode getFirstError() {
+            for (String hostUuid : hostUuids) {
+                ErrorCode err = errors.get(hostUuid);
+                if (err != null) {
+                    return err;
+                }
+            }
+
+            return null;
+        }
+
+        public long getTimeToConverge() {
+            return timeToConverge;
+        }
+
+        private synchronized void addError(String hostUuid, ErrorCode err) {
+            errors.put(hostUuid, err);
+        }
+    }
+
+    private final String name;
+    private final Map<String, T> args;
+    private int parallelism = FlatNetwordProviderGlobalConfig.DHCP_FANOUT_PARALLELISM.value(Integer.class);
+
+    public DhcpHostFanout(String name, Map<String, T> args) {
+        this.name = name;
+        this.args = args;
+    }
+
+    public DhcpHostFanout<T> parallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public void run(HostTask<T> task, ReturnValueCompletion<Result> completion) {
+        Result result = new Result(new ArrayList<>(args.keySet()));
+        if (args.isEmpty()) {
+            completion.success(result);
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        new While<>(result.getHostUuids()).step((hostUuid, wcomp) -> task.run(hostUuid, args.get(hostUuid), new Completion(wcomp) {
+            @Override
+            public void success() {
+                wcomp.done();
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                logger.warn(String.format("%s: failed on the host[uuid:%s], %s", name, hostUuid, errorCode));
+                result.addError(hostUuid, errorCode);
+                wcomp.done();
+            }
+        }), parallelism).run(new WhileDoneCompletion(completion) {
+            @Override
+            public void done(ErrorCodeList errorCodeList) {
+                result.timeToConverge = System.currentTimeMillis() - startTime;
+                logger.debug(String.format("%s: converged on %s hosts in %s ms, failed on %s hosts %s", name,
+                        result.getHostUuids().size(), result.getTimeToConverge(), result.getErrors().size(),
+                        result.getErrors().keySet()));
+                completion.success(result);
+            }
+        });
+    }
+}
@@ -2136,31 +2136,9 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
         });
     }
 
-    private void applyDhcpToHosts(Iterator<Map.Entry<String, List<DhcpInfo>>> it, Completion completion) {
-        if (!it.hasNext()) {
-            completion.success();
-            return;
-        }
-
-        Map.Entry<String, List<DhcpInfo>> e = it.next();
-        final String hostUuid = e.getKey();
-        final List<DhcpInfo> infos = e.getValue();
-        if (infos == null || infos.isEmpty()) {
-            applyDhcpToHosts(it, completion);
-            return;
-        }
-
-        applyDhcpToHosts(infos, hostUuid, false, new Completion(completion) {
-            @Override
-            public void success() {
-                applyDhcpToHosts(it, completion);
-            }
-
-            @Override
-            public void fail(ErrorCode errorCode) {
-                applyDhcpToHosts(it, completion);
-            }
-        });
+    private void applyDhcpToHosts(String name, Map<String, List<DhcpInfo>> dhcpInfoByHost, ReturnValueCompletion<DhcpHostFanout.Result> completion) {
+        new DhcpHostFanout<>(name, dhcpInfoByHost).run((hostUuid, infos, comp) ->
+                applyDhcpToHosts(infos, hostUuid, false, comp), completion);
     }
 
     private void handle(L3NetworkUpdateDhcpMsg msg) {
@@ -2177,14 +2155,19 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
                 continue;
             }
 
-            String hostUuid = vm.getHostUuid();
-            List<DhcpInfo> hostInfo = l3DhcpMap.computeIfAbsent(hostUuid, k -> new ArrayList<>());
-            hostInfo.addAll(getVmDhcpInfo(vm, msg.getL3NetworkUuid()));
+            List<DhcpInfo> vmInfo = getVmDhcpInfo(vm, msg.getL3NetworkUuid());
+            if (vmInfo == null || vmInfo.isEmpty()) {
+                continue;
+            }
+
+            l3DhcpMap.computeIfAbsent(vm.getHostUuid(), k -> new ArrayList<>()).addAll(vmInfo);
         }
 
-        applyDhcpToHosts(l3DhcpMap.entrySet().iterator(), new Completion(msg) {
+        // hosts failed are logged and don't fail the update, as they get their DHCP when reconnected
+        applyDhcpToHosts(String.format("update-dhcp-of-l3-network-%s", msg.getL3NetworkUuid()), l3DhcpMap,
+                new ReturnValueCompletion<DhcpHostFanout.Result>(msg) {
             @Override
-            public void success() {
+            public void success(DhcpHostFanout.Result result) {
                 bus.reply(msg, reply);
             }
 
@@ -2618,31 +2601,21 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
             return;
         }
 
-        
-        new While<>(dhcpInfoMap.entrySet()).step((entry, wcomp) -> {
-            String hostUuid = entry.getKey();
-            List<DhcpInfo> dhcpInfos = entry.getValue();
-            refreshDhcpInfoForConnectedHost(hostUuid, dhcpInfos, new Completion(wcomp) {
-                @Override
-                public void success() {
-                    wcomp.done();
-                }
-
-                @Override
-                public void fail(ErrorCode errorCode) {
-                    wcomp.addError(errorCode);
-                    wcomp.allDone();
-                }
-            });
-        }, 10).run(new WhileDoneCompletion(completion) {
+        new DhcpHostFanout<>(String.format("refresh-dhcp-of-l3-network-%s", l3VO.getUuid()), dhcpInfoMap)
+                .run(this::refreshDhcpInfoForConnectedHost, new ReturnValueCompletion<DhcpHostFanout.Result>(completion) {
             @Override
-            public void done(ErrorCodeList errorCodeList) {
-                if (errorCodeList.getCauses().isEmpty()) {
+            public void success(DhcpHostFanout.Result result) {
+                if (result.isSuccess()) {
                     completion.success();
                 } else {
-                    completion.fail(errorCodeList.getCauses().get(0));
+                    completion.fail(result.getFirstError());
                 }
             }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                completion.fail(errorCode);
+            }
         });
     }
 
@@ -2758,8 +2731,11 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
         cmd.bridgeName = brName;
         cmd.namespaceName = makeNamespaceName(brName, inventory.getUuid());
 
-        new While<>(huuids).step((huuid, comp) -> {
-            new KvmCommandSender(huuid).send(cmd, DHCP_FLUSH_NAMESPACE_PATH, wrapper -> {
+        Map<String, FlushDhcpNamespaceCmd> cmds = new LinkedHashMap<>();
+        huuids.forEach(huuid -> cmds.put(huuid, cmd));
+
+        new DhcpHostFanout<>(String.format("flush-dhcp-of-l3-network-%s", inventory.getUuid()), cmds).run((huuid, hcmd, comp) -> {
+            new KvmCommandSender(huuid).send(hcmd, DHCP_FLUSH_NAMESPACE_PATH, wrapper -> {
                 FlushDhcpNamespaceRsp rsp = wrapper.getResponse(FlushDhcpNamespaceRsp.class);
                 if (rsp == null) {
                     return null;
@@ -2770,7 +2746,7 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
                 public void success(KvmResponseWrapper w) {
                     logger.debug(String.format("successfully deleted namespace for L3 network[uuid:%s, name:%s] on the " +
                             "KVM host[uuid:%s]", inventory.getUuid(), inventory.getName(), getHostUuid()));
-                    comp.done();
+                    comp.success();
                 }
 
                 @Override
@@ -2778,12 +2754,17 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
                     logger.debug(String.format("delete namespace for L3 network[uuid:%s, name:%s] on the " +
                             "KVM host[uuid:%s], failed: %s", inventory.getUuid(),
                             inventory.getName(), getHostUuid(), errorCode.getDetails()));
-                    comp.done();
+                    comp.success();
                 }
             });
-        }, 10).run(new WhileDoneCompletion(new NopeCompletion(completion)){
+        }, new ReturnValueCompletion<DhcpHostFanout.Result>(completion) {
             @Override
-            public void done(ErrorCodeList errorCodeList) {
+            public void success(DhcpHostFanout.Result result) {
+                completion.success();
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
                 completion.success();
             }
         });
@@ -34,6 +34,10 @@ public class KVMGlobalProperty {
     public static String SKIP_PACKAGES;
     @GlobalProperty(name = "host.stop.shutdown.vm", defaultValue = "false")
     public static boolean HOST_STOP_SHUTDOWN_VM;
+    @GlobalProperty(name = "KvmHost.deletedHostCache.size", defaultValue = "10000")
+    public static int DELETED_HOST_CACHE_SIZE;
+    @GlobalProperty(name = "KvmHost.deletedHostCache.ttl", defaultValue = "86400")
+    public static long DELETED_HOST_CACHE_TTL;
 
     @GlobalProperty(name = "host.network.need.alarm.interface.service", defaultListValue = {"ManagementNetwork", "MigrationNetwork"})
     @AvailableValues(value = {"ManagementNetwork", "TenantNetwork", "StorageNetwork", "BackupNetwork", "MigrationNetwork"})
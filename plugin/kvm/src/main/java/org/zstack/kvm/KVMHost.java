@@ -156,6 +156,8 @@ public class KVMHost extends HostBase implements Host {
     private AccountManager accountMgr;
     @Autowired
     private UpgradeChecker upgradeChecker;
+    @Autowired
+    private KVMHostDeletionTracker deletionTracker;
 
     private KVMHostContext context;
 
@@ -493,7 +495,7 @@ public class KVMHost extends HostBase implements Host {
 
                     @Override
                     public void success(T ret) {
-                        if (dbf.isExist(self.getUuid(), HostVO.class)) {
+                        if (!isHostDeleted()) {
                             completion.success(ret);
                         } else {
                             completion.fail(operr("host[uuid:%s] has been deleted", self.getUuid()));
@@ -514,7 +516,7 @@ public class KVMHost extends HostBase implements Host {
 
                     @Override
                     public void success(T ret) {
-                        if (dbf.isExist(self.getUuid(), HostVO.class)) {
+                        if (!isHostDeleted()) {
                             completion.success(ret);
                         } else {
                             completion.fail(operr("host[uuid:%s] has been deleted", self.getUuid()));
@@ -530,36 +532,56 @@ public class KVMHost extends HostBase implements Host {
         }
 
         void runBeforeAsyncJsonPostExts(Map<String, String> header) {
+            List<KVMBeforeAsyncJsonPostExtensionPoint> exts = pluginRegistry.getExtensionList(KVMBeforeAsyncJsonPostExtensionPoint.class);
+
             if (commandStr == null) {
+                // the addons are put in the command, which is then serialized once
+                LinkedHashMap commandMap = exts.isEmpty() ? null : JSONObjectUtil.rehashObject(cmd, LinkedHashMap.class);
+                cmd.kvmHostAddons = collectHostAddons(exts, commandMap, header);
                 commandStr = JSONObjectUtil.toJsonString(cmd);
+                return;
             }
 
-            if (commandStr == null || commandStr.isEmpty()) {
+            if (commandStr.isEmpty()) {
                 logger.warn(String.format("commandStr is empty, path: %s, header: %s", path, header));
                 return;
             }
 
-            LinkedHashMap commandMap = JSONObjectUtil.toObject(commandStr, LinkedHashMap.class);
+            LinkedHashMap commandMap = exts.isEmpty() ? null : JSONObjectUtil.toObject(commandStr, LinkedHashMap.class);
+            commandStr = appendHostAddons(commandStr, collectHostAddons(exts, commandMap, header));
+        }
+
+        private LinkedHashMap collectHostAddons(List<KVMBeforeAsyncJsonPostExtensionPoint> exts, LinkedHashMap commandMap, Map<String, String> header) {
             LinkedHashMap kvmHostAddon = new LinkedHashMap();
-            for (KVMBeforeAsyncJsonPostExtensionPoint extp : pluginRegistry.getExtensionList(KVMBeforeAsyncJsonPostExtensionPoint.class)) {
+            for (KVMBeforeAsyncJsonPostExtensionPoint extp : exts) {
                 LinkedHashMap tmpHashMap = extp.kvmBeforeAsyncJsonPostExtensionPoint(path, commandMap, header);
 
                 if (tmpHashMap != null && !tmpHashMap.isEmpty()) {
-                    tmpHashMap.keySet().stream().forEachOrdered((key -> {
-                        kvmHostAddon.put(key, tmpHashMap.get(key));
-                    }));
+                    kvmHostAddon.putAll(tmpHashMap);
                 }
             }
+            return kvmHostAddon;
+        }
 
-            if (commandStr.equals("{}")) {
-                commandStr = commandStr.replaceAll("\\}$",
-                        String.format("\"%s\":%s}", KVMConstant.KVM_HOST_ADDONS, JSONObjectUtil.toJsonString(kvmHostAddon)));
-            } else {
-                commandStr = commandStr.replaceAll("\\}$",
-                        String.format(",\"%s\":%s}", KVMConstant.KVM_HOST_ADDONS, JSONObjectUtil.toJsonString(kvmHostAddon)));
+        private String appendHostAddons(String json, LinkedHashMap kvmHostAddon) {
+            int end = json.length() - 1;
+            if (json.charAt(end) != '}') {
+                return json;
             }
+
+            String addons = String.format("\"%s\":%s", KVMConstant.KVM_HOST_ADDONS, JSONObjectUtil.toJsonString(kvmHostAddon));
+            return json.equals("{}") ? "{" + addons + "}" : json.substring(0, end) + "," + addons + "}";
         }
     }
+
+    private boolean isHostDeleted() {
+        if (!deletionTracker.isDeleted(self.getUuid())) {
+            return false;
+        }
+
+        // the uuid may be taken by a host added again on another management node
+        return !dbf.isExist(self.getUuid(), HostVO.class);
+    }
     
     @Override
     protected void handleApiMessage(APIMessage msg) {
@@ -4029,6 +4051,10 @@ public class KVMHost extends HostBase implements Host {
 
         final StartVmCmd cmd = new StartVmCmd();
 
+        // most resource configs of the command are read from the vm, its root volume and its host
+        rcf.preloadResourceConfigValues(Arrays.asList(spec.getVmInventory().getUuid(), spec.getDestRootVolume().getUuid(),
+                spec.getDestHost().getUuid(), spec.getDestHost().getClusterUuid()));
+
         String platform = spec.getVmInventory().getPlatform() == null ? spec.getImageSpec().getInventory().getPlatform() :
                 spec.getVmInventory().getPlatform();
         if(ImagePlatform.Other.toString().equals(platform)){
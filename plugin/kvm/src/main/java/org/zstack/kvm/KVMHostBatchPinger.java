@@ -0,0 +1,37 @@
+package org.zstack.kvm;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.compute.host.HostBatchPinger;
+import org.zstack.compute.host.HostGlobalConfig;
+import org.zstack.core.asyncbatch.While;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.CloudBusCallBack;
+import org.zstack.core.cloudbus.CloudBusSteppingCallback;
+import org.zstack.header.core.NopeWhileDoneCompletion;
+import org.zstack.header.host.PingHostMsg;
+import org.zstack.header.message.MessageReply;
+
+import java.util.List;
+
+public class KVMHostBatchPinger implements HostBatchPinger {
+    @Autowired
+    private CloudBus bus;
+
+    @Override
+    public void ping(List<PingHostMsg> msgs, CloudBusSteppingCallback callback) {
+        // every KVM host runs its own agent, the pings of a tick are sent in steps
+        // so a tick never puts more than ping.parallelismDegree pings into flight
+        new While<>(msgs).step((msg, completion) -> bus.send(msg, new CloudBusCallBack(completion) {
+            @Override
+            public void run(MessageReply reply) {
+                callback.run(msg, reply);
+                completion.done();
+            }
+        }), HostGlobalConfig.HOST_TRACK_PARALLELISM_DEGREE.value(Integer.class)).run(new NopeWhileDoneCompletion());
+    }
+
+    @Override
+    public String getHypervisorType() {
+        return KVMConstant.KVM_HYPERVISOR_TYPE;
+    }
+}
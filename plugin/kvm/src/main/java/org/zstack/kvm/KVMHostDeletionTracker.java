@@ -0,0 +1,97 @@
+package org.zstack.kvm;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.EntityEvent;
+import org.zstack.core.db.SoftDeleteEntityExtensionPoint;
+import org.zstack.header.Component;
+import org.zstack.header.host.HostCanonicalEvents;
+import org.zstack.header.host.HostVO;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the hosts deleted, so KVMHost.Http checks replies of agent commands against memory
+ * instead of querying HostVO after every call. Hosts deleted on this management node are known
+ * once HostVO is deleted; hosts deleted on other nodes are known by the canonical event
+ * HOST_DELETED_PATH fired after the deletion is cleaned up.
+ *
+ * Only calls in flight when a host is deleted need to know it, so a host is forgotten after
+ * KvmHost.deletedHostCache.ttl seconds, and at most KvmHost.deletedHostCache.size hosts are kept.
+ */
+public class KVMHostDeletionTracker implements Component, SoftDeleteEntityExtensionPoint {
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private EventFacade evtf;
+
+    private final Cache<String, Boolean> deletedHostUuids = CacheBuilder.newBuilder()
+            .maximumSize(Math.max(KVMGlobalProperty.DELETED_HOST_CACHE_SIZE, 0))
+            .expireAfterWrite(KVMGlobalProperty.DELETED_HOST_CACHE_TTL, TimeUnit.SECONDS)
+            .build();
+
+    public boolean isDeleted(String hostUuid) {
+        return deletedHostUuids.getIfPresent(hostUuid) != null;
+    }
+
+    private void deleted(Collection<String> hostUuids) {
+        hostUuids.forEach(uuid -> deletedHostUuids.put(uuid, Boolean.TRUE));
+    }
+
+    @Override
+    public List<Class> getEntityClassForSoftDeleteEntityExtension() {
+        return Collections.singletonList(HostVO.class);
+    }
+
+    @Override
+    public void postSoftDelete(Collection entityIds, Class entityClass) {
+        List<String> hostUuids = new ArrayList<>();
+        for (Object id : entityIds) {
+            hostUuids.add((String) id);
+        }
+
+        // a host is not deleted if the transaction deleting it rolls back
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            deleted(hostUuids);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    deleted(hostUuids);
+                }
+            }
+        });
+    }
+
+    @Override
+    public boolean start() {
+        // a host added again with the uuid of a deleted one
+        dbf.installEntityLifeCycleCallback(KVMHostVO.class, EntityEvent.POST_PERSIST,
+                (e, o) -> deletedHostUuids.invalidate(((KVMHostVO) o).getUuid()));
+
+        evtf.on(HostCanonicalEvents.HOST_DELETED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                HostCanonicalEvents.HostDeletedData d = (HostCanonicalEvents.HostDeletedData) data;
+                deleted(Collections.singletonList(d.getHostUuid()));
+            }
+        });
+
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+}
@@ -40,6 +40,7 @@ import org.zstack.header.storage.snapshot.*;
 import org.zstack.header.vm.*;
 import org.zstack.header.vo.ResourceVO;
 import org.zstack.header.volume.*;
+import org.zstack.identity.QuotaUsageLedger;
 import org.zstack.storage.primary.*;
 import org.zstack.storage.primary.local.APIGetLocalStorageHostDiskCapacityReply.HostDiskCapacity;
 import org.zstack.storage.primary.local.MigrateBitsStruct.ResourceInfo;
@@ -500,6 +501,7 @@ public class LocalStorageBase extends PrimaryStorageBase {
                         .eq(VmInstanceVO_.uuid, struct.getVmUuid())
                         .set(VmInstanceVO_.lastHostUuid, lastHostUuid)
                         .update();
+                QuotaUsageLedger.resourcesChanged(struct.getVmUuid());
 
                 bus.publish(evt);
             }
@@ -633,6 +635,8 @@ public class LocalStorageBase extends PrimaryStorageBase {
                 originVolumeStatus = volume.getStatus();
                 volume.setStatus(VolumeStatus.Migrating);
                 SQL.New(VolumeVO.class).set(VolumeVO_.status, VolumeStatus.Migrating).eq(VolumeVO_.uuid, volume.getUuid()).update();
+                QuotaUsageLedger.resourcesChanged(volume.getUuid());
+                usedCapacityLedger.changed(PrimaryStorageUsedCapacityLedger.UsedCapacityKind.Volume, self.getUuid());
             }
 
             @Override
@@ -767,6 +771,8 @@ public class LocalStorageBase extends PrimaryStorageBase {
                                         .eq(VolumeVO_.uuid, volumeRefVO.getResourceUuid())
                                         .set(VolumeVO_.status, originVolumeStatus)
                                         .update();
+                                QuotaUsageLedger.resourcesChanged(volumeRefVO.getResourceUuid());
+                                usedCapacityLedger.changed(PrimaryStorageUsedCapacityLedger.UsedCapacityKind.Volume, self.getUuid());
 
                                 LocalStorageResourceRefVO vo = Q.New(LocalStorageResourceRefVO.class)
                                         .eq(LocalStorageResourceRefVO_.resourceUuid, volumeRefVO.getResourceUuid())
@@ -1709,6 +1715,7 @@ public class LocalStorageBase extends PrimaryStorageBase {
                 sql("delete from ImageCacheVO ic where ic.primaryStorageUuid = :psUuid and" +
                         " ic.installUrl like :url").param("psUuid", self.getUuid())
                         .param("url", String.format("%%%s%%", hostUuid)).execute();
+                usedCapacityLedger.changed(PrimaryStorageUsedCapacityLedger.UsedCapacityKind.ImageCache, self.getUuid());
 
                 List<LocalStorageResourceRefVO> refs = sql(
                         "select ref from LocalStorageResourceRefVO ref where ref.hostUuid = :huuid" +
@@ -1740,6 +1747,7 @@ public class LocalStorageBase extends PrimaryStorageBase {
 
                     sql("delete from VolumeSnapshotVO sp where sp.uuid in (:uuids)")
                             .param("uuids", snapshotUuids).execute();
+                    usedCapacityLedger.changed(PrimaryStorageUsedCapacityLedger.UsedCapacityKind.Snapshot, self.getUuid());
 
                     logger.debug(String.format("delete volume snapshots%s because the host[uuid:%s] is removed from" +
                             " the local storage[name:%s, uuid:%s]", snapshotUuids, hostUuid, self.getName(), self.getUuid()));
@@ -1776,6 +1784,7 @@ public class LocalStorageBase extends PrimaryStorageBase {
                     // delete volumes including root and data volumes
                     sql("delete from VolumeVO vol where vol.uuid in (:uuids)")
                             .param("uuids", volumesUuids).execute();
+                    usedCapacityLedger.changed(PrimaryStorageUsedCapacityLedger.UsedCapacityKind.Volume, self.getUuid());
                     logger.debug(String.format("delete volumes%s because the host[uuid:%s] is removed from" +
                             " the local storage[name:%s, uuid:%s]", volumesUuids, hostUuid, self.getName(), self.getUuid()));
 
@@ -165,6 +165,16 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
         private List<SecurityGroupState> sgStates;
         private boolean isDelete = false;
 
+        // compiled once per calculation, a group shared by many nics, hosts and remote rules is not queried again
+        private final Map<String, List<RuleTO>> groupRules = new HashMap<>();
+        private final Map<String, List<String>> groupMemberIps = new HashMap<>();
+        private final Map<String, Boolean> enabledGroups = new HashMap<>();
+        private final Map<String, String> l3Gateways = new HashMap<>();
+
+        private String makeGroupKey(String uuid, int ipVersion) {
+            return uuid + "-" + ipVersion;
+        }
+
         List<HostRuleTO> calculate() {
             if (sgStates == null) {
                 sgStates = asList(SecurityGroupState.Enabled);
@@ -229,14 +239,6 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             insgQuery.setParameter("sgState", sgStates);
             List<String> nicsInSg = insgQuery.getResultList();
 
-            sql = "select nic.uuid from VmNicVO nic, VmInstanceVO vm where nic.vmInstanceUuid = vm.uuid" +
-                    " and vm.hostUuid in (:hostUuids) and vm.state in (:vmStates)";
-            TypedQuery<String> allq = dbf.getEntityManager().createQuery(sql, String.class);
-            allq.setParameter("hostUuids", hostUuids);
-            allq.setParameter("vmStates", vmStates);
-            List<String> allNics = allq.getResultList();
-            allNics.removeAll(nicsInSg);
-
             List<HostRuleTO> ret = new ArrayList<HostRuleTO>();
             if (!nicsInSg.isEmpty()) {
                 vmNicUuids = nicsInSg.stream().distinct().collect(Collectors.toList());
@@ -276,6 +278,25 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
         }
 
         private List<RuleTO> calculateRuleTOBySecurityGroup(String sgUuid, String l3Uuid, int ipVersion) {
+            String key = makeGroupKey(sgUuid, ipVersion);
+            List<RuleTO> ret = groupRules.get(key);
+            if (ret == null) {
+                ret = compileRuleTOBySecurityGroup(sgUuid, ipVersion);
+                groupRules.put(key, ret);
+            }
+            return ret;
+        }
+
+        private boolean isSecurityGroupEnabled(String sgUuid) {
+            Boolean enabled = enabledGroups.get(sgUuid);
+            if (enabled == null) {
+                enabled = Q.New(SecurityGroupVO.class).eq(SecurityGroupVO_.uuid, sgUuid).in(SecurityGroupVO_.state, sgStates).isExists();
+                enabledGroups.put(sgUuid, enabled);
+            }
+            return enabled;
+        }
+
+        private List<RuleTO> compileRuleTOBySecurityGroup(String sgUuid, int ipVersion) {
             List<RuleTO> ret = new ArrayList<>();
             List<SecurityGroupRuleVO> rules = Q.New(SecurityGroupRuleVO.class).eq(SecurityGroupRuleVO_.securityGroupUuid, sgUuid)
                     .eq(SecurityGroupRuleVO_.ipVersion, ipVersion)
@@ -287,10 +308,8 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             }
 
             for (SecurityGroupRuleVO r : rules) {
-                if (r.getRemoteSecurityGroupUuid() != null) {
-                    if (!Q.New(SecurityGroupVO.class).eq(SecurityGroupVO_.uuid, r.getRemoteSecurityGroupUuid()).in(SecurityGroupVO_.state, sgStates).isExists()) {
-                        continue;
-                    }
+                if (r.getRemoteSecurityGroupUuid() != null && !isSecurityGroupEnabled(r.getRemoteSecurityGroupUuid())) {
+                    continue;
                 }
                 RuleTO rto = new RuleTO();
                 rto.setIpVersion(r.getIpVersion());
@@ -319,7 +338,27 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             return ret;
         }
 
-        private List<String> getVmIpsBySecurityGroup(String sgUuid, int ipVersion){
+        private List<String> getVmIpsBySecurityGroup(String sgUuid, int ipVersion) {
+            String key = makeGroupKey(sgUuid, ipVersion);
+            List<String> ret = groupMemberIps.get(key);
+            if (ret == null) {
+                ret = compileVmIpsBySecurityGroup(sgUuid, ipVersion);
+                groupMemberIps.put(key, ret);
+            }
+            return ret;
+        }
+
+        private String getL3Gateway(String l3Uuid, int ipVersion) {
+            String key = makeGroupKey(l3Uuid, ipVersion);
+            if (!l3Gateways.containsKey(key)) {
+                L3NetworkInventory inv = L3NetworkInventory.valueOf(dbf.findByUuid(l3Uuid, L3NetworkVO.class));
+                List<IpRangeInventory> iprs = IpRangeHelper.getNormalIpRanges(inv, ipVersion);
+                l3Gateways.put(key, iprs.isEmpty() ? null : iprs.get(0).getGateway());
+            }
+            return l3Gateways.get(key);
+        }
+
+        private List<String> compileVmIpsBySecurityGroup(String sgUuid, int ipVersion){
             List<String> ret = new ArrayList<>();
             // TODO: if two L3 network which have same ip segment attached same sg, it might has a problem
             String sql = "select ip.ip" +
@@ -350,10 +389,9 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             List<String> resultL3Uuids = Stream.concat(attachedL3Uuids.stream(), nicL3Uuids.stream()).distinct().collect(Collectors.toList());
 
             for (String uuid: resultL3Uuids) {
-                L3NetworkInventory inv = L3NetworkInventory.valueOf(dbf.findByUuid(uuid, L3NetworkVO.class));
-                List<IpRangeInventory> iprs = IpRangeHelper.getNormalIpRanges(inv, ipVersion);
-                if (!iprs.isEmpty()) {
-                    ret.add(iprs.get(0).getGateway());
+                String gateway = getL3Gateway(uuid, ipVersion);
+                if (gateway != null) {
+                    ret.add(gateway);
                 }
             }
 
@@ -396,6 +434,12 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
                     .param("sgStates", sgStates)
                     .list();
 
+            // index by nic, filtering the lists for every nic is quadratic
+            Map<String, VmNicSecurityPolicyVO> policiesByNic = new HashMap<>();
+            policies.forEach(p -> policiesByNic.putIfAbsent(p.getVmNicUuid(), p));
+            Map<String, List<UsedIpVO>> usedIpsByNic = usedIps.stream().collect(Collectors.groupingBy(UsedIpVO::getVmNicUuid));
+            Map<String, List<Tuple>> refsByNic = refs.stream().collect(Collectors.groupingBy(r -> r.get(0, String.class)));
+
             for (Tuple t : ts) {
                 String hostUuid = t.get(0, String.class);
                 String hvType = t.get(1, String.class);
@@ -403,7 +447,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
                 String nicName = t.get(3, String.class);
                 String mac = t.get(4, String.class);
 
-                VmNicSecurityPolicyVO policy = policies.stream().filter(p -> p.getVmNicUuid().equals(nicUuid)).findFirst().orElse(null);
+                VmNicSecurityPolicyVO policy = policiesByNic.get(nicUuid);
                 if (policy == null) {
                     continue;
                 }
@@ -431,8 +475,8 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
                 nicTo.setActionCode(VmNicSecurityTO.ACTION_CODE_APPLY_CHAIN);
                 hto.getVmNics().add(nicTo);
 
-                List<UsedIpVO> ips = usedIps.stream().filter(i -> i.getVmNicUuid().equals(nicUuid)).collect(Collectors.toList());
-                List<Tuple> sgRefs = refs.stream().filter(r -> r.get(0, String.class).equals(nicUuid)).collect(Collectors.toList());
+                List<UsedIpVO> ips = usedIpsByNic.getOrDefault(nicUuid, Collections.emptyList());
+                List<Tuple> sgRefs = refsByNic.getOrDefault(nicUuid, Collections.emptyList());
                 if (ips.isEmpty() || sgRefs.isEmpty()) {
                     continue;
                 }
@@ -827,8 +871,8 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
                     @Override
                     public void run(FlowTrigger trigger, Map data) {
                         List<String> sgUuids = (List<String>)data.get(SecurityGroupConstant.Param.SECURITY_GROUP_UUIDS);
+                        RuleCalculator cal = new RuleCalculator();
                         for (String sgUuid : sgUuids) {
-                            RuleCalculator cal = new RuleCalculator();
                             HostSecurityGroupMembersTO groupMemberTO = cal.returnHostSecurityGroupMember(sgUuid);
                             if(!groupMemberTO.getHostUuids().isEmpty()){
                                 if (Q.New(SecurityGroupVO.class).eq(SecurityGroupVO_.uuid, sgUuid).eq(SecurityGroupVO_.state, SecurityGroupState.Disabled).isExists()) {
@@ -85,6 +85,8 @@ public class VirtualRouter extends ApplianceVmBase {
     protected VirutalRouterDefaultL3ConfigProxy defaultL3ConfigProxy;
     @Autowired
     protected UpgradeChecker upgradeChecker;
+    @Autowired
+    protected VirtualRouterDesiredStates desiredStates;
 
     protected VirtualRouterVmInventory vr;
 
@@ -680,9 +682,24 @@ public class VirtualRouter extends ApplianceVmBase {
                             self.getUuid(), msg.getPath()));
                 }
 
+                if (msg.isSkipIfInSync() && VirtualRouterGlobalConfig.RECONNECT_SKIP_SYNCED_CONFIG.value(Boolean.class)) {
+                    LinkedHashMap synced = desiredStates.getSyncedResponse(self.getUuid(), msg.getPath(), msg.getCommand());
+                    if (synced != null) {
+                        logger.debug(String.format("the config of %s is in sync with the virtual router[uuid:%s], skip it",
+                                msg.getPath(), self.getUuid()));
+                        reply.setResponse(synced);
+                        bus.reply(msg, reply);
+                        chain.next();
+                        return;
+                    }
+                }
+
+                final VirtualRouterDesiredStates.DesiredState desiredState = msg.isDesiredStateSync() ? desiredStates.begin(self.getUuid()) : null;
+
                 restf.asyncJsonPost(buildUrl(vr.getManagementNic().getIp(), msg.getPath()), msg.getCommand(), new JsonAsyncRESTCallback<LinkedHashMap>(msg, chain) {
                     @Override
                     public void fail(ErrorCode err) {
+                        desiredStates.invalidate(self.getUuid());
                         reply.setError(err);
                         bus.reply(msg, reply);
                         chain.next();
@@ -690,6 +707,13 @@ public class VirtualRouter extends ApplianceVmBase {
 
                     @Override
                     public void success(LinkedHashMap ret) {
+                        // the config of the agent is unknown after any command fails
+                        if (ret == null || Boolean.FALSE.equals(ret.get("success"))) {
+                            desiredStates.invalidate(self.getUuid());
+                        } else if (desiredState != null) {
+                            desiredStates.synced(self.getUuid(), desiredState, msg.getPath(), msg.getCommand(), ret);
+                        }
+
                         reply.setResponse(ret);
                         bus.reply(msg, reply);
                         chain.next();
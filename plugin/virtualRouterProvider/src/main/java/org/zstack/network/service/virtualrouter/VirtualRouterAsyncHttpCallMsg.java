@@ -15,11 +15,29 @@ public class VirtualRouterAsyncHttpCallMsg extends NeedReplyMessage implements V
     private String command;
     private boolean checkStatus;
     private String commandClassName;
+    private boolean desiredStateSync;
+    private boolean skipIfInSync;
 
     public String getCommandClassName() {
         return commandClassName;
     }
 
+    public boolean isDesiredStateSync() {
+        return desiredStateSync;
+    }
+
+    public void setDesiredStateSync(boolean desiredStateSync) {
+        this.desiredStateSync = desiredStateSync;
+    }
+
+    public boolean isSkipIfInSync() {
+        return skipIfInSync;
+    }
+
+    public void setSkipIfInSync(boolean skipIfInSync) {
+        this.skipIfInSync = skipIfInSync;
+    }
+
     public boolean isCheckStatus() {
         return checkStatus;
     }
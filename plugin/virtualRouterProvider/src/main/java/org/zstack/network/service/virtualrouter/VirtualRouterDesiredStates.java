@@ -0,0 +1,310 @@
+package org.zstack.network.service.virtualrouter;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.appliancevm.ApplianceVmCanonicalEvents;
+import org.zstack.appliancevm.ApplianceVmConstant;
+import org.zstack.appliancevm.ApplianceVmStatus;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.header.Component;
+import org.zstack.header.managementnode.ManagementNodeChangeListener;
+import org.zstack.header.managementnode.ManagementNodeInventory;
+import org.zstack.header.vm.VmCanonicalEvents;
+import org.zstack.header.vm.VmInstanceState;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+
+/**
+ * The desired state last synced to each virtual router, one entry per sync path holding the
+ * content hash of the sync command and the response of the agent.
+ *
+ * When virtualRouter.reconnect.skipSyncedConfig is true, a sync command sent on a reconnect not
+ * requested by API whose content hash equals the recorded one is answered by the recorded response
+ * instead of being sent to the agent again. The desired state of a virtual router is dropped whenever
+ * the agent may have lost its config or diverged from the database: the virtual router is disconnected,
+ * leaves Running state or is rebooted, its agent is deployed or restarted, or any command to it fails.
+ *
+ * Configs applied piece by piece, like the listeners of load balancers, are recorded as items with
+ * their own content hashes, so only the items changed since they were applied are sent. Applying a
+ * delta computed on a version other than the current one drops the desired state, the next delta
+ * then contains every item, i.e. a full refresh.
+ *
+ * The desired states are kept in memory of the management nodes syncing the virtual router: sync
+ * commands are handled by the node owning the virtual router, while load balancer items are recorded
+ * by the node owning the load balancer. So a desired state invalidated on one node is dropped on all
+ * nodes, and all desired states are dropped whenever a management node joins or leaves, as the owners
+ * of virtual routers and load balancers may move; every virtual router is then fully synced once again.
+ */
+public class VirtualRouterDesiredStates implements Component, ManagementNodeChangeListener {
+    private static final CLogger logger = Utils.getLogger(VirtualRouterDesiredStates.class);
+
+    public static final String DESIRED_STATE_INVALIDATED_PATH = "/virtual-router/desired-state/invalidated";
+
+    public static class DesiredStateInvalidatedData {
+        private String virtualRouterUuid;
+        private String managementNodeUuid;
+
+        public String getVirtualRouterUuid() {
+            return virtualRouterUuid;
+        }
+
+        public void setVirtualRouterUuid(String virtualRouterUuid) {
+            this.virtualRouterUuid = virtualRouterUuid;
+        }
+
+        public String getManagementNodeUuid() {
+            return managementNodeUuid;
+        }
+
+        public void setManagementNodeUuid(String managementNodeUuid) {
+            this.managementNodeUuid = managementNodeUuid;
+        }
+    }
+
+    @Autowired
+    private EventFacade evf;
+
+    private static class SyncedConfig {
+        String hash;
+        LinkedHashMap response;
+    }
+
+    public static class DesiredState {
+        private long version;
+        private final Map<String, SyncedConfig> configs = new HashMap<>();
+        private final Map<String, String> items = new HashMap<>();
+    }
+
+    public static class ItemDelta {
+        private final DesiredState state;
+        private final long version;
+        private final Map<String, String> changed = new HashMap<>();
+
+        private ItemDelta(DesiredState state) {
+            this.state = state;
+            this.version = state.version;
+        }
+
+        public Set<String> getChangedKeys() {
+            return changed.keySet();
+        }
+
+        public boolean isEmpty() {
+            return changed.isEmpty();
+        }
+    }
+
+    private final Map<String, DesiredState> states = new HashMap<>();
+    private long lastVersion;
+
+    /**
+     * @param data the data of the flow chain syncing the virtual router
+     * @return true if the flow chain is a reconnect not requested by API, which can skip the synced config
+     */
+    public static boolean canSkipSyncedConfig(Map data) {
+        return Boolean.parseBoolean((String) data.get(VirtualRouterConstant.Param.IS_RECONNECT.toString()))
+                && !Boolean.parseBoolean((String) data.get(ApplianceVmConstant.Params.fromApi.toString()));
+    }
+
+    private static String hash(String command) {
+        return DigestUtils.md5Hex(command);
+    }
+
+    /**
+     * @return the desired state to pass to synced(), a sync completes only if no invalidate() happens in between
+     */
+    public synchronized DesiredState begin(String vrUuid) {
+        return states.computeIfAbsent(vrUuid, k -> new DesiredState());
+    }
+
+    public synchronized void synced(String vrUuid, DesiredState state, String path, String command, LinkedHashMap response) {
+        if (states.get(vrUuid) != state) {
+            logger.debug(String.format("the desired state of the virtual router[uuid:%s] is invalidated while syncing %s," +
+                    " not record it", vrUuid, path));
+            return;
+        }
+
+        String hash = hash(command);
+        SyncedConfig config = state.configs.computeIfAbsent(path, k -> new SyncedConfig());
+        if (!hash.equals(config.hash)) {
+            state.version = ++lastVersion;
+        }
+
+        config.hash = hash;
+        config.response = new LinkedHashMap(response);
+    }
+
+    /**
+     * @return a copy of the response recorded for the same command, or null if the command differs from the synced one
+     */
+    public synchronized LinkedHashMap getSyncedResponse(String vrUuid, String path, String command) {
+        DesiredState state = states.get(vrUuid);
+        SyncedConfig config = state == null ? null : state.configs.get(path);
+        if (config == null || !config.hash.equals(hash(command))) {
+            return null;
+        }
+
+        return new LinkedHashMap(config.response);
+    }
+
+    /**
+     * @return the version of the desired state, 0 if nothing is synced; it increases whenever the synced config changes
+     */
+    public synchronized long getVersion(String vrUuid) {
+        DesiredState state = states.get(vrUuid);
+        return state == null ? 0 : state.version;
+    }
+
+    /**
+     * @param items content of the items by their keys
+     * @return the items whose content differs from the applied ones, to pass to applied() once they are applied
+     */
+    public synchronized ItemDelta diff(String vrUuid, Map<String, String> items) {
+        DesiredState state = begin(vrUuid);
+        ItemDelta delta = new ItemDelta(state);
+        items.forEach((key, content) -> {
+            String hash = hash(content);
+            if (!hash.equals(state.items.get(key))) {
+                delta.changed.put(key, hash);
+            }
+        });
+
+        return delta;
+    }
+
+    /**
+     * @return false if the desired state has changed since the delta was computed, the desired state is
+     * dropped and the next delta is a full one
+     */
+    public synchronized boolean applied(String vrUuid, ItemDelta delta) {
+        DesiredState state = states.get(vrUuid);
+        if (state != delta.state || state.version != delta.version) {
+            logger.debug(String.format("the desired state of the virtual router[uuid:%s] diverged from version %s while" +
+                    " applying %s, drop it", vrUuid, delta.version, delta.getChangedKeys()));
+            drop(vrUuid);
+            return false;
+        }
+
+        if (!delta.isEmpty()) {
+            state.items.putAll(delta.changed);
+            state.version = ++lastVersion;
+        }
+
+        return true;
+    }
+
+    /**
+     * record the items fully applied, items with the same key prefix not in them are forgotten
+     */
+    public synchronized void appliedAll(String vrUuid, String keyPrefix, Map<String, String> items) {
+        DesiredState state = begin(vrUuid);
+        state.items.keySet().removeIf(key -> key.startsWith(keyPrefix));
+        items.forEach((key, content) -> state.items.put(key, hash(content)));
+        state.version = ++lastVersion;
+    }
+
+    public synchronized void removeItems(String vrUuid, Collection<String> keys) {
+        DesiredState state = states.get(vrUuid);
+        if (state != null && state.items.keySet().removeAll(keys)) {
+            state.version = ++lastVersion;
+        }
+    }
+
+    /**
+     * drops the desired state of the virtual router on all management nodes
+     */
+    public void invalidate(String vrUuid) {
+        drop(vrUuid);
+
+        DesiredStateInvalidatedData data = new DesiredStateInvalidatedData();
+        data.setVirtualRouterUuid(vrUuid);
+        data.setManagementNodeUuid(Platform.getManagementServerId());
+        evf.fire(DESIRED_STATE_INVALIDATED_PATH, data);
+    }
+
+    private synchronized void drop(String vrUuid) {
+        states.remove(vrUuid);
+    }
+
+    private synchronized void dropAll() {
+        if (!states.isEmpty()) {
+            logger.debug(String.format("management nodes changed, drop the desired states of %s virtual routers", states.size()));
+            states.clear();
+        }
+    }
+
+    private void setupCanonicalEvents() {
+        evf.on(ApplianceVmCanonicalEvents.APPLIANCEVM_STATUS_CHANGED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                ApplianceVmCanonicalEvents.ApplianceVmStatusChangedData d = (ApplianceVmCanonicalEvents.ApplianceVmStatusChangedData) data;
+                if (ApplianceVmStatus.Disconnected.toString().equals(d.getNewStatus())) {
+                    drop(d.getApplianceVmUuid());
+                }
+            }
+        });
+
+        evf.on(VmCanonicalEvents.VM_FULL_STATE_CHANGED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                VmCanonicalEvents.VmStateChangedData d = (VmCanonicalEvents.VmStateChangedData) data;
+                if (!VmInstanceState.Running.toString().equals(d.getNewState())) {
+                    drop(d.getVmUuid());
+                }
+            }
+        });
+
+        evf.on(VmCanonicalEvents.VM_LIBVIRT_REPORT_REBOOT, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                drop((String) data);
+            }
+        });
+
+        evf.on(DESIRED_STATE_INVALIDATED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                DesiredStateInvalidatedData d = (DesiredStateInvalidatedData) data;
+                // already dropped by the node invalidating it
+                if (!Platform.getManagementServerId().equals(d.getManagementNodeUuid())) {
+                    drop(d.getVirtualRouterUuid());
+                }
+            }
+        });
+    }
+
+    @Override
+    public boolean start() {
+        setupCanonicalEvents();
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+
+    @Override
+    public void nodeJoin(ManagementNodeInventory inv) {
+        dropAll();
+    }
+
+    @Override
+    public void nodeLeft(ManagementNodeInventory inv) {
+        dropAll();
+    }
+
+    @Override
+    public void iAmDead(ManagementNodeInventory inv) {
+        dropAll();
+    }
+
+    @Override
+    public void iJoin(ManagementNodeInventory inv) {
+        dropAll();
+    }
+}
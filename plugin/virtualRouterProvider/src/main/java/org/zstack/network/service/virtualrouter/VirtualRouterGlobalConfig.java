@@ -40,4 +40,8 @@ public class VirtualRouterGlobalConfig {
     @GlobalConfigValidation
     @BindResourceConfig({VmInstanceVO.class})
     public static GlobalConfig TC_FOR_VIPQOS = new GlobalConfig(CATEGORY, "tc.for.vipqos");
+    @GlobalConfigValidation
+    public static GlobalConfig RECONNECT_SKIP_SYNCED_CONFIG = new GlobalConfig(CATEGORY, "reconnect.skipSyncedConfig");
+    @GlobalConfigValidation
+    public static GlobalConfig LB_DELTA_REFRESH = new GlobalConfig(CATEGORY, "loadBalancer.deltaRefresh");
 }
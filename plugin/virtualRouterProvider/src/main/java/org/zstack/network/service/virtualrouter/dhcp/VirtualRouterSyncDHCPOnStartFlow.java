@@ -191,6 +191,8 @@ public class VirtualRouterSyncDHCPOnStartFlow implements Flow {
         VirtualRouterAsyncHttpCallMsg msg = new VirtualRouterAsyncHttpCallMsg();
         msg.setCommand(cmd);
         msg.setPath(VirtualRouterConstant.VR_ADD_DHCP_PATH);
+        msg.setDesiredStateSync(true);
+        msg.setSkipIfInSync(VirtualRouterDesiredStates.canSkipSyncedConfig(data));
         msg.setVmInstanceUuid(vr.getUuid());
         bus.makeTargetServiceIdByResourceUuid(msg, VmInstanceConstant.SERVICE_ID, vr.getUuid());
         bus.send(msg, new CloudBusCallBack(chain) {
@@ -109,6 +109,8 @@ public class VirtualRouterSyncDnsOnStartFlow extends NoRollbackFlow {
         VirtualRouterAsyncHttpCallMsg msg = new VirtualRouterAsyncHttpCallMsg();
         msg.setVmInstanceUuid(vr.getUuid());
         msg.setPath(VirtualRouterConstant.VR_SET_DNS_PATH);
+        msg.setDesiredStateSync(true);
+        msg.setSkipIfInSync(VirtualRouterDesiredStates.canSkipSyncedConfig(data));
         msg.setCommand(cmd);
         bus.makeTargetServiceIdByResourceUuid(msg, VmInstanceConstant.SERVICE_ID, vr.getUuid());
         bus.send(msg, new CloudBusCallBack(chain) {
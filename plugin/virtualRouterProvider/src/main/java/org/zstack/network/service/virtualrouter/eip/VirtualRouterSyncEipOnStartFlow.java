@@ -197,6 +197,8 @@ public class VirtualRouterSyncEipOnStartFlow implements Flow {
 
         VirtualRouterAsyncHttpCallMsg msg = new VirtualRouterAsyncHttpCallMsg();
         msg.setPath(VirtualRouterConstant.VR_SYNC_EIP);
+        msg.setDesiredStateSync(true);
+        msg.setSkipIfInSync(VirtualRouterDesiredStates.canSkipSyncedConfig(data));
         msg.setCommand(cmd);
         msg.setVmInstanceUuid(vr.getUuid());
         bus.makeTargetServiceIdByResourceUuid(msg, VmInstanceConstant.SERVICE_ID, vr.getUuid());
@@ -101,11 +101,14 @@ public class VirtualRouterLoadBalancerBackend extends AbstractVirtualRouterBacke
     private VipConfigProxy vipProxy;
     @Autowired
     private ResourceConfigFacade rcf;
+    @Autowired
+    private VirtualRouterDesiredStates desiredStates;
 
     private static final String REFRESH_CERTIFICATE_TASK = "refreshCertificate";
     private static final String DELETE_CERTIFICATE_TASK = "deleteCertificate";
     private static final String REFRESH_LB_TASK = "refreshLb";
     private static final String DESTROY_LB_TASK = "destroyLb";
+    private static final String LISTENER_ITEM_PREFIX = "lb-listener-";
 
     @Override
     public List<Class> getMessageClassToIntercept() {
@@ -1119,6 +1122,19 @@ public class VirtualRouterLoadBalancerBackend extends AbstractVirtualRouterBacke
         }
         cmd.enableHaproxyLog = rcf.getResourceConfigValue(VyosGlobalConfig.ENABLE_HAPROXY_LOG, vr.getUuid(), Boolean.class);
 
+        // the applied listeners are recorded even not in delta mode, to be correct once it's enabled
+        final VirtualRouterDesiredStates.ItemDelta delta = desiredStates.diff(vr.getUuid(), makeListenerItems(cmd));
+        if (VirtualRouterGlobalConfig.LB_DELTA_REFRESH.value(Boolean.class)) {
+            cmd.lbs = cmd.lbs.stream().filter(to -> delta.getChangedKeys().contains(listenerItemKey(to))).collect(Collectors.toList());
+            if (cmd.lbs.isEmpty()) {
+                logger.debug(String.format("no listener of the load balancer[uuid:%s] changed on the virtual router[uuid:%s], skip refreshing it",
+                        struct.getLb().getUuid(), vr.getUuid()));
+                new VirtualRouterRoleManager().makeLoadBalancerRole(vr.getUuid());
+                completion.success();
+                return;
+            }
+        }
+
         msg.setCommand(cmd);
         bus.makeTargetServiceIdByResourceUuid(msg, VmInstanceConstant.SERVICE_ID, vr.getUuid());
         bus.send(msg, new CloudBusCallBack(completion) {
@@ -1127,6 +1143,7 @@ public class VirtualRouterLoadBalancerBackend extends AbstractVirtualRouterBacke
                 if (reply.isSuccess()) {
                     RefreshLbRsp rsp = ((VirtualRouterAsyncHttpCallReply) reply).toResponse(RefreshLbRsp.class);
                     if (rsp.isSuccess()) {
+                        desiredStates.applied(vr.getUuid(), delta);
                         new VirtualRouterRoleManager().makeLoadBalancerRole(vr.getUuid());
                         completion.success();
                     } else {
@@ -1139,6 +1156,18 @@ public class VirtualRouterLoadBalancerBackend extends AbstractVirtualRouterBacke
         });
     }
 
+    private static String listenerItemKey(LbTO to) {
+        return LISTENER_ITEM_PREFIX + to.getListenerUuid();
+    }
+
+    private static Map<String, String> makeListenerItems(RefreshLbCmd cmd) {
+        Map<String, String> items = new HashMap<>();
+        for (LbTO to : cmd.lbs) {
+            items.put(listenerItemKey(to), String.format("%s:%s", cmd.enableHaproxyLog, JSONObjectUtil.toJsonString(to)));
+        }
+        return items;
+    }
+
     public void refresh(VirtualRouterVmInventory vr, LoadBalancerStruct struct, final Completion completion) {
         FlowChain chain = FlowChainBuilder.newShareFlowChain();
         chain.setName("refresh-lb-to-virtualRouter");
@@ -1297,6 +1326,7 @@ public class VirtualRouterLoadBalancerBackend extends AbstractVirtualRouterBacke
                 }
                 cmd.setLbs(listeners);
                 cmd.enableHaproxyLog = rcf.getResourceConfigValue(VyosGlobalConfig.ENABLE_HAPROXY_LOG, vr.getUuid(), Boolean.class);
+                VirtualRouterDesiredStates.ItemDelta delta = desiredStates.diff(vr.getUuid(), makeListenerItems(cmd));
 
                 msg.setCommand(cmd);
                 bus.makeTargetServiceIdByResourceUuid(msg, VmInstanceConstant.SERVICE_ID, vr.getUuid());
@@ -1306,6 +1336,7 @@ public class VirtualRouterLoadBalancerBackend extends AbstractVirtualRouterBacke
                         if (reply.isSuccess()) {
                             RefreshLbRsp rsp = ((VirtualRouterAsyncHttpCallReply) reply).toResponse(RefreshLbRsp.class);
                             if (rsp.isSuccess()) {
+                                desiredStates.applied(vr.getUuid(), delta);
                                 trigger.next();
                             } else {
                                 trigger.fail(operr("refresh load balancer listener, because:%s", rsp.getError()));
@@ -2353,6 +2384,7 @@ public class VirtualRouterLoadBalancerBackend extends AbstractVirtualRouterBacke
                                     VirtualRouterAsyncHttpCallReply kr = reply.castReply();
                                     RefreshLbRsp rsp = kr.toResponse(RefreshLbRsp.class);
                                     if (rsp.isSuccess()) {
+                                        desiredStates.appliedAll(vr.getUuid(), LISTENER_ITEM_PREFIX, makeListenerItems(cmd));
                                         trigger.next();
                                     } else {
                                         trigger.fail(operr("operation error, because:%s", rsp.getError()));
@@ -2416,6 +2448,7 @@ public class VirtualRouterLoadBalancerBackend extends AbstractVirtualRouterBacke
                 if (reply.isSuccess()) {
                     DeleteLbRsp rsp = ((VirtualRouterAsyncHttpCallReply) reply).toResponse(DeleteLbRsp.class);
                     if (rsp.isSuccess()) {
+                        desiredStates.removeItems(vr.getUuid(), cmd.lbs.stream().map(VirtualRouterLoadBalancerBackend::listenerItemKey).collect(Collectors.toList()));
                         completion.success();
                     } else {
                         completion.fail(operr("operation error, because:%s", rsp.getError()));
@@ -2446,6 +2479,7 @@ public class VirtualRouterLoadBalancerBackend extends AbstractVirtualRouterBacke
                 if (reply.isSuccess()) {
                     DeleteLbRsp rsp = ((VirtualRouterAsyncHttpCallReply) reply).toResponse(DeleteLbRsp.class);
                     if (rsp.isSuccess()) {
+                        desiredStates.removeItems(vr.getUuid(), cmd.lbs.stream().map(VirtualRouterLoadBalancerBackend::listenerItemKey).collect(Collectors.toList()));
                         completion.success();
                     } else {
                         completion.fail(operr("operation error, because:%s", rsp.getError()));
@@ -127,6 +127,8 @@ public class VirtualRouterSyncSNATOnStartFlow implements Flow {
         cmd.setEnable(Boolean.TRUE);
         VirtualRouterAsyncHttpCallMsg msg = new VirtualRouterAsyncHttpCallMsg();
         msg.setPath(VirtualRouterConstant.VR_SYNC_SNAT_PATH);
+        msg.setDesiredStateSync(true);
+        msg.setSkipIfInSync(VirtualRouterDesiredStates.canSkipSyncedConfig(data));
         msg.setCommand(cmd);
         msg.setVmInstanceUuid(vr.getUuid());
         bus.makeTargetServiceIdByResourceUuid(msg, VmInstanceConstant.SERVICE_ID, vr.getUuid());
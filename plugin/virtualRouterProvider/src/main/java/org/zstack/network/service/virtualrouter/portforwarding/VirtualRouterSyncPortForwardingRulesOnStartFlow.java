@@ -186,6 +186,8 @@ public class VirtualRouterSyncPortForwardingRulesOnStartFlow implements Flow {
         VirtualRouterAsyncHttpCallMsg msg = new VirtualRouterAsyncHttpCallMsg();
         msg.setCommand(cmd);
         msg.setPath(VirtualRouterConstant.VR_SYNC_PORT_FORWARDING);
+        msg.setDesiredStateSync(true);
+        msg.setSkipIfInSync(VirtualRouterDesiredStates.canSkipSyncedConfig(data));
         msg.setVmInstanceUuid(vr.getUuid());
         bus.makeTargetServiceIdByResourceUuid(msg, VmInstanceConstant.SERVICE_ID, vr.getUuid());
         bus.send(msg, new CloudBusCallBack(chain) {
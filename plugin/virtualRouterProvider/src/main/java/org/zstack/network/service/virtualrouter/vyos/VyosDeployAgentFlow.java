@@ -50,6 +50,8 @@ public class VyosDeployAgentFlow extends NoRollbackFlow {
     private ThreadFacade thdf;
     @Autowired
     private UpgradeChecker upgradeChecker;
+    @Autowired
+    private VirtualRouterDesiredStates desiredStates;
 
 
     private String REMOTE_USER;
@@ -136,6 +138,8 @@ public class VyosDeployAgentFlow extends NoRollbackFlow {
                             forceReboot = true;
                         }
                         rebootAgent(REMOTE_PORT, forceReboot);
+                        // the agent may be restarted and lose its config, sync the virtual router fully
+                        desiredStates.invalidate(vrUuid);
                         trigger.next();
                         return true;
                     } else {
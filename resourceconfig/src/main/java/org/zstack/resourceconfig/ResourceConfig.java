@@ -4,6 +4,8 @@ import org.springframework.beans.factory.annotation.Autowire;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.zstack.core.Platform;
 import org.zstack.core.cloudbus.EventCallback;
 import org.zstack.core.cloudbus.EventFacade;
@@ -18,6 +20,8 @@ import org.zstack.utils.logging.CLogger;
 
 import javax.persistence.Tuple;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import static org.zstack.core.Platform.operr;
@@ -28,6 +32,17 @@ import static org.zstack.resourceconfig.ResourceConfigCanonicalEvents.*;
 
 /**
  * Created by MaJin on 2019/2/23.
+ *
+ * Values of resources are resolved by walking the bound resource types, e.g. vm, cluster, zone,
+ * and falling back to the global config. Types of resources and the values of each resource
+ * itself are cached, a resource without value of its own is cached as empty, so resolving
+ * a value only runs the queries finding the parents of the resource. Resolved values inherited
+ * from parents are not cached, because the parents of a resource, like the cluster of a vm,
+ * change without notifying resource configs.
+ *
+ * A cached value is evicted when it's updated or deleted on this or other management nodes,
+ * and after the transaction updating it completes. Changes of ResourceConfigVO not made by
+ * resource configs are broadcast to other management nodes to evict their cached values too.
  */
 
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
@@ -49,6 +64,14 @@ public class ResourceConfig {
     private List<ResourceConfigDeleteExtensionPoint> deleteExtensions = new ArrayList<>();
     private List<ResourceConfigValidatorExtensionPoint> validatorExtensions = new ArrayList<>();
 
+    // type of a resource never changes, shared by all resource configs
+    private static final Map<String, String> resourceTypes = new ConcurrentHashMap<>();
+    // values of resources themselves, empty if the resource has no value of its own
+    private final Map<String, Optional<String>> configValues = new ConcurrentHashMap<>();
+    private volatile long cacheVersion;
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+
     public static ResourceConfig valueOf(GlobalConfig globalConfig, BindResourceConfig bindInfo) {
         ResourceConfig result = new ResourceConfig();
         result.globalConfig = globalConfig;
@@ -170,6 +193,22 @@ public class ResourceConfig {
                         evt.getResourceUuid(), globalConfig.getCategory(), globalConfig.getName(), nodeUuid));
             }
         });
+
+        evtf.on(s(ResourceConfigCanonicalEvents.EVICT_EVENT_PATH).formatByMap(map(
+                e("category", globalConfig.getCategory()),
+                e("name", globalConfig.getName())
+        )), new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                String nodeUuid = (String) tokens.get("nodeUuid");
+                if (Platform.getManagementServerId().equals(nodeUuid)) {
+                    return;
+                }
+
+                EvictEvent evt = (EvictEvent) data;
+                configValueChanged(evt.getResourceUuid());
+            }
+        });
     }
 
     private void initResourceConfigNodes() {
@@ -190,6 +229,11 @@ public class ResourceConfig {
                     it.validateGlobalConfig(globalConfig.getCategory(), globalConfig.getName(), oldValue, newValue));
             validatorExtensions.forEach(it -> it.validateResourceConfig(resourceUuid, oldValue, newValue));
             updateValueInDb(resourceUuid, resourceType, newValue);
+        }
+
+        configValueChanged(resourceUuid);
+
+        if (localUpdate) {
             localUpdateExtensions.forEach(it -> it.updateResourceConfig(this, resourceUuid, resourceType, oldValue, newValue));
         }
 
@@ -198,6 +242,7 @@ public class ResourceConfig {
         if (localUpdate) {
             UpdateEvent evt = new UpdateEvent();
             evt.setResourceUuid(resourceUuid);
+            evt.setResourceType(resourceType);
             evt.setOldValue(oldValue);
             evtf.fire(makeUpdateEventPath(), evt);
         }
@@ -212,6 +257,11 @@ public class ResourceConfig {
 
         if (localDelete) {
             deleteInDb(resourceUuid);
+        }
+
+        configValueChanged(resourceUuid);
+
+        if (localDelete) {
             localDeleteExtensions.forEach(it -> it.deleteResourceConfig(this, resourceUuid, resourceType, originValue));
         }
 
@@ -231,7 +281,7 @@ public class ResourceConfig {
 
     @Transactional(readOnly = true)
     protected String getResourceConfigValue(String resourceUuid) {
-        String resourceType = Q.New(ResourceVO.class).select(ResourceVO_.resourceType).eq(ResourceVO_.uuid, resourceUuid).findValue();
+        String resourceType = findResourceType(resourceUuid);
         if (resourceType == null) {
             logger.warn(String.format("no resource[uuid:%s] found, cannot get it's resource config," +
                     " use global config instead", resourceUuid));
@@ -250,7 +300,7 @@ public class ResourceConfig {
 
     @Transactional(readOnly = true)
     protected String getResourceConfigValueByResourceType(String resourceUuid, String type) {
-        String resourceType = Q.New(ResourceVO.class).select(ResourceVO_.resourceType).eq(ResourceVO_.uuid, resourceUuid).findValue();
+        String resourceType = findResourceType(resourceUuid);
         if (resourceType == null || !resourceType.equals(type)) {
             logger.warn(String.format("no resource[uuid:%s] by resourceType[%s] found, cannot get it's resource config", resourceUuid, type));
             return null;
@@ -263,7 +313,7 @@ public class ResourceConfig {
             return null;
         }
 
-        return loadConfigValue(resourceUuid);
+        return getConfigValue(resourceUuid);
     }
 
     @Transactional(readOnly = true)
@@ -315,7 +365,7 @@ public class ResourceConfig {
     }
 
     public List<ResourceConfigInventory> getEffectiveResourceConfigs(String resourceUuid) {
-        String resourceType = Q.New(ResourceVO.class).select(ResourceVO_.resourceType).eq(ResourceVO_.uuid, resourceUuid).findValue();
+        String resourceType = findResourceType(resourceUuid);
         if (resourceType == null) {
             logger.warn(String.format("no resource[uuid:%s] found, cannot get it's resource config," +
                     " use global config instead", resourceUuid));
@@ -338,7 +388,7 @@ public class ResourceConfig {
         List<String> parentResourceUuidPairsSql = new ArrayList<>();
 
         private String getResourceConfigValue(String resourceUuid) {
-            String v = loadConfigValue(resourceUuid);
+            String v = getConfigValue(resourceUuid);
             if (v != null) {
                 return v;
             }
@@ -349,7 +399,7 @@ public class ResourceConfig {
                     continue;
                 }
 
-                v = loadConfigValue(resUuid);
+                v = getConfigValue(resUuid);
                 if (v != null) {
                     return v;
                 }
@@ -449,7 +499,7 @@ public class ResourceConfig {
     }
 
     private String getResourceType(String resourceUuid) {
-        String resourceType = Q.New(ResourceVO.class).eq(ResourceVO_.uuid, resourceUuid).select(ResourceVO_.resourceType).findValue();
+        String resourceType = findResourceType(resourceUuid);
         if (resourceType == null) {
             throw new OperationFailureException(operr("cannot find resource[uuid: %s]", resourceUuid));
         }
@@ -469,8 +519,16 @@ public class ResourceConfig {
         ));
     }
 
+    private String makeEvictEventPath() {
+        return s(ResourceConfigCanonicalEvents.EVICT_EVENT_PATH).formatByMap(map(
+                e("nodeUuid", Platform.getManagementServerId()),
+                e("category", globalConfig.getCategory()),
+                e("name", globalConfig.getName())
+        ));
+    }
+
     private String makeDeleteEventPath() {
-        return s(ResourceConfigCanonicalEvents.UPDATE_EVENT_PATH).formatByMap(map(
+        return s(ResourceConfigCanonicalEvents.DELETE_EVENT_PATH).formatByMap(map(
                 e("nodeUuid", Platform.getManagementServerId()),
                 e("category", globalConfig.getCategory()),
                 e("name", globalConfig.getName())
@@ -501,6 +559,171 @@ public class ResourceConfig {
                 .findValue();
     }
 
+    static boolean isValueCacheEnabled() {
+        return ResourceConfigGlobalProperty.VALUE_CACHE_ENABLED;
+    }
+
+    static String findResourceType(String resourceUuid) {
+        String resourceType = isValueCacheEnabled() ? resourceTypes.get(resourceUuid) : null;
+        if (resourceType != null) {
+            return resourceType;
+        }
+
+        resourceType = Q.New(ResourceVO.class).select(ResourceVO_.resourceType).eq(ResourceVO_.uuid, resourceUuid).findValue();
+        if (resourceType != null && isValueCacheEnabled()) {
+            cacheResourceType(resourceUuid, resourceType);
+        }
+
+        return resourceType;
+    }
+
+    /**
+     * @return types of the resources found, keyed by resource uuids
+     */
+    static Map<String, String> findResourceTypes(Collection<String> resourceUuids) {
+        Map<String, String> types = new HashMap<>();
+        List<String> toLoad = new ArrayList<>();
+        resourceUuids.forEach(uuid -> {
+            String resourceType = resourceTypes.get(uuid);
+            if (resourceType != null) {
+                types.put(uuid, resourceType);
+            } else {
+                toLoad.add(uuid);
+            }
+        });
+
+        if (toLoad.isEmpty()) {
+            return types;
+        }
+
+        Q.New(ResourceVO.class).select(ResourceVO_.uuid, ResourceVO_.resourceType)
+                .in(ResourceVO_.uuid, toLoad).listTuple().forEach(it -> {
+                    String uuid = it.get(0, String.class);
+                    String resourceType = it.get(1, String.class);
+                    cacheResourceType(uuid, resourceType);
+                    types.put(uuid, resourceType);
+                });
+
+        return types;
+    }
+
+    private static void cacheResourceType(String resourceUuid, String resourceType) {
+        // types of deleted resources are never evicted, start over if there are too many
+        if (resourceTypes.size() >= ResourceConfigGlobalProperty.VALUE_CACHE_MAX_SIZE) {
+            resourceTypes.clear();
+        }
+
+        resourceTypes.put(resourceUuid, resourceType);
+    }
+
+    /**
+     * @return value of the resource itself, null if it has no value of its own
+     */
+    private String getConfigValue(String resourceUuid) {
+        if (!isValueCacheEnabled()) {
+            return loadConfigValue(resourceUuid);
+        }
+
+        Optional<String> value = configValues.get(resourceUuid);
+        if (value != null) {
+            cacheHits.incrementAndGet();
+            return value.orElse(null);
+        }
+
+        cacheMisses.incrementAndGet();
+        long version = cacheVersion;
+        String v = loadConfigValue(resourceUuid);
+        cacheConfigValue(resourceUuid, v, version);
+        return v;
+    }
+
+    private void cacheConfigValue(String resourceUuid, String value, long version) {
+        synchronized (configValues) {
+            // changed after the value was loaded, load it again on next use
+            if (version != cacheVersion) {
+                return;
+            }
+
+            if (configValues.size() >= ResourceConfigGlobalProperty.VALUE_CACHE_MAX_SIZE) {
+                configValues.clear();
+            }
+
+            configValues.put(resourceUuid, Optional.ofNullable(value));
+        }
+    }
+
+    private void evictConfigValue(String resourceUuid) {
+        synchronized (configValues) {
+            cacheVersion++;
+            configValues.remove(resourceUuid);
+        }
+    }
+
+    /**
+     * evicts the cached value of the resource, again after the transaction completes
+     * if called in a transaction, for the value may be loaded before it's committed
+     */
+    void configValueChanged(String resourceUuid) {
+        evictConfigValue(resourceUuid);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    evictConfigValue(resourceUuid);
+                }
+            });
+        }
+    }
+
+    /**
+     * evicts the cached value of the resource changed in database directly, on this node now and
+     * on other nodes after the transaction completes, for they may load the value before it's committed
+     */
+    void configValueChangedInDb(String resourceUuid) {
+        configValueChanged(resourceUuid);
+
+        EvictEvent evt = new EvictEvent();
+        evt.setResourceUuid(resourceUuid);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            evtf.fire(makeEvictEventPath(), evt);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                evtf.fire(makeEvictEventPath(), evt);
+            }
+        });
+    }
+
+    long getCacheVersion() {
+        return cacheVersion;
+    }
+
+    /**
+     * caches the values of the resources bound to this config, loaded in bulk by
+     * ResourceConfigFacade.preloadResourceConfigValues
+     *
+     * @param version cache version got before the values were loaded
+     */
+    void preload(Map<String, String> resourceTypesByUuid, Map<String, String> valuesByUuid, long version) {
+        resourceTypesByUuid.forEach((uuid, resourceType) -> {
+            if (configGetter.containsKey(resourceType)) {
+                cacheConfigValue(uuid, valuesByUuid.get(uuid), version);
+            }
+        });
+    }
+
+    long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
     private List<Tuple> loadResourceUuidsAndValues(List<String> resourceUuids) {
         return Q.New(ResourceConfigVO.class)
                 .select(ResourceConfigVO_.resourceUuid, ResourceConfigVO_.value)
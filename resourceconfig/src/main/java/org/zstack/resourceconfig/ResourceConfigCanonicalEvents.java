@@ -8,6 +8,7 @@ import org.zstack.header.message.NeedJsonSchema;
 public class ResourceConfigCanonicalEvents {
     public static final String UPDATE_EVENT_PATH = "/resourceConfig/update/{category}/{name}/{nodeUuid}";
     public static final String DELETE_EVENT_PATH = "/resourceConfig/delete/{category}/{name}/{nodeUuid}";
+    public static final String EVICT_EVENT_PATH = "/resourceConfig/evict/{category}/{name}/{nodeUuid}";
 
     @NeedJsonSchema
     public static class UpdateEvent {
@@ -70,4 +71,17 @@ public class ResourceConfigCanonicalEvents {
             this.resourceType = resourceType;
         }
     }
+
+    @NeedJsonSchema
+    public static class EvictEvent {
+        private String resourceUuid;
+
+        public String getResourceUuid() {
+            return resourceUuid;
+        }
+
+        public void setResourceUuid(String resourceUuid) {
+            this.resourceUuid = resourceUuid;
+        }
+    }
 }
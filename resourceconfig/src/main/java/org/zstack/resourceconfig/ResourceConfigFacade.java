@@ -17,4 +17,11 @@ public interface ResourceConfigFacade {
     <T> Map<String, T> getResourceConfigValues(GlobalConfig gc, List<String> resourceUuids, Class<T> clz);
 
     <T> Map<String, T> getResourceConfigValueByResourceUuids(GlobalConfig gc, List<String> resourceUuids, Class<T> clz);
+
+    /**
+     * loads the values of all resource configs of the resources in bulk, so reading them
+     * later doesn't query the database one by one. Parents of the resources, like the cluster
+     * of a vm, are not loaded unless they are in the list.
+     */
+    void preloadResourceConfigValues(List<String> resourceUuids);
 }
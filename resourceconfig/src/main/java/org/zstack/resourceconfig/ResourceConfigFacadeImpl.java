@@ -15,6 +15,7 @@ import org.zstack.utils.BeanUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
+import javax.persistence.Tuple;
 import java.lang.reflect.Field;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -176,9 +177,24 @@ public class ResourceConfigFacadeImpl extends AbstractService implements Resourc
         });
 
         initResourceConfig();
+        installCacheEvictor();
         return true;
     }
 
+    private void installCacheEvictor() {
+        // changes of ResourceConfigVO not made by ResourceConfig, evicted on other nodes too,
+        // changes made by ResourceConfig are evicted again there, which is harmless
+        for (EntityEvent evt : new EntityEvent[]{EntityEvent.POST_PERSIST, EntityEvent.POST_UPDATE, EntityEvent.POST_REMOVE}) {
+            dbf.installEntityLifeCycleCallback(ResourceConfigVO.class, evt, (e, o) -> {
+                ResourceConfigVO vo = (ResourceConfigVO) o;
+                ResourceConfig rc = resourceConfigs.get(GlobalConfig.produceIdentity(vo.getCategory(), vo.getName()));
+                if (rc != null) {
+                    rc.configValueChangedInDb(vo.getResourceUuid());
+                }
+            });
+        }
+    }
+
     @Override
     public boolean stop() {
         return true;
@@ -242,6 +258,32 @@ public class ResourceConfigFacadeImpl extends AbstractService implements Resourc
         return resourceConfigMap;
     }
 
+    @Override
+    public void preloadResourceConfigValues(List<String> resourceUuids) {
+        if (!ResourceConfig.isValueCacheEnabled() || resourceUuids.isEmpty()) {
+            return;
+        }
+
+        Map<String, Long> versions = new HashMap<>();
+        resourceConfigs.forEach((identity, rc) -> versions.put(identity, rc.getCacheVersion()));
+
+        Map<String, String> resourceTypes = ResourceConfig.findResourceTypes(new HashSet<>(resourceUuids));
+        if (resourceTypes.isEmpty()) {
+            return;
+        }
+
+        Map<String, Map<String, String>> values = new HashMap<>();
+        List<Tuple> tuples = Q.New(ResourceConfigVO.class)
+                .select(ResourceConfigVO_.category, ResourceConfigVO_.name, ResourceConfigVO_.resourceUuid, ResourceConfigVO_.value)
+                .in(ResourceConfigVO_.resourceUuid, resourceTypes.keySet())
+                .listTuple();
+        tuples.forEach(it -> values.computeIfAbsent(GlobalConfig.produceIdentity(it.get(0, String.class), it.get(1, String.class)),
+                k -> new HashMap<>()).put(it.get(2, String.class), it.get(3, String.class)));
+
+        resourceConfigs.forEach((identity, rc) ->
+                rc.preload(resourceTypes, values.getOrDefault(identity, Collections.emptyMap()), versions.get(identity)));
+    }
+
     protected void buildResourceConfig(Field field) throws Exception {
         BindResourceConfig at = field.getAnnotation(BindResourceConfig.class);
         GlobalConfig gc = (GlobalConfig) field.get(null);
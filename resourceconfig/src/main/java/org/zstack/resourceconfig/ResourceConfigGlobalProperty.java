@@ -0,0 +1,12 @@
+package org.zstack.resourceconfig;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+@GlobalPropertyDefinition
+public class ResourceConfigGlobalProperty {
+    @GlobalProperty(name = "ResourceConfig.valueCache.enabled", defaultValue = "true")
+    public static boolean VALUE_CACHE_ENABLED;
+    @GlobalProperty(name = "ResourceConfig.valueCache.maxSize", defaultValue = "100000")
+    public static int VALUE_CACHE_MAX_SIZE;
+}
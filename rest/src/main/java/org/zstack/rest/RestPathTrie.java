@@ -0,0 +1,160 @@
+package org.zstack.rest;
+
+import org.springframework.util.AntPathMatcher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves a request path against the registered REST paths in one walk over its
+ * segments, collecting the values of the {var} segments on the way.
+ *
+ * A literal segment is preferred over a {var} segment, so /v1/vm-instances/actions
+ * wins over /v1/vm-instances/{uuid} for the path /v1/vm-instances/actions. Patterns that
+ * don't fit the trie, like a variable in the middle of a segment or a wildcard, are
+ * matched by AntPathMatcher after the trie misses.
+ */
+public class RestPathTrie<T> {
+    private static class Node<T> {
+        Map<String, Node<T>> literals = new HashMap<>();
+        Node<T> variable;
+        String pattern;
+        T value;
+    }
+
+    public static class Match<T> {
+        private final String pattern;
+        private final T value;
+        private final List<String> variables;
+
+        Match(String pattern, T value, List<String> variables) {
+            this.pattern = pattern;
+            this.value = value;
+            this.variables = variables;
+        }
+
+        public String getPattern() {
+            return pattern;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * @return values of the variables in the order they appear in the pattern
+         */
+        public List<String> getVariables() {
+            return variables;
+        }
+    }
+
+    private final Node<T> root = new Node<>();
+    private final Map<String, T> irregulars = new LinkedHashMap<>();
+    private final AntPathMatcher matcher = new AntPathMatcher();
+    private int size;
+
+    private static List<String> split(String path) {
+        List<String> segs = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= path.length(); i++) {
+            if (i == path.length() || path.charAt(i) == '/') {
+                // empty segments are skipped as AntPathMatcher does
+                if (i > start) {
+                    segs.add(path.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+        return segs;
+    }
+
+    private static boolean isVariable(String seg) {
+        return seg.length() > 2 && seg.charAt(0) == '{' && seg.charAt(seg.length() - 1) == '}'
+                && seg.indexOf('{', 1) < 0;
+    }
+
+    private static boolean isLiteral(String seg) {
+        return seg.indexOf('{') < 0 && seg.indexOf('}') < 0 && seg.indexOf('*') < 0 && seg.indexOf('?') < 0;
+    }
+
+    public void add(String pattern, T value) {
+        size++;
+
+        List<String> segs = split(pattern);
+        if (pattern.endsWith("/") || !segs.stream().allMatch(s -> isVariable(s) || isLiteral(s))) {
+            irregulars.put(pattern, value);
+            return;
+        }
+
+        Node<T> node = root;
+        for (String seg : segs) {
+            if (isVariable(seg)) {
+                if (node.variable == null) {
+                    node.variable = new Node<>();
+                }
+                node = node.variable;
+            } else {
+                node = node.literals.computeIfAbsent(seg, k -> new Node<>());
+            }
+        }
+
+        node.pattern = pattern;
+        node.value = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private Node<T> find(Node<T> node, List<String> segs, int index, List<String> vars) {
+        if (index == segs.size()) {
+            return node.pattern == null ? null : node;
+        }
+
+        Node<T> child = node.literals.get(segs.get(index));
+        if (child != null) {
+            Node<T> found = find(child, segs, index + 1, vars);
+            if (found != null) {
+                return found;
+            }
+        }
+
+        if (node.variable != null) {
+            vars.add(segs.get(index));
+            Node<T> found = find(node.variable, segs, index + 1, vars);
+            if (found != null) {
+                return found;
+            }
+            vars.remove(vars.size() - 1);
+        }
+
+        return null;
+    }
+
+    /**
+     * @return null if no pattern matches the path
+     */
+    public Match<T> match(String path) {
+        // a trailing slash only matches patterns ending with a slash, which are irregular
+        if (!path.endsWith("/")) {
+            List<String> vars = new ArrayList<>(2);
+            Node<T> node = find(root, split(path), 0, vars);
+            if (node != null) {
+                return new Match<>(node.pattern, node.value, vars);
+            }
+        }
+
+        for (Map.Entry<String, T> e : irregulars.entrySet()) {
+            if (matcher.match(e.getKey(), path)) {
+                List<String> vars = new ArrayList<>(matcher.extractUriTemplateVariables(e.getKey(), path).values());
+                return new Match<>(e.getKey(), e.getValue(), vars);
+            }
+        }
+
+        return null;
+    }
+}
@@ -164,6 +164,8 @@ public class RestServer implements Component, CloudBusEventListener {
         final String clientIp;
         final String clientBrowser;
         HttpHeaders headers = new HttpHeaders();
+        // the route the request path matched, kept for its path variables
+        transient RestPathTrie.Match<String> pathMatch;
 
         public RequestInfo(HttpServletRequest req) {
             session = req.getSession();
@@ -408,6 +410,7 @@ public class RestServer implements Component, CloudBusEventListener {
         RestResponse responseAnnotation;
         Map<String, String> requestMappingFields;
         String path;
+        List<String> pathVarNames;
         List<String> optionalPaths = new ArrayList<>();
         String actionName;
 
@@ -563,6 +566,8 @@ public class RestServer implements Component, CloudBusEventListener {
     private AntPathMatcher matcher = new AntPathMatcher();
 
     private Map<String, Object> apis = new HashMap<>();
+    // normalized paths of apis and the async job path, built once in build()
+    private RestPathTrie<String> routes = new RestPathTrie<>();
     private Set<String> sensitiveRestPaths = new HashSet<>();
     private Map<Class, RestResponseWrapper> responseAnnotationByClass = new HashMap<>();
 
@@ -612,27 +617,39 @@ public class RestServer implements Component, CloudBusEventListener {
         }
     }
 
-    private String getFormatBody(String path, String body) {
-        path = getMatchPath(path);
-        if (sensitiveRestPaths.contains(path)) {
+    private String getFormatBody(String matchPath, String body) {
+        if (sensitiveRestPaths.contains(matchPath)) {
             return "*****";
         } else {
             return body;
         }
     }
 
-    private String getMatchPath(String path) {
+    private String getMatchPath(String path, RequestInfo info) {
         if (apis.containsKey(path)) {
             return path;
         }
 
-        for (String p : apis.keySet()) {
-            if (matcher.match(p, path)) {
-                return p;
-            }
+        info.pathMatch = routes.match(path);
+        return info.pathMatch == null ? null : info.pathMatch.getValue();
+    }
+
+    private Map<String, String> getPathVariables(Api api, String url) {
+        if (api.pathVarNames.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+
+        RequestInfo info = requestInfo.get();
+        RestPathTrie.Match<String> m = info != null && info.pathMatch != null ? info.pathMatch : routes.match(url);
+        if (m == null || m.getVariables().size() != api.pathVarNames.size()) {
+            return matcher.extractUriTemplateVariables(api.path, url);
         }
 
-        return null;
+        Map<String, String> vars = new LinkedHashMap<>();
+        for (int i = 0; i < api.pathVarNames.size(); i++) {
+            vars.put(api.pathVarNames.get(i), m.getVariables().get(i));
+        }
+        return vars;
     }
 
     void handle(HttpServletRequest req, HttpServletResponse rsp) throws IOException, IllegalAccessException, NoSuchMethodException, InvocationTargetException {
@@ -642,6 +659,7 @@ public class RestServer implements Component, CloudBusEventListener {
         String path = getDecodedUrl(req);
         HttpEntity<String> entity = toHttpEntity(req);
         extensions.forEach(ext -> ext.afterRestRequest(info.method));
+        String matchPath = getMatchPath(path, info);
 
         if (requestLogger.isTraceEnabled() && needLog(info)) {
             StringBuilder sb = new StringBuilder(String.format("[ID: %s, Method: %s] Request from %s (to %s), ",
@@ -651,7 +669,7 @@ public class RestServer implements Component, CloudBusEventListener {
             if (req.getQueryString() != null && !req.getQueryString().isEmpty()) {
                 sb.append(String.format(" Query: %s,", UriUtils.decode(req.getQueryString(), "UTF-8")));
             }
-            sb.append(String.format(" Body: %s", entity.getBody() == null || entity.getBody().isEmpty() ? null : getFormatBody(path, entity.getBody())));
+            sb.append(String.format(" Body: %s", entity.getBody() == null || entity.getBody().isEmpty() ? null : getFormatBody(matchPath, entity.getBody())));
 
             requestLogger.trace(sb.toString());
         }
@@ -665,12 +683,12 @@ public class RestServer implements Component, CloudBusEventListener {
             return;
         }
 
-        if (matcher.match(ASYNC_JOB_PATH_PATTERN, path)) {
+        if (ASYNC_JOB_PATH_PATTERN.equals(matchPath)) {
             handleJobQuery(req, rsp);
             return;
         }
 
-        Object api = apis.get(getMatchPath(path));
+        Object api = matchPath == null ? null : apis.get(matchPath);
         if (api == null) {
             sendResponse(HttpStatus.NOT_FOUND.value(), String.format("no api mapping to %s", path), rsp);
             return;
@@ -1007,7 +1025,7 @@ public class RestServer implements Component, CloudBusEventListener {
         }
 
         String url = getDecodedUrl(req);
-        Map<String, String> vars = matcher.extractUriTemplateVariables(api.path, url);
+        Map<String, String> vars = getPathVariables(api, url);
         for (Map.Entry<String, String> e : vars.entrySet()) {
             // set fields parsed from the URL
             String key = e.getKey();
@@ -1081,7 +1099,7 @@ public class RestServer implements Component, CloudBusEventListener {
         msg.setSession(session);
         msg.setServiceId(ApiMediatorConstant.SERVICE_ID);
 
-        Map<String, String> urlvars = matcher.extractUriTemplateVariables(api.path, getDecodedUrl(req));
+        Map<String, String> urlvars = getPathVariables(api, getDecodedUrl(req));
         String uuid = urlvars.get("uuid");
         if (uuid != null) {
             // this is a GET /xxxx/uuid
@@ -1381,6 +1399,7 @@ public class RestServer implements Component, CloudBusEventListener {
 
                 api = new Api(clz, at);
                 api.path = path;
+                api.pathVarNames = getVarNamesFromUrl(path);
 
                 if (LogSafeGson.needMaskLog(api.apiClass)) {
                     sensitiveRestPaths.add(normalizedPath);
@@ -1432,6 +1451,10 @@ public class RestServer implements Component, CloudBusEventListener {
             throw new RuntimeException(String.format("Error Api list : %s", errorApiList));
         }
 
+        apis.keySet().forEach(p -> routes.add(p, p));
+        // the async job path goes last so it wins over any api registered with the same path
+        routes.add(normalizePath(ASYNC_JOB_PATH_PATTERN), ASYNC_JOB_PATH_PATTERN);
+
         // below codes are checking if there
         // are duplicated APIs
         for (Object o : apis.values()) {
@@ -5,6 +5,8 @@ import org.apache.commons.lang.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.zstack.core.CoreGlobalProperty;
 import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
 import org.zstack.core.cloudbus.MessageSafe;
 import org.zstack.core.cloudbus.MarshalReplyMessageExtensionPoint;
 import org.zstack.core.componentloader.PluginRegistry;
@@ -19,6 +21,7 @@ import org.zstack.header.core.ReturnValueCompletion;
 import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.errorcode.OperationFailureException;
 import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.identity.IdentityCanonicalEvents;
 import org.zstack.header.message.APIMessage;
 import org.zstack.header.message.Message;
 import org.zstack.header.message.NeedReplyMessage;
@@ -63,6 +66,8 @@ public class QueryFacadeImpl extends AbstractService implements QueryFacade, Glo
     private CloudBus bus;
     @Autowired
     private ThreadFacade thdf;
+    @Autowired
+    private EventFacade evtf;
 
     public static final String USER_TAG = "__userTag__";
     public static final String SYSTEM_TAG = "__systemTag__";
@@ -174,9 +179,22 @@ public class QueryFacadeImpl extends AbstractService implements QueryFacade, Glo
         populateExtensions();
         collectInventoryAPINoSee();
         cleanSlowZQLCache();
+        cleanZQLPlanCacheOnIdentityChanged();
         return true;
     }
 
+    private void cleanZQLPlanCacheOnIdentityChanged() {
+        for (String path : Arrays.asList(IdentityCanonicalEvents.POLICY_CHANGED_PATH,
+                IdentityCanonicalEvents.ACCOUNT_DELETED_PATH, IdentityCanonicalEvents.USER_DELETED_PATH)) {
+            evtf.on(path, new EventCallback() {
+                @Override
+                protected void run(Map tokens, Object data) {
+                    ZQL.cleanPlanCache();
+                }
+            });
+        }
+    }
+
     @Override
     public boolean stop() {
         return true;
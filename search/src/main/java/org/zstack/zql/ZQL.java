@@ -61,6 +61,7 @@ public class ZQL {
 
     private static Set<String> slowZql = new HashSet<>();
     private static ZQLStatistic statistic = new ZQLStatistic();
+    private static final ZQLPlanCache planCache = new ZQLPlanCache(ZQLGlobalProperty.PLAN_CACHE_SIZE);
 
     private QueryResult astResult;
     private SearchResult searchResult;
@@ -251,26 +252,243 @@ public class ZQL {
     public List<ZQLQueryReturn> getResultList() {
         long before = System.currentTimeMillis();
 
-        List<ZQLQueryReturn> rs = new ArrayList<>();
+        List<ZQLQueryReturn> rs = planCache.isEnabled() ? getResultListByPlan() : null;
+        if (rs == null) {
+            rs = getResultListByParsing();
+        }
+
+        long cost = System.currentTimeMillis() - before;
+        boolean statisticsOn = QueryGlobalConfig.ZQL_STATISTICS_ON.value(Boolean.class);
+        if (cost > TimeUnit.SECONDS.toMillis(QueryGlobalConfig.SLOW_ZQL_COST_TIME.value(Long.class))) {
+            logSlowZql(text, cost);
+
+            if (statisticsOn) {
+                statistic.getSlowZQLStatistics().add(new SlowZQLStatistic(text, cost));
+            }
+        }
+
+        if (statisticsOn) {
+            statistic.count();
+        }
+
+        return rs;
+    }
 
+    private static class QueryRet {
+        Long count;
+        List vos;
+    }
+
+    private ZQLQueryReturn executeCountQuery(String name) {
+        ZQLQueryReturn qr = new ZQLQueryReturn();
+        QueryRet ret = new QueryRet();
+
+        new SQLBatch() {
+            @Override
+            protected void scripts() {
+                Query q = astResult.createCountQuery.apply(databaseFacade.getEntityManager());
+                List results = q.getResultList();
+                if (results.size() == 1 && results.get(0) instanceof Long) {
+                    ret.count = (Long)results.get(0);
+                } else {
+                    if (!results.isEmpty()) {
+                        /*
+                            gson which enable ComplexMapKeySerialization will serialize the map to json array
+                            when it is not empty or json object "{}" when it is empty.
+                            null is better than a inconsistent json type.
+                         */
+                        qr.inventoryCounts = new LinkedHashMap<>();
+                    }
+                    for (Object result : results) {
+                        Object[] fieldValues = (Object[]) result;
+                        int countIndex = fieldValues.length - 1;
+                        qr.inventoryCounts.put(entityVOtoInventory(fieldValues), (Long)fieldValues[countIndex]);
+                    }
+
+                    Query totalCountQuery = astResult.createSimpleCountQuery.apply(databaseFacade.getEntityManager());
+                    ret.count = (Long) totalCountQuery.getSingleResult();
+                }
+            }
+        }.execute();
+
+        qr.name = name;
+        qr.total = ret.count;
+        return qr;
+    }
+
+    /**
+     * @param wrapper null if the query doesn't return with extensions
+     * @param clean cleans the context once the query has been executed, could be null
+     */
+    private ZQLQueryReturn executeQuery(String name, ASTNode.Function function, ReturnWithQueryNodeWrapper wrapper, Runnable clean) {
+        ZQLQueryReturn qr = new ZQLQueryReturn();
+        QueryRet ret = new QueryRet();
+
+        new SQLBatch() {
+            @Override
+            protected void scripts() {
+                Query q = astResult.createJPAQuery.apply(databaseFacade.getEntityManager());
+                ret.vos = q.getResultList();
+
+                if (astResult.createSimpleCountQuery != null) {
+                    q = astResult.createSimpleCountQuery.apply(databaseFacade.getEntityManager());
+                    ret.count = (Long) q.getSingleResult();
+                }
+            }
+        }.execute();
+
+        if (wrapper != null) {
+            qr.returnWith = callReturnWithExtensions(astResult, wrapper, ret.vos);
+        }
+        qr.name = name;
+
+        if (wrapper != null) {
+            wrapper.removePrimaryKeyFieldFromTargetFieldNamesWhenReturnWithEnabledAndIsFieldQuery(astResult);
+        }
+
+        if (clean != null) {
+            clean.run();
+        }
+
+        if (isCount(function) || isSum(function)) {
+            // Separate syntax support
+            throw new CloudRuntimeException(String.format("query grammar can't support, %s", function.getFunctionName()));
+        } else if (isMax(function) || isMin(function) || isSum(function) || isAvg(function)) {
+            qr.inventoryAggregateFunctions = new LinkedHashMap<>();
+            for (Object result : ret.vos) {
+                if (result instanceof Object[]) {
+                    Object[] fieldValues = (Object[]) result;
+                    int aggregateFunIndex = fieldValues.length - 1;
+                    qr.inventoryAggregateFunctions.put(entityVOtoMap(fieldValues), fieldValues[aggregateFunIndex]);
+                } else {
+                    qr.inventoryAggregateFunctions.put(entityVOtoMap(result), result);
+                }
+            }
+        } else {
+            // `distinct` keeps the original method for compatibility
+            qr.inventories = ret.vos != null ? entityVOtoInventories(ret.vos) : null;
+        }
+
+        qr.total = ret.count;
+        return qr;
+    }
+
+    private static ZQLParser createParser(String text) {
         ZQLLexer l = new ZQLLexer(CharStreams.fromString(text));
         ZQLParser p = new ZQLParser(new CommonTokenStream(l));
-        
+
         l.addErrorListener(new ThrowingErrorListener(text));
         p.addErrorListener(new ThrowingErrorListener(text));
+        return p;
+    }
+
+    private static String buildSimpleCountJpql(QueryResult result) {
+        if (result.simpleCountJpql == null) {
+            return null;
+        }
+
+        // building the simple count overwrites the target fields
+        List<String> targetFieldNames = result.targetFieldNames;
+        String jpql = result.simpleCountJpql.get();
+        result.targetFieldNames = targetFieldNames;
+        return jpql;
+    }
+
+    /**
+     * translates the shape of the ZQL, whose string literals are sentinels
+     *
+     * @return null if the shape can't be cached
+     */
+    private ZQLPlanCache.Plan buildPlan(ZQLPlanCache.Shape shape) {
+        ZQLParser.ZqlContext ctx = createParser(shape.key).zqls().zql().get(0);
+
+        if (ctx instanceof ZQLParser.CountGrammarContext) {
+            ASTNode.Query query = ((ZQLParser.CountGrammarContext)ctx).count().accept(new CountVisitor());
+            Runnable clean = prepareZQLContext(query);
+            try {
+                callExtensions(query);
+                QueryResult result = (QueryResult) query.accept(new QueryVisitor(true));
+                return ZQLPlanCache.Plan.create(true, query.getName(), null, result, buildSimpleCountJpql(result), shape);
+            } finally {
+                clean.run();
+            }
+        } else if (ctx instanceof ZQLParser.QueryGrammarContext) {
+            ASTNode.Query query = ((ZQLParser.QueryGrammarContext) ctx).query().accept(new org.zstack.zql.ast.parser.visitors.QueryVisitor());
+            if (new ReturnWithQueryNodeWrapper(query).isReturnWithEnabled()) {
+                return null;
+            }
+
+            Runnable clean = prepareZQLContext(query);
+            try {
+                callExtensions(query);
+                QueryResult result = (QueryResult) query.accept(new QueryVisitor(false));
+                return ZQLPlanCache.Plan.create(false, query.getName(), query.getTarget().getFunction(), result,
+                        buildSimpleCountJpql(result), shape);
+            } finally {
+                clean.run();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return null if the ZQL can't be served from the plan cache
+     */
+    private List<ZQLQueryReturn> getResultListByPlan() {
+        ZQLPlanCache.Shape shape = ZQLPlanCache.Shape.of(text);
+        if (!shape.cacheable) {
+            planCache.countUncacheable();
+            return null;
+        }
+
+        String key = shape.key + "|" + ZQLContext.fingerprint();
+        Optional<ZQLPlanCache.Plan> plan = planCache.get(key);
+        if (plan == null) {
+            ZQLPlanCache.Plan p;
+            try {
+                p = buildPlan(shape);
+            } catch (Exception e) {
+                // let parsing the original text report the error
+                if (logger.isTraceEnabled()) {
+                    logger.trace(String.format("unable to build plan for ZQL: %s", text), e);
+                }
+                return null;
+            }
+
+            planCache.put(key, p);
+            plan = Optional.ofNullable(p);
+        }
+
+        if (!plan.isPresent()) {
+            return null;
+        }
+
+        ZQLPlanCache.Plan p = plan.get();
+        astResult = p.bind(shape.values);
+
+        if (logger.isTraceEnabled()) {
+            logger.trace(String.format("ZQL query from plan cache: %s", astResult.sql));
+        }
+
+        beforeExecuteQuery(astResult, ZQLContext.getAPISession());
+
+        List<ZQLQueryReturn> rs = new ArrayList<>();
+        rs.add(p.countQuery ? executeCountQuery(p.name) : executeQuery(p.name, p.function, null, null));
+        return rs;
+    }
+
+    private List<ZQLQueryReturn> getResultListByParsing() {
+        List<ZQLQueryReturn> rs = new ArrayList<>();
+
+        ZQLParser p = createParser(text);
 
         Map currentContext = ZQLContext.get();
         p.zqls().zql().forEach(ctx -> {
             ZQLContext.set(currentContext);
 
             ZQLQueryReturn qr = new ZQLQueryReturn();
-
-            class Ret {
-                Long count;
-                List vos;
-            }
-
-            Ret ret = new Ret();
+            QueryRet ret = new QueryRet();
 
             if (ctx instanceof ZQLParser.CountGrammarContext) {
                 ASTNode.Query query = ((ZQLParser.CountGrammarContext)ctx).count().accept(new CountVisitor());
@@ -287,35 +505,7 @@ public class ZQL {
 
                 beforeExecuteQuery(astResult, ZQLContext.getAPISession());
 
-                new SQLBatch() {
-                    @Override
-                    protected void scripts() {
-                        Query q = astResult.createCountQuery.apply(databaseFacade.getEntityManager());
-                        List results = q.getResultList();
-                        if (results.size() == 1 && results.get(0) instanceof Long) {
-                            ret.count = (Long)results.get(0);
-                        } else {
-                            if (!results.isEmpty()) {
-                                /*
-                                    gson which enable ComplexMapKeySerialization will serialize the map to json array
-                                    when it is not empty or json object "{}" when it is empty.
-                                    null is better than a inconsistent json type.
-                                 */
-                                qr.inventoryCounts = new LinkedHashMap<>();
-                            }
-                            for (Object result : results) {
-                                Object[] fieldValues = (Object[]) result;
-                                int countIndex = fieldValues.length - 1;
-                                qr.inventoryCounts.put(entityVOtoInventory(fieldValues), (Long)fieldValues[countIndex]);
-                            }
-
-                            Query totalCountQuery = astResult.createSimpleCountQuery.apply(databaseFacade.getEntityManager());
-                            ret.count = (Long) totalCountQuery.getSingleResult();
-                        }
-                    }
-                }.execute();
-
-                qr.name = query.getName();
+                qr = executeCountQuery(query.getName());
 
                 clean.run();
             } else if (ctx instanceof ZQLParser.QueryGrammarContext) {
@@ -335,46 +525,7 @@ public class ZQL {
 
                 beforeExecuteQuery(astResult, ZQLContext.getAPISession());
 
-                new SQLBatch() {
-                    @Override
-                    protected void scripts() {
-                        Query q = astResult.createJPAQuery.apply(databaseFacade.getEntityManager());
-                        ret.vos = q.getResultList();
-
-                        if (astResult.createSimpleCountQuery != null) {
-                            q = astResult.createSimpleCountQuery.apply(databaseFacade.getEntityManager());
-                            ret.count = (Long) q.getSingleResult();
-                        }
-                    }
-                }.execute();
-
-                qr.returnWith = callReturnWithExtensions(astResult, wrapper, ret.vos);
-                qr.name = query.getName();
-
-                wrapper.removePrimaryKeyFieldFromTargetFieldNamesWhenReturnWithEnabledAndIsFieldQuery(astResult);
-
-                clean.run();
-
-
-                ASTNode.Function function = query.getTarget().getFunction();
-                if (isCount(function) || isSum(function)) {
-                    // Separate syntax support
-                    throw new CloudRuntimeException(String.format("query grammar can't support, %s", function.getFunctionName()));
-                } else if (isMax(function) || isMin(function) || isSum(function) || isAvg(function)) {
-                    qr.inventoryAggregateFunctions = new LinkedHashMap<>();
-                    for (Object result : ret.vos) {
-                        if (result instanceof Object[]) {
-                            Object[] fieldValues = (Object[]) result;
-                            int aggregateFunIndex = fieldValues.length - 1;
-                            qr.inventoryAggregateFunctions.put(entityVOtoMap(fieldValues), fieldValues[aggregateFunIndex]);
-                        } else {
-                            qr.inventoryAggregateFunctions.put(entityVOtoMap(result), result);
-                        }
-                    }
-                } else {
-                    // `distinct` keeps the original method for compatibility
-                    qr.inventories = ret.vos != null ? entityVOtoInventories(ret.vos) : null;
-                }
+                qr = executeQuery(query.getName(), query.getTarget().getFunction(), wrapper, clean);
             } else if (ctx instanceof ZQLParser.SumGrammarContext) {
                 ASTNode.Sum sum = ((ZQLParser.SumGrammarContext) ctx).sum().accept(new SumVisitor());
 
@@ -444,26 +595,14 @@ public class ZQL {
             }
 
 
-            qr.total = ret.count;
+            if (qr.total == null) {
+                qr.total = ret.count;
+            }
 
             rs.add(qr);
         });
 
 
-        long cost = System.currentTimeMillis() - before;
-        boolean statisticsOn = QueryGlobalConfig.ZQL_STATISTICS_ON.value(Boolean.class);
-        if (cost > TimeUnit.SECONDS.toMillis(QueryGlobalConfig.SLOW_ZQL_COST_TIME.value(Long.class))) {
-            logSlowZql(text, cost);
-
-            if (statisticsOn) {
-                statistic.getSlowZQLStatistics().add(new SlowZQLStatistic(text, cost));
-            }
-        }
-
-        if (statisticsOn) {
-            statistic.count();
-        }
-
         return rs;
     }
 
@@ -479,6 +618,17 @@ public class ZQL {
         return statistic;
     }
 
+    public static ZQLPlanCacheStatistic getPlanCacheStatistic() {
+        return planCache.getStatistic();
+    }
+
+    /**
+     * drops the cached plans, called when the restrictions added by extensions may change
+     */
+    public static void cleanPlanCache() {
+        planCache.clean();
+    }
+
     @ExceptionSafe
     public static void cleanStatisticData() {
         statistic.getSlowZQLStatistics().clear();
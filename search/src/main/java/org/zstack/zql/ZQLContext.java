@@ -7,6 +7,7 @@ import org.zstack.header.zql.ZQLExtensionContext;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Stack;
+import java.util.TreeMap;
 
 public class ZQLContext {
     private static ThreadLocal<Map<String, Object>> local = new ThreadLocal<>();
@@ -134,6 +135,37 @@ public class ZQLContext {
         return new ZQLExtensionContextImpl();
     }
 
+    /**
+     * @return a string telling apart contexts that may make the same ZQL translate into different SQL,
+     * it's made of the account and user of the session and the customized context, so sessions of the
+     * same identity share it
+     */
+    static String fingerprint() {
+        Map<String, Object> map = local.get();
+        if (map == null) {
+            return "";
+        }
+
+        StringBuilder sb = new StringBuilder();
+        SessionInventory session = (SessionInventory) map.get(API_SESSION);
+        if (session != null) {
+            sb.append("account=").append(session.getAccountUuid()).append(";");
+            sb.append("user=").append(session.getUserUuid()).append(";");
+        }
+
+        new TreeMap<>(map).forEach((k, v) -> {
+            if (API_SESSION.equals(k) || QUERY_TARGET_INVENTORY_NAME.equals(k) || QUERY_TARGET_INVENTORY_STACK.equals(k)) {
+                return;
+            }
+            // only the session uuid is known, e.g. in unit tests
+            if (API_SESSION_UUID.equals(k) && session != null) {
+                return;
+            }
+            sb.append(k).append("=").append(v).append(";");
+        });
+        return sb.toString();
+    }
+
     public static void putCustomizedContext(String key, Object value) {
         put(key, value);
     }
@@ -17,6 +17,11 @@ public class ZQLJMX implements ZQLMXBean, Component {
         return ZQL.getZQLStatistic();
     }
 
+    @Override
+    public ZQLPlanCacheStatistic getZQLPlanCacheStatistic() {
+        return ZQL.getPlanCacheStatistic();
+    }
+
     @Override
     public boolean start() {
         QueryGlobalConfig.ZQL_STATISTICS_ON.installUpdateExtension((oldConfig, newConfig) -> {
@@ -0,0 +1,352 @@
+package org.zstack.zql;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+import org.zstack.header.zql.ASTNode;
+import org.zstack.zql.antlr4.ZQLLexer;
+import org.zstack.zql.ast.ZQLMetadata;
+import org.zstack.zql.ast.visitors.result.QueryResult;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Caches the JPQL translated from a ZQL query or count by the shape of the ZQL: the string
+ * and number literals are replaced by sentinels before parsing, and the values are put back
+ * into the cached JPQL on each call. The JPQL keeps the values inlined like the uncached path.
+ * The numbers of limit and offset are replaced by placeholders too, they are set on the query
+ * instead of the JPQL.
+ *
+ * A plan also depends on the identity of the session and the customized ZQLContext, which
+ * decide the restrictions added by extensions, so both are part of the key; plans are dropped
+ * when the identities change. A shape is not cached if any sentinel is changed or lost on its
+ * way to the JPQL, or if the ZQL calls APIs, returns with extensions or is a sum or search.
+ */
+public class ZQLPlanCache {
+    private static final String SENTINEL_PREFIX = "__zqlp_";
+    private static final String SENTINEL = SENTINEL_PREFIX + "%s__";
+    // fixed width, so no sentinel is a part of another
+    private static final String NUMBER_SENTINEL_PREFIX = "9182736450";
+    private static final String INT_SENTINEL = NUMBER_SENTINEL_PREFIX + "%03d7";
+    private static final String FLOAT_SENTINEL = INT_SENTINEL + ".25";
+    private static final int MAX_SENTINELS = 1000;
+    private static final String LIMIT_PLACEHOLDER = "918273641";
+    private static final String OFFSET_PLACEHOLDER = "918273643";
+
+    static class Shape {
+        String key;
+        List<String> sentinels = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        // indexes of the limit and offset in the values, -1 if absent
+        int limitParam = -1;
+        int offsetParam = -1;
+        boolean cacheable = true;
+
+        private String param(String sentinel, String value) {
+            sentinels.add(sentinel);
+            values.add(value);
+            return sentinel;
+        }
+
+        static Shape of(String text) {
+            Shape shape = new Shape();
+            List<? extends Token> tokens;
+            try {
+                ZQLLexer lexer = new ZQLLexer(CharStreams.fromString(text));
+                lexer.removeErrorListeners();
+                tokens = lexer.getAllTokens();
+            } catch (Exception e) {
+                shape.cacheable = false;
+                return shape;
+            }
+
+            StringBuilder sb = new StringBuilder();
+            int previousType = -1;
+            for (Token t : tokens) {
+                int type = t.getType();
+                if (type == ZQLLexer.GET || type == ZQLLexer.SUM || type == ZQLLexer.SEARCH
+                        || type == ZQLLexer.FILTER_BY || type == Token.INVALID_TYPE || ";".equals(t.getText())) {
+                    shape.cacheable = false;
+                    return shape;
+                }
+
+                String tokenText = t.getText();
+                if (shape.sentinels.size() >= MAX_SENTINELS) {
+                    shape.cacheable = false;
+                    return shape;
+                }
+
+                if (type == ZQLLexer.INT && (previousType == ZQLLexer.LIMIT || previousType == ZQLLexer.OFFSET)) {
+                    // parsed like LimitVisitor and OffsetVisitor when the plan is bound
+                    try {
+                        if (previousType == ZQLLexer.LIMIT) {
+                            Integer.parseInt(tokenText);
+                        } else {
+                            Long.parseLong(tokenText);
+                        }
+                    } catch (NumberFormatException e) {
+                        shape.cacheable = false;
+                        return shape;
+                    }
+
+                    if (previousType == ZQLLexer.LIMIT) {
+                        shape.limitParam = shape.sentinels.size();
+                        tokenText = shape.param(LIMIT_PLACEHOLDER, tokenText);
+                    } else {
+                        shape.offsetParam = shape.sentinels.size();
+                        tokenText = shape.param(OFFSET_PLACEHOLDER, tokenText);
+                    }
+                } else if (type == ZQLLexer.INT) {
+                    tokenText = shape.param(String.format(INT_SENTINEL, shape.sentinels.size()), tokenText);
+                } else if (type == ZQLLexer.FLOAT) {
+                    tokenText = shape.param(String.format(FLOAT_SENTINEL, shape.sentinels.size()), tokenText);
+                } else if (type == ZQLLexer.STRING && previousType != ZQLLexer.NAMED_AS) {
+                    // the name is returned as is, keep it in the shape
+                    // generateHasSQL() counts values by ',' between quotes
+                    if (tokenText.contains(",")) {
+                        shape.cacheable = false;
+                        return shape;
+                    }
+
+                    char quote = tokenText.charAt(0);
+                    tokenText = shape.param(quote + String.format(SENTINEL, shape.sentinels.size()) + quote, tokenText);
+                }
+
+                sb.append(tokenText).append(" ");
+                previousType = type;
+            }
+
+            shape.key = sb.toString();
+            return shape;
+        }
+    }
+
+    /**
+     * a text split around the sentinels in it
+     */
+    static class Template {
+        private final List<String> parts = new ArrayList<>();
+        private final List<Integer> params = new ArrayList<>();
+
+        static Template compile(String text, List<String> sentinels) {
+            if (text == null) {
+                return null;
+            }
+
+            Template t = new Template();
+            int pos = 0;
+            while (true) {
+                int next = -1;
+                int param = -1;
+                for (int i = 0; i < sentinels.size(); i++) {
+                    int idx = text.indexOf(sentinels.get(i), pos);
+                    if (idx >= 0 && (next < 0 || idx < next)) {
+                        next = idx;
+                        param = i;
+                    }
+                }
+
+                if (next < 0) {
+                    t.parts.add(text.substring(pos));
+                    return t;
+                }
+
+                t.parts.add(text.substring(pos, next));
+                t.params.add(param);
+                pos = next + sentinels.get(param).length();
+            }
+        }
+
+        boolean contains(int param) {
+            return params.contains(param);
+        }
+
+        String bind(List<String> values) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < params.size(); i++) {
+                sb.append(parts.get(i)).append(values.get(params.get(i)));
+            }
+            sb.append(parts.get(parts.size() - 1));
+            return sb.toString();
+        }
+    }
+
+    static class Plan {
+        boolean countQuery;
+        String name;
+        ASTNode.Function function;
+        List<String> targetFieldNames;
+        ZQLMetadata.InventoryMetadata inventoryMetadata;
+        Template sql;
+        Template jpql;
+        Template simpleCountJpql;
+        Integer limit;
+        Integer offset;
+        int limitParam;
+        int offsetParam;
+
+        /**
+         * @return null if any sentinel didn't make it into the JPQL unchanged
+         */
+        static Plan create(boolean countQuery, String name, ASTNode.Function function, QueryResult result, String simpleCountJpql, Shape shape) {
+            Plan plan = new Plan();
+            plan.countQuery = countQuery;
+            plan.name = name;
+            plan.function = function;
+            plan.targetFieldNames = result.targetFieldNames;
+            plan.inventoryMetadata = result.inventoryMetadata;
+            plan.sql = Template.compile(result.sql, shape.sentinels);
+            plan.jpql = Template.compile(result.jpql, shape.sentinels);
+            plan.simpleCountJpql = Template.compile(simpleCountJpql, shape.sentinels);
+            plan.limit = result.limit;
+            plan.offset = result.offset;
+            plan.limitParam = shape.limitParam;
+            plan.offsetParam = shape.offsetParam;
+
+            if (plan.jpql == null) {
+                return null;
+            }
+
+            // the limit and offset are set on the query, not in the JPQL
+            if (shape.limitParam >= 0 && !Integer.valueOf(LIMIT_PLACEHOLDER).equals(result.limit)) {
+                return null;
+            }
+            if (shape.offsetParam >= 0 && !Integer.valueOf(OFFSET_PLACEHOLDER).equals(result.offset)) {
+                return null;
+            }
+
+            for (int i = 0; i < shape.sentinels.size(); i++) {
+                if (i == shape.limitParam || i == shape.offsetParam) {
+                    continue;
+                }
+
+                if (!plan.jpql.contains(i)) {
+                    return null;
+                }
+            }
+
+            for (String text : new String[]{result.sql, result.jpql, simpleCountJpql}) {
+                if (text == null) {
+                    continue;
+                }
+
+                // a sentinel changed by the visitors, e.g. unquoted for a boolean field
+                for (String part : Template.compile(text, shape.sentinels).parts) {
+                    if (part.contains(SENTINEL_PREFIX) || part.contains(NUMBER_SENTINEL_PREFIX)) {
+                        return null;
+                    }
+                }
+            }
+
+            if (name != null && (name.contains(SENTINEL_PREFIX) || name.contains(NUMBER_SENTINEL_PREFIX))) {
+                return null;
+            }
+
+            return plan;
+        }
+
+        QueryResult bind(List<String> values) {
+            QueryResult ret = new QueryResult();
+            ret.sql = sql.bind(values);
+            ret.jpql = jpql.bind(values);
+            ret.limit = limitParam >= 0 ? Integer.valueOf(values.get(limitParam)) : limit;
+            ret.offset = offsetParam >= 0 ? Long.valueOf(values.get(offsetParam)).intValue() : offset;
+            ret.inventoryMetadata = inventoryMetadata;
+            ret.targetFieldNames = new ArrayList<>(targetFieldNames);
+
+            Function<EntityManager, Query> create = (EntityManager emgr) -> {
+                Query q = emgr.createQuery(ret.jpql);
+                if (ret.limit != null) {
+                    q.setMaxResults(ret.limit);
+                }
+                if (ret.offset != null) {
+                    q.setFirstResult(ret.offset);
+                }
+                return q;
+            };
+
+            if (countQuery) {
+                ret.createCountQuery = create;
+            } else {
+                ret.createJPAQuery = create;
+            }
+
+            if (simpleCountJpql != null) {
+                String jpql = simpleCountJpql.bind(values);
+                ret.simpleCountJpql = () -> jpql;
+                ret.createSimpleCountQuery = (EntityManager emgr) -> emgr.createQuery(jpql);
+            }
+
+            return ret;
+        }
+    }
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong uncacheable = new AtomicLong();
+    private final Cache<String, Optional<Plan>> plans;
+
+    ZQLPlanCache(long size) {
+        plans = size <= 0 ? null : CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .removalListener(n -> {
+                    if (n.getCause() == RemovalCause.SIZE) {
+                        evictions.incrementAndGet();
+                    }
+                })
+                .build();
+    }
+
+    boolean isEnabled() {
+        return plans != null;
+    }
+
+    /**
+     * @return null if the plan of the key has not been built, an empty Optional if
+     * the shape can't be cached
+     */
+    Optional<Plan> get(String key) {
+        Optional<Plan> plan = plans.getIfPresent(key);
+        if (plan == null) {
+            misses.incrementAndGet();
+        } else if (plan.isPresent()) {
+            hits.incrementAndGet();
+        } else {
+            uncacheable.incrementAndGet();
+        }
+        return plan;
+    }
+
+    void put(String key, Plan plan) {
+        plans.put(key, Optional.ofNullable(plan));
+    }
+
+    void countUncacheable() {
+        uncacheable.incrementAndGet();
+    }
+
+    void clean() {
+        if (plans != null) {
+            plans.invalidateAll();
+        }
+    }
+
+    ZQLPlanCacheStatistic getStatistic() {
+        ZQLPlanCacheStatistic s = new ZQLPlanCacheStatistic();
+        s.setHits(hits.get());
+        s.setMisses(misses.get());
+        s.setEvictions(evictions.get());
+        s.setUncacheable(uncacheable.get());
+        s.setSize(plans == null ? 0 : plans.size());
+        return s;
+    }
+}
@@ -0,0 +1,49 @@
+package org.zstack.zql;
+
+public class ZQLPlanCacheStatistic {
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long uncacheable;
+    private long size;
+
+    public long getHits() {
+        return hits;
+    }
+
+    public void setHits(long hits) {
+        this.hits = hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public void setMisses(long misses) {
+        this.misses = misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public void setEvictions(long evictions) {
+        this.evictions = evictions;
+    }
+
+    public long getUncacheable() {
+        return uncacheable;
+    }
+
+    public void setUncacheable(long uncacheable) {
+        this.uncacheable = uncacheable;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+}
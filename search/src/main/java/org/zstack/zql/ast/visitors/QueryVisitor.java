@@ -146,6 +146,9 @@ public class QueryVisitor implements ASTVisitor<QueryResult, ASTNode.Query> {
         if (!countQuery) {
             SQLText st = makeSQL(node, node instanceof ASTNode.Sum ? QueryVisitorPlugin.ClauseType.SUM : QueryVisitorPlugin.ClauseType.QUERY);
             ret.sql = st.sql;
+            ret.jpql = st.jpql;
+            ret.limit = st.limit;
+            ret.offset = st.offset;
             ret.createJPAQuery = (EntityManager emgr) -> {
                 Query q = emgr.createQuery(st.jpql);
                 setPaging(q, st);
@@ -159,15 +162,16 @@ public class QueryVisitor implements ASTVisitor<QueryResult, ASTNode.Query> {
         }
 
         if (countQuery || ret.returnWith != null && ret.returnWith.stream().anyMatch(it->it.name.equals("total"))) {
-            ret.createSimpleCountQuery = (EntityManager emgr) -> {
-                SQLText cst = makeSQL(node, QueryVisitorPlugin.ClauseType.SIMPLE_COUNT);
-                return emgr.createQuery(cst.jpql);
-            };
+            ret.simpleCountJpql = () -> makeSQL(node, QueryVisitorPlugin.ClauseType.SIMPLE_COUNT).jpql;
+            ret.createSimpleCountQuery = (EntityManager emgr) -> emgr.createQuery(ret.simpleCountJpql.get());
         }
 
         if (countQuery) {
             SQLText cst = makeSQL(node, QueryVisitorPlugin.ClauseType.COUNT);
             ret.sql = cst.sql;
+            ret.jpql = cst.jpql;
+            ret.limit = cst.limit;
+            ret.offset = cst.offset;
             ret.createCountQuery = (EntityManager emgr) -> {
                 Query q = emgr.createQuery(cst.jpql);
                 setPaging(q, cst);
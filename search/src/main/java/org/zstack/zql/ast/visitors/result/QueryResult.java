@@ -6,9 +6,16 @@ import javax.persistence.EntityManager;
 import javax.persistence.Query;
 import java.util.List;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class QueryResult {
     public String sql;
+    // JPQL of createJPAQuery or createCountQuery, JPQL has no LIMIT and OFFSET
+    public String jpql;
+    public Integer limit;
+    public Integer offset;
+    // built on demand as it's only needed by some queries
+    public Supplier<String> simpleCountJpql;
     public List<String> targetFieldNames;
     public Function<EntityManager, Query> createJPAQuery;
     public Function<EntityManager, Query> createSimpleCountQuery;
@@ -96,6 +96,8 @@ public abstract class PrimaryStorageBase extends AbstractPrimaryStorage {
     protected StorageTrash trash;
     @Autowired
     protected PrimaryStoragePhysicalCapacityManager physicalCapacityMgr;
+    @Autowired
+    protected PrimaryStorageUsedCapacityLedger usedCapacityLedger;
 
     public PrimaryStorageBase() {
     }
@@ -572,6 +574,7 @@ public abstract class PrimaryStorageBase extends AbstractPrimaryStorage {
         RecalculatePrimaryStorageCapacityReply reply = new RecalculatePrimaryStorageCapacityReply();
         PrimaryStorageCapacityRecalculator recalculator = new PrimaryStorageCapacityRecalculator();
         recalculator.psUuids = Collections.singletonList(msg.getPrimaryStorageUuid());
+        recalculator.full = msg.isFull();
         new MergeQueue().addTask(String.format("recalculate primary storage capacity: %s", msg.getPrimaryStorageUuid()), new Supplier<Void>() {
             @Override
             public Void get() {
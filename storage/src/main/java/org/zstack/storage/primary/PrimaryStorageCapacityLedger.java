@@ -0,0 +1,98 @@
+package org.zstack.storage.primary;
+
+import org.springframework.transaction.annotation.Transactional;
+import org.zstack.core.db.DeadlockAutoRestart;
+import org.zstack.core.db.WriteBehindCapacityLedger;
+import org.zstack.header.storage.primary.PrimaryStorageCapacityUpdaterRunnable;
+import org.zstack.header.storage.primary.PrimaryStorageCapacityVO;
+import org.zstack.header.storage.primary.PrimaryStorageCapacityVO_;
+
+import javax.persistence.metamodel.SingularAttribute;
+
+/**
+ * Keeps the available capacity of the primary storage managed by this management node, so
+ * volumes reserve and return capacity in memory instead of locking the PrimaryStorageCapacityVO
+ * row, which is a single hot row of a shared storage during bulk provisioning.
+ *
+ * Updates setting absolute values, like the ones of physical capacity and recalculation, go
+ * through PrimaryStorageCapacityUpdater, which flushes the entry before locking the row.
+ */
+public class PrimaryStorageCapacityLedger extends WriteBehindCapacityLedger<PrimaryStorageCapacityVO> {
+    @Override
+    protected Class<PrimaryStorageCapacityVO> getCapacityClass() {
+        return PrimaryStorageCapacityVO.class;
+    }
+
+    @Override
+    protected SingularAttribute<PrimaryStorageCapacityVO, String> getUuidAttribute() {
+        return PrimaryStorageCapacityVO_.uuid;
+    }
+
+    @Override
+    protected String getUuid(PrimaryStorageCapacityVO cap) {
+        return cap.getUuid();
+    }
+
+    @Override
+    protected String getResourceName() {
+        return "primary storage";
+    }
+
+    @Override
+    protected int getAvailableCapacityCount() {
+        return 1;
+    }
+
+    @Override
+    protected long[] getAvailableCapacities(PrimaryStorageCapacityVO cap) {
+        return new long[]{cap.getAvailableCapacity()};
+    }
+
+    @Override
+    protected PrimaryStorageCapacityVO copy(PrimaryStorageCapacityVO s, long[] available) {
+        PrimaryStorageCapacityVO cap = new PrimaryStorageCapacityVO();
+        cap.setUuid(s.getUuid());
+        cap.setTotalCapacity(s.getTotalCapacity());
+        cap.setAvailableCapacity(available[0]);
+        cap.setTotalPhysicalCapacity(s.getTotalPhysicalCapacity());
+        cap.setAvailablePhysicalCapacity(s.getAvailablePhysicalCapacity());
+        cap.setSystemUsedCapacity(s.getSystemUsedCapacity());
+        return cap;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return PrimaryStorageGlobalProperty.CAPACITY_LEDGER_ENABLED;
+    }
+
+    @Override
+    protected long getFlushIntervalInMillis() {
+        return PrimaryStorageGlobalProperty.CAPACITY_LEDGER_FLUSH_INTERVAL;
+    }
+
+    /**
+     * changes the capacity of a primary storage kept by the ledger atomically, only the change
+     * of the available capacity made by the runnable is kept
+     *
+     * @return false if the primary storage has been deleted or the runnable returns null
+     */
+    boolean run(String psUuid, PrimaryStorageCapacityUpdaterRunnable runnable) {
+        return update(psUuid, runnable::call);
+    }
+
+    @Override
+    @DeadlockAutoRestart
+    protected void addAvailableCapacities(String psUuid, long[] deltas) {
+        _addAvailableCapacity(psUuid, deltas[0]);
+    }
+
+    @Transactional
+    private void _addAvailableCapacity(String psUuid, long size) {
+        String sql = "update PrimaryStorageCapacityVO cap set cap.availableCapacity = cap.availableCapacity + :size" +
+                " where cap.uuid = :uuid";
+        dbf.getEntityManager().createQuery(sql)
+                .setParameter("size", size)
+                .setParameter("uuid", psUuid)
+                .executeUpdate();
+    }
+}
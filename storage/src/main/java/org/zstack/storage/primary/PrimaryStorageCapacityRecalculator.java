@@ -10,18 +10,14 @@ import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.errorcode.ErrorFacade;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.storage.primary.*;
-import org.zstack.header.volume.VolumeStatus;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
-import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import static java.util.Arrays.asList;
-
 /**
  * Created by AlanJager on 2017/4/25.
  */
@@ -39,8 +35,11 @@ public class PrimaryStorageCapacityRecalculator {
     private PrimaryStorageOverProvisioningManager ratioMgr;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private PrimaryStorageUsedCapacityLedger usedCapacityLedger;
 
     public List<String> psUuids;
+    public boolean full;
     private Map<String, RecalculatePrimaryStorageCapacityExtensionPoint> recalculateCapacityExtensions = new HashMap<>();
 
     public PrimaryStorageCapacityRecalculator() {
@@ -61,86 +60,8 @@ public class PrimaryStorageCapacityRecalculator {
             return;
         }
 
-        final Map<String, Long> psCap = new HashMap<>();
-        new Runnable() {
-            @Override
-            @Transactional(readOnly = true)
-            public void run() {
-                // calculate all volume size
-                {
-                    String sql = "select sum(vol.size), vol.primaryStorageUuid" +
-                            " from VolumeVO vol" +
-                            " where vol.primaryStorageUuid in (:psUuids)" +
-                            " and vol.status in (:volStatus)" +
-                            " group by vol.primaryStorageUuid";
-                    TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
-                    q.setParameter("psUuids", psUuids);
-                    List<VolumeStatus> needCountVolumeStates = asList(VolumeStatus.Creating, VolumeStatus.Ready, VolumeStatus.Deleted);
-                    q.setParameter("volStatus", needCountVolumeStates);
-                    List<Tuple> ts = q.getResultList();
-
-                    for (Tuple t : ts) {
-                        if (t.get(0, Long.class) == null) {
-                            // no volume
-                            continue;
-                        }
-
-                        long cap = t.get(0, Long.class);
-                        String psUuid = t.get(1, String.class);
-                        psCap.put(psUuid, ratioMgr.calculateByRatio(psUuid, cap));
-                    }
-                }
-
-                // calculate all image cache size
-                {
-                    String sql = "select sum(i.size), i.primaryStorageUuid" +
-                            " from ImageCacheVO i" +
-                            " where i.primaryStorageUuid in (:psUuids)" +
-                            " group by i.primaryStorageUuid";
-                    TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
-                    q.setParameter("psUuids", psUuids);
-                    List<Tuple> ts = q.getResultList();
-                    for (Tuple t : ts) {
-                        if (t.get(0, Long.class) == null) {
-                            // no image cache
-                            continue;
-                        }
-
-                        // templates in image cache are physical size
-                        // do not calculate over-provisioning
-                        long cap = t.get(0, Long.class);
-                        String psUuid = t.get(1, String.class);
-                        Long ncap = psCap.get(psUuid);
-                        ncap = ncap == null ? cap : ncap + cap;
-                        psCap.put(psUuid, ncap);
-                    }
-                }
-
-                // calculate all snapshot size
-                {
-                    String sql = "select sum(snapshot.size), snapshot.primaryStorageUuid" +
-                            " from VolumeSnapshotVO snapshot" +
-                            " where snapshot.primaryStorageUuid in (:psUuids)" +
-                            " group by snapshot.primaryStorageUuid";
-                    TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
-                    q.setParameter("psUuids", psUuids);
-                    List<Tuple> ts = q.getResultList();
-
-                    for (Tuple t : ts) {
-                        if (t.get(0, Long.class) == null) {
-                            // no snapshot
-                            continue;
-                        }
-
-                        long cap = t.get(0, Long.class);
-                        String psUuid = t.get(1, String.class);
-                        Long ncap = psCap.get(psUuid);
-                        ncap = ncap == null ? cap : ncap + cap;
-                        psCap.put(psUuid, ncap);
-                    }
-                }
-            }
-        }.run();
+        // sums of the kinds not changed since last time are kept by the ledger
+        final Map<String, Long> psCap = usedCapacityLedger.getUsedCapacity(psUuids, full);
 
 
         if (psCap.isEmpty()) {
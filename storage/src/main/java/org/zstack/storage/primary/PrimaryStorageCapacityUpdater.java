@@ -38,6 +38,8 @@ public class PrimaryStorageCapacityUpdater {
     private CloudBus bus;
     @Autowired
     private ErrorFacade errf;
+    @Autowired
+    private PrimaryStorageCapacityLedger ledger;
 
     private String primaryStorageUuid;
     private TypedQuery<PrimaryStorageCapacityVO> query;
@@ -112,6 +114,44 @@ public class PrimaryStorageCapacityUpdater {
         return capacityVO != null;
     }
 
+    private boolean keptByLedger() {
+        return primaryStorageUuid != null && ledger.keeps(primaryStorageUuid);
+    }
+
+    /**
+     * changes the available capacity in the ledger instead of locking the capacity in database
+     */
+    private boolean runInLedger(PrimaryStorageCapacityUpdaterRunnable runnable) {
+        boolean[] found = {false};
+        boolean ret = ledger.run(primaryStorageUuid, cap -> {
+            found[0] = true;
+            totalForLog = cap.getTotalCapacity();
+            availForLog = cap.getAvailableCapacity();
+            totalPhysicalForLog = cap.getTotalPhysicalCapacity();
+            availPhysicalForLog = cap.getAvailablePhysicalCapacity();
+
+            capacityVO = runnable.call(cap);
+            return capacityVO;
+        });
+
+        if (!found[0]) {
+            logDeletedPrimaryStorage();
+        } else if (ret) {
+            logCapacityChange();
+        }
+
+        return ret;
+    }
+
+    private void flushLedger() {
+        // write the changes kept in memory before changing the capacity in database
+        if (primaryStorageUuid != null) {
+            ledger.flush(primaryStorageUuid);
+        } else {
+            ledger.flushAll();
+        }
+    }
+
     private boolean isResized() {
         return originalCopy != null &&
                 capacityVO != null &&
@@ -160,11 +200,23 @@ public class PrimaryStorageCapacityUpdater {
 
     @DeadlockAutoRestart
     public boolean updateAvailablePhysicalCapacity(long avail) {
+        flushLedger();
         boolean ret = _updateAvailablePhysicalCapacity(avail);
         checkResize();
         return ret;
     }
 
+    private static PrimaryStorageCapacityVO increase(PrimaryStorageCapacityVO cap, long size) {
+        long n = cap.getAvailableCapacity() + size;
+        if (n > cap.getTotalCapacity()) {
+            throw new CloudRuntimeException(String.format("invalid primary storage[uuid:%s] capacity, available capacity[%s] > total capacity[%s]",
+                    cap.getUuid(), n, cap.getTotalCapacity()));
+        }
+
+        cap.setAvailableCapacity(n);
+        return cap;
+    }
+
     @Transactional
     private boolean _increaseAvailableCapacity(long size) {
         if (!lockCapacity()) {
@@ -172,19 +224,17 @@ public class PrimaryStorageCapacityUpdater {
             return false;
         }
 
-        long n = capacityVO.getAvailableCapacity() + size;
-        if (n > capacityVO.getTotalCapacity()) {
-            throw new CloudRuntimeException(String.format("invalid primary storage[uuid:%s] capacity, available capacity[%s] > total capacity[%s]",
-                    capacityVO.getUuid(), n, capacityVO.getTotalCapacity()));
-        }
-
-        capacityVO.setAvailableCapacity(n);
+        capacityVO = increase(capacityVO, size);
         merge();
         return true;
     }
 
     @DeadlockAutoRestart
     public boolean increaseAvailableCapacity(long size) {
+        if (keptByLedger()) {
+            return runInLedger(cap -> increase(cap, size));
+        }
+
         boolean ret = _increaseAvailableCapacity(size);
         checkResize();
         return ret;
@@ -204,6 +254,13 @@ public class PrimaryStorageCapacityUpdater {
 
     @DeadlockAutoRestart
     public boolean decreaseAvailableCapacity(long size) {
+        if (keptByLedger()) {
+            return runInLedger(cap -> {
+                cap.setAvailableCapacity(cap.getAvailableCapacity() - size);
+                return cap;
+            });
+        }
+
         boolean ret = _decreaseAvailableCapacity(size);
         checkResize();
         return ret;
@@ -239,6 +296,7 @@ public class PrimaryStorageCapacityUpdater {
 
     @DeadlockAutoRestart
     public boolean update(Long total, Long avail, Long physicalTotal, Long physicalAvail) {
+        flushLedger();
         boolean ret = _update(total, avail, physicalTotal, physicalAvail);
         checkResize();
         return ret;
@@ -262,6 +320,7 @@ public class PrimaryStorageCapacityUpdater {
 
     @DeadlockAutoRestart
     public boolean run(PrimaryStorageCapacityUpdaterRunnable runnable) {
+        flushLedger();
         boolean ret = _run(runnable);
         checkResize();
         return ret;
@@ -272,6 +331,20 @@ public class PrimaryStorageCapacityUpdater {
         return reserve(size, true);
     }
 
+    private static PrimaryStorageCapacityVO reserve(PrimaryStorageCapacityVO cap, long size, boolean exceptionOnFailure) {
+        if (cap.getAvailableCapacity() < size) {
+            if (exceptionOnFailure) {
+                throw new OperationFailureException(operr("cannot reserve %s bytes on the primary storage[uuid:%s]," +
+                        " it's short of available capacity", size, cap.getUuid()));
+            } else {
+                return null;
+            }
+        }
+
+        cap.setAvailableCapacity(cap.getAvailableCapacity() - size);
+        return cap;
+    }
+
     @Transactional
     private boolean _reserve(long size, boolean exceptionOnFailure) {
         if (!lockCapacity()) {
@@ -279,22 +352,23 @@ public class PrimaryStorageCapacityUpdater {
             return false;
         }
 
-        if (capacityVO.getAvailableCapacity() < size) {
-            if (exceptionOnFailure) {
-                throw new OperationFailureException(operr("cannot reserve %s bytes on the primary storage[uuid:%s]," +
-                        " it's short of available capacity", size, capacityVO.getUuid()));
-            } else {
-                return false;
-            }
+        PrimaryStorageCapacityVO cap = reserve(capacityVO, size, exceptionOnFailure);
+        if (cap == null) {
+            return false;
         }
 
-        capacityVO.setAvailableCapacity(capacityVO.getAvailableCapacity() - size);
+        capacityVO = cap;
         merge();
         return true;
     }
 
     @DeadlockAutoRestart
     public boolean reserve(long size, boolean exceptionOnFailure) {
+        if (keptByLedger()) {
+            // checked and reserved under the lock of the ledger entry
+            return runInLedger(cap -> reserve(cap, size, exceptionOnFailure));
+        }
+
         return _reserve(size, exceptionOnFailure);
     }
 }
@@ -13,4 +13,22 @@ public class PrimaryStorageGlobalProperty {
 
     @GlobalProperty(name="PrimaryStorage.incremental.cache.directUseVolumeSnapshot", defaultValue = "true")
     public static boolean USE_SNAPSHOT_AS_INCREMENTAL_CACHE;
+
+    @GlobalProperty(name="PrimaryStorage.capacityLedger.enabled", defaultValue = "true")
+    public static boolean CAPACITY_LEDGER_ENABLED;
+
+    /**
+     * how long reserved capacity is kept in the ledger before written to PrimaryStorageCapacityVO, 0 writes it
+     * through. Other management nodes, e.g. while taking over primary storage during a management node
+     * change, only see the reservations once flushed, so a primary storage is overcommitted by at most what is reserved
+     * on it within one interval.
+     */
+    @GlobalProperty(name="PrimaryStorage.capacityLedger.flushIntervalInMillis", defaultValue = "1000")
+    public static long CAPACITY_LEDGER_FLUSH_INTERVAL;
+
+    @GlobalProperty(name="PrimaryStorage.capacityLedger.usedCapacityTimeoutInSeconds", defaultValue = "600")
+    public static long CAPACITY_LEDGER_USED_CAPACITY_TIMEOUT;
+
+    @GlobalProperty(name="PrimaryStorage.capacityLedger.syncIntervalInSeconds", defaultValue = "2")
+    public static long CAPACITY_LEDGER_SYNC_INTERVAL;
 }
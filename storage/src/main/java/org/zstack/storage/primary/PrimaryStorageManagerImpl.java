@@ -421,6 +421,7 @@ public class PrimaryStorageManagerImpl extends AbstractService implements Primar
 
             PrimaryStorageCapacityRecalculator psRecal = new PrimaryStorageCapacityRecalculator();
             psRecal.psUuids = psUuids;
+            psRecal.full = msg.isFull();
             psRecal.recalculate();
             bus.reply(msg, reply);
         }
@@ -0,0 +1,439 @@
+package org.zstack.storage.primary;
+
+import com.google.common.collect.MapMaker;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.cloudbus.ResourceDestinationMaker;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.EntityEvent;
+import org.zstack.core.db.HardDeleteEntityExtensionPoint;
+import org.zstack.core.db.SoftDeleteEntityExtensionPoint;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.header.storage.primary.ImageCacheVO;
+import org.zstack.header.storage.primary.PrimaryStorageCanonicalEvent;
+import org.zstack.header.storage.primary.PrimaryStorageOverProvisioningManager;
+import org.zstack.header.storage.snapshot.VolumeSnapshotVO;
+import org.zstack.header.volume.VolumeStatus;
+import org.zstack.header.volume.VolumeVO;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Keeps the capacity used by volumes, image caches and snapshots on the primary storage managed
+ * by this management node, so recalculating the capacity of a primary storage only sums the kinds
+ * changed since the last recalculation instead of all of them.
+ *
+ * A kind of a primary storage is summed again after entity events of its rows mark it changed.
+ * Entities don't carry their previous values and bulk SQL doesn't fire entity events, so the
+ * changes can't be applied as deltas: the changes made by bulk SQL are reported by changed().
+ * An update, which may move a row to another primary storage, marks the primary storage the
+ * row was loaded with and the one it's updated to, a row not loaded since the ledger started
+ * and bulk deletions drop the kind on all primary storage; the kept sums time out anyway. The changes
+ * are marked again after the transaction completes, so a sum read before the commit is not kept.
+ * Other management nodes learn the changes by the canonical event
+ * PRIMARY_STORAGE_USED_CAPACITY_CHANGED_PATH sent every sync interval.
+ */
+public class PrimaryStorageUsedCapacityLedger implements Component, SoftDeleteEntityExtensionPoint, HardDeleteEntityExtensionPoint {
+    private static final CLogger logger = Utils.getLogger(PrimaryStorageUsedCapacityLedger.class);
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private EventFacade evtf;
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private ResourceDestinationMaker destMaker;
+    @Autowired
+    private PrimaryStorageOverProvisioningManager ratioMgr;
+
+    public enum UsedCapacityKind {
+        Volume,
+        ImageCache,
+        Snapshot
+    }
+
+    private static class UsedCapacity {
+        // summed kinds, a null sum means there is no row of the kind
+        final Map<UsedCapacityKind, Long> sums = new EnumMap<>(UsedCapacityKind.class);
+        final Map<UsedCapacityKind, Long> summedDates = new EnumMap<>(UsedCapacityKind.class);
+        final Map<UsedCapacityKind, Long> versions = new EnumMap<>(UsedCapacityKind.class);
+
+        long getVersion(UsedCapacityKind kind) {
+            return versions.getOrDefault(kind, 0L);
+        }
+
+        void changed(UsedCapacityKind kind) {
+            versions.put(kind, getVersion(kind) + 1);
+            sums.remove(kind);
+            summedDates.remove(kind);
+        }
+
+        boolean isSummed(UsedCapacityKind kind, long timeout) {
+            Long date = summedDates.get(kind);
+            return date != null && System.currentTimeMillis() - date < timeout;
+        }
+    }
+
+    private final Map<String, UsedCapacity> usedCapacities = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    // changes to tell other management nodes
+    private final Map<UsedCapacityKind, Set<String>> outgoing = new ConcurrentHashMap<>();
+    private final Set<UsedCapacityKind> outgoingAll = ConcurrentHashMap.newKeySet();
+
+    // primary storage of the loaded rows, by identity, "" for none
+    private final Map<Object, String> loadedPrimaryStorageUuids = new MapMaker().weakKeys().makeMap();
+
+    private static final Map<Class, UsedCapacityKind> entityKinds = new HashMap<>();
+
+    static {
+        entityKinds.put(VolumeVO.class, UsedCapacityKind.Volume);
+        entityKinds.put(ImageCacheVO.class, UsedCapacityKind.ImageCache);
+        entityKinds.put(VolumeSnapshotVO.class, UsedCapacityKind.Snapshot);
+    }
+
+    private long getTimeout() {
+        if (!PrimaryStorageGlobalProperty.CAPACITY_LEDGER_ENABLED) {
+            return 0;
+        }
+
+        return TimeUnit.SECONDS.toMillis(PrimaryStorageGlobalProperty.CAPACITY_LEDGER_USED_CAPACITY_TIMEOUT);
+    }
+
+    /**
+     * @param full sum all kinds, the sums are kept for next time
+     * @return the capacity used on each primary storage, over-provisioning ratio applied to
+     * volumes, primary storage without any volume, image cache or snapshot are not included
+     */
+    public Map<String, Long> getUsedCapacity(List<String> psUuids, boolean full) {
+        long timeout = full ? -1 : getTimeout();
+        Map<String, Long> ret = new HashMap<>();
+
+        for (UsedCapacityKind kind : UsedCapacityKind.values()) {
+            List<String> toSum = new ArrayList<>();
+            Map<String, Long> versions = new HashMap<>();
+            for (String psUuid : psUuids) {
+                if (timeout == 0 || !destMaker.isManagedByUs(psUuid)) {
+                    toSum.add(psUuid);
+                    continue;
+                }
+
+                UsedCapacity used = usedCapacities.computeIfAbsent(psUuid, k -> new UsedCapacity());
+                synchronized (used) {
+                    if (timeout > 0 && used.isSummed(kind, timeout)) {
+                        hits.incrementAndGet();
+                        add(ret, psUuid, kind, used.sums.get(kind));
+                    } else {
+                        toSum.add(psUuid);
+                        versions.put(psUuid, used.getVersion(kind));
+                    }
+                }
+            }
+
+            if (toSum.isEmpty()) {
+                continue;
+            }
+
+            misses.addAndGet(toSum.size());
+            Map<String, Long> sums = sum(kind, toSum);
+            for (String psUuid : toSum) {
+                Long s = sums.get(psUuid);
+                add(ret, psUuid, kind, s);
+
+                Long version = versions.get(psUuid);
+                UsedCapacity used = version == null ? null : usedCapacities.get(psUuid);
+                if (used == null) {
+                    continue;
+                }
+
+                synchronized (used) {
+                    // changed meanwhile, summed again next time
+                    if (used.getVersion(kind) == version) {
+                        used.sums.put(kind, s);
+                        used.summedDates.put(kind, System.currentTimeMillis());
+                    }
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    private void add(Map<String, Long> ret, String psUuid, UsedCapacityKind kind, Long sum) {
+        if (sum == null) {
+            return;
+        }
+
+        // templates in image cache are physical size, do not calculate over-provisioning
+        long cap = kind == UsedCapacityKind.Volume ? ratioMgr.calculateByRatio(psUuid, sum) : sum;
+        ret.merge(psUuid, cap, Long::sum);
+    }
+
+    @Transactional(readOnly = true)
+    protected Map<String, Long> sum(UsedCapacityKind kind, List<String> psUuids) {
+        String sql;
+        if (kind == UsedCapacityKind.Volume) {
+            sql = "select sum(vol.size), vol.primaryStorageUuid" +
+                    " from VolumeVO vol" +
+                    " where vol.primaryStorageUuid in (:psUuids)" +
+                    " and vol.status in (:volStatus)" +
+                    " group by vol.primaryStorageUuid";
+        } else if (kind == UsedCapacityKind.ImageCache) {
+            sql = "select sum(i.size), i.primaryStorageUuid" +
+                    " from ImageCacheVO i" +
+                    " where i.primaryStorageUuid in (:psUuids)" +
+                    " group by i.primaryStorageUuid";
+        } else {
+            sql = "select sum(snapshot.size), snapshot.primaryStorageUuid" +
+                    " from VolumeSnapshotVO snapshot" +
+                    " where snapshot.primaryStorageUuid in (:psUuids)" +
+                    " group by snapshot.primaryStorageUuid";
+        }
+
+        TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
+        q.setParameter("psUuids", psUuids);
+        if (kind == UsedCapacityKind.Volume) {
+            q.setParameter("volStatus", asList(VolumeStatus.Creating, VolumeStatus.Ready, VolumeStatus.Deleted));
+        }
+
+        Map<String, Long> ret = new HashMap<>();
+        for (Tuple t : q.getResultList()) {
+            if (t.get(0, Long.class) != null) {
+                ret.put(t.get(1, String.class), t.get(0, Long.class));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * reports the kind of used capacity on the primary storage changed by bulk SQL
+     */
+    public void changed(UsedCapacityKind kind, Collection<String> psUuids) {
+        markChanged(() -> psUuids.stream().filter(Objects::nonNull).forEach(psUuid -> primaryStorageChanged(kind, psUuid)));
+    }
+
+    public void changed(UsedCapacityKind kind, String... psUuids) {
+        changed(kind, asList(psUuids));
+    }
+
+    /**
+     * reports the kind of used capacity changed by bulk SQL on primary storage not known
+     */
+    public void allChanged(UsedCapacityKind kind) {
+        markChanged(() -> {
+            invalidateAll(kind);
+            outgoingAll.add(kind);
+        });
+    }
+
+    private void markChanged(Runnable mark) {
+        mark.run();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    mark.run();
+                }
+            });
+        }
+    }
+
+    private void primaryStorageChanged(UsedCapacityKind kind, String psUuid) {
+        invalidate(kind, psUuid);
+        outgoing.computeIfAbsent(kind, k -> ConcurrentHashMap.newKeySet()).add(psUuid);
+    }
+
+    private void invalidate(UsedCapacityKind kind, String psUuid) {
+        UsedCapacity used = usedCapacities.get(psUuid);
+        if (used == null) {
+            return;
+        }
+
+        synchronized (used) {
+            used.changed(kind);
+        }
+    }
+
+    private void invalidateAll(UsedCapacityKind kind) {
+        usedCapacities.values().forEach(used -> {
+            synchronized (used) {
+                used.changed(kind);
+            }
+        });
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    private void syncChanges() {
+        if (outgoing.isEmpty() && outgoingAll.isEmpty()) {
+            return;
+        }
+
+        Map<String, List<String>> changes = new HashMap<>();
+        for (UsedCapacityKind kind : UsedCapacityKind.values()) {
+            Set<String> psUuids = outgoing.remove(kind);
+            if (psUuids != null && !psUuids.isEmpty()) {
+                changes.put(kind.toString(), new ArrayList<>(psUuids));
+            }
+        }
+
+        List<String> all = new ArrayList<>();
+        for (UsedCapacityKind kind : UsedCapacityKind.values()) {
+            if (outgoingAll.remove(kind)) {
+                all.add(kind.toString());
+            }
+        }
+
+        if (changes.isEmpty() && all.isEmpty()) {
+            return;
+        }
+
+        PrimaryStorageCanonicalEvent.UsedCapacityChangedData data = new PrimaryStorageCanonicalEvent.UsedCapacityChangedData();
+        data.setManagementNodeUuid(Platform.getManagementServerId());
+        data.setChanges(changes);
+        data.setAllChanged(all);
+        evtf.fire(PrimaryStorageCanonicalEvent.PRIMARY_STORAGE_USED_CAPACITY_CHANGED_PATH, data);
+    }
+
+    private String getPrimaryStorageUuid(Object o) {
+        if (o instanceof VolumeVO) {
+            return ((VolumeVO) o).getPrimaryStorageUuid();
+        } else if (o instanceof ImageCacheVO) {
+            return ((ImageCacheVO) o).getPrimaryStorageUuid();
+        } else {
+            return ((VolumeSnapshotVO) o).getPrimaryStorageUuid();
+        }
+    }
+
+    private void loaded(Object o) {
+        String psUuid = getPrimaryStorageUuid(o);
+        loadedPrimaryStorageUuids.put(o, psUuid == null ? "" : psUuid);
+    }
+
+    private void updated(UsedCapacityKind kind, Object o) {
+        String psUuid = getPrimaryStorageUuid(o);
+        String loadedPsUuid = loadedPrimaryStorageUuids.put(o, psUuid == null ? "" : psUuid);
+        if (loadedPsUuid == null) {
+            allChanged(kind);
+            return;
+        }
+
+        changed(kind, psUuid, loadedPsUuid.isEmpty() ? null : loadedPsUuid);
+    }
+
+    @Override
+    public List<Class> getEntityClassForSoftDeleteEntityExtension() {
+        return new ArrayList<>(entityKinds.keySet());
+    }
+
+    @Override
+    public void postSoftDelete(Collection entityIds, Class entityClass) {
+        // the primary storage of deleted rows is not known any more
+        allChanged(entityKinds.get(entityClass));
+    }
+
+    @Override
+    public List<Class> getEntityClassForHardDeleteEntityExtension() {
+        return new ArrayList<>(entityKinds.keySet());
+    }
+
+    @Override
+    public void postHardDelete(Collection entityIds, Class entityClass) {
+        allChanged(entityKinds.get(entityClass));
+    }
+
+    @Override
+    public boolean start() {
+        entityKinds.forEach((clz, kind) -> {
+            dbf.installEntityLifeCycleCallback(clz, EntityEvent.POST_LOAD, (e, o) -> loaded(o));
+            dbf.installEntityLifeCycleCallback(clz, EntityEvent.POST_PERSIST, (e, o) -> {
+                loaded(o);
+                changed(kind, getPrimaryStorageUuid(o));
+            });
+            dbf.installEntityLifeCycleCallback(clz, EntityEvent.POST_UPDATE, (e, o) -> updated(kind, o));
+            dbf.installEntityLifeCycleCallback(clz, EntityEvent.POST_REMOVE, (e, o) -> {
+                loadedPrimaryStorageUuids.remove(o);
+                changed(kind, getPrimaryStorageUuid(o));
+            });
+        });
+
+        evtf.on(PrimaryStorageCanonicalEvent.PRIMARY_STORAGE_USED_CAPACITY_CHANGED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                PrimaryStorageCanonicalEvent.UsedCapacityChangedData d = (PrimaryStorageCanonicalEvent.UsedCapacityChangedData) data;
+                if (Platform.getManagementServerId().equals(d.getManagementNodeUuid())) {
+                    return;
+                }
+
+                if (d.getAllChanged() != null) {
+                    d.getAllChanged().forEach(kind -> invalidateAll(UsedCapacityKind.valueOf(kind)));
+                }
+
+                if (d.getChanges() != null) {
+                    d.getChanges().forEach((kind, psUuids) -> psUuids.forEach(psUuid -> invalidate(UsedCapacityKind.valueOf(kind), psUuid)));
+                }
+            }
+        });
+
+        evtf.on(PrimaryStorageCanonicalEvent.PRIMARY_STORAGE_DELETED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                usedCapacities.remove(((PrimaryStorageCanonicalEvent.PrimaryStorageDeletedData) data).getPrimaryStorageUuid());
+            }
+        });
+
+        thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return PrimaryStorageGlobalProperty.CAPACITY_LEDGER_SYNC_INTERVAL;
+            }
+
+            @Override
+            public String getName() {
+                return "primary-storage-used-capacity-ledger-sync";
+            }
+
+            @Override
+            public void run() {
+                syncChanges();
+            }
+        });
+
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+}
@@ -61,6 +61,8 @@ import org.zstack.header.volume.*;
 import org.zstack.longjob.LongJobUtils;
 import org.zstack.storage.primary.PrimaryStorageCapacityUpdater;
 import org.zstack.storage.primary.PrimaryStorageGlobalProperty;
+import org.zstack.storage.primary.PrimaryStorageUsedCapacityLedger;
+import org.zstack.storage.primary.PrimaryStorageUsedCapacityLedger.UsedCapacityKind;
 import org.zstack.storage.snapshot.reference.VolumeSnapshotReferenceUtils;
 import org.zstack.storage.volume.FireSnapShotCanonicalEvent;
 import org.zstack.tag.TagManager;
@@ -136,6 +138,8 @@ public class VolumeSnapshotTreeBase {
     private PluginRegistry pluginRgty;
     @Autowired
     private PrimaryStorageOverProvisioningManager psRaitoMgr;
+    @Autowired
+    private PrimaryStorageUsedCapacityLedger usedCapacityLedger;
 
     public VolumeSnapshotTreeBase(VolumeSnapshotVO vo, boolean syncOnVolume) {
         currentRoot = vo;
@@ -1406,6 +1410,7 @@ public class VolumeSnapshotTreeBase {
                     SQL.New(VolumeSnapshotVO.class).eq(VolumeSnapshotVO_.uuid, msg.getUuid())
                             .set(VolumeSnapshotVO_.size, reply.getActualSize())
                             .update();
+                    usedCapacityLedger.changed(UsedCapacityKind.Snapshot, snapshotVO.getPrimaryStorageUuid());
                 }
 
                 event.setActualSize(reply.getActualSize());
@@ -2330,6 +2335,7 @@ public class VolumeSnapshotTreeBase {
                         VolumeSnapshotReferenceUtils.updateReferenceAfterMarkSnapshotAsVolume(currentRoot);
                     }
                 }.execute();
+                usedCapacityLedger.changed(UsedCapacityKind.Snapshot, currentRoot.getPrimaryStorageUuid());
 
                 cleanup();
 
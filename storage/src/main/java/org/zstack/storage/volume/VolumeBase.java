@@ -45,9 +45,12 @@ import org.zstack.header.volume.*;
 import org.zstack.header.volume.VolumeConstant.Capability;
 import org.zstack.header.volume.VolumeDeletionPolicyManager.VolumeDeletionPolicy;
 import org.zstack.identity.AccountManager;
+import org.zstack.identity.QuotaUsageLedger;
 import org.zstack.storage.primary.EstimateVolumeTemplateSizeOnPrimaryStorageMsg;
 import org.zstack.storage.primary.EstimateVolumeTemplateSizeOnPrimaryStorageReply;
 import org.zstack.storage.primary.PrimaryStorageGlobalConfig;
+import org.zstack.storage.primary.PrimaryStorageUsedCapacityLedger;
+import org.zstack.storage.primary.PrimaryStorageUsedCapacityLedger.UsedCapacityKind;
 import org.zstack.storage.snapshot.reference.VolumeSnapshotReferenceUtils;
 import org.zstack.storage.snapshot.group.VolumeSnapshotGroupOperationValidator;
 import org.zstack.tag.SystemTagCreator;
@@ -97,6 +100,8 @@ public class VolumeBase extends AbstractVolume implements Volume {
     private VolumeDeletionPolicyManager deletionPolicyMgr;
     @Autowired
     private VmInstanceDeviceManager vidm;
+    @Autowired
+    private PrimaryStorageUsedCapacityLedger usedCapacityLedger;
 
     public VolumeBase(VolumeVO vo) {
         self = vo;
@@ -389,6 +394,8 @@ public class VolumeBase extends AbstractVolume implements Volume {
 
                 VolumeStatus bs = self.getStatus();
                 SQL.New(VolumeVO.class).eq(VolumeVO_.uuid, msg.getVolumeUuid()).set(VolumeVO_.status, msg.getStatus()).update();
+                QuotaUsageLedger.resourcesChanged(msg.getVolumeUuid());
+                usedCapacityLedger.changed(UsedCapacityKind.Volume, self.getPrimaryStorageUuid());
                 refreshVO();
                 logger.debug(String.format("volume[uuid:%s] status changed from %s to %s in db", self.getUuid(), bs, self.getStatus()));
                 chain.next();
@@ -493,6 +500,7 @@ public class VolumeBase extends AbstractVolume implements Volume {
                                         SQL.New(VolumeVO.class).eq(VolumeVO_.uuid, self.getUuid())
                                                 .set(VolumeVO_.primaryStorageUuid, msg.getPrimaryStorageUuid())
                                                 .update();
+                                        usedCapacityLedger.changed(UsedCapacityKind.Volume, self.getPrimaryStorageUuid(), msg.getPrimaryStorageUuid());
                                         success = true;
                                         allocateInstallUrl = ar.getAllocatedInstallUrl();
                                         msg.setAllocatedInstallUrl(allocateInstallUrl);
@@ -514,6 +522,7 @@ public class VolumeBase extends AbstractVolume implements Volume {
                                 SQL.New(VolumeVO.class).eq(VolumeVO_.uuid, self.getUuid())
                                         .set(VolumeVO_.primaryStorageUuid, null)
                                         .update();
+                                usedCapacityLedger.changed(UsedCapacityKind.Volume, msg.getPrimaryStorageUuid());
                             }
 
                             trigger.rollback();
@@ -1443,6 +1452,8 @@ public class VolumeBase extends AbstractVolume implements Volume {
                         flush();
                     }
                 }.execute();
+                QuotaUsageLedger.resourcesChanged(volume.getUuid(), transientVolume.getUuid());
+                usedCapacityLedger.changed(UsedCapacityKind.Volume, volume.getPrimaryStorageUuid(), transientVolume.getPrimaryStorageUuid());
                 trigger.next();
             }
         }).then(new NoRollbackFlow() {
@@ -49,8 +49,11 @@ import org.zstack.header.volume.*;
 import org.zstack.header.volume.APIGetVolumeFormatReply.VolumeFormatReplyStruct;
 import org.zstack.header.volume.VolumeDeletionPolicyManager.VolumeDeletionPolicy;
 import org.zstack.identity.AccountManager;
+import org.zstack.identity.QuotaUsageLedger;
 import org.zstack.storage.primary.PrimaryStorageDeleteBitGC;
 import org.zstack.storage.primary.PrimaryStorageGlobalConfig;
+import org.zstack.storage.primary.PrimaryStorageUsedCapacityLedger;
+import org.zstack.storage.primary.PrimaryStorageUsedCapacityLedger.UsedCapacityKind;
 import org.zstack.tag.TagManager;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.Utils;
@@ -93,6 +96,8 @@ public class VolumeManagerImpl extends AbstractService implements VolumeManager,
     private PluginRegistry pluginRgty;
     @Autowired
     private VmInstanceDeviceManager vidm;
+    @Autowired
+    private PrimaryStorageUsedCapacityLedger usedCapacityLedger;
 
     private Future<Void> volumeExpungeTask;
 
@@ -1306,15 +1311,28 @@ public class VolumeManagerImpl extends AbstractService implements VolumeManager,
             SQL.New(VolumeVO.class).eq(VolumeVO_.uuid, vm.getRootVolumeUuid())
                     .set(VolumeVO_.status, VolumeStatus.Deleted)
                     .update();
+            QuotaUsageLedger.resourcesChanged(vm.getRootVolumeUuid());
+            rootVolumeStatusChanged(vm.getRootVolumeUuid());
         }
         if (oldState == VmInstanceState.VolumeMigrating && newState == VmInstanceState.Stopped && vm != null && vm.getRootVolumeUuid() != null) {
             // maybe restart mn, and we need restore from VolumeMigrating state
-            SQL.New(VolumeVO.class).eq(VolumeVO_.uuid, vm.getRootVolumeUuid()).eq(VolumeVO_.status, VolumeStatus.Migrating)
+            int changed = SQL.New(VolumeVO.class).eq(VolumeVO_.uuid, vm.getRootVolumeUuid()).eq(VolumeVO_.status, VolumeStatus.Migrating)
                     .set(VolumeVO_.status, VolumeStatus.Ready)
                     .update();
+            if (changed > 0) {
+                QuotaUsageLedger.resourcesChanged(vm.getRootVolumeUuid());
+                rootVolumeStatusChanged(vm.getRootVolumeUuid());
+            }
         }
     }
 
+    private void rootVolumeStatusChanged(String volumeUuid) {
+        String psUuid = Q.New(VolumeVO.class).select(VolumeVO_.primaryStorageUuid)
+                .eq(VolumeVO_.uuid, volumeUuid)
+                .findValue();
+        usedCapacityLedger.changed(UsedCapacityKind.Volume, psUuid);
+    }
+
     @Override
     public void afterDetachVolume(VmInstanceInventory vm, VolumeInventory volume, Completion completion) {
         // update Volumevo before exit message queue
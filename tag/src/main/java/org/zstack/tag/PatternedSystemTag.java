@@ -24,13 +24,18 @@ public class PatternedSystemTag extends SystemTag {
 
     public SensitiveTag annotation;
 
+    private volatile String sqlTagFormat;
+
     public PatternedSystemTag(String tagFormat, Class resourceClass) {
         super(tagFormat, resourceClass);
     }
 
     @Override
     protected String useTagFormat() {
-        return TagUtils.tagPatternToSqlPattern(tagFormat);
+        if (sqlTagFormat == null) {
+            sqlTagFormat = TagUtils.tagPatternToSqlPattern(tagFormat);
+        }
+        return sqlTagFormat;
     }
 
     @Override
@@ -115,7 +115,38 @@ public class SystemTag {
         return hasTag(resourceUuid, resourceClass);
     }
 
+    /**
+     * @return tags of the resource matching this system tag ordered by create date descending,
+     * filtered from the tags kept by SystemTagStore, or null if the store doesn't keep them
+     */
+    private List<String> findTagsInStore(String resourceUuid, Class resourceClass) {
+        if (tagMgr == null || resourceUuid == null) {
+            return null;
+        }
+
+        List<SystemTagStore.CachedSystemTag> tags = tagMgr.getTagStore().getTags(resourceUuid);
+        if (tags == null) {
+            return null;
+        }
+
+        String resourceType = resourceClass.getSimpleName();
+        Op op = useOp();
+        String fmt = useTagFormat();
+        List<String> ret = new ArrayList<>();
+        for (SystemTagStore.CachedSystemTag tag : tags) {
+            if (tag.isMatch(resourceType, op, fmt)) {
+                ret.add(tag.tag);
+            }
+        }
+        return ret;
+    }
+
     public boolean hasTag(String resourceUuid, Class resourceClass) {
+        List<String> tags = findTagsInStore(resourceUuid, resourceClass);
+        if (tags != null) {
+            return !tags.isEmpty();
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
         q.add(SystemTagVO_.resourceUuid, Op.EQ, resourceUuid);
@@ -154,6 +185,11 @@ public class SystemTag {
     }
 
     public List<String> getTags(String resourceUuid, Class resourceClass) {
+        List<String> tags = findTagsInStore(resourceUuid, resourceClass);
+        if (tags != null) {
+            return tags;
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.select(SystemTagVO_.tag);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
@@ -0,0 +1,41 @@
+package org.zstack.tag;
+
+import org.zstack.header.message.NeedJsonSchema;
+
+import java.util.List;
+
+public class SystemTagCanonicalEvents {
+    public static final String SYSTEM_TAGS_CHANGED_PATH = "/systemTag/changed";
+
+    @NeedJsonSchema
+    public static class SystemTagsChangedData {
+        private String managementNodeUuid;
+        private List<String> resourceUuids;
+        // tags deleted by uuid, whose resources are known by the nodes keeping them only
+        private List<String> tagUuids;
+
+        public String getManagementNodeUuid() {
+            return managementNodeUuid;
+        }
+
+        public void setManagementNodeUuid(String managementNodeUuid) {
+            this.managementNodeUuid = managementNodeUuid;
+        }
+
+        public List<String> getResourceUuids() {
+            return resourceUuids;
+        }
+
+        public void setResourceUuids(List<String> resourceUuids) {
+            this.resourceUuids = resourceUuids;
+        }
+
+        public List<String> getTagUuids() {
+            return tagUuids;
+        }
+
+        public void setTagUuids(List<String> tagUuids) {
+            this.tagUuids = tagUuids;
+        }
+    }
+}
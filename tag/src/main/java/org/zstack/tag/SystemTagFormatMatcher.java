@@ -0,0 +1,159 @@
+package org.zstack.tag;
+
+import org.zstack.utils.TagUtils;
+
+import java.util.*;
+
+/**
+ * Matches a tag against all the system tags it's built with at once. The formats of patterned
+ * system tags are split into their "::" separated segments when built, and indexed by the number
+ * of segments and the first segment if it's not a token, so a tag is split once and compared with
+ * the few formats having the same shape only, instead of splitting the tag and the format for each
+ * system tag. A tag matches a system tag here if and only if SystemTag.isMatch() returns true.
+ */
+class SystemTagFormatMatcher {
+    static class Match {
+        final SystemTag systemTag;
+        private final Format format;
+        private final String tag;
+        private final String[] segments;
+
+        private Match(Format format, String tag, String[] segments) {
+            this.systemTag = format.systemTag;
+            this.format = format;
+            this.tag = tag;
+            this.segments = segments;
+        }
+
+        /**
+         * @return tokens of the tag parsed by the format of the system tag, the same as TagUtils.parse()
+         */
+        Map<String, String> getTokens() {
+            if (format.segments == null) {
+                return TagUtils.parse(format.systemTag.getTagFormat(), tag);
+            }
+
+            Map<String, String> tokens = new HashMap<>();
+            for (int i = 0; i < format.segments.length; i++) {
+                if (format.tokenNames[i] != null) {
+                    tokens.put(format.tokenNames[i], segments[i]);
+                }
+            }
+            return tokens;
+        }
+    }
+
+    private static class Format {
+        final SystemTag systemTag;
+        final int order;
+        // null if the format is matched by equality
+        final String[] segments;
+        // null for literal segments
+        final String[] tokenNames;
+
+        Format(SystemTag systemTag, int order) {
+            this.systemTag = systemTag;
+            this.order = order;
+
+            String fmt = systemTag.getTagFormat();
+            if (!(systemTag instanceof PatternedSystemTag) || !fmt.contains("::")) {
+                segments = null;
+                tokenNames = null;
+                return;
+            }
+
+            segments = fmt.split("::");
+            tokenNames = new String[segments.length];
+            for (int i = 0; i < segments.length; i++) {
+                if (isToken(segments[i])) {
+                    tokenNames[i] = segments[i].replaceAll("\\{", "").replaceAll("\\}", "");
+                }
+            }
+        }
+
+        boolean isMatch(String[] tagSegments) {
+            for (int i = 0; i < segments.length; i++) {
+                if (tokenNames[i] == null && !segments[i].equals(tagSegments[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static boolean isToken(String segment) {
+        return segment.startsWith("{") && segment.endsWith("}");
+    }
+
+    private final Map<String, List<Format>> exactFormats = new HashMap<>();
+    // number of segments -> first segment -> formats
+    private final Map<Integer, Map<String, List<Format>>> formatsByFirstSegment = new HashMap<>();
+    // number of segments -> formats starting with a token
+    private final Map<Integer, List<Format>> formatsStartingWithToken = new HashMap<>();
+
+    SystemTagFormatMatcher(List<? extends SystemTag> systemTags) {
+        for (int i = 0; i < systemTags.size(); i++) {
+            Format format = new Format(systemTags.get(i), i);
+            if (format.segments == null) {
+                exactFormats.computeIfAbsent(format.systemTag.getTagFormat(), k -> new ArrayList<>()).add(format);
+            } else if (format.tokenNames[0] != null) {
+                formatsStartingWithToken.computeIfAbsent(format.segments.length, k -> new ArrayList<>()).add(format);
+            } else {
+                formatsByFirstSegment.computeIfAbsent(format.segments.length, k -> new HashMap<>())
+                        .computeIfAbsent(format.segments[0], k -> new ArrayList<>()).add(format);
+            }
+        }
+    }
+
+    /**
+     * @return the system tags matching the tag in the order they are built with
+     */
+    List<Match> match(String tag) {
+        if (tag == null) {
+            return Collections.emptyList();
+        }
+
+        List<Match> matches = new ArrayList<>();
+        List<Format> exact = exactFormats.get(tag);
+        if (exact != null) {
+            exact.forEach(f -> matches.add(new Match(f, tag, null)));
+        }
+
+        String[] segments = tag.split("::");
+        Map<String, List<Format>> byFirstSegment = formatsByFirstSegment.get(segments.length);
+        List<Format> candidates = byFirstSegment == null ? null : byFirstSegment.get(segments[0]);
+        if (candidates != null) {
+            candidates.stream().filter(f -> f.isMatch(segments)).forEach(f -> matches.add(new Match(f, tag, segments)));
+        }
+
+        candidates = formatsStartingWithToken.get(segments.length);
+        if (candidates != null) {
+            candidates.stream().filter(f -> f.isMatch(segments)).forEach(f -> matches.add(new Match(f, tag, segments)));
+        }
+
+        if (matches.size() > 1) {
+            matches.sort(Comparator.comparingInt(m -> m.format.order));
+        }
+
+        return matches;
+    }
+
+    List<SystemTag> matchSystemTags(String tag) {
+        List<Match> matches = match(tag);
+        List<SystemTag> ret = new ArrayList<>(matches.size());
+        matches.forEach(m -> ret.add(m.systemTag));
+        return ret;
+    }
+
+    List<SystemTag> matchSystemTags(String tag, String resourceType) {
+        List<Match> matches = match(tag);
+        List<SystemTag> ret = new ArrayList<>(matches.size());
+        matches.stream().filter(m -> m.systemTag.getResourceClass().getSimpleName().equals(resourceType))
+                .forEach(m -> ret.add(m.systemTag));
+        return ret;
+    }
+
+    boolean isMatched(String tag) {
+        return !match(tag).isEmpty();
+    }
+}
@@ -0,0 +1,365 @@
+package org.zstack.tag;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.EntityEvent;
+import org.zstack.core.db.HardDeleteEntityExtensionPoint;
+import org.zstack.core.db.Q;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.header.Component;
+import org.zstack.header.tag.SystemTagVO;
+import org.zstack.header.tag.SystemTagVO_;
+import org.zstack.header.vo.ResourceVO;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.Tuple;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the system tags of resources indexed by resource uuid, so SystemTag.hasTag(), getTags()
+ * and the token getters of PatternedSystemTag filter the tags of a resource in memory instead of
+ * querying SystemTagVO with the tag format each time. The tags of a resource are loaded at once
+ * on first use, ordered by create date like the queries, and matched against the formats the
+ * way the database does it: '=' and 'like' ignoring case.
+ *
+ * The tags of a resource are evicted when any of them is written through entities, deleted by
+ * SQL.delete() or with the resource, and again after the transaction writing them completes;
+ * tags loaded in a transaction writing the database are not kept. Bulk SQL deleting tags in other
+ * ways must call resourceChanged(). Other management nodes evict the resources by the canonical
+ * event SYSTEM_TAGS_CHANGED_PATH fired after the changes are committed, so their cached tags lag
+ * until the event arrives.
+ */
+public class SystemTagStore implements Component, HardDeleteEntityExtensionPoint {
+    private static final CLogger logger = Utils.getLogger(SystemTagStore.class);
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private EventFacade evtf;
+
+    static class CachedSystemTag {
+        final String uuid;
+        final String resourceType;
+        final String tag;
+
+        CachedSystemTag(String uuid, String resourceType, String tag) {
+            this.uuid = uuid;
+            this.resourceType = resourceType;
+            this.tag = tag;
+        }
+
+        boolean isMatch(String resourceType, Op op, String tagFormat) {
+            if (!this.resourceType.equals(resourceType)) {
+                return false;
+            }
+
+            return op == Op.LIKE ? isLikeMatch(tagFormat, tag) : tagFormat.equalsIgnoreCase(tag);
+        }
+    }
+
+    private static class Entry {
+        // null while the tags are being loaded
+        final List<CachedSystemTag> tags;
+
+        Entry(List<CachedSystemTag> tags) {
+            this.tags = tags;
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // tag uuid to resource uuid of the tags kept, to evict resources whose tags are deleted by uuid
+    private final Map<String, String> resourceUuidsByTag = new ConcurrentHashMap<>();
+    private final Set<String> outgoing = ConcurrentHashMap.newKeySet();
+    private final Set<String> outgoingTags = ConcurrentHashMap.newKeySet();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    boolean isEnabled() {
+        return TagGlobalProperty.SYSTEM_TAG_STORE_ENABLED;
+    }
+
+    /**
+     * @return system tags of the resource ordered by create date descending,
+     * null if the store is disabled and the caller must query the database
+     */
+    List<CachedSystemTag> getTags(String resourceUuid) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        Entry entry = entries.get(resourceUuid);
+        if (entry != null && entry.tags != null) {
+            hits.incrementAndGet();
+            return entry.tags;
+        }
+
+        misses.incrementAndGet();
+
+        // a transaction writing the database may see tags not committed yet
+        if (TransactionSynchronizationManager.isActualTransactionActive()
+                && !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return loadTags(resourceUuid);
+        }
+
+        // evicting the resource removes the loading entry, then the loaded tags are not kept
+        Entry loading = entry != null ? entry : new Entry(null);
+        if (entry == null) {
+            if (entries.size() >= TagGlobalProperty.SYSTEM_TAG_STORE_MAX_RESOURCES) {
+                clear();
+            }
+
+            Entry existing = entries.putIfAbsent(resourceUuid, loading);
+            if (existing != null) {
+                if (existing.tags != null) {
+                    return existing.tags;
+                }
+
+                loading = existing;
+            }
+        }
+
+        List<CachedSystemTag> tags;
+        try {
+            tags = loadTags(resourceUuid);
+        } catch (RuntimeException e) {
+            entries.remove(resourceUuid, loading);
+            throw e;
+        }
+
+        Entry expected = loading;
+        entries.computeIfPresent(resourceUuid, (k, v) -> {
+            if (v != expected) {
+                return v;
+            }
+
+            tags.forEach(t -> resourceUuidsByTag.put(t.uuid, resourceUuid));
+            return new Entry(tags);
+        });
+
+        return tags;
+    }
+
+    private List<CachedSystemTag> loadTags(String resourceUuid) {
+        List<Tuple> ts = Q.New(SystemTagVO.class)
+                .select(SystemTagVO_.uuid, SystemTagVO_.resourceType, SystemTagVO_.tag)
+                .eq(SystemTagVO_.resourceUuid, resourceUuid)
+                .orderBy(SystemTagVO_.createDate, SimpleQuery.Od.DESC)
+                .listTuple();
+
+        return Collections.unmodifiableList(ts.stream()
+                .map(t -> new CachedSystemTag(t.get(0, String.class), t.get(1, String.class), t.get(2, String.class)))
+                .collect(Collectors.toList()));
+    }
+
+    private void evict(String resourceUuid) {
+        Entry entry = entries.remove(resourceUuid);
+        if (entry != null && entry.tags != null) {
+            entry.tags.forEach(t -> resourceUuidsByTag.remove(t.uuid, resourceUuid));
+        }
+    }
+
+    private void clear() {
+        entries.clear();
+        resourceUuidsByTag.clear();
+    }
+
+    /**
+     * evicts the system tags of the resource on this and other management nodes,
+     * called after writing SystemTagVO by bulk SQL
+     */
+    public void resourceChanged(String resourceUuid) {
+        resourceChanged(Collections.singletonList(resourceUuid));
+    }
+
+    public void resourceChanged(Collection<String> resourceUuids) {
+        changed(resourceUuids, Collections.emptyList());
+    }
+
+    private void changed(Collection<String> resourceUuids, Collection<String> tagUuids) {
+        if (resourceUuids.isEmpty() && tagUuids.isEmpty()) {
+            return;
+        }
+
+        resourceUuids.forEach(this::evict);
+        outgoing.addAll(resourceUuids);
+        outgoingTags.addAll(tagUuids);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    resourceUuids.forEach(SystemTagStore.this::evict);
+                    fireChanges();
+                }
+            });
+        } else {
+            fireChanges();
+        }
+    }
+
+    private static List<String> drain(Set<String> uuids) {
+        List<String> ret = new ArrayList<>();
+        for (Iterator<String> it = uuids.iterator(); it.hasNext(); ) {
+            ret.add(it.next());
+            it.remove();
+        }
+        return ret;
+    }
+
+    private void fireChanges() {
+        List<String> resourceUuids = drain(outgoing);
+        List<String> tagUuids = drain(outgoingTags);
+        if (resourceUuids.isEmpty() && tagUuids.isEmpty()) {
+            return;
+        }
+
+        SystemTagCanonicalEvents.SystemTagsChangedData data = new SystemTagCanonicalEvents.SystemTagsChangedData();
+        data.setManagementNodeUuid(Platform.getManagementServerId());
+        data.setResourceUuids(resourceUuids);
+        data.setTagUuids(tagUuids);
+        evtf.fire(SystemTagCanonicalEvents.SYSTEM_TAGS_CHANGED_PATH, data);
+    }
+
+    /**
+     * MySQL 'like' with the default escape character, ignoring case like the collation of SystemTagVO.tag
+     */
+    static boolean isLikeMatch(String pattern, String value) {
+        int p = 0;
+        int v = 0;
+        int percentAt = -1;
+        int matchedAt = 0;
+
+        while (v < value.length()) {
+            if (p < pattern.length()) {
+                char c = pattern.charAt(p);
+                if (c == '%') {
+                    percentAt = p++;
+                    matchedAt = v;
+                    continue;
+                }
+
+                if (c == '_') {
+                    p++;
+                    v++;
+                    continue;
+                }
+
+                int len = 1;
+                if (c == '\\' && p + 1 < pattern.length()) {
+                    c = pattern.charAt(p + 1);
+                    len = 2;
+                }
+
+                if (isSameChar(c, value.charAt(v))) {
+                    p += len;
+                    v++;
+                    continue;
+                }
+            }
+
+            if (percentAt < 0) {
+                return false;
+            }
+
+            // let the last '%' match one more character
+            p = percentAt + 1;
+            v = ++matchedAt;
+        }
+
+        while (p < pattern.length() && pattern.charAt(p) == '%') {
+            p++;
+        }
+
+        return p == pattern.length();
+    }
+
+    private static boolean isSameChar(char a, char b) {
+        return a == b || Character.toUpperCase(a) == Character.toUpperCase(b)
+                || Character.toLowerCase(a) == Character.toLowerCase(b);
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public List<Class> getEntityClassForHardDeleteEntityExtension() {
+        return Collections.singletonList(SystemTagVO.class);
+    }
+
+    @Override
+    public void postHardDelete(Collection entityIds, Class entityClass) {
+        // SQL.delete() of tags knows their uuids only
+        Set<String> resourceUuids = new HashSet<>();
+        List<String> tagUuids = new ArrayList<>();
+        for (Object id : entityIds) {
+            tagUuids.add((String) id);
+            String resourceUuid = resourceUuidsByTag.get(id);
+            if (resourceUuid != null) {
+                resourceUuids.add(resourceUuid);
+            }
+        }
+
+        changed(resourceUuids, tagUuids);
+    }
+
+    @Override
+    public boolean start() {
+        for (EntityEvent evt : new EntityEvent[]{EntityEvent.POST_PERSIST, EntityEvent.POST_UPDATE, EntityEvent.POST_REMOVE}) {
+            dbf.installEntityLifeCycleCallback(SystemTagVO.class, evt, (e, o) -> resourceChanged(((SystemTagVO) o).getResourceUuid()));
+        }
+
+        // a resource created with the uuid of a deleted one must not see the tags of the deleted one
+        dbf.installEntityLifeCycleCallback(null, EntityEvent.POST_PERSIST, (e, o) -> {
+            if (o instanceof ResourceVO && entries.containsKey(((ResourceVO) o).getUuid())) {
+                evict(((ResourceVO) o).getUuid());
+            }
+        });
+
+        evtf.on(SystemTagCanonicalEvents.SYSTEM_TAGS_CHANGED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                SystemTagCanonicalEvents.SystemTagsChangedData d = (SystemTagCanonicalEvents.SystemTagsChangedData) data;
+                if (Platform.getManagementServerId().equals(d.getManagementNodeUuid())) {
+                    return;
+                }
+
+                d.getResourceUuids().forEach(SystemTagStore.this::evict);
+                if (d.getTagUuids() != null) {
+                    for (String tagUuid : d.getTagUuids()) {
+                        String resourceUuid = resourceUuidsByTag.get(tagUuid);
+                        if (resourceUuid != null) {
+                            evict(resourceUuid);
+                        }
+                    }
+                }
+
+                if (logger.isTraceEnabled()) {
+                    logger.trace(String.format("system tags of resources%s were changed by the management node[uuid:%s]",
+                            d.getResourceUuids(), d.getManagementNodeUuid()));
+                }
+            }
+        });
+
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+}
@@ -0,0 +1,12 @@
+package org.zstack.tag;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+@GlobalPropertyDefinition
+public class TagGlobalProperty {
+    @GlobalProperty(name = "systemTag.store.enabled", defaultValue = "true")
+    public static boolean SYSTEM_TAG_STORE_ENABLED;
+    @GlobalProperty(name = "systemTag.store.maxResources", defaultValue = "50000")
+    public static int SYSTEM_TAG_STORE_MAX_RESOURCES;
+}
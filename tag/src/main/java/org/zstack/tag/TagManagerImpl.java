@@ -58,12 +58,15 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     protected ErrorFacade errf;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private SystemTagStore tagStore;
 
     private List<SystemTag> systemTags = new ArrayList<>();
     private List<SystemTag> adminOnlySystemTags = new ArrayList<>();
     private List<PatternedSystemTag> sensitiveTags = new ArrayList<>();
     private List<SystemTag> nonCloneableTags = new ArrayList<>();
     private Map<String, List<SystemTag>> resourceTypeSystemTagMap = new HashMap<>();
+    private SystemTagFormatMatcher formatMatcher;
     private ResourceConfigSystemTag resourceConfigSystemTag;
     private Map<String, Class> resourceTypeClassMap = new HashMap<>();
     private Map<Class, Class> resourceTypeCreateMessageMap = new HashMap<>();
@@ -149,6 +152,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         try {
             // this makes sure DatabaseFacade is injected into every SystemTag object
             initSystemTags();
+            formatMatcher = new SystemTagFormatMatcher(systemTags);
             resourceConfigSystemTag = new ResourceConfigSystemTag();
         } catch (Exception e) {
             throw new CloudRuntimeException(e);
@@ -185,9 +189,13 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     }
 
     private String hideSensitiveInfoInTag(String tag) {
-        for (PatternedSystemTag sensitiveTag : sensitiveTags) {
-            if (sensitiveTag.isMatch(tag)) {
-                return sensitiveTag.hideSensitiveInfo(tag);
+        if (sensitiveTags.isEmpty()) {
+            return tag;
+        }
+
+        for (SystemTag stag : formatMatcher.matchSystemTags(tag)) {
+            if (stag instanceof PatternedSystemTag && ((PatternedSystemTag) stag).annotation != null) {
+                return ((PatternedSystemTag) stag).hideSensitiveInfo(tag);
             }
         }
 
@@ -466,6 +474,11 @@ public class TagManagerImpl extends AbstractService implements TagManager,
 
     @Override
     public List<String> findSystemTags(String resourceUuid) {
+        List<SystemTagStore.CachedSystemTag> tags = resourceUuid == null ? null : tagStore.getTags(resourceUuid);
+        if (tags != null) {
+            return tags.stream().map(t -> t.tag).collect(Collectors.toList());
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.select(SystemTagVO_.tag);
         q.add(SystemTagVO_.resourceUuid, SimpleQuery.Op.EQ, resourceUuid);
@@ -482,6 +495,11 @@ public class TagManagerImpl extends AbstractService implements TagManager,
 
     private boolean hasTag(String resourceUuid, String tag, TagType tagType) {
         if (tagType == TagType.System) {
+            List<SystemTagStore.CachedSystemTag> tags = resourceUuid == null ? null : tagStore.getTags(resourceUuid);
+            if (tags != null) {
+                return tags.stream().anyMatch(t -> t.tag.equalsIgnoreCase(tag));
+            }
+
             SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
             q.add(SystemTagVO_.resourceUuid, SimpleQuery.Op.EQ, resourceUuid);
             q.add(SystemTagVO_.tag, SimpleQuery.Op.EQ, tag);
@@ -736,14 +754,9 @@ public class TagManagerImpl extends AbstractService implements TagManager,
 
     private boolean isValidSystemTag(String resourceUuid, String resourceType, String tag) {
         boolean checked = false;
-        List<SystemTag> tags = resourceTypeSystemTagMap.get(resourceType);
-        if (tags != null) {
-            for (SystemTag stag : tags) {
-                if (stag.isMatch(tag)) {
-                    stag.validate(resourceUuid, resourceTypeClassMap.get(resourceType), tag);
-                    checked = true;
-                }
-            }
+        for (SystemTag stag : formatMatcher.matchSystemTags(tag, resourceType)) {
+            stag.validate(resourceUuid, resourceTypeClassMap.get(resourceType), tag);
+            checked = true;
         }
         return checked;
     }
@@ -783,16 +796,18 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     }
 
     public List<String> filterSystemTags(List<String> systemTags, String resourceType) {
-        List<SystemTag> tags = resourceTypeSystemTagMap.get(resourceType);
         return systemTags.stream()
-                .filter(it -> tags.stream().anyMatch(sys -> sys.isMatch(it)))
+                .filter(it -> !formatMatcher.matchSystemTags(it, resourceType).isEmpty())
                 .collect(Collectors.toList());
     }
 
     @Override
     public boolean isCloneable(String tag, String resourceType) {
-        return nonCloneableTags.stream().noneMatch(it -> resourceType.equals(it.resourceClass.getSimpleName())
-                && it.isMatch(tag));
+        if (nonCloneableTags.isEmpty()) {
+            return true;
+        }
+
+        return formatMatcher.matchSystemTags(tag, resourceType).stream().noneMatch(nonCloneableTags::contains);
     }
 
     @Override
@@ -877,6 +892,15 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         q.setParameter("resourceUuids", entityIds);
         q.executeUpdate();
 
+        // the tags are deleted by JPQL, no entity callback evicts them
+        List<String> resourceUuids = new ArrayList<>();
+        for (Object id : entityIds) {
+            if (id instanceof String) {
+                resourceUuids.add((String) id);
+            }
+        }
+        tagStore.resourceChanged(resourceUuids);
+
         List<SystemTagResourceDeletionOperator> operators = resourceDeletionOperators.get(entityClass.getSimpleName());
 
         if (operators == null) {
@@ -922,7 +946,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     }
 
     private boolean isMatchedSystemTag(String tag) {
-        return systemTags.parallelStream().anyMatch(stag -> stag.isMatch(tag));
+        return formatMatcher.isMatched(tag);
     }
 
     @Override
@@ -975,14 +999,14 @@ public class TagManagerImpl extends AbstractService implements TagManager,
             return null;
         }
 
-        if (adminOnlySystemTags.stream().anyMatch(it -> it.isMatch(tag))) {
+        if (formatMatcher.matchSystemTags(tag).stream().anyMatch(adminOnlySystemTags::contains)) {
             return operr("tag[%s] is only for admin", tag);
         }
         return null;
     }
 
-    private boolean isTagMatch(SystemTagInventory t, SystemTag s) {
-        return s.isMatch(t.getTag());
+    private List<SystemTag> findMatchedSystemTags(SystemTagInventory t) {
+        return formatMatcher.matchSystemTags(t.getTag(), t.getResourceType());
     }
 
     @Override
@@ -993,74 +1017,54 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     }
 
     void preTagCreated(SystemTagInventory tag) {
-        List<SystemTag> tags = resourceTypeSystemTagMap.get(tag.getResourceType());
-        if (tags != null) {
-            for (SystemTag stag : tags) {
-                if (isTagMatch(tag, stag)) {
-                    stag.callCreatedJudger(tag);
-                }
-            }
+        for (SystemTag stag : findMatchedSystemTags(tag)) {
+            stag.callCreatedJudger(tag);
         }
     }
 
     @Override
     public void tagCreated(SystemTagInventory tag) {
-        List<SystemTag> tags = resourceTypeSystemTagMap.get(tag.getResourceType());
-        if (tags != null) {
-            for (SystemTag stag : tags) {
-                if (isTagMatch(tag, stag)) {
-                    stag.callTagCreatedListener(tag);
-                }
-            }
+        for (SystemTag stag : findMatchedSystemTags(tag)) {
+            stag.callTagCreatedListener(tag);
         }
     }
 
     void preTagDeleted(SystemTagInventory tag) {
-        List<SystemTag> tags = resourceTypeSystemTagMap.get(tag.getResourceType());
-        if (tags != null) {
-            for (SystemTag stag : tags) {
-                if (isTagMatch(tag, stag)) {
-                    stag.callDeletedJudger(tag);
-                }
-            }
+        for (SystemTag stag : findMatchedSystemTags(tag)) {
+            stag.callDeletedJudger(tag);
         }
     }
 
     @Override
     public void tagDeleted(SystemTagInventory tag) {
-        List<SystemTag> tags = resourceTypeSystemTagMap.get(tag.getResourceType());
-        if (tags != null) {
-            for (SystemTag stag : tags) {
-                if (isTagMatch(tag, stag)) {
-                    stag.callTagDeletedListener(tag);
-                }
-            }
+        for (SystemTag stag : findMatchedSystemTags(tag)) {
+            stag.callTagDeletedListener(tag);
         }
     }
 
     private void preTagUpdated(SystemTagInventory old, SystemTagInventory newTag) {
-        List<SystemTag> tags = resourceTypeSystemTagMap.get(old.getResourceType());
-        if (tags != null) {
-            for (SystemTag stag : tags) {
-                if (isTagMatch(old, stag) && isTagMatch(newTag, stag)) {
-                    stag.callUpdatedJudger(old, newTag);
-                }
+        List<SystemTag> matched = findMatchedSystemTags(newTag);
+        for (SystemTag stag : findMatchedSystemTags(old)) {
+            if (matched.contains(stag)) {
+                stag.callUpdatedJudger(old, newTag);
             }
         }
     }
 
     @Override
     public void tagUpdated(SystemTagInventory old, SystemTagInventory newTag) {
-        List<SystemTag> tags = resourceTypeSystemTagMap.get(old.getResourceType());
-        if (tags != null) {
-            for (SystemTag stag : tags) {
-                if (isTagMatch(old, stag) && isTagMatch(newTag, stag)) {
-                    stag.callTagUpdatedListener(old, newTag);
-                }
+        List<SystemTag> matched = findMatchedSystemTags(newTag);
+        for (SystemTag stag : findMatchedSystemTags(old)) {
+            if (matched.contains(stag)) {
+                stag.callTagUpdatedListener(old, newTag);
             }
         }
     }
 
+    SystemTagStore getTagStore() {
+        return tagStore;
+    }
+
     @Override
     public List<Class> getEntityClassForHardDeleteEntityExtension() {
         return autoDeleteTagClasses;
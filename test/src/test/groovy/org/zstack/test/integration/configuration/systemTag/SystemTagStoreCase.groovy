@@ -0,0 +1,184 @@
+package org.zstack.test.integration.configuration.systemTag
+
+import org.zstack.compute.host.HostSystemTags
+import org.zstack.compute.vm.VmSystemTags
+import org.zstack.core.Platform
+import org.zstack.core.cloudbus.EventFacade
+import org.zstack.core.db.SQL
+import org.zstack.header.tag.SystemTagVO
+import org.zstack.header.tag.SystemTagVO_
+import org.zstack.header.vm.VmInstanceVO
+import org.zstack.sdk.SystemTagInventory
+import org.zstack.sdk.VmInstanceInventory
+import org.zstack.tag.SystemTag
+import org.zstack.tag.SystemTagCanonicalEvents
+import org.zstack.tag.SystemTagStore
+import org.zstack.tag.TagGlobalProperty
+import org.zstack.tag.TagManager
+import org.zstack.test.integration.kvm.Env
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+
+/**
+ * system tags of resources are kept by SystemTagStore and evicted when written on this and other
+ * management nodes, and tags are matched against all system tags at once by the format matcher
+ */
+class SystemTagStoreCase extends SubCase {
+    EnvSpec env
+    VmInstanceInventory vm
+    SystemTagStore store
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = Env.oneVmBasicEnv()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            vm = env.inventoryByName("vm") as VmInstanceInventory
+            store = bean(SystemTagStore.class)
+
+            testCachedTags()
+            testTagDeletedBySql()
+            testTagDeletedByOtherNode()
+            testFormatMatcher()
+            testLikeMatch()
+            testStoreDisabled()
+        }
+    }
+
+    String hostname() {
+        return VmSystemTags.HOSTNAME.getTokenByResourceUuid(vm.uuid, VmSystemTags.HOSTNAME_TOKEN)
+    }
+
+    SystemTagInventory createHostname(String name) {
+        return createSystemTag {
+            resourceType = VmInstanceVO.class.simpleName
+            resourceUuid = vm.uuid
+            tag = VmSystemTags.HOSTNAME.instantiateTag([(VmSystemTags.HOSTNAME_TOKEN): name])
+        } as SystemTagInventory
+    }
+
+    void testCachedTags() {
+        assert !VmSystemTags.HOSTNAME.hasTag(vm.uuid)
+
+        long misses = store.getMisses()
+        long hits = store.getHits()
+        assert !VmSystemTags.HOSTNAME.hasTag(vm.uuid)
+        assert hostname() == null
+        assert store.getMisses() == misses
+        assert store.getHits() == hits + 2
+
+        SystemTagInventory tag = createHostname("vm-1")
+        assert hostname() == "vm-1"
+        // the tag of another resource type doesn't match
+        assert !VmSystemTags.HOSTNAME.hasTag(vm.uuid, SystemTagVO.class)
+
+        updateSystemTag {
+            uuid = tag.uuid
+            delegate.tag = VmSystemTags.HOSTNAME.instantiateTag([(VmSystemTags.HOSTNAME_TOKEN): "vm-2"])
+        }
+        assert hostname() == "vm-2"
+
+        deleteTag {
+            uuid = tag.uuid
+        }
+        assert hostname() == null
+    }
+
+    void testTagDeletedBySql() {
+        SystemTagInventory tag = createHostname("vm-3")
+        assert hostname() == "vm-3"
+
+        SQL.New(SystemTagVO.class).eq(SystemTagVO_.uuid, tag.uuid).delete()
+        assert hostname() == null
+
+        // bulk SQL deleting tags without entity callbacks tells the store
+        tag = createHostname("vm-4")
+        assert hostname() == "vm-4"
+        SQL.New(SystemTagVO.class).eq(SystemTagVO_.uuid, tag.uuid).hardDelete()
+        store.resourceChanged(vm.uuid)
+        assert hostname() == null
+    }
+
+    void testTagDeletedByOtherNode() {
+        SystemTagInventory tag = createHostname("vm-5")
+        assert hostname() == "vm-5"
+
+        // another management node deleted the tag and fires the event
+        SQL.New(SystemTagVO.class).eq(SystemTagVO_.uuid, tag.uuid).hardDelete()
+        assert hostname() == "vm-5"
+
+        SystemTagCanonicalEvents.SystemTagsChangedData data = new SystemTagCanonicalEvents.SystemTagsChangedData()
+        data.managementNodeUuid = Platform.getUuid()
+        data.resourceUuids = []
+        data.tagUuids = [tag.uuid]
+        bean(EventFacade.class).fire(SystemTagCanonicalEvents.SYSTEM_TAGS_CHANGED_PATH, data)
+
+        retryInSecs {
+            assert hostname() == null
+        }
+    }
+
+    void testFormatMatcher() {
+        def tagMgr = bean(TagManager.class)
+        def matcher = tagMgr.formatMatcher
+
+        def matches = matcher.match("hostname::vm-1")
+        assert matches.size() == 1
+        assert matches[0].systemTag.is(VmSystemTags.HOSTNAME)
+        assert matches[0].getTokens() == [(VmSystemTags.HOSTNAME_TOKEN): "vm-1"]
+
+        matches = matcher.match("ConnectedTime::1000")
+        assert matches.any { it.systemTag.is(HostSystemTags.HOST_CONNECTED_TIME) }
+        assert matches.find { it.systemTag.is(HostSystemTags.HOST_CONNECTED_TIME) }.getTokens()[HostSystemTags.HOST_CONNECTED_TIME_TOKEN] == "1000"
+
+        assert matcher.match("hostname::vm-1::extra").every { !it.systemTag.is(VmSystemTags.HOSTNAME) }
+        assert matcher.match("noSuchSystemTag::1").isEmpty()
+
+        // the matcher agrees with matching every system tag one by one
+        List<SystemTag> systemTags = tagMgr.systemTags
+        ["hostname::vm-1", "ConnectedTime::1000", "host::reservedCpu::100", "hostname", "::"].each { String t ->
+            assert matcher.matchSystemTags(t) == systemTags.findAll { it.isMatch(t) }
+        }
+    }
+
+    void testLikeMatch() {
+        assert SystemTagStore.isLikeMatch("hostname::%", "hostname::vm-1")
+        assert SystemTagStore.isLikeMatch("HOSTNAME::%", "hostname::vm-1")
+        assert SystemTagStore.isLikeMatch("a%b%c", "aXXbYYc")
+        assert SystemTagStore.isLikeMatch("a_c", "abc")
+        assert SystemTagStore.isLikeMatch("a\\_c", "a_c")
+        assert !SystemTagStore.isLikeMatch("a\\_c", "abc")
+        assert !SystemTagStore.isLikeMatch("hostname::%", "syncHostname::true")
+        assert !SystemTagStore.isLikeMatch("a%c", "abcd")
+    }
+
+    void testStoreDisabled() {
+        TagGlobalProperty.SYSTEM_TAG_STORE_ENABLED = false
+        try {
+            long misses = store.getMisses()
+            SystemTagInventory tag = createHostname("vm-6")
+            assert hostname() == "vm-6"
+            deleteTag {
+                uuid = tag.uuid
+            }
+            assert hostname() == null
+            assert store.getMisses() == misses
+        } finally {
+            TagGlobalProperty.SYSTEM_TAG_STORE_ENABLED = true
+        }
+    }
+}
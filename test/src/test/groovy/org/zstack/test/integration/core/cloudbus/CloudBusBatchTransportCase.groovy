@@ -0,0 +1,227 @@
+package org.zstack.test.integration.core.cloudbus
+
+import org.zstack.core.Platform
+import org.zstack.core.cloudbus.*
+import org.zstack.header.AbstractService
+import org.zstack.header.managementnode.ManagementNodeChangeListener
+import org.zstack.header.managementnode.ManagementNodeInventory
+import org.zstack.header.message.Message
+import org.zstack.header.message.MessageReply
+import org.zstack.header.vm.StartVmInstanceMsg
+import org.zstack.test.integration.ZStackTest
+import org.zstack.testlib.SubCase
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * messages sent over HTTP are coalesced into batches per peer, a message sent to a peer whose
+ * queue is full fails at once, and the channel to a peer is closed when the peer leaves, failing
+ * the messages still queued
+ */
+class CloudBusBatchTransportCase extends SubCase {
+    static String SERVICE_ID = "testBatchTransport"
+
+    CloudBus bus
+    String nodeIp
+    AbstractService service
+
+    boolean httpAlways
+    boolean batchTransport
+    int httpPort
+    String contextPath
+    int linger
+    int queueCapacity
+
+    @Override
+    void clean() {
+        CloudBusGlobalProperty.HTTP_ALWAYS = httpAlways
+        CloudBusGlobalProperty.HTTP_BATCH_TRANSPORT = batchTransport
+        CloudBusGlobalProperty.HTTP_PORT = httpPort
+        CloudBusGlobalProperty.HTTP_CONTEXT_PATH = contextPath
+        CloudBusGlobalProperty.HTTP_BATCH_LINGER = linger
+        CloudBusGlobalProperty.HTTP_PEER_QUEUE_CAPACITY = queueCapacity
+
+        if (service != null) {
+            bus.unregisterService(service)
+        }
+    }
+
+    @Override
+    void setup() {
+        useSpring(ZStackTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+    }
+
+    @Override
+    void test() {
+        bus = bean(CloudBus.class)
+        nodeIp = bean(ResourceDestinationMaker.class).getNodeInfo(Platform.getManagementServerId()).getNodeIP()
+
+        httpAlways = CloudBusGlobalProperty.HTTP_ALWAYS
+        batchTransport = CloudBusGlobalProperty.HTTP_BATCH_TRANSPORT
+        httpPort = CloudBusGlobalProperty.HTTP_PORT
+        contextPath = CloudBusGlobalProperty.HTTP_CONTEXT_PATH
+        linger = CloudBusGlobalProperty.HTTP_BATCH_LINGER
+        queueCapacity = CloudBusGlobalProperty.HTTP_PEER_QUEUE_CAPACITY
+
+        // send to ourselves through the controller of the test web server
+        CloudBusGlobalProperty.HTTP_ALWAYS = true
+        CloudBusGlobalProperty.HTTP_BATCH_TRANSPORT = true
+        CloudBusGlobalProperty.HTTP_PORT = 8989
+        CloudBusGlobalProperty.HTTP_CONTEXT_PATH = ""
+
+        service = new AbstractService() {
+            @Override
+            void handleMessage(Message msg) {
+                bus.reply(msg, new MessageReply())
+            }
+
+            @Override
+            String getId() {
+                return bus.makeLocalServiceId(SERVICE_ID)
+            }
+
+            @Override
+            boolean start() {
+                return true
+            }
+
+            @Override
+            boolean stop() {
+                return true
+            }
+        }
+        bus.registerService(service)
+
+        testSendInBatch()
+        testCloseChannelOnNodeLeft()
+        testSendAfterNodeLeft()
+        testFullQueueFailsAtOnce()
+    }
+
+    PeerStatistic peerStatistic() {
+        return bus.getPeerStatistics().find { it.peerIp == nodeIp }
+    }
+
+    void nodeLeft() {
+        ManagementNodeInventory inv = new ManagementNodeInventory()
+        inv.uuid = Platform.getManagementServerId()
+        inv.hostName = nodeIp
+        (bus as ManagementNodeChangeListener).nodeLeft(inv)
+    }
+
+    List<MessageReply> sendMessages(int num) {
+        List<MessageReply> replies = Collections.synchronizedList([])
+        CountDownLatch latch = new CountDownLatch(num)
+        num.times {
+            StartVmInstanceMsg msg = new StartVmInstanceMsg(vmInstanceUuid: Platform.uuid)
+            bus.makeLocalServiceId(msg, SERVICE_ID)
+            bus.send(msg, new CloudBusCallBack(null) {
+                @Override
+                void run(MessageReply reply) {
+                    replies.add(reply)
+                    latch.countDown()
+                }
+            })
+        }
+
+        assert latch.await(30, TimeUnit.SECONDS)
+        return replies
+    }
+
+    void testSendInBatch() {
+        CloudBusGlobalProperty.HTTP_BATCH_LINGER = 50
+
+        List<MessageReply> replies = sendMessages(50)
+        assert replies.every { it.success }
+
+        PeerStatistic s = peerStatistic()
+        assert s != null
+        // the messages and their replies, plus what other components send meanwhile
+        assert s.sentMessages >= 100
+        assert s.sentBatches < s.sentMessages
+        assert s.failedMessages == 0
+    }
+
+    void testCloseChannelOnNodeLeft() {
+        // the message stays queued until the channel is closed
+        CloudBusGlobalProperty.HTTP_BATCH_LINGER = TimeUnit.MINUTES.toMillis(10) as int
+
+        MessageReply reply
+        StartVmInstanceMsg msg = new StartVmInstanceMsg(vmInstanceUuid: Platform.uuid)
+        bus.makeLocalServiceId(msg, SERVICE_ID)
+        bus.send(msg, new CloudBusCallBack(null) {
+            @Override
+            void run(MessageReply r) {
+                reply = r
+            }
+        })
+
+        retryInSecs {
+            assert peerStatistic().queuedMessages >= 1
+        }
+
+        nodeLeft()
+
+        retryInSecs {
+            assert reply != null
+            assert !reply.success
+        }
+        assert peerStatistic() == null
+    }
+
+    void testSendAfterNodeLeft() {
+        CloudBusGlobalProperty.HTTP_BATCH_LINGER = 5
+
+        // a new channel is opened to a node joining again at the same address
+        List<MessageReply> replies = sendMessages(10)
+        assert replies.every { it.success }
+
+        PeerStatistic s = peerStatistic()
+        assert s.sentMessages >= 20
+        assert s.failedMessages == 0
+
+        nodeLeft()
+        assert peerStatistic() == null
+    }
+
+    void testFullQueueFailsAtOnce() {
+        // the messages stay queued in a channel holding one message
+        CloudBusGlobalProperty.HTTP_BATCH_LINGER = TimeUnit.MINUTES.toMillis(10) as int
+        CloudBusGlobalProperty.HTTP_PEER_QUEUE_CAPACITY = 1
+        // drop a channel opened meanwhile with the old capacity
+        nodeLeft()
+
+        List<MessageReply> replies = Collections.synchronizedList([])
+        long start = System.currentTimeMillis()
+        long failedAt = 0
+        2.times {
+            StartVmInstanceMsg msg = new StartVmInstanceMsg(vmInstanceUuid: Platform.uuid)
+            bus.makeLocalServiceId(msg, SERVICE_ID)
+            bus.send(msg, new CloudBusCallBack(null) {
+                @Override
+                void run(MessageReply reply) {
+                    if (replies.isEmpty()) {
+                        failedAt = System.currentTimeMillis()
+                    }
+                    replies.add(reply)
+                }
+            })
+        }
+
+        retryInSecs {
+            assert !replies.isEmpty()
+        }
+        assert !replies[0].success
+        // the sender is not blocked waiting for room in the queue
+        assert failedAt - start < TimeUnit.SECONDS.toMillis(1)
+        assert peerStatistic().queuedMessages <= 1
+
+        nodeLeft()
+        CloudBusGlobalProperty.HTTP_PEER_QUEUE_CAPACITY = queueCapacity
+    }
+}
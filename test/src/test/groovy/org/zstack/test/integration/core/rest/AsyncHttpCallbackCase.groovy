@@ -0,0 +1,273 @@
+package org.zstack.test.integration.core.rest
+
+import org.apache.logging.log4j.Level
+import org.apache.logging.log4j.LogManager
+import org.apache.logging.log4j.core.config.Configurator
+import org.springframework.http.HttpEntity
+import org.zstack.core.rest.RESTFacadeImpl
+import org.zstack.core.rest.TimeoutWheel
+import org.zstack.header.errorcode.ErrorCode
+import org.zstack.header.errorcode.SysErrors
+import org.zstack.header.rest.AsyncHttpCallStatistic
+import org.zstack.header.rest.JsonAsyncRESTCallback
+import org.zstack.test.integration.ZStackTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.testlib.WebBeanConstructor
+import org.zstack.utils.URLBuilder
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * callbacks of async http calls are decoded from the requests into the return classes, timeouts
+ * of all calls are kept by one timer wheel, and calls are counted per agent path
+ */
+class AsyncHttpCallbackCase extends SubCase {
+    EnvSpec env
+    RESTFacadeImpl restf
+    String JSON_PATH = "/test-async-callback/json"
+    String MALFORMED_PATH = "/test-async-callback/malformed"
+    String HANG_PATH = "/test-async-callback/hang"
+
+    static class Reply {
+        String name
+        int count
+    }
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(ZStackTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = env {
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            restf = bean(RESTFacadeImpl.class)
+
+            testTimeoutWheel()
+            testLatencyPercentile()
+            testUrlPath()
+            // the body is read into a string to be traced
+            testDecodedCallback()
+            testMalformedCallback()
+            decodeFromStream {
+                testDecodedCallback()
+                testMalformedCallback()
+            }
+            testTimeoutAndPendingCount()
+        }
+    }
+
+    void testTimeoutWheel() {
+        TimeoutWheel wheel = new TimeoutWheel(100, 0)
+        List<String> fired = []
+        def schedule = { String name, long delay, long now ->
+            return wheel.schedule({ fired.add(name) } as Runnable, delay, now)
+        }
+
+        schedule("50ms", 50, 0)
+        schedule("100ms", 100, 0)
+        schedule("6500ms", 6500, 0)
+        schedule("500s", TimeUnit.SECONDS.toMillis(500), 0)
+        schedule("40days", TimeUnit.DAYS.toMillis(40), 0)
+        def cancelled = schedule("cancelled", 1000, 0)
+        assert wheel.size() == 6
+
+        assert cancelled.cancel()
+        assert !cancelled.cancel()
+        assert wheel.size() == 5
+
+        wheel.advance(99)
+        assert fired.isEmpty()
+        wheel.advance(100)
+        assert fired.sort() == ["100ms", "50ms"]
+
+        wheel.advance(6499)
+        assert !fired.contains("6500ms")
+        wheel.advance(6500)
+        assert fired.contains("6500ms")
+
+        wheel.advance(TimeUnit.SECONDS.toMillis(500) - 1)
+        assert !fired.contains("500s")
+        wheel.advance(TimeUnit.SECONDS.toMillis(500))
+        assert fired.contains("500s")
+
+        // beyond the span of the wheel
+        wheel.advance(TimeUnit.DAYS.toMillis(40) - 1)
+        assert !fired.contains("40days")
+        wheel.advance(TimeUnit.DAYS.toMillis(40))
+        assert fired.contains("40days")
+
+        assert !fired.contains("cancelled")
+        assert wheel.size() == 0
+
+        // a timeout scheduled late expires on the next tick
+        schedule("late", 10, 0)
+        wheel.advance(TimeUnit.DAYS.toMillis(40) + 100)
+        assert fired.contains("late")
+    }
+
+    void testLatencyPercentile() {
+        AsyncHttpCallStatistic stat = new AsyncHttpCallStatistic("/test")
+        assert stat.getLatencyPercentile(50) == 0
+
+        (1..100).each { stat.submit() }
+        assert stat.pendingCount == 100
+
+        (1..100).each { stat.complete(it, it > 98) }
+        assert stat.pendingCount == 0
+        assert stat.count == 100
+        assert stat.timeoutCount == 2
+        assert stat.getLatencyPercentile(50) == 50
+        assert stat.getLatencyPercentile(99) == 99
+        assert stat.getLatencyPercentile(100) == 100
+    }
+
+    void testUrlPath() {
+        assert RESTFacadeImpl.getUrlPath("http://127.0.0.1:7070/vm/start") == "/vm/start"
+        assert RESTFacadeImpl.getUrlPath("http://127.0.0.1:7070/vm/start?a=b") == "/vm/start"
+        assert RESTFacadeImpl.getUrlPath("http://127.0.0.1:7070") == "/"
+    }
+
+    String url(String path) {
+        return URLBuilder.buildHttpUrl("127.0.0.1", WebBeanConstructor.port, path)
+    }
+
+    void decodeFromStream(Closure c) {
+        String loggerName = RESTFacadeImpl.class.package.name
+        Level level = LogManager.getLogger(loggerName).level
+        Configurator.setLevel(loggerName, Level.DEBUG)
+        try {
+            assert !LogManager.getLogger(RESTFacadeImpl.class).isTraceEnabled()
+            c()
+        } finally {
+            Configurator.setLevel(loggerName, level)
+        }
+    }
+
+    void testDecodedCallback() {
+        env.simulator(JSON_PATH) {
+            return new Reply(name: "reply", count: 3)
+        }
+        long count = restf.getAsyncCallStatistics().get(JSON_PATH)?.count ?: 0
+
+        Reply reply = null
+        ErrorCode error = null
+        restf.asyncJsonPost(url(JSON_PATH), "{}", new JsonAsyncRESTCallback<Reply>(null) {
+            @Override
+            void fail(ErrorCode err) {
+                error = err
+            }
+
+            @Override
+            void success(Reply ret) {
+                reply = ret
+            }
+
+            @Override
+            Class<Reply> getReturnClass() {
+                return Reply.class
+            }
+        }, TimeUnit.SECONDS, 30)
+
+        retryInSecs {
+            assert reply != null
+        }
+        assert error == null
+        assert reply.name == "reply"
+        assert reply.count == 3
+
+        AsyncHttpCallStatistic stat = restf.getAsyncCallStatistics().get(JSON_PATH)
+        assert stat.count == count + 1
+        assert stat.pendingCount == 0
+        assert stat.timeoutCount == 0
+    }
+
+    void testMalformedCallback() {
+        env.simulator(MALFORMED_PATH) {
+            return "{\"name\": "
+        }
+
+        boolean success = false
+        ErrorCode error = null
+        restf.asyncJsonPost(url(MALFORMED_PATH), "{}", new JsonAsyncRESTCallback<Reply>(null) {
+            @Override
+            void fail(ErrorCode err) {
+                error = err
+            }
+
+            @Override
+            void success(Reply ret) {
+                success = true
+            }
+
+            @Override
+            Class<Reply> getReturnClass() {
+                return Reply.class
+            }
+        }, TimeUnit.SECONDS, 30)
+
+        retryInSecs {
+            assert error != null
+        }
+        assert !success
+        assert !error.isError(SysErrors.TIMEOUT)
+        assert restf.getAsyncCallStatistics().get(MALFORMED_PATH).pendingCount == 0
+    }
+
+    void testTimeoutAndPendingCount() {
+        boolean hangUntilTimeout = true
+        env.simulator(HANG_PATH) { HttpEntity<String> e ->
+            while (hangUntilTimeout) {
+                sleep(100)
+            }
+
+            return new Reply()
+        }
+
+        ErrorCode error = null
+        restf.asyncJsonPost(url(HANG_PATH), "{}", new JsonAsyncRESTCallback<Reply>(null) {
+            @Override
+            void fail(ErrorCode err) {
+                error = err
+            }
+
+            @Override
+            void success(Reply ret) {
+            }
+
+            @Override
+            Class<Reply> getReturnClass() {
+                return Reply.class
+            }
+        }, TimeUnit.MILLISECONDS, 1000)
+
+        AsyncHttpCallStatistic stat = restf.getAsyncCallStatistics().get(HANG_PATH)
+        assert stat.pendingCount == 1
+
+        retryInSecs {
+            assert error != null
+            assert error.isError(SysErrors.TIMEOUT)
+        }
+        assert stat.pendingCount == 0
+        assert stat.timeoutCount == 1
+
+        hangUntilTimeout = false
+        retryInSecs {
+            assert restf.notifiedFailureHttpTasks.size() == 1
+        }
+
+        restf.notifiedFailureHttpTasks.clear()
+    }
+}
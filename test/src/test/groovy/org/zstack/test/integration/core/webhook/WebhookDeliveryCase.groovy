@@ -0,0 +1,128 @@
+package org.zstack.test.integration.core.webhook
+
+import org.springframework.http.HttpEntity
+import org.zstack.core.cloudbus.CanonicalEvent
+import org.zstack.core.cloudbus.EventFacade
+import org.zstack.core.cloudbus.EventFacadeImpl
+import org.zstack.core.webhook.WebhookDeliveryQueue
+import org.zstack.sdk.WebhookInventory
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+
+/**
+ * canonical events are delivered to the webhooks subscribing them, and the delivery
+ * endpoints of deleted webhooks are evicted
+ */
+class WebhookDeliveryCase extends SubCase {
+    EnvSpec envSpec
+
+    String EVENT_PATH = "/test/webhook/delivery"
+    String PATH1 = "/webhook-delivery-1"
+    String PATH2 = "/webhook-delivery-2"
+
+    String url1 = "http://127.0.0.1:8989$PATH1"
+    String url2 = "http://127.0.0.1:8989$PATH2"
+
+    List<CanonicalEvent> evts1 = Collections.synchronizedList([])
+    List<CanonicalEvent> evts2 = Collections.synchronizedList([])
+
+    @Override
+    void clean() {
+        envSpec.delete()
+    }
+
+    @Override
+    void setup() {
+        INCLUDE_CORE_SERVICES = false
+        spring {
+            include("webhook.xml")
+        }
+    }
+
+    @Override
+    void environment() {
+        envSpec = env {
+            // nothing
+        }
+    }
+
+    @Override
+    void test() {
+        envSpec.create {
+            envSpec.simulator(PATH1) { HttpEntity<String> e ->
+                evts1.add(json(e.getBody(), CanonicalEvent.class))
+                return [:]
+            }
+
+            envSpec.simulator(PATH2) { HttpEntity<String> e ->
+                evts2.add(json(e.getBody(), CanonicalEvent.class))
+                return [:]
+            }
+
+            testDeliverAndEvictEndpoints()
+        }
+    }
+
+    WebhookDeliveryQueue deliveryQueue() {
+        return (bean(EventFacade.class) as EventFacadeImpl).webhookDeliveryQueue
+    }
+
+    void fire(String content) {
+        bean(EventFacade.class).fire(EVENT_PATH, content)
+    }
+
+    void testDeliverAndEvictEndpoints() {
+        WebhookInventory hook1 = createWebhook {
+            name = "webhook1"
+            url = url1
+            type = EventFacade.WEBHOOK_TYPE
+            opaque = EVENT_PATH
+        }
+
+        WebhookInventory hook2 = createWebhook {
+            name = "webhook2"
+            url = url2
+            type = EventFacade.WEBHOOK_TYPE
+            opaque = EVENT_PATH
+        }
+
+        fire("first")
+        retryInSecs {
+            assert evts1.size() == 1
+            assert evts2.size() == 1
+        }
+        assert evts1[0].path == EVENT_PATH
+        assert evts1[0].content == "first"
+        assert evts2[0].content == "first"
+        assert deliveryQueue().endpointUrls == [url1, url2] as Set
+
+        deleteWebhook { uuid = hook1.uuid }
+
+        retryInSecs {
+            assert deliveryQueue().endpointUrls == [url2] as Set
+        }
+
+        fire("second")
+        retryInSecs {
+            assert evts2.size() == 2
+        }
+        // calls to both webhooks would be queued when the event is fired,
+        // so the endpoint of the deleted one is not back and it gets nothing
+        assert evts2[1].content == "second"
+        assert evts1.size() == 1
+        assert deliveryQueue().endpointUrls == [url2] as Set
+
+        deleteWebhook { uuid = hook2.uuid }
+
+        retryInSecs {
+            assert deliveryQueue().endpointUrls.isEmpty()
+        }
+
+        fire("third")
+        retryInSecs {
+            assert evts1.size() == 1
+            assert evts2.size() == 2
+            assert deliveryQueue().endpointUrls.isEmpty()
+        }
+    }
+}
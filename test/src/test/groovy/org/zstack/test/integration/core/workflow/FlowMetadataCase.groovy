@@ -0,0 +1,140 @@
+package org.zstack.test.integration.core.workflow
+
+import org.zstack.core.workflow.FlowChainBuilder
+import org.zstack.core.workflow.SimpleFlowChain
+import org.zstack.header.core.workflow.*
+import org.zstack.header.errorcode.ErrorCode
+import org.zstack.testlib.SubCase
+
+import static org.zstack.core.Platform.operr
+
+/**
+ * flows run with the metadata of their classes built once: names by __name__, runnables of
+ * @AfterDone/@AfterError/@AfterFinal fields, and no rollback for NoRollbackFlow
+ */
+class FlowMetadataCase extends SubCase {
+    static final int FLOW_NUM = 30
+
+    @Override
+    void clean() {
+    }
+
+    @Override
+    void setup() {
+    }
+
+    @Override
+    void environment() {
+    }
+
+    @Override
+    void test() {
+        testChainDone()
+        testChainRollback()
+    }
+
+    static class NamedFlow implements Flow {
+        String __name__
+        List<Integer> rollbacks
+        boolean failed
+
+        @AfterDone
+        List<Runnable> afterDone = []
+        @AfterError
+        List<Runnable> afterError = []
+        @AfterFinal
+        List<Runnable> afterFinal = []
+
+        @Override
+        void run(FlowTrigger trigger, Map data) {
+            if (failed) {
+                trigger.fail(operr("on purpose"))
+            } else {
+                trigger.next()
+            }
+        }
+
+        @Override
+        void rollback(FlowRollback trigger, Map data) {
+            rollbacks.add(__name__.substring("flow-".length()) as Integer)
+            trigger.rollback()
+        }
+    }
+
+    static class SilentFlow extends NoRollbackFlow {
+        String __name__
+
+        @Override
+        void run(FlowTrigger trigger, Map data) {
+            trigger.next()
+        }
+    }
+
+    FlowChain syntheticChain(List<Integer> rollbacks, List<String> calls, boolean fail) {
+        FlowChain chain = FlowChainBuilder.newSimpleFlowChain()
+        chain.setName("synthetic-chain")
+        for (int i = 0; i < FLOW_NUM; i++) {
+            int index = i
+            if (i % 3 == 0) {
+                chain.then(new SilentFlow(__name__: "silent-flow-${i}"))
+            } else {
+                NamedFlow flow = new NamedFlow(__name__: "flow-${i}", rollbacks: rollbacks,
+                        failed: fail && i == FLOW_NUM - 1)
+                flow.afterDone.add({ calls.add("done-${index}".toString()) } as Runnable)
+                flow.afterError.add({ calls.add("error-${index}".toString()) } as Runnable)
+                flow.afterFinal.add({ calls.add("final-${index}".toString()) } as Runnable)
+                chain.then(flow)
+            }
+        }
+        return chain
+    }
+
+    void testChainDone() {
+        List<Integer> rollbacks = []
+        List<String> calls = []
+        boolean done = false
+
+        FlowChain chain = syntheticChain(rollbacks, calls, false)
+        ((SimpleFlowChain) chain).allowWatch()
+        chain.done(new FlowDoneHandler(null) {
+            @Override
+            void handle(Map data) {
+                done = true
+            }
+        }).start()
+
+        assert done
+        assert rollbacks.isEmpty()
+
+        List<Integer> named = (0..<FLOW_NUM).findAll { it % 3 != 0 }
+        assert calls.findAll { it.startsWith("done-") } == named.reverse().collect { "done-${it}".toString() }
+        assert calls.findAll { it.startsWith("final-") } == named.reverse().collect { "final-${it}".toString() }
+        assert calls.findAll { it.startsWith("error-") }.isEmpty()
+
+        // statistics are kept by the names of flows
+        Set<String> names = SimpleFlowChain.getStatistics().keySet()
+        assert names.any { it == "flow-1" || it.endsWith(".java: flow-1") }
+        assert names.any { it == "silent-flow-0" || it.endsWith(".java: silent-flow-0") }
+    }
+
+    void testChainRollback() {
+        List<Integer> rollbacks = []
+        List<String> calls = []
+        ErrorCode error = null
+
+        syntheticChain(rollbacks, calls, true).error(new FlowErrorHandler(null) {
+            @Override
+            void handle(ErrorCode errCode, Map data) {
+                error = errCode
+            }
+        }).start()
+
+        assert error != null
+        assert error.location.contains("flow-${FLOW_NUM - 1} (location:")
+
+        // flows are rolled back in reverse order, NoRollbackFlow is passed over
+        assert rollbacks == (0..<FLOW_NUM).findAll { it % 3 != 0 }.reverse()
+        assert calls.findAll { it.startsWith("error-") }.size() == rollbacks.size()
+        assert calls.findAll { it.startsWith("done-") }.isEmpty()
+    }
+}
@@ -0,0 +1,221 @@
+package org.zstack.test.integration.identity.account
+
+import org.zstack.core.db.SQLBatch
+import org.zstack.header.errorcode.OperationFailureException
+import org.zstack.header.zone.APIQueryZoneMsg
+import org.zstack.header.identity.rbac.RBACEntity
+import org.zstack.identity.IdentityGlobalProperty
+import org.zstack.identity.rbac.RBACAPIRequestChecker
+import org.zstack.identity.rbac.RBACDecisionCache
+import org.zstack.sdk.AccountInventory
+import org.zstack.sdk.PolicyInventory
+import org.zstack.sdk.PolicyStatement
+import org.zstack.sdk.PolicyStatementEffect
+import org.zstack.sdk.SessionInventory
+import org.zstack.sdk.UserInventory
+import org.zstack.test.integration.ZStackTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.Utils
+import org.zstack.utils.logging.CLogger
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * decisions of a user follow its policies as they are attached and detached, and the cost of
+ * checking an API stays flat as the number of policies grows
+ */
+class RBACDecisionCacheCase extends SubCase {
+    static CLogger logger = Utils.getLogger(RBACDecisionCacheCase.class)
+
+    EnvSpec env
+    SessionInventory accountSession
+    SessionInventory userSession
+    UserInventory user
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(ZStackTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = env {}
+    }
+
+    @Override
+    void test() {
+        env.create {
+            prepare()
+            testInvalidation()
+            testDetachWhileChecking()
+            testAdmissionCost()
+        }
+    }
+
+    void prepare() {
+        AccountInventory account = createAccount {
+            name = "rbac"
+            password = "password"
+        } as AccountInventory
+
+        accountSession = logInByAccount {
+            accountName = account.name
+            password = "password"
+        } as SessionInventory
+
+        user = createUser {
+            name = "rbac-user"
+            password = "password"
+            sessionId = accountSession.uuid
+        } as UserInventory
+
+        userSession = logInByUser {
+            accountName = account.name
+            userName = user.name
+            password = "password"
+        } as SessionInventory
+    }
+
+    PolicyInventory newPolicy(String policyName, PolicyStatementEffect e, List<String> apis) {
+        return createPolicy {
+            name = policyName
+            statements = [new PolicyStatement(name: policyName, effect: e, actions: apis)]
+            sessionId = accountSession.uuid
+        } as PolicyInventory
+    }
+
+    void testInvalidation() {
+        queryZone {
+            sessionId = userSession.uuid
+        }
+
+        long misses = RBACDecisionCache.getMisses()
+        queryZone {
+            sessionId = userSession.uuid
+        }
+        assert RBACDecisionCache.getMisses() == misses
+
+        PolicyInventory deny = newPolicy("deny-query-zone", PolicyStatementEffect.Deny, [APIQueryZoneMsg.class.name])
+        attachPolicyToUser {
+            userUuid = user.uuid
+            policyUuid = deny.uuid
+            sessionId = accountSession.uuid
+        }
+
+        expect(AssertionError.class) {
+            queryZone {
+                sessionId = userSession.uuid
+            }
+        }
+
+        // removed by bulk delete
+        detachPoliciesFromUser {
+            userUuid = user.uuid
+            policyUuids = [deny.uuid]
+            sessionId = accountSession.uuid
+        }
+
+        queryZone {
+            sessionId = userSession.uuid
+        }
+    }
+
+    APIQueryZoneMsg queryZoneMsg() {
+        APIQueryZoneMsg msg = new APIQueryZoneMsg()
+        org.zstack.header.identity.SessionInventory session = new org.zstack.header.identity.SessionInventory()
+        session.uuid = userSession.uuid
+        session.accountUuid = userSession.accountUuid
+        session.userUuid = userSession.userUuid
+        msg.setSession(session)
+        return msg
+    }
+
+    boolean queryZoneAllowed() {
+        try {
+            new RBACAPIRequestChecker().check(new RBACEntity(queryZoneMsg()))
+            return true
+        } catch (OperationFailureException ignored) {
+            return false
+        }
+    }
+
+    void testDetachWhileChecking() {
+        PolicyInventory deny = newPolicy("deny-query-zone-2", PolicyStatementEffect.Deny, [APIQueryZoneMsg.class.name])
+        attachPolicyToUser {
+            userUuid = user.uuid
+            policyUuid = deny.uuid
+            sessionId = accountSession.uuid
+        }
+        assert !queryZoneAllowed()
+
+        boolean allowedBeforeCommit = true
+        new SQLBatch() {
+            @Override
+            protected void scripts() {
+                sql("delete from UserPolicyRefVO ref where ref.userUuid = :userUuid and ref.policyUuid = :policyUuid")
+                        .param("userUuid", user.uuid)
+                        .param("policyUuid", deny.uuid)
+                        .execute()
+                RBACDecisionCache.policiesChanged()
+
+                // the check reads the policies not committed yet, its table must not outlive the transaction
+                Thread t = Thread.start {
+                    allowedBeforeCommit = queryZoneAllowed()
+                }
+                t.join()
+            }
+        }.execute()
+
+        assert !allowedBeforeCommit
+        assert queryZoneAllowed()
+    }
+
+    long measure(int rounds) {
+        APIQueryZoneMsg msg = queryZoneMsg()
+
+        // warm up
+        new RBACAPIRequestChecker().check(new RBACEntity(msg))
+
+        long start = System.nanoTime()
+        for (int i = 0; i < rounds; i++) {
+            new RBACAPIRequestChecker().check(new RBACEntity(msg))
+        }
+        return (System.nanoTime() - start) / rounds
+    }
+
+    void testAdmissionCost() {
+        int rounds = 200
+        int created = 0
+        [10, 50, 200].each { int num ->
+            for (; created < num; created++) {
+                List<String> apis = (0..<10).collect { "org.zstack.header.vm.APINotExisting${created}_${it}Msg".toString() }
+                PolicyInventory p = newPolicy("policy-${created}", PolicyStatementEffect.Allow, apis)
+                attachPolicyToUser {
+                    userUuid = user.uuid
+                    policyUuid = p.uuid
+                    sessionId = accountSession.uuid
+                }
+            }
+
+            long cached = measure(rounds)
+
+            int size = IdentityGlobalProperty.RBAC_DECISION_CACHE_SIZE
+            IdentityGlobalProperty.RBAC_DECISION_CACHE_SIZE = 0
+            long uncached
+            try {
+                uncached = measure(rounds)
+            } finally {
+                IdentityGlobalProperty.RBAC_DECISION_CACHE_SIZE = size
+            }
+
+            logger.info(String.format("%s policies of %s statements: check costs %s us with the decision cache, %s us without",
+                    num + 1, (num + 1) * 10, TimeUnit.NANOSECONDS.toMicros(cached), TimeUnit.NANOSECONDS.toMicros(uncached)))
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package org.zstack.test.integration.kvm.capacity
+
+import org.zstack.compute.allocator.HostAllocatorGlobalProperty
+import org.zstack.compute.allocator.HostAllocatorManager
+import org.zstack.compute.allocator.HostCapacityLedger
+import org.zstack.compute.allocator.HostCapacityReserveManager
+import org.zstack.core.db.SQL
+import org.zstack.header.allocator.HostCapacityOverProvisioningManager
+import org.zstack.header.allocator.HostCapacityVO
+import org.zstack.header.allocator.UnableToReserveHostCapacityException
+import org.zstack.sdk.HostInventory
+import org.zstack.test.integration.kvm.Env
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.Utils
+import org.zstack.utils.data.SizeUnit
+import org.zstack.utils.logging.CLogger
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * capacity of hosts is reserved and returned in the ledger, concurrent reservations are not
+ * lost and the changes are written to HostCapacityVO by flushing, while changes of HostCapacityVO
+ * made by other management nodes are seen after reloading
+ */
+class HostCapacityLedgerCase extends SubCase {
+    static CLogger logger = Utils.getLogger(HostCapacityLedgerCase.class)
+
+    EnvSpec env
+    HostInventory host
+    HostCapacityLedger ledger
+    HostCapacityReserveManager reserveMgr
+    HostAllocatorManager allocatorMgr
+    long memory = SizeUnit.MEGABYTE.toByte(1)
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = Env.oneVmBasicEnv()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            host = env.inventoryByName("kvm") as HostInventory
+            ledger = bean(HostCapacityLedger.class)
+            reserveMgr = bean(HostCapacityReserveManager.class)
+            allocatorMgr = bean(HostAllocatorManager.class)
+
+            long interval = HostAllocatorGlobalProperty.CAPACITY_LEDGER_FLUSH_INTERVAL
+            // keep the changes in memory until flushed
+            HostAllocatorGlobalProperty.CAPACITY_LEDGER_FLUSH_INTERVAL = TimeUnit.HOURS.toMillis(1)
+            try {
+                testConcurrentReservation()
+                testInsufficientCapacity()
+                testWriteBehind()
+                testReservationCost()
+            } finally {
+                HostAllocatorGlobalProperty.CAPACITY_LEDGER_FLUSH_INTERVAL = interval
+                ledger.flushAll()
+            }
+        }
+    }
+
+    void concurrently(int num, Closure c) {
+        CountDownLatch latch = new CountDownLatch(num)
+        List<Throwable> errors = Collections.synchronizedList([])
+        num.times {
+            Thread.start {
+                try {
+                    c()
+                } catch (Throwable t) {
+                    errors.add(t)
+                } finally {
+                    latch.countDown()
+                }
+            }
+        }
+
+        assert latch.await(1, TimeUnit.MINUTES)
+        assert errors.isEmpty()
+    }
+
+    void testConcurrentReservation() {
+        int num = 20
+        long memoryByRatio = bean(HostCapacityOverProvisioningManager.class).calculateMemoryByRatio(host.uuid, memory)
+        ledger.flush(host.uuid)
+        HostCapacityVO before = dbFindByUuid(host.uuid, HostCapacityVO.class)
+
+        concurrently(num) {
+            reserveMgr.reserveCapacity(host.uuid, 1, memory, false)
+        }
+
+        HostCapacityVO cap = ledger.getCapacity(host.uuid)
+        assert cap.availableCpu == before.availableCpu - num
+        assert cap.availableMemory == before.availableMemory - num * memoryByRatio
+
+        ledger.flush(host.uuid)
+        HostCapacityVO after = dbFindByUuid(host.uuid, HostCapacityVO.class)
+        assert after.availableCpu == before.availableCpu - num
+        assert after.availableMemory == before.availableMemory - num * memoryByRatio
+
+        concurrently(num) {
+            allocatorMgr.returnComputeResourceCapacity(host.uuid, 1, memory)
+        }
+
+        ledger.flush(host.uuid)
+        after = dbFindByUuid(host.uuid, HostCapacityVO.class)
+        assert after.availableCpu == before.availableCpu
+        assert after.availableMemory == before.availableMemory
+    }
+
+    void testInsufficientCapacity() {
+        HostCapacityVO before = ledger.getCapacity(host.uuid)
+
+        expect(UnableToReserveHostCapacityException.class) {
+            reserveMgr.reserveCapacity(host.uuid, before.availableCpu + 1, 0, false)
+        }
+
+        HostCapacityVO after = ledger.getCapacity(host.uuid)
+        assert after.availableCpu == before.availableCpu
+        assert after.availableMemory == before.availableMemory
+    }
+
+    long availableCpuInDb() {
+        return dbFindByUuid(host.uuid, HostCapacityVO.class).availableCpu
+    }
+
+    void addAvailableCpuInDb(long cpu) {
+        // like another management node, change the row without entity events
+        SQL.New("update HostCapacityVO cap set cap.availableCpu = cap.availableCpu + :cpu where cap.uuid = :uuid")
+                .param("cpu", cpu)
+                .param("uuid", host.uuid)
+                .execute()
+    }
+
+    void testWriteBehind() {
+        ledger.flush(host.uuid)
+        long before = availableCpuInDb()
+
+        reserveMgr.reserveCapacity(host.uuid, 1, 0, false)
+        assert ledger.getCapacity(host.uuid).availableCpu == before - 1
+        // not flushed until the next interval
+        assert availableCpuInDb() == before
+
+        addAvailableCpuInDb(-2)
+        assert ledger.getCapacity(host.uuid).availableCpu == before - 1
+
+        ledger.flushAndReload()
+        assert availableCpuInDb() == before - 3
+        assert ledger.getCapacity(host.uuid).availableCpu == before - 3
+
+        // reservations made while flushing and reloading are neither lost nor applied twice
+        int num = 50
+        AtomicBoolean done = new AtomicBoolean(false)
+        Thread reloader = Thread.start {
+            while (!done.get()) {
+                ledger.flushAndReload()
+            }
+        }
+
+        try {
+            concurrently(num) {
+                reserveMgr.reserveCapacity(host.uuid, 1, 0, false)
+            }
+        } finally {
+            done.set(true)
+            reloader.join()
+        }
+
+        ledger.flushAndReload()
+        assert availableCpuInDb() == before - 3 - num
+        assert ledger.getCapacity(host.uuid).availableCpu == before - 3 - num
+
+        addAvailableCpuInDb(2)
+        allocatorMgr.returnComputeResourceCapacity(host.uuid, num + 1, 0)
+        ledger.flushAndReload()
+        assert availableCpuInDb() == before
+        assert ledger.getCapacity(host.uuid).availableCpu == before
+    }
+
+    long measure(int rounds) {
+        long start = System.nanoTime()
+        concurrently(rounds) {
+            reserveMgr.reserveCapacity(host.uuid, 0, memory, false)
+        }
+        concurrently(rounds) {
+            allocatorMgr.returnComputeResourceCapacity(host.uuid, 0, memory)
+        }
+        return System.nanoTime() - start
+    }
+
+    void testReservationCost() {
+        int rounds = 100
+        long withLedger = measure(rounds)
+
+        HostAllocatorGlobalProperty.CAPACITY_LEDGER_ENABLED = false
+        long withoutLedger
+        try {
+            ledger.flushAll()
+            withoutLedger = measure(rounds)
+        } finally {
+            HostAllocatorGlobalProperty.CAPACITY_LEDGER_ENABLED = true
+        }
+
+        logger.info(String.format("%s concurrent reservations and returns cost %s ms with the capacity ledger, %s ms without",
+                rounds, TimeUnit.NANOSECONDS.toMillis(withLedger), TimeUnit.NANOSECONDS.toMillis(withoutLedger)))
+    }
+}
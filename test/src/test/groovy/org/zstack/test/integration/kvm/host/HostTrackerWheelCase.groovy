@@ -0,0 +1,195 @@
+package org.zstack.test.integration.kvm.host
+
+import org.zstack.compute.host.HostBatchPinger
+import org.zstack.compute.host.HostGlobalConfig
+import org.zstack.compute.host.HostTrackImpl
+import org.zstack.core.cloudbus.CloudBusSteppingCallback
+import org.zstack.header.host.PingHostMsg
+import org.zstack.kvm.KVMConstant
+import org.zstack.sdk.HostInventory
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * hosts are pinged at the ticks of their phase in the ping interval, so hosts tracked together
+ * spread over the interval and only the ones sharing a phase are pinged in one batch, a host is
+ * not pinged within an interval after it's tracked, and rescanning the hosts while the wheel is
+ * ticking never leaves a host tracked twice
+ */
+class HostTrackerWheelCase extends SubCase {
+    EnvSpec env
+    HostTrackImpl tracker
+    HostBatchPinger kvmPinger
+    List<String> hostUuids
+
+    static class Batch {
+        long time
+        List<String> hostUuids
+    }
+
+    List<Batch> batches = Collections.synchronizedList([])
+
+    static final long INTERVAL = 3
+
+    @Override
+    void clean() {
+        if (kvmPinger != null) {
+            HostTrackImpl.hostBatchPingers[KVMConstant.KVM_HYPERVISOR_TYPE] = kvmPinger
+        }
+
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = makeEnv {
+            zone {
+                name = "zone"
+
+                cluster {
+                    name = "cluster"
+
+                    kvm {
+                        name = "kvm1"
+                        managementIp = "127.0.0.1"
+                        username = "root"
+                        password = "password"
+                    }
+
+                    kvm {
+                        name = "kvm2"
+                        managementIp = "127.0.0.2"
+                        username = "root"
+                        password = "password"
+                    }
+
+                    kvm {
+                        name = "kvm3"
+                        managementIp = "127.0.0.3"
+                        username = "root"
+                        password = "password"
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            tracker = bean(HostTrackImpl.class)
+            hostUuids = ["kvm1", "kvm2", "kvm3"].collect { (env.inventoryByName(it) as HostInventory).uuid }
+
+            kvmPinger = HostTrackImpl.hostBatchPingers[KVMConstant.KVM_HYPERVISOR_TYPE]
+            HostTrackImpl.hostBatchPingers[KVMConstant.KVM_HYPERVISOR_TYPE] = new HostBatchPinger() {
+                @Override
+                void ping(List<PingHostMsg> msgs, CloudBusSteppingCallback callback) {
+                    batches.add(new Batch(time: System.currentTimeMillis(), hostUuids: msgs.collect { it.hostUuid }))
+                    kvmPinger.ping(msgs, callback)
+                }
+
+                @Override
+                String getHypervisorType() {
+                    return KVMConstant.KVM_HYPERVISOR_TYPE
+                }
+            }
+
+            testPingSpreadByPhase()
+            testRescanWhileTicking()
+        }
+    }
+
+    List<Batch> batchesOf(String hostUuid) {
+        synchronized (batches) {
+            return batches.findAll { it.hostUuids.contains(hostUuid) }
+        }
+    }
+
+    static long phaseOf(String hostUuid) {
+        return Math.floorMod((long) hostUuid.hashCode(), INTERVAL)
+    }
+
+    void assertNoHostTwiceInBatch() {
+        synchronized (batches) {
+            batches.each { assert it.hostUuids.size() == it.hostUuids.toSet().size() }
+        }
+    }
+
+    void testPingSpreadByPhase() {
+        HostGlobalConfig.PING_HOST_INTERVAL.updateValue(INTERVAL)
+
+        batches.clear()
+        long start = System.currentTimeMillis()
+        tracker.reScanHost()
+
+        retryInSecs(20) {
+            hostUuids.each { assert batchesOf(it).size() >= 2 }
+        }
+
+        synchronized (batches) {
+            // only the hosts of the same phase are pinged together
+            batches.each { Batch b ->
+                assert b.hostUuids.collect { phaseOf(it) }.toSet().size() == 1
+            }
+
+            // the first pings of the hosts tracked together come in one batch per phase
+            Set<Batch> firstRound = hostUuids.collect { uuid -> batches.find { it.hostUuids.contains(uuid) } }.toSet()
+            assert firstRound.size() == hostUuids.collect { phaseOf(it) }.toSet().size()
+
+            // the wheel ticks every second, a host tracked in the middle of a second
+            // is not pinged before the interval minus that second
+            assert batches.every { it.time - start >= TimeUnit.SECONDS.toMillis(INTERVAL - 1) }
+        }
+
+        hostUuids.each { uuid ->
+            List<Batch> pings = batchesOf(uuid)
+            for (int i = 1; i < pings.size(); i++) {
+                assert pings[i].time - pings[i - 1].time >= TimeUnit.SECONDS.toMillis(INTERVAL - 1)
+            }
+        }
+
+        assertNoHostTwiceInBatch()
+    }
+
+    void testRescanWhileTicking() {
+        int threads = 10
+        CountDownLatch latch = new CountDownLatch(threads)
+        threads.times {
+            Thread.start {
+                try {
+                    5.times {
+                        tracker.reScanHost()
+                        TimeUnit.MILLISECONDS.sleep(200)
+                    }
+                } finally {
+                    latch.countDown()
+                }
+            }
+        }
+        assert latch.await(30, TimeUnit.SECONDS)
+
+        assert tracker.trackers.keySet() == hostUuids.toSet()
+
+        // a host tracked twice would be pinged twice an interval, the first ping after
+        // the rescans comes in one to two intervals and the next one an interval later
+        batches.clear()
+        TimeUnit.SECONDS.sleep(INTERVAL * 2 + 1)
+
+        hostUuids.each { uuid ->
+            int count = batchesOf(uuid).size()
+            assert count >= 1
+            assert count <= 2
+        }
+
+        assertNoHostTwiceInBatch()
+    }
+}
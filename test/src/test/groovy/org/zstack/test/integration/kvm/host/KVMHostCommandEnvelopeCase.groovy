@@ -0,0 +1,153 @@
+package org.zstack.test.integration.kvm.host
+
+import org.springframework.http.HttpEntity
+import org.zstack.core.cloudbus.CloudBus
+import org.zstack.header.host.HostConstant
+import org.zstack.header.host.PingHostMsg
+import org.zstack.kvm.KVMAgentCommands
+import org.zstack.kvm.KVMConstant
+import org.zstack.kvm.KVMHostDeletionTracker
+import org.zstack.sdk.DiskOfferingInventory
+import org.zstack.sdk.HostInventory
+import org.zstack.sdk.VmInstanceInventory
+import org.zstack.sdk.VolumeInventory
+import org.zstack.test.integration.kvm.Env
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.gson.JSONObjectUtil
+
+/**
+ * agent commands are sent with kvmHostAddons serialized once in the command, pings keep their
+ * format, and replies are checked against the hosts known deleted
+ */
+class KVMHostCommandEnvelopeCase extends SubCase {
+    EnvSpec env
+    VmInstanceInventory vm
+    HostInventory host
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = Env.oneVmBasicEnv()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            vm = env.inventoryByName("vm") as VmInstanceInventory
+            host = env.inventoryByName("kvm") as HostInventory
+
+            testCommandCarriesHostAddons()
+            testAttachVolumeCarriesHostAddons()
+            testPingNotAffected()
+            testHostDeletionTracked()
+        }
+    }
+
+    static void assertHostAddonsOnce(String body) {
+        assert body.count("\"${KVMConstant.KVM_HOST_ADDONS}\"") == 1
+        assert JSONObjectUtil.toObject(body, LinkedHashMap.class)[KVMConstant.KVM_HOST_ADDONS] == [:]
+    }
+
+    void testCommandCarriesHostAddons() {
+        List<String> bodies = []
+        env.afterSimulator(KVMConstant.KVM_STOP_VM_PATH) { rsp, HttpEntity<String> e ->
+            bodies.add(e.body)
+            return rsp
+        }
+        env.afterSimulator(KVMConstant.KVM_START_VM_PATH) { rsp, HttpEntity<String> e ->
+            bodies.add(e.body)
+            return rsp
+        }
+
+        stopVmInstance {
+            uuid = vm.uuid
+        }
+        startVmInstance {
+            uuid = vm.uuid
+        }
+
+        assert bodies.size() == 2
+        bodies.each { assertHostAddonsOnce(it) }
+
+        env.cleanAfterSimulatorHandlers()
+    }
+
+    void testAttachVolumeCarriesHostAddons() {
+        KVMHostDeletionTracker tracker = bean(KVMHostDeletionTracker.class)
+        DiskOfferingInventory diskOffering = env.inventoryByName("diskOffering") as DiskOfferingInventory
+
+        List<String> bodies = []
+        env.afterSimulator(KVMConstant.KVM_ATTACH_VOLUME) { rsp, HttpEntity<String> e ->
+            bodies.add(e.body)
+            // a host known deleted but still in the database, e.g. added again with
+            // the same uuid on another management node, gets its replies
+            tracker.deletedHostUuids.put(host.uuid, true)
+            return rsp
+        }
+
+        VolumeInventory vol = createDataVolume {
+            name = "data"
+            diskOfferingUuid = diskOffering.uuid
+        } as VolumeInventory
+
+        vol = attachDataVolumeToVm {
+            vmInstanceUuid = vm.uuid
+            volumeUuid = vol.uuid
+        } as VolumeInventory
+
+        assert vol.vmInstanceUuid == vm.uuid
+        assert bodies.size() == 1
+        assertHostAddonsOnce(bodies[0])
+        assert tracker.isDeleted(host.uuid)
+
+        tracker.deletedHostUuids.invalidate(host.uuid)
+        env.cleanAfterSimulatorHandlers()
+    }
+
+    void testPingNotAffected() {
+        List<String> bodies = []
+        env.afterSimulator(KVMConstant.KVM_PING_PATH) { KVMAgentCommands.PingResponse rsp, HttpEntity<String> e ->
+            KVMAgentCommands.PingCmd cmd = JSONObjectUtil.toObject(e.body, KVMAgentCommands.PingCmd.class)
+            if (cmd.hostUuid == host.uuid) {
+                bodies.add(e.body)
+            }
+            return rsp
+        }
+
+        PingHostMsg msg = new PingHostMsg()
+        msg.hostUuid = host.uuid
+        CloudBus bus = bean(CloudBus.class)
+        bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, host.uuid)
+        assert bus.call(msg).success
+
+        assert !bodies.isEmpty()
+        // pings are not sent through KVMHost.Http, the wire format is unchanged
+        bodies.each {
+            assert !JSONObjectUtil.toObject(it, LinkedHashMap.class).containsKey(KVMConstant.KVM_HOST_ADDONS)
+        }
+
+        env.cleanAfterSimulatorHandlers()
+    }
+
+    void testHostDeletionTracked() {
+        KVMHostDeletionTracker tracker = bean(KVMHostDeletionTracker.class)
+        assert !tracker.isDeleted(host.uuid)
+
+        deleteHost {
+            uuid = host.uuid
+        }
+
+        assert tracker.isDeleted(host.uuid)
+    }
+}
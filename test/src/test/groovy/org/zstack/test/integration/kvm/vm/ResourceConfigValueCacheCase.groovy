@@ -0,0 +1,231 @@
+package org.zstack.test.integration.kvm.vm
+
+import org.zstack.compute.vm.VmGlobalConfig
+import org.zstack.core.Platform
+import org.zstack.core.cloudbus.EventFacade
+import org.zstack.core.db.DatabaseFacade
+import org.zstack.core.db.Q
+import org.zstack.core.db.SQL
+import org.zstack.resourceconfig.ResourceConfig
+import org.zstack.resourceconfig.ResourceConfigCanonicalEvents
+import org.zstack.resourceconfig.ResourceConfigFacade
+import org.zstack.resourceconfig.ResourceConfigGlobalProperty
+import org.zstack.resourceconfig.ResourceConfigUpdateExtensionPoint
+import org.zstack.resourceconfig.ResourceConfigVO
+import org.zstack.resourceconfig.ResourceConfigVO_
+import org.zstack.sdk.ClusterInventory
+import org.zstack.sdk.VmInstanceInventory
+import org.zstack.test.integration.kvm.Env
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+
+import static org.zstack.utils.CollectionDSL.e
+import static org.zstack.utils.CollectionDSL.map
+import static org.zstack.utils.StringDSL.s
+
+/**
+ * values of resource configs are cached per resource, evicted on update and delete on this and
+ * other management nodes, and values inherited from parents follow the parents
+ */
+class ResourceConfigValueCacheCase extends SubCase {
+    EnvSpec env
+    VmInstanceInventory vm
+    ClusterInventory cluster
+    ResourceConfigFacade rcf
+    ResourceConfig rc
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = Env.oneVmBasicEnv()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            vm = env.inventoryByName("vm") as VmInstanceInventory
+            cluster = env.inventoryByName("cluster") as ClusterInventory
+            rcf = bean(ResourceConfigFacade.class)
+            rc = rcf.getResourceConfig(VmGlobalConfig.NUMA.identity)
+
+            testCachedValue()
+            testValueInheritedFromCluster()
+            testUpdateExtensionSeesNewValue()
+            testValueChangedInDatabase()
+            testValueChangedByOtherNode()
+            testPreload()
+            testCacheDisabled()
+        }
+    }
+
+    boolean numa() {
+        return rcf.getResourceConfigValue(VmGlobalConfig.NUMA, vm.uuid, Boolean.class)
+    }
+
+    void updateNuma(String resUuid, boolean v) {
+        updateResourceConfig {
+            category = VmGlobalConfig.CATEGORY
+            name = VmGlobalConfig.NUMA.name
+            resourceUuid = resUuid
+            value = v.toString()
+        }
+    }
+
+    void deleteNuma(String resUuid) {
+        deleteResourceConfig {
+            category = VmGlobalConfig.CATEGORY
+            name = VmGlobalConfig.NUMA.name
+            resourceUuid = resUuid
+        }
+    }
+
+    void testCachedValue() {
+        boolean global = VmGlobalConfig.NUMA.value(Boolean.class)
+        assert numa() == global
+
+        long misses = rc.getCacheMisses()
+        long hits = rc.getCacheHits()
+        assert numa() == global
+        // the vm and its cluster have no value of their own, both are cached
+        assert rc.getCacheMisses() == misses
+        assert rc.getCacheHits() == hits + 2
+
+        updateNuma(vm.uuid, !global)
+        assert numa() == !global
+
+        deleteNuma(vm.uuid)
+        assert numa() == global
+    }
+
+    void testValueInheritedFromCluster() {
+        updateNuma(cluster.uuid, true)
+        assert numa()
+
+        updateNuma(vm.uuid, false)
+        assert !numa()
+
+        deleteNuma(vm.uuid)
+        assert numa()
+
+        updateNuma(cluster.uuid, false)
+        assert !numa()
+
+        deleteNuma(cluster.uuid)
+        assert numa() == VmGlobalConfig.NUMA.value(Boolean.class)
+    }
+
+    void testUpdateExtensionSeesNewValue() {
+        Boolean seen = null
+        rc.installUpdateExtension(new ResourceConfigUpdateExtensionPoint() {
+            @Override
+            void updateResourceConfig(ResourceConfig config, String resourceUuid, String resourceType, String oldValue, String newValue) {
+                if (resourceUuid == vm.uuid) {
+                    seen = rcf.getResourceConfigValue(VmGlobalConfig.NUMA, resourceUuid, Boolean.class)
+                }
+            }
+        })
+
+        updateNuma(vm.uuid, true)
+        assert seen
+        updateNuma(vm.uuid, false)
+        assert seen == false
+
+        deleteNuma(vm.uuid)
+    }
+
+    void testValueChangedInDatabase() {
+        updateNuma(vm.uuid, true)
+        assert numa()
+
+        // changed by entity, the cache is evicted by the entity callback
+        ResourceConfigVO vo = Q.New(ResourceConfigVO.class)
+                .eq(ResourceConfigVO_.resourceUuid, vm.uuid)
+                .eq(ResourceConfigVO_.name, VmGlobalConfig.NUMA.name)
+                .eq(ResourceConfigVO_.category, VmGlobalConfig.CATEGORY)
+                .find()
+        vo.value = false.toString()
+        bean(DatabaseFacade.class).update(vo)
+        assert !numa()
+
+        deleteNuma(vm.uuid)
+    }
+
+    void testValueChangedByOtherNode() {
+        updateNuma(vm.uuid, true)
+        assert numa()
+
+        // another management node changed the value and fires the event
+        SQL.New(ResourceConfigVO.class)
+                .eq(ResourceConfigVO_.resourceUuid, vm.uuid)
+                .eq(ResourceConfigVO_.name, VmGlobalConfig.NUMA.name)
+                .eq(ResourceConfigVO_.category, VmGlobalConfig.CATEGORY)
+                .set(ResourceConfigVO_.value, false.toString())
+                .update()
+        assert numa()
+
+        ResourceConfigCanonicalEvents.UpdateEvent evt = new ResourceConfigCanonicalEvents.UpdateEvent()
+        evt.resourceUuid = vm.uuid
+        evt.resourceType = "VmInstanceVO"
+        evt.oldValue = true.toString()
+        bean(EventFacade.class).fire(s(ResourceConfigCanonicalEvents.UPDATE_EVENT_PATH).formatByMap(map(
+                e("nodeUuid", Platform.getUuid()),
+                e("category", VmGlobalConfig.CATEGORY),
+                e("name", VmGlobalConfig.NUMA.name)
+        )), evt)
+
+        retryInSecs {
+            assert !numa()
+        }
+
+        deleteNuma(vm.uuid)
+    }
+
+    void testPreload() {
+        VmInstanceInventory vm1 = createVmInstance {
+            name = "vm1"
+            instanceOfferingUuid = vm.instanceOfferingUuid
+            imageUuid = vm.imageUuid
+            l3NetworkUuids = [vm.defaultL3NetworkUuid]
+        } as VmInstanceInventory
+
+        updateNuma(vm1.uuid, true)
+
+        ResourceConfig clockTrack = rcf.getResourceConfig(VmGlobalConfig.VM_CLOCK_TRACK.identity)
+        rcf.preloadResourceConfigValues([vm1.uuid, vm1.clusterUuid])
+
+        long misses = rc.getCacheMisses()
+        long clockTrackMisses = clockTrack.getCacheMisses()
+        assert rcf.getResourceConfigValue(VmGlobalConfig.NUMA, vm1.uuid, Boolean.class)
+        assert rcf.getResourceConfigValue(VmGlobalConfig.VM_CLOCK_TRACK, vm1.uuid, String.class) == VmGlobalConfig.VM_CLOCK_TRACK.value()
+        assert rc.getCacheMisses() == misses
+        assert clockTrack.getCacheMisses() == clockTrackMisses
+
+        destroyVmInstance {
+            uuid = vm1.uuid
+        }
+    }
+
+    void testCacheDisabled() {
+        ResourceConfigGlobalProperty.VALUE_CACHE_ENABLED = false
+        try {
+            long misses = rc.getCacheMisses()
+            updateNuma(vm.uuid, true)
+            assert numa()
+            deleteNuma(vm.uuid)
+            assert numa() == VmGlobalConfig.NUMA.value(Boolean.class)
+            assert rc.getCacheMisses() == misses
+        } finally {
+            ResourceConfigGlobalProperty.VALUE_CACHE_ENABLED = true
+        }
+    }
+}
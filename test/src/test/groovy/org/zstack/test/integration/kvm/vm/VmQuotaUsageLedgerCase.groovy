@@ -0,0 +1,283 @@
+package org.zstack.test.integration.kvm.vm
+
+import org.zstack.compute.vm.VmQuotaUtil
+import org.zstack.core.cloudbus.CloudBus
+import org.zstack.core.db.Q
+import org.zstack.core.db.SQL
+import org.zstack.header.identity.AccountConstant
+import org.zstack.header.message.AbstractBeforeDeliveryMessageInterceptor
+import org.zstack.header.message.Message
+import org.zstack.header.message.MessageReply
+import org.zstack.header.network.l3.AllocateIpMsg
+import org.zstack.header.vm.VmInstanceState
+import org.zstack.header.vm.VmInstanceVO
+import org.zstack.header.vm.VmInstanceVO_
+import org.zstack.header.volume.CreateVolumeMsg
+import org.zstack.header.volume.DeleteVolumeMsg
+import org.zstack.header.volume.DeleteVolumeReply
+import org.zstack.header.volume.OverwriteVolumeMsg
+import org.zstack.header.volume.VolumeConstant
+import org.zstack.header.volume.VolumeType
+import org.zstack.header.volume.VolumeVO
+import org.zstack.identity.QuotaUsageLedger
+import org.zstack.sdk.AccountInventory
+import org.zstack.sdk.DiskOfferingInventory
+import org.zstack.sdk.ImageInventory
+import org.zstack.sdk.InstanceOfferingInventory
+import org.zstack.sdk.L3NetworkInventory
+import org.zstack.sdk.VmInstanceInventory
+import org.zstack.utils.data.SizeUnit
+import org.zstack.test.integration.kvm.Env
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+
+/**
+ * quota usages are kept in the ledger, follow the changes of VMs and volumes, and
+ * usages drifted by changes not reported are fixed by reconciliation
+ */
+class VmQuotaUsageLedgerCase extends SubCase {
+    EnvSpec env
+    VmInstanceInventory vm
+    String accountUuid = AccountConstant.INITIAL_SYSTEM_ADMIN_UUID
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = Env.oneVmBasicEnv()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            vm = env.inventoryByName("vm") as VmInstanceInventory
+            testUsageKept()
+            testUsageFollowsVmState()
+            testUsageFollowsVolumes()
+            testRootVolumeOfCreatingVmReported()
+            testOverwrittenVolumeReported()
+            testReconcile()
+        }
+    }
+
+    void assertUsageConsistent() {
+        VmQuotaUtil util = new VmQuotaUtil()
+        assert util.getUsedVmCpuMemory(accountUuid) == util.calculateUsedVmCpuMemory(accountUuid, null)
+        assert util.getUsedDataVolumeCount(accountUuid) == util.calculateUsedDataVolumeCount(accountUuid)
+        assert util.getUsedAllVolumeSize(accountUuid) == util.calculateUsedAllVolumeSize(accountUuid)
+    }
+
+    void testUsageKept() {
+        VmQuotaUtil util = new VmQuotaUtil()
+        assert util.getUsedVmCpuMemory(accountUuid).runningVmNum == 1
+
+        long misses = QuotaUsageLedger.getMisses()
+        long hits = QuotaUsageLedger.getHits()
+        assert util.getUsedVmCpuMemory(accountUuid).runningVmNum == 1
+        assert QuotaUsageLedger.getMisses() == misses
+        assert QuotaUsageLedger.getHits() == hits + 1
+
+        // the kept usage can't be changed by callers
+        util.getUsedVmCpuMemory(accountUuid).runningVmNum = 100
+        assert util.getUsedVmCpuMemory(accountUuid).runningVmNum == 1
+    }
+
+    void testUsageFollowsVmState() {
+        VmQuotaUtil util = new VmQuotaUtil()
+
+        stopVmInstance {
+            uuid = vm.uuid
+        }
+        assert util.getUsedVmCpuMemory(accountUuid).runningVmNum == 0
+        assertUsageConsistent()
+
+        startVmInstance {
+            uuid = vm.uuid
+        }
+        assert util.getUsedVmCpuMemory(accountUuid).runningVmNum == 1
+        assertUsageConsistent()
+    }
+
+    void testUsageFollowsVolumes() {
+        VmQuotaUtil util = new VmQuotaUtil()
+        DiskOfferingInventory offering = env.inventoryByName("diskOffering") as DiskOfferingInventory
+
+        long count = util.getUsedDataVolumeCount(accountUuid)
+        long size = util.getUsedAllVolumeSize(accountUuid)
+
+        def volume = createDataVolume {
+            name = "data"
+            diskOfferingUuid = offering.uuid
+        } as org.zstack.sdk.VolumeInventory
+
+        assert util.getUsedDataVolumeCount(accountUuid) == count + 1
+        assert util.getUsedAllVolumeSize(accountUuid) == size + offering.diskSize
+        assertUsageConsistent()
+
+        deleteDataVolume {
+            uuid = volume.uuid
+        }
+        assert util.getUsedDataVolumeCount(accountUuid) == count
+        assertUsageConsistent()
+    }
+
+    boolean rootVolumeArmed
+    String creatingVmUuid
+    String creatingVmHostUuid
+    long totalVmNumBeforeRootVolume
+    def usageAfterRootVolume
+    def calculatedAfterRootVolume
+
+    void testRootVolumeOfCreatingVmReported() {
+        VmQuotaUtil util = new VmQuotaUtil()
+        CloudBus bus = bean(CloudBus.class)
+
+        bus.installBeforeDeliveryMessageInterceptor(new AbstractBeforeDeliveryMessageInterceptor() {
+            @Override
+            void beforeDeliveryMessage(Message msg) {
+                CreateVolumeMsg cmsg = (CreateVolumeMsg) msg
+                if (!rootVolumeArmed || cmsg.volumeType != VolumeType.Root.toString()) {
+                    return
+                }
+
+                rootVolumeArmed = false
+                creatingVmUuid = cmsg.vmInstanceUuid
+                creatingVmHostUuid = Q.New(VmInstanceVO.class).select(VmInstanceVO_.hostUuid)
+                        .eq(VmInstanceVO_.uuid, creatingVmUuid).findValue()
+
+                // a creating vm without host is counted only when it gets the root volume
+                SQL.New(VmInstanceVO.class).eq(VmInstanceVO_.uuid, creatingVmUuid)
+                        .set(VmInstanceVO_.hostUuid, null)
+                        .update()
+                QuotaUsageLedger.resourcesChanged(creatingVmUuid)
+                totalVmNumBeforeRootVolume = util.getUsedVmCpuMemory(accountUuid).totalVmNum
+            }
+        }, CreateVolumeMsg.class)
+
+        // ips are allocated after the volumes, the root volume of the vm is set by then
+        bus.installBeforeDeliveryMessageInterceptor(new AbstractBeforeDeliveryMessageInterceptor() {
+            @Override
+            void beforeDeliveryMessage(Message msg) {
+                if (creatingVmUuid == null || usageAfterRootVolume != null) {
+                    return
+                }
+
+                usageAfterRootVolume = util.getUsedVmCpuMemory(accountUuid)
+                calculatedAfterRootVolume = util.calculateUsedVmCpuMemory(accountUuid, null)
+
+                SQL.New(VmInstanceVO.class).eq(VmInstanceVO_.uuid, creatingVmUuid)
+                        .set(VmInstanceVO_.hostUuid, creatingVmHostUuid)
+                        .update()
+                QuotaUsageLedger.resourcesChanged(creatingVmUuid)
+            }
+        }, AllocateIpMsg.class)
+
+        rootVolumeArmed = true
+        VmInstanceInventory vm2 = createVmInstance {
+            name = "vm2"
+            instanceOfferingUuid = (env.inventoryByName("instanceOffering") as InstanceOfferingInventory).uuid
+            imageUuid = (env.inventoryByName("image1") as ImageInventory).uuid
+            l3NetworkUuids = [(env.inventoryByName("l3") as L3NetworkInventory).uuid]
+        } as VmInstanceInventory
+
+        assert creatingVmUuid == vm2.uuid
+        assert usageAfterRootVolume != null
+        assert usageAfterRootVolume.totalVmNum == totalVmNumBeforeRootVolume + 1
+        assert usageAfterRootVolume.totalVmNum == calculatedAfterRootVolume.totalVmNum
+        assertUsageConsistent()
+
+        destroyVmInstance {
+            uuid = vm2.uuid
+        }
+        assertUsageConsistent()
+    }
+
+    void testOverwrittenVolumeReported() {
+        VmQuotaUtil util = new VmQuotaUtil()
+
+        DiskOfferingInventory offering = env.inventoryByName("diskOffering") as DiskOfferingInventory
+        DiskOfferingInventory bigOffering = createDiskOffering {
+            name = "big"
+            diskSize = offering.diskSize + SizeUnit.GIGABYTE.toByte(1)
+        } as DiskOfferingInventory
+
+        def origin = createDataVolume {
+            name = "origin"
+            diskOfferingUuid = offering.uuid
+        } as org.zstack.sdk.VolumeInventory
+
+        def transientVolume = createDataVolume {
+            name = "transient"
+            diskOfferingUuid = bigOffering.uuid
+        } as org.zstack.sdk.VolumeInventory
+
+        // the sizes are swapped in one account, so put the transient volume in another one
+        AccountInventory account = createAccount {
+            name = "test"
+            password = "password"
+        } as AccountInventory
+
+        changeResourceOwner {
+            resourceUuid = transientVolume.uuid
+            accountUuid = account.uuid
+        }
+
+        // keep the transient volume to see its size after the swap
+        env.message(DeleteVolumeMsg.class) { DeleteVolumeMsg msg, CloudBus bus ->
+            bus.reply(msg, new DeleteVolumeReply())
+        }
+
+        long size = util.getUsedAllVolumeSize(accountUuid)
+        long otherSize = util.getUsedAllVolumeSize(account.uuid)
+
+        OverwriteVolumeMsg msg = new OverwriteVolumeMsg()
+        msg.originVolume = org.zstack.header.volume.VolumeInventory.valueOf(dbFindByUuid(origin.uuid, VolumeVO.class))
+        msg.transientVolume = org.zstack.header.volume.VolumeInventory.valueOf(dbFindByUuid(transientVolume.uuid, VolumeVO.class))
+        bean(CloudBus.class).makeTargetServiceIdByResourceUuid(msg, VolumeConstant.SERVICE_ID, transientVolume.uuid)
+        MessageReply reply = bean(CloudBus.class).call(msg)
+        assert reply.success
+
+        env.revokeMessage(DeleteVolumeMsg.class, null)
+
+        long delta = bigOffering.diskSize - offering.diskSize
+        assert util.getUsedAllVolumeSize(accountUuid) == size + delta
+        assert util.getUsedAllVolumeSize(account.uuid) == otherSize - delta
+        assert util.getUsedAllVolumeSize(account.uuid) == util.calculateUsedAllVolumeSize(account.uuid)
+        assertUsageConsistent()
+
+        deleteDataVolume {
+            uuid = origin.uuid
+        }
+        deleteAccount {
+            uuid = account.uuid
+        }
+    }
+
+    void testReconcile() {
+        VmQuotaUtil util = new VmQuotaUtil()
+        assert util.getUsedVmCpuMemory(accountUuid).runningVmNum == 1
+        assert QuotaUsageLedger.reconcile() == 0
+
+        // changed by bulk SQL without reporting it
+        SQL.New(VmInstanceVO.class).eq(VmInstanceVO_.uuid, vm.uuid).set(VmInstanceVO_.state, VmInstanceState.Stopped).update()
+        assert util.getUsedVmCpuMemory(accountUuid).runningVmNum == 1
+
+        long drifts = QuotaUsageLedger.getDrifts()
+        assert QuotaUsageLedger.reconcile() == 1
+        assert QuotaUsageLedger.getDrifts() == drifts + 1
+        assert util.getUsedVmCpuMemory(accountUuid).runningVmNum == 0
+
+        SQL.New(VmInstanceVO.class).eq(VmInstanceVO_.uuid, vm.uuid).set(VmInstanceVO_.state, VmInstanceState.Running).update()
+        QuotaUsageLedger.resourcesChanged(vm.uuid)
+        assert util.getUsedVmCpuMemory(accountUuid).runningVmNum == 1
+    }
+}
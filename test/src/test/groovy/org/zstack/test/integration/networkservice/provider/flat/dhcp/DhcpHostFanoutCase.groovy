@@ -0,0 +1,130 @@
+package org.zstack.test.integration.networkservice.provider.flat.dhcp
+
+import org.zstack.header.core.Completion
+import org.zstack.header.core.ReturnValueCompletion
+import org.zstack.header.errorcode.ErrorCode
+import org.zstack.network.service.flat.DhcpHostFanout
+import org.zstack.network.service.flat.FlatNetwordProviderGlobalConfig
+import org.zstack.test.integration.networkservice.provider.NetworkServiceProviderTest
+import org.zstack.test.integration.networkservice.provider.flat.FlatNetworkServiceEnv
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+
+import java.util.concurrent.atomic.AtomicInteger
+
+import static org.zstack.core.Platform.operr
+
+/**
+ * DHCP operations fan out to hosts with bounded parallelism, all hosts are tried
+ * and errors are collected per host
+ */
+class DhcpHostFanoutCase extends SubCase {
+    EnvSpec env
+
+    @Override
+    void setup() {
+        useSpring(NetworkServiceProviderTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = FlatNetworkServiceEnv.oneHostNoVmEnv()
+    }
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            testBoundedFanout()
+            testParallelismConfig()
+        }
+    }
+
+    void testBoundedFanout() {
+        Map<String, Integer> args = new LinkedHashMap<>()
+        (0..<20).each { args.put("host-${it}".toString(), it) }
+
+        AtomicInteger running = new AtomicInteger()
+        AtomicInteger maxRunning = new AtomicInteger()
+        List<String> tried = Collections.synchronizedList([])
+        DhcpHostFanout.Result result = null
+
+        new DhcpHostFanout<Integer>("test-fanout", args).parallelism(4).run({ String hostUuid, Integer arg, Completion completion ->
+            tried.add(hostUuid)
+            int n = running.incrementAndGet()
+            maxRunning.accumulateAndGet(n, { a, b -> Math.max(a, b) })
+
+            Thread.start {
+                sleep(20)
+                running.decrementAndGet()
+                if (arg % 5 == 0) {
+                    completion.fail(operr("on purpose"))
+                } else {
+                    completion.success()
+                }
+            }
+        } as DhcpHostFanout.HostTask<Integer>, new ReturnValueCompletion<DhcpHostFanout.Result>(null) {
+            @Override
+            void success(DhcpHostFanout.Result ret) {
+                result = ret
+            }
+
+            @Override
+            void fail(ErrorCode errorCode) {
+                assert false: "the fanout never fails"
+            }
+        })
+
+        retryInSecs {
+            assert result != null
+        }
+
+        assert tried.sort() == args.keySet().sort()
+        assert maxRunning.get() <= 4
+        assert !result.isSuccess()
+        assert result.errors.keySet() == ["host-0", "host-5", "host-10", "host-15"] as Set
+        assert result.firstError.is(result.errors["host-0"])
+        assert result.timeToConverge >= 20
+    }
+
+    void testParallelismConfig() {
+        assert new DhcpHostFanout<Integer>("test", [:]).parallelism == 10
+
+        updateGlobalConfig {
+            category = FlatNetwordProviderGlobalConfig.CATRGORY
+            name = FlatNetwordProviderGlobalConfig.DHCP_FANOUT_PARALLELISM.name
+            value = "2"
+        }
+        assert new DhcpHostFanout<Integer>("test", [:]).parallelism == 2
+
+        expect(AssertionError.class) {
+            updateGlobalConfig {
+                category = FlatNetwordProviderGlobalConfig.CATRGORY
+                name = FlatNetwordProviderGlobalConfig.DHCP_FANOUT_PARALLELISM.name
+                value = "0"
+            }
+        }
+
+        FlatNetwordProviderGlobalConfig.DHCP_FANOUT_PARALLELISM.resetValue()
+
+        DhcpHostFanout.Result result = null
+        new DhcpHostFanout<Integer>("test-empty", [:]).run({ String hostUuid, Integer arg, Completion completion ->
+            assert false: "no host to run"
+        } as DhcpHostFanout.HostTask<Integer>, new ReturnValueCompletion<DhcpHostFanout.Result>(null) {
+            @Override
+            void success(DhcpHostFanout.Result ret) {
+                result = ret
+            }
+
+            @Override
+            void fail(ErrorCode errorCode) {
+            }
+        })
+        assert result.isSuccess()
+        assert result.hostUuids.isEmpty()
+    }
+}
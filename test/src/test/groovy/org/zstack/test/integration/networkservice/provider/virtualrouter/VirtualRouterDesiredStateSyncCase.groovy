@@ -0,0 +1,140 @@
+package org.zstack.test.integration.networkservice.provider.virtualrouter
+
+import org.zstack.appliancevm.ApplianceVmCanonicalEvents
+import org.zstack.appliancevm.ApplianceVmStatus
+import org.zstack.core.cloudbus.CloudBus
+import org.zstack.core.cloudbus.EventFacade
+import org.zstack.core.db.Q
+import org.zstack.header.vm.VmInstanceConstant
+import org.zstack.network.service.virtualrouter.ReconnectVirtualRouterVmMsg
+import org.zstack.network.service.virtualrouter.VirtualRouterConstant
+import org.zstack.network.service.virtualrouter.VirtualRouterDesiredStates
+import org.zstack.network.service.virtualrouter.VirtualRouterGlobalConfig
+import org.zstack.network.service.virtualrouter.VirtualRouterVmVO
+import org.zstack.network.service.virtualrouter.VirtualRouterVmVO_
+import org.zstack.sdk.L3NetworkInventory
+import org.zstack.test.integration.networkservice.provider.NetworkServiceProviderTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+
+/**
+ * a reconnected virtual router is not synced again with the configs unchanged since they were
+ * synced to it, unless the reconnect is requested by API or the virtual router may have lost them
+ */
+class VirtualRouterDesiredStateSyncCase extends SubCase {
+    EnvSpec env
+    CloudBus bus
+    VirtualRouterDesiredStates desiredStates
+    String vrUuid
+    Map<String, Integer> syncCount = [:]
+
+    static List<String> SYNC_PATHS = [VirtualRouterConstant.VR_SYNC_SNAT_PATH,
+                                      VirtualRouterConstant.VR_SET_DNS_PATH,
+                                      VirtualRouterConstant.VR_SYNC_EIP]
+
+    @Override
+    void clean() {
+        env.cleanSimulatorHandlers()
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(NetworkServiceProviderTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = VirtualRouterNetworkServiceEnv.oneVmOneHostVyosOnEipEnv()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            bus = bean(CloudBus.class)
+            desiredStates = bean(VirtualRouterDesiredStates.class)
+            vrUuid = Q.New(VirtualRouterVmVO.class).select(VirtualRouterVmVO_.uuid).findValue()
+
+            SYNC_PATHS.each { path ->
+                env.afterSimulator(path) { rsp ->
+                    syncCount[path] = (syncCount[path] ?: 0) + 1
+                    return rsp
+                }
+            }
+
+            testFullSyncByDefault()
+            testSkipSyncedConfig()
+            testSyncChangedConfig()
+            testFullSyncOnReconnectByApi()
+            testFullSyncAfterDisconnected()
+        }
+    }
+
+    void reconnect() {
+        syncCount.clear()
+
+        ReconnectVirtualRouterVmMsg msg = new ReconnectVirtualRouterVmMsg()
+        msg.virtualRouterVmUuid = vrUuid
+        bus.makeTargetServiceIdByResourceUuid(msg, VmInstanceConstant.SERVICE_ID, vrUuid)
+        assert bus.call(msg).success
+    }
+
+    void testFullSyncByDefault() {
+        reconnect()
+        reconnect()
+        SYNC_PATHS.each { assert syncCount[it] == 1 }
+        assert desiredStates.getVersion(vrUuid) > 0
+    }
+
+    void testSkipSyncedConfig() {
+        VirtualRouterGlobalConfig.RECONNECT_SKIP_SYNCED_CONFIG.updateValue(true)
+
+        long version = desiredStates.getVersion(vrUuid)
+        reconnect()
+        SYNC_PATHS.each { assert syncCount[it] == null }
+        assert desiredStates.getVersion(vrUuid) == version
+    }
+
+    void testSyncChangedConfig() {
+        long version = desiredStates.getVersion(vrUuid)
+
+        addDnsToL3Network {
+            l3NetworkUuid = (env.inventoryByName("l3") as L3NetworkInventory).uuid
+            dns = "8.8.8.8"
+        }
+
+        reconnect()
+        assert syncCount[VirtualRouterConstant.VR_SET_DNS_PATH] == 1
+        assert syncCount[VirtualRouterConstant.VR_SYNC_SNAT_PATH] == null
+        assert syncCount[VirtualRouterConstant.VR_SYNC_EIP] == null
+        assert desiredStates.getVersion(vrUuid) > version
+
+        reconnect()
+        SYNC_PATHS.each { assert syncCount[it] == null }
+    }
+
+    void testFullSyncOnReconnectByApi() {
+        syncCount.clear()
+        reconnectVirtualRouter {
+            vmInstanceUuid = vrUuid
+        }
+        SYNC_PATHS.each { assert syncCount[it] == 1 }
+    }
+
+    void testFullSyncAfterDisconnected() {
+        ApplianceVmCanonicalEvents.ApplianceVmStatusChangedData d = new ApplianceVmCanonicalEvents.ApplianceVmStatusChangedData()
+        d.applianceVmUuid = vrUuid
+        d.oldStatus = ApplianceVmStatus.Connected.toString()
+        d.newStatus = ApplianceVmStatus.Disconnected.toString()
+        bean(EventFacade.class).fire(ApplianceVmCanonicalEvents.APPLIANCEVM_STATUS_CHANGED_PATH, d)
+
+        retryInSecs {
+            assert desiredStates.getVersion(vrUuid) == 0
+        }
+
+        reconnect()
+        SYNC_PATHS.each { assert syncCount[it] == 1 }
+
+        VirtualRouterGlobalConfig.RECONNECT_SKIP_SYNCED_CONFIG.resetValue()
+    }
+}
@@ -0,0 +1,300 @@
+package org.zstack.test.integration.networkservice.provider.virtualrouter.loadbalancer
+
+import org.springframework.http.HttpEntity
+import org.zstack.core.Platform
+import org.zstack.core.cloudbus.EventFacade
+import org.zstack.core.db.Q
+import org.zstack.header.managementnode.ManagementNodeInventory
+import org.zstack.header.network.service.NetworkServiceType
+import org.zstack.network.service.eip.EipConstant
+import org.zstack.network.service.lb.LoadBalancerConstants
+import org.zstack.network.service.portforwarding.PortForwardingConstant
+import org.zstack.network.service.virtualrouter.VirtualRouterDesiredStates
+import org.zstack.network.service.virtualrouter.VirtualRouterGlobalConfig
+import org.zstack.network.service.virtualrouter.VirtualRouterVmVO
+import org.zstack.network.service.virtualrouter.VirtualRouterVmVO_
+import org.zstack.network.service.virtualrouter.lb.VirtualRouterLoadBalancerBackend
+import org.zstack.network.service.virtualrouter.vyos.VyosConstants
+import org.zstack.sdk.*
+import org.zstack.test.integration.networkservice.provider.NetworkServiceProviderTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.data.SizeUnit
+import org.zstack.utils.gson.JSONObjectUtil
+
+/**
+ * in delta mode, refreshing a load balancer only sends the listeners changed since they were
+ * applied to the virtual router, and falls back to all listeners when the applied ones are unknown
+ */
+class LoadBalancerDeltaRefreshCase extends SubCase {
+    EnvSpec env
+    VirtualRouterDesiredStates desiredStates
+    List<VirtualRouterLoadBalancerBackend.RefreshLbCmd> cmds = []
+
+    @Override
+    void clean() {
+        VirtualRouterGlobalConfig.LB_DELTA_REFRESH.resetValue()
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(NetworkServiceProviderTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = env {
+
+            instanceOffering {
+                name = "instanceOffering"
+                memory = SizeUnit.GIGABYTE.toByte(8)
+                cpu = 4
+            }
+
+            sftpBackupStorage {
+                name = "sftp"
+                url = "/sftp"
+                username = "root"
+                password = "password"
+                hostname = "localhost"
+
+                image {
+                    name = "image"
+                    url = "http://zstack.org/download/test.qcow2"
+                }
+
+                image {
+                    name = "vr"
+                    url = "http://zstack.org/download/vr.qcow2"
+                }
+            }
+
+            zone {
+                name = "zone"
+                description = "test"
+
+                cluster {
+                    name = "cluster"
+                    hypervisorType = "KVM"
+
+                    kvm {
+                        name = "kvm"
+                        managementIp = "localhost"
+                        username = "root"
+                        password = "password"
+                    }
+
+                    attachPrimaryStorage("local")
+                    attachL2Network("l2")
+                }
+
+                localPrimaryStorage {
+                    name = "local"
+                    url = "/local_ps"
+                }
+
+                l2NoVlanNetwork {
+                    name = "l2"
+                    physicalInterface = "eth0"
+
+                    l3Network {
+                        name = "l3"
+
+                        service {
+                            provider = VyosConstants.VYOS_ROUTER_PROVIDER_TYPE
+                            types = [NetworkServiceType.DHCP.toString(),
+                                     NetworkServiceType.DNS.toString(),
+                                     NetworkServiceType.SNAT.toString(),
+                                     PortForwardingConstant.PORTFORWARDING_NETWORK_SERVICE_TYPE,
+                                     LoadBalancerConstants.LB_NETWORK_SERVICE_TYPE_STRING,
+                                     EipConstant.EIP_NETWORK_SERVICE_TYPE]
+                        }
+
+                        ip {
+                            startIp = "192.168.100.10"
+                            endIp = "192.168.100.100"
+                            netmask = "255.255.255.0"
+                            gateway = "192.168.100.1"
+                        }
+                    }
+
+                    l3Network {
+                        name = "pubL3"
+
+                        ip {
+                            startIp = "11.168.100.10"
+                            endIp = "11.168.100.100"
+                            netmask = "255.255.255.0"
+                            gateway = "11.168.100.1"
+                        }
+                    }
+                }
+
+                attachBackupStorage("sftp")
+
+                virtualRouterOffering {
+                    name = "vro"
+                    memory = SizeUnit.MEGABYTE.toByte(512)
+                    cpu = 2
+                    useManagementL3Network("pubL3")
+                    usePublicL3Network("pubL3")
+                    useImage("vr")
+                }
+            }
+
+            vm {
+                name = "vm"
+                useImage("image")
+                useL3Networks("l3")
+                useInstanceOffering("instanceOffering")
+            }
+
+            vm {
+                name = "vm2"
+                useImage("image")
+                useL3Networks("l3")
+                useInstanceOffering("instanceOffering")
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            desiredStates = bean(VirtualRouterDesiredStates.class)
+            testDeltaRefresh()
+            testDivergedDelta()
+            testDroppedAcrossManagementNodes()
+        }
+    }
+
+    List<String> refreshedListeners() {
+        assert cmds.size() == 1
+        List<String> uuids = cmds[0].lbs.collect { it.listenerUuid }
+        cmds.clear()
+        return uuids.sort()
+    }
+
+    void testDeltaRefresh() {
+        L3NetworkInventory pubL3 = env.inventoryByName("pubL3")
+        VmInstanceInventory vm = env.inventoryByName("vm")
+        VmInstanceInventory vm2 = env.inventoryByName("vm2")
+
+        VipInventory vip = createVip {
+            name = "test-vip"
+            l3NetworkUuid = pubL3.uuid
+        }
+        LoadBalancerInventory lb = createLoadBalancer {
+            name = "test-lb"
+            vipUuid = vip.uuid
+        }
+
+        List<LoadBalancerListenerInventory> listeners = [33, 44, 55].collect { port ->
+            def l = createLoadBalancerListener {
+                loadBalancerUuid = lb.uuid
+                loadBalancerPort = port
+                instancePort = 22
+                name = "test-listener"
+            } as LoadBalancerListenerInventory
+
+            addVmNicToLoadBalancer {
+                vmNicUuids = [vm.getVmNics().get(0).uuid]
+                listenerUuid = l.uuid
+            }
+            return l
+        }
+        String vrUuid = Q.New(VirtualRouterVmVO.class).select(VirtualRouterVmVO_.uuid).findValue()
+
+        env.afterSimulator(VirtualRouterLoadBalancerBackend.REFRESH_LB_PATH) { rsp, HttpEntity<String> e ->
+            cmds.add(JSONObjectUtil.toObject(e.body, VirtualRouterLoadBalancerBackend.RefreshLbCmd.class))
+            return rsp
+        }
+
+        VirtualRouterGlobalConfig.LB_DELTA_REFRESH.updateValue(true)
+
+        long version = desiredStates.getVersion(vrUuid)
+        addVmNicToLoadBalancer {
+            vmNicUuids = [vm2.getVmNics().get(0).uuid]
+            listenerUuid = listeners[0].uuid
+        }
+        assert refreshedListeners() == [listeners[0].uuid]
+        assert desiredStates.getVersion(vrUuid) > version
+
+        // a backend of all listeners changes
+        stopVmInstance {
+            uuid = vm.uuid
+        }
+        assert refreshedListeners() == listeners.collect { it.uuid }.sort()
+
+        // not in delta mode, all listeners are sent
+        VirtualRouterGlobalConfig.LB_DELTA_REFRESH.updateValue(false)
+        removeVmNicFromLoadBalancer {
+            vmNicUuids = [vm2.getVmNics().get(0).uuid]
+            listenerUuid = listeners[0].uuid
+        }
+        assert refreshedListeners() == listeners.collect { it.uuid }.sort()
+
+        // the applied listeners are unknown, all listeners are sent
+        VirtualRouterGlobalConfig.LB_DELTA_REFRESH.updateValue(true)
+        desiredStates.invalidate(vrUuid)
+        addVmNicToLoadBalancer {
+            vmNicUuids = [vm2.getVmNics().get(0).uuid]
+            listenerUuid = listeners[1].uuid
+        }
+        assert refreshedListeners() == listeners.collect { it.uuid }.sort()
+
+        removeVmNicFromLoadBalancer {
+            vmNicUuids = [vm2.getVmNics().get(0).uuid]
+            listenerUuid = listeners[1].uuid
+        }
+        assert refreshedListeners() == [listeners[1].uuid]
+    }
+
+    void testDivergedDelta() {
+        String vrUuid = "test-vr"
+
+        def delta = desiredStates.diff(vrUuid, ["k1": "v1", "k2": "v2"])
+        assert delta.changedKeys == ["k1", "k2"] as Set
+        assert desiredStates.applied(vrUuid, delta)
+        assert desiredStates.diff(vrUuid, ["k1": "v1", "k2": "v2"]).isEmpty()
+
+        delta = desiredStates.diff(vrUuid, ["k1": "v1", "k2": "v3"])
+        assert delta.changedKeys == ["k2"] as Set
+
+        // another delta is applied in between
+        assert desiredStates.applied(vrUuid, desiredStates.diff(vrUuid, ["k3": "v3"]))
+        assert !desiredStates.applied(vrUuid, delta)
+        assert desiredStates.getVersion(vrUuid) == 0
+        assert desiredStates.diff(vrUuid, ["k1": "v1", "k2": "v3"]).changedKeys == ["k1", "k2"] as Set
+
+        desiredStates.appliedAll(vrUuid, "k", ["k1": "v1"])
+        assert desiredStates.diff(vrUuid, ["k1": "v1", "k2": "v3"]).changedKeys == ["k2"] as Set
+
+        desiredStates.invalidate(vrUuid)
+    }
+
+    void testDroppedAcrossManagementNodes() {
+        String vrUuid = "test-vr"
+
+        // the virtual router is invalidated on the node owning it, not the one owning the load balancer
+        desiredStates.appliedAll(vrUuid, "k", ["k1": "v1"])
+        VirtualRouterDesiredStates.DesiredStateInvalidatedData data = new VirtualRouterDesiredStates.DesiredStateInvalidatedData()
+        data.virtualRouterUuid = vrUuid
+        data.managementNodeUuid = Platform.uuid
+        bean(EventFacade.class).fire(VirtualRouterDesiredStates.DESIRED_STATE_INVALIDATED_PATH, data)
+        retryInSecs {
+            assert desiredStates.getVersion(vrUuid) == 0
+        }
+
+        // the owners of virtual routers and load balancers may move
+        desiredStates.appliedAll(vrUuid, "k", ["k1": "v1"])
+        desiredStates.nodeJoin(new ManagementNodeInventory(uuid: Platform.uuid))
+        assert desiredStates.getVersion(vrUuid) == 0
+        assert desiredStates.diff(vrUuid, ["k1": "v1"]).changedKeys == ["k1"] as Set
+
+        desiredStates.appliedAll(vrUuid, "k", ["k1": "v1"])
+        desiredStates.nodeLeft(new ManagementNodeInventory(uuid: Platform.uuid))
+        assert desiredStates.getVersion(vrUuid) == 0
+    }
+}
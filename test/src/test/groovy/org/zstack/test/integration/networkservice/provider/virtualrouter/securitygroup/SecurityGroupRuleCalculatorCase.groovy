@@ -0,0 +1,223 @@
+package org.zstack.test.integration.networkservice.provider.virtualrouter.securitygroup
+
+import org.springframework.http.HttpEntity
+import org.zstack.core.cloudbus.CloudBus
+import org.zstack.header.Constants
+import org.zstack.kvm.KVMAgentCommands
+import org.zstack.kvm.KVMSecurityGroupBackend
+import org.zstack.network.securitygroup.APIAddSecurityGroupRuleMsg.SecurityGroupRuleAO
+import org.zstack.network.securitygroup.RefreshSecurityGroupRulesOnHostMsg
+import org.zstack.network.securitygroup.RefreshSecurityGroupRulesOnVmMsg
+import org.zstack.network.securitygroup.RuleTO
+import org.zstack.network.securitygroup.SecurityGroupConstant
+import org.zstack.network.securitygroup.SecurityGroupRuleProtocolType
+import org.zstack.network.securitygroup.SecurityGroupRuleType
+import org.zstack.sdk.HostInventory
+import org.zstack.sdk.SecurityGroupInventory
+import org.zstack.sdk.VmInstanceInventory
+import org.zstack.test.integration.networkservice.provider.NetworkServiceProviderTest
+import org.zstack.test.integration.networkservice.provider.virtualrouter.VirtualRouterNetworkServiceEnv
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.gson.JSONObjectUtil
+
+/**
+ * the rules of a group compiled once for all nics of a host are the same as those compiled
+ * for each nic alone, before and after the members of the group change
+ */
+class SecurityGroupRuleCalculatorCase extends SubCase {
+    EnvSpec env
+    CloudBus bus
+    VmInstanceInventory vm1, vm2, vm3, vm4
+    HostInventory host3
+    SecurityGroupInventory sg, remote
+
+    Map<String, KVMAgentCommands.ApplySecurityGroupRuleCmd> applyCmds = Collections.synchronizedMap([:])
+    Map<String, KVMAgentCommands.UpdateGroupMemberCmd> updateCmds = Collections.synchronizedMap([:])
+
+    @Override
+    void setup() {
+        useSpring(NetworkServiceProviderTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = VirtualRouterNetworkServiceEnv.fourVmThreeHostNoEipForSecurityGroupEnv()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            bus = bean(CloudBus.class)
+            vm1 = env.inventoryByName("vm1") as VmInstanceInventory // vm1 in host1
+            vm2 = env.inventoryByName("vm2") as VmInstanceInventory // vm2 in host2
+            vm3 = env.inventoryByName("vm3") as VmInstanceInventory // vm3 in host3
+            vm4 = env.inventoryByName("vm4") as VmInstanceInventory // vm4 in host3
+            host3 = env.inventoryByName("kvm3") as HostInventory
+
+            env.simulator(KVMSecurityGroupBackend.SECURITY_GROUP_APPLY_RULE_PATH) { HttpEntity<String> e ->
+                String huuid = e.getHeaders().getFirst(Constants.AGENT_HTTP_HEADER_RESOURCE_UUID)
+                applyCmds[huuid] = JSONObjectUtil.toObject(e.getBody(), KVMAgentCommands.ApplySecurityGroupRuleCmd.class)
+                return new KVMAgentCommands.ApplySecurityGroupRuleResponse()
+            }
+
+            env.simulator(KVMSecurityGroupBackend.SECURITY_GROUP_UPDATE_GROUP_MEMBER) { HttpEntity<String> e ->
+                String huuid = e.getHeaders().getFirst(Constants.AGENT_HTTP_HEADER_RESOURCE_UUID)
+                updateCmds[huuid] = JSONObjectUtil.toObject(e.getBody(), KVMAgentCommands.UpdateGroupMemberCmd.class)
+                return new KVMAgentCommands.ApplySecurityGroupRuleResponse()
+            }
+
+            prepareGroups()
+            testSharedGroupOnHost()
+            testMemberUpdate()
+        }
+    }
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    SecurityGroupInventory createGroup(String groupName, VmInstanceInventory... vms) {
+        SecurityGroupInventory group = createSecurityGroup {
+            name = groupName
+        } as SecurityGroupInventory
+
+        attachSecurityGroupToL3Network {
+            securityGroupUuid = group.uuid
+            l3NetworkUuid = vm3.vmNics[0].l3NetworkUuid
+        }
+
+        addVmNicToSecurityGroup {
+            securityGroupUuid = group.uuid
+            vmNicUuids = vms.collect { it.vmNics[0].uuid }
+        }
+
+        return group
+    }
+
+    void prepareGroups() {
+        remote = createGroup("remote", vm1)
+        sg = createGroup("sg", vm3, vm4)
+
+        SecurityGroupRuleAO ssh = new SecurityGroupRuleAO()
+        ssh.type = SecurityGroupRuleType.Ingress.toString()
+        ssh.ipVersion = 4
+        ssh.protocol = SecurityGroupRuleProtocolType.TCP.toString()
+        ssh.dstPortRange = "22"
+        ssh.srcIpRange = "10.10.0.0/16"
+        addSecurityGroupRule {
+            securityGroupUuid = sg.uuid
+            rules = [ssh]
+        }
+
+        SecurityGroupRuleAO dns = new SecurityGroupRuleAO()
+        dns.type = SecurityGroupRuleType.Ingress.toString()
+        dns.ipVersion = 4
+        dns.protocol = SecurityGroupRuleProtocolType.UDP.toString()
+        dns.dstPortRange = "53"
+        addSecurityGroupRule {
+            securityGroupUuid = sg.uuid
+            rules = [dns]
+            remoteSecurityGroupUuids = [remote.uuid]
+        }
+    }
+
+    static List<String> normalize(List<RuleTO> rules) {
+        return rules.collect { RuleTO r ->
+            if (r.remoteGroupVmIps != null) {
+                r.remoteGroupVmIps = r.remoteGroupVmIps.sort()
+            }
+            return JSONObjectUtil.toJsonString(r)
+        }.sort()
+    }
+
+    static Map<String, List<String>> rulesOf(KVMAgentCommands.ApplySecurityGroupRuleCmd cmd) {
+        return cmd.ruleTOs.collectEntries { String sgUuid, List<RuleTO> rules -> [(sgUuid): normalize(rules)] }
+    }
+
+    KVMAgentCommands.ApplySecurityGroupRuleCmd refreshVm(VmInstanceInventory vm) {
+        applyCmds.clear()
+
+        RefreshSecurityGroupRulesOnVmMsg msg = new RefreshSecurityGroupRulesOnVmMsg()
+        msg.vmInstanceUuid = vm.uuid
+        msg.hostUuid = vm.hostUuid
+        bus.makeLocalServiceId(msg, SecurityGroupConstant.SERVICE_ID)
+        assert bus.call(msg).success
+
+        retryInSecs {
+            assert applyCmds[vm.hostUuid] != null
+        }
+        return applyCmds[vm.hostUuid]
+    }
+
+    KVMAgentCommands.ApplySecurityGroupRuleCmd refreshHost(String hostUuid) {
+        applyCmds.clear()
+
+        RefreshSecurityGroupRulesOnHostMsg msg = new RefreshSecurityGroupRulesOnHostMsg()
+        msg.hostUuid = hostUuid
+        bus.makeLocalServiceId(msg, SecurityGroupConstant.SERVICE_ID)
+        bus.send(msg)
+
+        retryInSecs {
+            assert applyCmds[hostUuid] != null
+        }
+        return applyCmds[hostUuid]
+    }
+
+    void assertHostRulesSameAsNicRules() {
+        Map<String, List<String>> baseline3 = rulesOf(refreshVm(vm3))
+        Map<String, List<String>> baseline4 = rulesOf(refreshVm(vm4))
+        KVMAgentCommands.ApplySecurityGroupRuleCmd cmd = refreshHost(host3.uuid)
+        Map<String, List<String>> hostRules = rulesOf(cmd)
+
+        assert cmd.vmNicTOs.collect { it.vmNicUuid }.toSet() == [vm3.vmNics[0].uuid, vm4.vmNics[0].uuid].toSet()
+        assert hostRules.keySet() == baseline3.keySet() + baseline4.keySet()
+        assert hostRules[sg.uuid] == baseline3[sg.uuid]
+        assert hostRules[sg.uuid] == baseline4[sg.uuid]
+        assert cmd.ip6RuleTOs.isEmpty()
+    }
+
+    List<String> remoteIps(String remoteGroupUuid) {
+        List<RuleTO> rules = refreshVm(vm3).ruleTOs[sg.uuid].findAll { it.remoteGroupUuid == remoteGroupUuid }
+        assert !rules.isEmpty()
+        // the rules referencing the same group share its members
+        assert rules.collect { it.remoteGroupVmIps.sort() }.unique().size() == 1
+        return rules[0].remoteGroupVmIps.sort()
+    }
+
+    void testSharedGroupOnHost() {
+        assertHostRulesSameAsNicRules()
+
+        assert remoteIps(remote.uuid).contains(vm1.vmNics[0].ip)
+        List<String> members = remoteIps(sg.uuid)
+        assert members.containsAll([vm3.vmNics[0].ip, vm4.vmNics[0].ip])
+        assert !members.contains(vm2.vmNics[0].ip)
+    }
+
+    void testMemberUpdate() {
+        updateCmds.clear()
+
+        addVmNicToSecurityGroup {
+            securityGroupUuid = sg.uuid
+            vmNicUuids = [vm2.vmNics[0].uuid]
+        }
+
+        retryInSecs {
+            assert updateCmds[host3.uuid] != null
+        }
+
+        assertHostRulesSameAsNicRules()
+
+        List<String> members = remoteIps(sg.uuid)
+        assert members.containsAll([vm2.vmNics[0].ip, vm3.vmNics[0].ip, vm4.vmNics[0].ip])
+
+        def update = updateCmds[host3.uuid].updateGroupTOs.find { it.securityGroupUuid == sg.uuid }
+        assert update != null
+        assert update.securityGroupVmIps.sort() == members
+
+        // the rules of vm2 in the group are the ones of vm3 and vm4
+        Map<String, List<String>> rules2 = rulesOf(refreshVm(vm2))
+        assert rules2[sg.uuid] == rulesOf(refreshVm(vm3))[sg.uuid]
+    }
+}
@@ -0,0 +1,265 @@
+package org.zstack.test.integration.storage.primary.nfs.capacity
+
+import org.zstack.core.db.DatabaseFacade
+import org.zstack.header.errorcode.OperationFailureException
+import org.zstack.header.storage.primary.PrimaryStorageCapacityVO
+import org.zstack.header.volume.VolumeVO
+import org.zstack.sdk.DiskOfferingInventory
+import org.zstack.sdk.PrimaryStorageInventory
+import org.zstack.sdk.VolumeInventory
+import org.zstack.sdk.ZoneInventory
+import org.zstack.storage.primary.PrimaryStorageCapacityLedger
+import org.zstack.storage.primary.PrimaryStorageCapacityRecalculator
+import org.zstack.storage.primary.PrimaryStorageCapacityUpdater
+import org.zstack.storage.primary.PrimaryStorageGlobalProperty
+import org.zstack.storage.primary.PrimaryStorageUsedCapacityLedger
+import org.zstack.test.integration.storage.Env
+import org.zstack.test.integration.storage.StorageTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.Utils
+import org.zstack.utils.data.SizeUnit
+import org.zstack.utils.logging.CLogger
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * capacity of a primary storage is reserved and returned in the ledger without losing concurrent
+ * reservations, and recalculation only sums the used capacity changed since last time on the
+ * primary storage it changed on
+ */
+class NfsCapacityLedgerCase extends SubCase {
+    static CLogger logger = Utils.getLogger(NfsCapacityLedgerCase.class)
+
+    EnvSpec env
+    PrimaryStorageInventory ps
+    PrimaryStorageCapacityLedger ledger
+    PrimaryStorageUsedCapacityLedger usedLedger
+    long size = SizeUnit.MEGABYTE.toByte(1)
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(StorageTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = Env.nfsOneVmEnv()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            ps = env.inventoryByName("nfs") as PrimaryStorageInventory
+            ledger = bean(PrimaryStorageCapacityLedger.class)
+            usedLedger = bean(PrimaryStorageUsedCapacityLedger.class)
+
+            long interval = PrimaryStorageGlobalProperty.CAPACITY_LEDGER_FLUSH_INTERVAL
+            // keep the changes in memory until flushed
+            PrimaryStorageGlobalProperty.CAPACITY_LEDGER_FLUSH_INTERVAL = TimeUnit.HOURS.toMillis(1)
+            try {
+                testConcurrentReservation()
+                testInsufficientCapacity()
+                testReservationCost()
+            } finally {
+                PrimaryStorageGlobalProperty.CAPACITY_LEDGER_FLUSH_INTERVAL = interval
+                ledger.flushAll()
+            }
+
+            testIncrementalRecalculation()
+            testUpdateMarksItsPrimaryStorage()
+        }
+    }
+
+    void concurrently(int num, Closure c) {
+        CountDownLatch latch = new CountDownLatch(num)
+        List<Throwable> errors = Collections.synchronizedList([])
+        num.times {
+            Thread.start {
+                try {
+                    c()
+                } catch (Throwable t) {
+                    errors.add(t)
+                } finally {
+                    latch.countDown()
+                }
+            }
+        }
+
+        assert latch.await(1, TimeUnit.MINUTES)
+        assert errors.isEmpty()
+    }
+
+    void testConcurrentReservation() {
+        int num = 20
+        ledger.flush(ps.uuid)
+        PrimaryStorageCapacityVO before = dbFindByUuid(ps.uuid, PrimaryStorageCapacityVO.class)
+
+        concurrently(num) {
+            assert new PrimaryStorageCapacityUpdater(ps.uuid).reserve(size, true)
+        }
+
+        assert ledger.getCapacity(ps.uuid).availableCapacity == before.availableCapacity - num * size
+        // not written yet
+        assert dbFindByUuid(ps.uuid, PrimaryStorageCapacityVO.class).availableCapacity == before.availableCapacity
+
+        ledger.flush(ps.uuid)
+        PrimaryStorageCapacityVO after = dbFindByUuid(ps.uuid, PrimaryStorageCapacityVO.class)
+        assert after.availableCapacity == before.availableCapacity - num * size
+
+        concurrently(num) {
+            assert new PrimaryStorageCapacityUpdater(ps.uuid).increaseAvailableCapacity(size)
+        }
+
+        ledger.flush(ps.uuid)
+        after = dbFindByUuid(ps.uuid, PrimaryStorageCapacityVO.class)
+        assert after.availableCapacity == before.availableCapacity
+        assert after.totalCapacity == before.totalCapacity
+    }
+
+    void testInsufficientCapacity() {
+        PrimaryStorageCapacityVO before = ledger.getCapacity(ps.uuid)
+
+        expect(OperationFailureException.class) {
+            new PrimaryStorageCapacityUpdater(ps.uuid).reserve(before.availableCapacity + 1, true)
+        }
+        assert !new PrimaryStorageCapacityUpdater(ps.uuid).reserve(before.availableCapacity + 1, false)
+
+        assert ledger.getCapacity(ps.uuid).availableCapacity == before.availableCapacity
+    }
+
+    long measure(int rounds) {
+        long start = System.nanoTime()
+        concurrently(rounds) {
+            new PrimaryStorageCapacityUpdater(ps.uuid).reserve(size, true)
+        }
+        concurrently(rounds) {
+            new PrimaryStorageCapacityUpdater(ps.uuid).increaseAvailableCapacity(size)
+        }
+        return System.nanoTime() - start
+    }
+
+    void testReservationCost() {
+        int rounds = 100
+        long withLedger = measure(rounds)
+
+        PrimaryStorageGlobalProperty.CAPACITY_LEDGER_ENABLED = false
+        long withoutLedger
+        try {
+            ledger.flushAll()
+            withoutLedger = measure(rounds)
+        } finally {
+            PrimaryStorageGlobalProperty.CAPACITY_LEDGER_ENABLED = true
+        }
+
+        logger.info(String.format("%s concurrent reservations and returns cost %s ms with the capacity ledger, %s ms without",
+                rounds, TimeUnit.NANOSECONDS.toMillis(withLedger), TimeUnit.NANOSECONDS.toMillis(withoutLedger)))
+    }
+
+    long recalculate(boolean full) {
+        PrimaryStorageCapacityRecalculator recalculator = new PrimaryStorageCapacityRecalculator()
+        recalculator.psUuids = [ps.uuid]
+        recalculator.full = full
+        recalculator.recalculate()
+        return dbFindByUuid(ps.uuid, PrimaryStorageCapacityVO.class).availableCapacity
+    }
+
+    void testIncrementalRecalculation() {
+        DiskOfferingInventory offering = env.inventoryByName("diskOffering") as DiskOfferingInventory
+
+        long available = recalculate(true)
+
+        long hits = usedLedger.getHits()
+        long misses = usedLedger.getMisses()
+        assert recalculate(false) == available
+        // volumes, image caches and snapshots are all kept
+        assert usedLedger.getHits() == hits + 3
+        assert usedLedger.getMisses() == misses
+
+        VolumeInventory volume = createDataVolume {
+            name = "data"
+            diskOfferingUuid = offering.uuid
+            primaryStorageUuid = ps.uuid
+        } as VolumeInventory
+
+        hits = usedLedger.getHits()
+        misses = usedLedger.getMisses()
+        long incremental = recalculate(false)
+        // only volumes are summed again
+        assert usedLedger.getMisses() == misses + 1
+        assert usedLedger.getHits() == hits + 2
+        assert incremental == recalculate(true)
+        assert incremental < available
+
+        deleteDataVolume {
+            uuid = volume.uuid
+        }
+        expungeDataVolume {
+            uuid = volume.uuid
+        }
+
+        retryInSecs {
+            assert recalculate(false) == available
+        }
+    }
+
+    void updateVolume(String uuid, Closure c) {
+        VolumeVO vo = dbFindByUuid(uuid, VolumeVO.class)
+        c(vo)
+        bean(DatabaseFacade.class).update(vo)
+    }
+
+    void testUpdateMarksItsPrimaryStorage() {
+        DiskOfferingInventory offering = env.inventoryByName("diskOffering") as DiskOfferingInventory
+        PrimaryStorageInventory ps2 = addNfsPrimaryStorage {
+            name = "nfs2"
+            url = "127.0.0.2:/nfs2"
+            zoneUuid = (env.inventoryByName("zone") as ZoneInventory).uuid
+        } as PrimaryStorageInventory
+
+        VolumeInventory volume = createDataVolume {
+            name = "moved"
+            diskOfferingUuid = offering.uuid
+            primaryStorageUuid = ps.uuid
+        } as VolumeInventory
+
+        List<String> psUuids = [ps.uuid, ps2.uuid]
+        usedLedger.getUsedCapacity(psUuids, true)
+
+        updateVolume(volume.uuid) { VolumeVO vo -> vo.description = "updated" }
+
+        long hits = usedLedger.getHits()
+        long misses = usedLedger.getMisses()
+        usedLedger.getUsedCapacity(psUuids, false)
+        // only volumes of the primary storage the volume is on are summed again
+        assert usedLedger.getMisses() == misses + 1
+        assert usedLedger.getHits() == hits + 5
+
+        // the primary storage the volume is moved from is marked changed too
+        updateVolume(volume.uuid) { VolumeVO vo -> vo.primaryStorageUuid = ps2.uuid }
+        Map<String, Long> moved = usedLedger.getUsedCapacity(psUuids, false)
+        assert moved[ps2.uuid] != null
+        assert moved == usedLedger.getUsedCapacity(psUuids, true)
+
+        updateVolume(volume.uuid) { VolumeVO vo -> vo.primaryStorageUuid = ps.uuid }
+        Map<String, Long> back = usedLedger.getUsedCapacity(psUuids, false)
+        assert back[ps2.uuid] == null
+        assert back == usedLedger.getUsedCapacity(psUuids, true)
+
+        deleteDataVolume {
+            uuid = volume.uuid
+        }
+        expungeDataVolume {
+            uuid = volume.uuid
+        }
+        deletePrimaryStorage {
+            uuid = ps2.uuid
+        }
+    }
+}
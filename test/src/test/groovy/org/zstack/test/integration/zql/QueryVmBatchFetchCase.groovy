@@ -0,0 +1,149 @@
+package org.zstack.test.integration.zql
+
+import org.hibernate.SessionFactory
+import org.hibernate.stat.Statistics
+import org.zstack.core.Platform
+import org.zstack.core.db.DatabaseFacade
+import org.zstack.header.vm.VmInstanceInventory
+import org.zstack.header.vm.VmInstanceVO
+import org.zstack.header.vm.VmNicVO
+import org.zstack.header.volume.VolumeStatus
+import org.zstack.header.volume.VolumeType
+import org.zstack.header.volume.VolumeVO
+import org.zstack.sdk.VmInstanceInventory as SdkVmInstanceInventory
+import org.zstack.test.integration.kvm.Env
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.zql.ZQL
+import org.zstack.zql.ZQLQueryReturn
+
+/**
+ * the eager relations of queried VMs are loaded in batches, so the statements of a query
+ * grow with the batches of VMs instead of the VMs, and the inventories are complete
+ */
+class QueryVmBatchFetchCase extends SubCase {
+    EnvSpec env
+    DatabaseFacade dbf
+    Statistics statistics
+    int vmNum = Integer.valueOf(System.getProperty("vmNum", "500"))
+
+    // DbFacadeDataSource.batchFetchSize
+    static final int BATCH_SIZE = 200
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = Env.oneVmBasicEnv()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            dbf = bean(DatabaseFacade.class)
+            statistics = dbf.entityManager.entityManagerFactory.unwrap(SessionFactory.class).statistics
+            cloneVms()
+
+            boolean enabled = statistics.statisticsEnabled
+            statistics.statisticsEnabled = true
+            try {
+                testQueryVms()
+            } finally {
+                statistics.statisticsEnabled = enabled
+            }
+        }
+    }
+
+    void cloneVms() {
+        SdkVmInstanceInventory vm = env.inventoryByName("vm") as SdkVmInstanceInventory
+        VmInstanceVO src = dbFindByUuid(vm.uuid, VmInstanceVO.class)
+        VolumeVO root = dbFindByUuid(vm.rootVolumeUuid, VolumeVO.class)
+        VmNicVO srcNic = src.vmNics.first()
+
+        List<VmInstanceVO> vms = []
+        List<VolumeVO> volumes = []
+        List<VmNicVO> nics = []
+        1.upto(vmNum) {
+            VmInstanceVO vo = new VmInstanceVO(src)
+            vo.uuid = Platform.uuid
+            vo.name = "batch-${it}"
+            vo.vmNics = new HashSet<>()
+            vo.allVolumes = new HashSet<>()
+            vo.vmCdRoms = new HashSet<>()
+
+            VolumeVO vol = new VolumeVO()
+            vol.uuid = Platform.uuid
+            vol.name = "batch-root-${it}"
+            vol.vmInstanceUuid = vo.uuid
+            vol.primaryStorageUuid = root.primaryStorageUuid
+            vol.rootImageUuid = root.rootImageUuid
+            vol.installPath = root.installPath
+            vol.type = VolumeType.Root
+            vol.status = VolumeStatus.Ready
+            vol.format = root.format
+            vol.size = root.size
+            vol.actualSize = root.actualSize
+            vol.deviceId = 0
+            vo.rootVolumeUuid = vol.uuid
+
+            VmNicVO nic = new VmNicVO()
+            nic.uuid = Platform.uuid
+            nic.vmInstanceUuid = vo.uuid
+            nic.l3NetworkUuid = srcNic.l3NetworkUuid
+            nic.mac = String.format("fa:ce:00:%02x:%02x:%02x", (it >> 16) & 0xff, (it >> 8) & 0xff, it & 0xff)
+            nic.hypervisorType = srcNic.hypervisorType
+            nic.internalName = "batch-nic-${it}"
+            nic.type = srcNic.type
+            nic.deviceId = 0
+
+            vms.add(vo)
+            volumes.add(vol)
+            nics.add(nic)
+        }
+
+        dbf.persistCollection(vms)
+        dbf.persistCollection(volumes)
+        dbf.persistCollection(nics)
+    }
+
+    long statementsOf(int size) {
+        // the least of a few runs, statements of periodic tasks may fall in one
+        return (1..3).collect {
+            statistics.clear()
+            def ret = ZQL.fromString("query vminstance where name like 'batch-%' limit ${size}").getSingleResult() as ZQLQueryReturn
+            long statements = statistics.prepareStatementCount
+
+            List<VmInstanceInventory> invs = ret.inventories as List<VmInstanceInventory>
+            assert invs.size() == size
+            invs.each { inv ->
+                assert inv.allVolumes.size() == 1
+                assert inv.allVolumes[0].vmInstanceUuid == inv.uuid
+                assert inv.vmNics.size() == 1
+                assert inv.vmNics[0].vmInstanceUuid == inv.uuid
+            }
+
+            return statements
+        }.min()
+    }
+
+    void testQueryVms() {
+        long oneBatch = statementsOf(10)
+
+        [100, vmNum].each { int size ->
+            int batches = (size + BATCH_SIZE - 1).intdiv(BATCH_SIZE)
+            // each relation is selected once for a batch of VMs
+            assert statementsOf(size) <= oneBatch * batches
+        }
+
+        assert statementsOf(vmNum) < vmNum / 10
+    }
+}
@@ -0,0 +1,169 @@
+package org.zstack.test.integration.zql
+
+import org.zstack.core.Platform
+import org.zstack.core.cloudbus.EventFacade
+import org.zstack.header.identity.AccountConstant
+import org.zstack.header.identity.IdentityCanonicalEvents
+import org.zstack.header.identity.SessionInventory
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.data.SizeUnit
+import org.zstack.zql.ZQL
+import org.zstack.zql.ZQLContext
+import org.zstack.zql.ZQLQueryReturn
+
+/**
+ * queries of the same shape with different string and number literals, limits and offsets are
+ * served from one cached plan shared by the sessions of the same identity, and return the same
+ * results as parsing them
+ */
+class ZQLPlanCacheCase extends SubCase {
+    EnvSpec env
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = makeEnv {
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            testQueryFromPlan()
+            testCountFromPlan()
+            testUncacheable()
+            testNumbersFromPlan()
+            testPlanSharedBySessionsOfSameIdentity()
+            testCleanOnIdentityChanged()
+        }
+    }
+
+    void createOfferings() {
+        ["small", "middle", "large"].eachWithIndex { String n, int i ->
+            1.upto(i + 1) {
+                createInstanceOffering {
+                    name = n
+                    cpuNum = i + 1
+                    memorySize = SizeUnit.GIGABYTE.toByte(1)
+                }
+            }
+        }
+    }
+
+    void testQueryFromPlan() {
+        createOfferings()
+
+        def before = ZQL.getPlanCacheStatistic()
+
+        ["small": 1, "middle": 2, "large": 3, "none": 0].each { String n, int num ->
+            def ret = ZQL.fromString("query instanceoffering where name='${n}' and cpuNum>0 return with (total)").getSingleResult() as ZQLQueryReturn
+            assert ret.inventories.size() == num
+            assert ret.inventories.every { it.name == n }
+            assert ret.total == num
+        }
+
+        def after = ZQL.getPlanCacheStatistic()
+        assert after.misses - before.misses == 1
+        assert after.hits - before.hits == 3
+
+        def ret = ZQL.fromString("query instanceoffering.name where name in ('small', 'large') limit 2").getSingleResult() as ZQLQueryReturn
+        assert ret.inventories.size() == 2
+        assert ret.inventories.every { it.name in ["small", "large"] }
+        ret = ZQL.fromString("query instanceoffering.name where name in ('middle', 'large') limit 2").getSingleResult() as ZQLQueryReturn
+        assert ret.inventories.size() == 2
+        assert ret.inventories.every { it.name in ["middle", "large"] }
+    }
+
+    void testCountFromPlan() {
+        def before = ZQL.getPlanCacheStatistic()
+
+        ["small": 1, "middle": 2, "large": 3].each { String n, int num ->
+            def ret = ZQL.fromString("count instanceoffering where name=\"${n}\"").getSingleResult() as ZQLQueryReturn
+            assert ret.total == num
+        }
+
+        def after = ZQL.getPlanCacheStatistic()
+        assert after.misses - before.misses == 1
+        assert after.hits - before.hits == 2
+    }
+
+    void testUncacheable() {
+        def before = ZQL.getPlanCacheStatistic()
+
+        def ret = ZQL.fromString("query instanceoffering where name='small';count instanceoffering where name='large'").getResultList()
+        assert ret[0].inventories.size() == 1
+        assert ret[1].total == 3
+
+        def after = ZQL.getPlanCacheStatistic()
+        assert after.uncacheable - before.uncacheable == 1
+        assert after.hits == before.hits
+    }
+
+    void testNumbersFromPlan() {
+        def before = ZQL.getPlanCacheStatistic()
+
+        [[3, 2, 0, 2], [3, 5, 1, 2], [3, 5, 2, 1], [2, 1, 0, 1], [1, 10, 0, 1], [4, 10, 0, 0]].each { c, l, o, num ->
+            def ret = ZQL.fromString("query instanceoffering where cpuNum=${c} limit ${l} offset ${o}").getSingleResult() as ZQLQueryReturn
+            assert ret.inventories.size() == num
+            assert ret.inventories.every { it.cpuNum == c }
+        }
+
+        def after = ZQL.getPlanCacheStatistic()
+        assert after.misses - before.misses == 1
+        assert after.hits - before.hits == 5
+    }
+
+    SessionInventory adminSession() {
+        SessionInventory session = new SessionInventory()
+        session.uuid = Platform.uuid
+        session.accountUuid = AccountConstant.INITIAL_SYSTEM_ADMIN_UUID
+        session.userUuid = AccountConstant.INITIAL_SYSTEM_ADMIN_UUID
+        return session
+    }
+
+    void testPlanSharedBySessionsOfSameIdentity() {
+        def before = ZQL.getPlanCacheStatistic()
+
+        try {
+            ["small": 1, "large": 3].each { String n, int num ->
+                ZQLContext.putAPISession(adminSession())
+                def ret = ZQL.fromString("count instanceoffering where name='${n}' and cpuNum>0").getSingleResult() as ZQLQueryReturn
+                assert ret.total == num
+            }
+        } finally {
+            ZQLContext.cleanAPISession()
+        }
+
+        def after = ZQL.getPlanCacheStatistic()
+        assert after.misses - before.misses == 1
+        assert after.hits - before.hits == 1
+    }
+
+    void testCleanOnIdentityChanged() {
+        assert ZQL.getPlanCacheStatistic().size > 0
+
+        IdentityCanonicalEvents.PolicyChangedData data = new IdentityCanonicalEvents.PolicyChangedData()
+        data.managementNodeUuid = Platform.getManagementServerId()
+        bean(EventFacade.class).fire(IdentityCanonicalEvents.POLICY_CHANGED_PATH, data)
+
+        retryInSecs {
+            assert ZQL.getPlanCacheStatistic().size == 0
+        }
+
+        def before = ZQL.getPlanCacheStatistic()
+        def ret = ZQL.fromString("count instanceoffering where name='small'").getSingleResult() as ZQLQueryReturn
+        assert ret.total == 1
+        assert ZQL.getPlanCacheStatistic().misses - before.misses == 1
+    }
+}
@@ -0,0 +1,58 @@
+package org.zstack.test.core.cloudbus;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.core.cloudbus.EventPathTrie;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class TestEventPathTrie {
+    private List<String> match(EventPathTrie<String> trie, String path) {
+        List<String> ret = trie.match(EventPathTrie.split(path));
+        Collections.sort(ret);
+        return ret;
+    }
+
+    @Test
+    public void test() {
+        EventPathTrie<String> trie = new EventPathTrie<>();
+        trie.add(EventPathTrie.split("/vm/state/change"), "literal");
+        trie.add(EventPathTrie.split("/{greeting}/event/{uuid}"), "token");
+        trie.add(EventPathTrie.split("/globalConfig/update/{category}/{name}/{nodeUuid}"), "config");
+        trie.add(EventPathTrie.split("/vm/{uuid}/state"), "state");
+
+        Assert.assertEquals(Arrays.asList("literal", "token"), match(trie, "/vm/state/change"));
+        Assert.assertEquals(Collections.singletonList("token"), match(trie, "/hello/event/1234"));
+        Assert.assertEquals(Arrays.asList("config", "token"), match(trie, "/globalConfig/update/kvm/reservedMemory/node"));
+        Assert.assertEquals(Arrays.asList("state", "token"), match(trie, "/vm/1234/state"));
+
+        // a token matches across '/' like the regex '..*' it used to be compiled to
+        Assert.assertEquals(Arrays.asList("config", "token"), match(trie, "/globalConfig/update/kvm/reserved/memory/node"));
+        Assert.assertEquals(Arrays.asList("state", "token"), match(trie, "/vm/zone/1234/state"));
+
+        // segments from the first token to the last one are all matched by the tokens
+        Assert.assertEquals(Collections.singletonList("token"), match(trie, "/hello/event/1234/more"));
+        Assert.assertEquals(Collections.singletonList("token"), match(trie, "/vm/state"));
+
+        // at least one segment is matched by the tokens
+        Assert.assertTrue(match(trie, "/").isEmpty());
+        trie.remove(EventPathTrie.split("/{greeting}/event/{uuid}"), "token");
+        Assert.assertTrue(match(trie, "/vm/state").isEmpty());
+        Assert.assertTrue(match(trie, "/globalConfig/update").isEmpty());
+        Assert.assertTrue(match(trie, "/vm/1234/status").isEmpty());
+        Assert.assertTrue(match(trie, "/hello/event/1234").isEmpty());
+
+        // nodes left empty are pruned
+        trie.remove(EventPathTrie.split("/vm/state/change"), "literal");
+        trie.remove(EventPathTrie.split("/globalConfig/update/{category}/{name}/{nodeUuid}"), "config");
+        Assert.assertFalse(trie.isEmpty());
+        trie.remove(EventPathTrie.split("/vm/{uuid}/state"), "state");
+        Assert.assertTrue(trie.isEmpty());
+
+        Assert.assertTrue(EventPathTrie.isIndexable(EventPathTrie.split("/{greeting}/event/{uuid}")));
+        Assert.assertFalse(EventPathTrie.isIndexable(EventPathTrie.split("/*/event")));
+        Assert.assertFalse(EventPathTrie.isIndexable(EventPathTrie.split("/?e?t/event")));
+    }
+}
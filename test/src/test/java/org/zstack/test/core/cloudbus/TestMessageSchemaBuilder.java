@@ -0,0 +1,126 @@
+package org.zstack.test.core.cloudbus;
+
+import junit.framework.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.zstack.header.allocator.AllocationScene;
+import org.zstack.header.host.PingHostReply;
+import org.zstack.header.message.JsonSchemaBuilder;
+import org.zstack.header.message.Message;
+import org.zstack.header.message.MessageSchemaBuilder;
+import org.zstack.header.message.NeedReplyMessage;
+import org.zstack.header.vm.StartVmInstanceMsg;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * MessageSchemaBuilder records the polymorphic paths JsonSchemaBuilder records, and with
+ * -Dbenchmark=true their costs are compared, the number of rounds can be changed by -Drounds
+ */
+public class TestMessageSchemaBuilder {
+    CLogger logger = Utils.getLogger(TestMessageSchemaBuilder.class);
+
+    public static class Base {
+        String name = "base";
+    }
+
+    public static class Child extends Base {
+        String extra = "child";
+    }
+
+    public static class Holder {
+        Base base = new Base();
+    }
+
+    public static class Outer extends Base {
+        Base inner = new Child();
+    }
+
+    public static class PolymorphicMsg extends NeedReplyMessage {
+        Base single = new Child();
+        Holder holder = new Holder();
+        List<Base> list = new ArrayList<>(Arrays.asList(new Base(), new Child()));
+    }
+
+    public static class NestedMsg extends NeedReplyMessage {
+        Base nested = new Outer();
+    }
+
+    @Test
+    public void testOnlyPolymorphicPathsRecorded() {
+        PolymorphicMsg msg = new PolymorphicMsg();
+        msg.holder.base = new Child();
+
+        Map<String, String> schema = new MessageSchemaBuilder(msg).build();
+        Assert.assertEquals(3, schema.size());
+        Assert.assertEquals(Child.class.getName(), schema.get("single"));
+        Assert.assertEquals(Child.class.getName(), schema.get("holder.base"));
+        Assert.assertEquals(Child.class.getName(), schema.get("list[1]"));
+
+        Map<String, String> full = new JsonSchemaBuilder(msg).build();
+        schema.forEach((k, v) -> Assert.assertEquals(v, full.get(k)));
+    }
+
+    @Test
+    public void testParentBeforeChild() {
+        Map<String, String> schema = new MessageSchemaBuilder(new NestedMsg()).build();
+        Assert.assertEquals(Arrays.asList("nested", "nested.inner"), new ArrayList<>(schema.keySet()));
+        Assert.assertEquals(Outer.class.getName(), schema.get("nested"));
+        Assert.assertEquals(Child.class.getName(), schema.get("nested.inner"));
+    }
+
+    @Test
+    public void testMonomorphicMessages() {
+        Assert.assertTrue(new MessageSchemaBuilder(startVmInstanceMsg()).build().isEmpty());
+        Assert.assertTrue(new MessageSchemaBuilder(pingHostReply()).build().isEmpty());
+    }
+
+    private StartVmInstanceMsg startVmInstanceMsg() {
+        StartVmInstanceMsg msg = new StartVmInstanceMsg();
+        msg.setVmInstanceUuid(Utils.getUuid());
+        msg.setAccountUuid(Utils.getUuid());
+        msg.setHostUuid(Utils.getUuid());
+        msg.setAllocationScene(AllocationScene.Auto);
+        msg.setAvoidHostUuids(Arrays.asList(Utils.getUuid(), Utils.getUuid()));
+        return msg;
+    }
+
+    private PingHostReply pingHostReply() {
+        PingHostReply reply = new PingHostReply();
+        reply.setConnected(true);
+        reply.setCurrentHostStatus("Connected");
+        return reply;
+    }
+
+    private long measure(Message msg, int rounds, Function<Message, Map<String, String>> builder) {
+        // warm up
+        for (int i = 0; i < rounds / 10; i++) {
+            builder.apply(msg);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            builder.apply(msg);
+        }
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void testPerformance() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+        int rounds = Integer.valueOf(System.getProperty("rounds", "100000"));
+
+        for (Message msg : Arrays.asList(startVmInstanceMsg(), pingHostReply(), new PolymorphicMsg())) {
+            long old = measure(msg, rounds, m -> new JsonSchemaBuilder(m).build());
+            long cached = measure(msg, rounds, m -> new MessageSchemaBuilder(m).build());
+            logger.info(String.format("%s: JsonSchemaBuilder %s ns/op, MessageSchemaBuilder %s ns/op",
+                    msg.getClass().getSimpleName(), old / rounds, cached / rounds));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.zstack.test.core.db;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.DatabaseGlobalProperty;
+import org.zstack.core.db.GLock;
+import org.zstack.core.db.GLockLeaseService;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * GLock backed by leases: the critical sections of threads competing for the same lock
+ * never overlap without the memory lock, fencing tokens grow and are only taken by the attempts
+ * getting the lease, and no lease is left when all locks are released
+ */
+public class TestGlobalDbLockLease {
+    CLogger logger = Utils.getLogger(TestGlobalDbLockLease.class);
+    ComponentLoader loader;
+    GLockLeaseService leaseService;
+    DatabaseFacade dbf;
+    String lockName = "TestDBLockLease.lock";
+    int threadNum = 4;
+    int num = 200;
+
+    AtomicInteger inside = new AtomicInteger();
+    AtomicInteger overlaps = new AtomicInteger();
+    AtomicInteger tokenViolations = new AtomicInteger();
+    AtomicLong lastToken = new AtomicLong();
+
+    @Before
+    public void setUp() throws Exception {
+        DatabaseGlobalProperty.GLockUseLease = true;
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        leaseService = loader.getComponent(GLockLeaseService.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+    }
+
+    private long lastSequenceToken() {
+        return ((Number) dbf.getEntityManager().createNativeQuery("select token from GLockSequenceVO where id = 1")
+                .getSingleResult()).longValue();
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseGlobalProperty.GLockUseLease = false;
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        long firstToken = lastSequenceToken();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadNum; i++) {
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < num; j++) {
+                    GLock lock = new GLock(lockName, 60);
+                    // only the lease excludes the threads
+                    lock.setAlsoUseMemoryLock(false);
+                    lock.lock();
+                    try {
+                        if (inside.incrementAndGet() > 1) {
+                            overlaps.incrementAndGet();
+                        }
+
+                        long token = lock.getFencingToken();
+                        if (lastToken.getAndSet(token) >= token) {
+                            tokenViolations.incrementAndGet();
+                        }
+
+                        Assert.assertTrue(lock.isHeld());
+                        inside.decrementAndGet();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        Assert.assertEquals(0, overlaps.get());
+        Assert.assertEquals(0, tokenViolations.get());
+        // attempts failing on the held lease take no token
+        Assert.assertEquals(threadNum * num, lastSequenceToken() - firstToken);
+        Assert.assertEquals(0, leaseService.getMemoryLockCount());
+        Assert.assertEquals(0, leaseService.getHeldLeaseCount());
+        long waits = leaseService.getWaitTimeHistogram().values().stream().mapToLong(Long::longValue).sum();
+        Assert.assertTrue(waits >= threadNum * num);
+        logger.info(String.format("wait time: %s, hold time: %s", leaseService.getWaitTimeHistogram(), leaseService.getHoldTimeHistogram()));
+    }
+}
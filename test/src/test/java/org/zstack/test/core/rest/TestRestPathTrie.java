@@ -0,0 +1,126 @@
+package org.zstack.test.core.rest;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.springframework.util.AntPathMatcher;
+import org.zstack.core.Platform;
+import org.zstack.header.rest.RestRequest;
+import org.zstack.rest.RestConstants;
+import org.zstack.rest.RestPathTrie;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * resolves a request path for every REST API with the trie and with the linear
+ * AntPathMatcher scan RestServer used to do, checks the results agree and logs the cost.
+ */
+public class TestRestPathTrie {
+    CLogger logger = Utils.getLogger(TestRestPathTrie.class);
+    AntPathMatcher matcher = new AntPathMatcher();
+
+    @Test
+    public void testMatch() {
+        RestPathTrie<String> trie = new RestPathTrie<>();
+        Arrays.asList("/v1/vm-instances/{uuid}", "/v1/vm-instances/actions", "/v1/vm-instances/{uuid}/actions",
+                "/v1/vm-instances/{vmUuid}/volumes/{uuid}", "/v1/hybrid/access-point{dcUuid}/remote")
+                .forEach(p -> trie.add(p, p));
+
+        RestPathTrie.Match<String> m = trie.match("/v1/vm-instances/actions");
+        Assert.assertEquals("/v1/vm-instances/actions", m.getValue());
+        Assert.assertTrue(m.getVariables().isEmpty());
+
+        m = trie.match("/v1/vm-instances/abc");
+        Assert.assertEquals("/v1/vm-instances/{uuid}", m.getValue());
+        Assert.assertEquals(Arrays.asList("abc"), m.getVariables());
+
+        // backtracks from the literal branch to the variable one
+        m = trie.match("/v1/vm-instances/actions/actions");
+        Assert.assertEquals("/v1/vm-instances/{uuid}/actions", m.getValue());
+
+        m = trie.match("//v1/vm-instances/a/volumes/b");
+        Assert.assertEquals(Arrays.asList("a", "b"), m.getVariables());
+
+        m = trie.match("/v1/hybrid/access-pointxyz/remote");
+        Assert.assertEquals("/v1/hybrid/access-point{dcUuid}/remote", m.getValue());
+        Assert.assertEquals(Arrays.asList("xyz"), m.getVariables());
+
+        Assert.assertNull(trie.match("/v1/vm-instances/abc/"));
+        Assert.assertNull(trie.match("/v1/vm-instances"));
+        Assert.assertNull(trie.match("/v1/vm-instances/a/volumes"));
+    }
+
+    @Test
+    public void testAllApis() {
+        Set<String> patterns = new LinkedHashSet<>();
+        for (Class<?> clz : Platform.getReflections().getTypesAnnotatedWith(RestRequest.class)) {
+            RestRequest at = clz.getAnnotation(RestRequest.class);
+            if (at == null) {
+                continue;
+            }
+
+            if (!"null".equals(at.path())) {
+                patterns.add(RestConstants.API_VERSION + at.path());
+            }
+            Arrays.stream(at.optionalPaths()).forEach(p -> patterns.add(RestConstants.API_VERSION + p));
+        }
+
+        RestPathTrie<String> trie = new RestPathTrie<>();
+        patterns.forEach(p -> trie.add(p, p));
+
+        // a request path for every pattern
+        List<String> paths = new ArrayList<>();
+        for (String p : patterns) {
+            paths.add(p.replaceAll("\\{[^}]+}", Platform.getUuid()));
+        }
+
+        Map<String, String> linear = new HashMap<>();
+        int rounds = Integer.valueOf(System.getProperty("rounds", "20"));
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (String path : paths) {
+                for (String p : patterns) {
+                    if (matcher.match(p, path)) {
+                        linear.put(path, p);
+                        break;
+                    }
+                }
+            }
+        }
+        long linearCost = System.nanoTime() - start;
+
+        Map<String, String> byTrie = new HashMap<>();
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (String path : paths) {
+                RestPathTrie.Match<String> m = trie.match(path);
+                if (m != null) {
+                    byTrie.put(path, m.getValue());
+                }
+            }
+        }
+        long trieCost = System.nanoTime() - start;
+
+        for (String path : paths) {
+            // the linear scan picks any of the matching patterns, the trie picks the most
+            // literal one, so they only have to agree on whether the path matches
+            Assert.assertEquals(linear.containsKey(path), byTrie.containsKey(path));
+            if (byTrie.containsKey(path)) {
+                Assert.assertTrue(matcher.match(byTrie.get(path), path));
+            }
+        }
+
+        long lookups = (long) rounds * paths.size();
+        logger.info(String.format("%s patterns, %s lookups: AntPathMatcher scan %s ms (%s ns/op), trie %s ms (%s ns/op)",
+                patterns.size(), lookups, TimeUnit.NANOSECONDS.toMillis(linearCost), linearCost / lookups,
+                TimeUnit.NANOSECONDS.toMillis(trieCost), trieCost / lookups));
+    }
+}
@@ -0,0 +1,145 @@
+package org.zstack.test.core.thread;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.thread.ChainTask;
+import org.zstack.core.thread.SyncTaskChain;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * submits chain tasks from many threads to many signatures and checks that the sync level
+ * of every signature is honored and tasks of a level-1 signature run in submission order.
+ * The submit throughput for each number of submitters is logged.
+ */
+public class TestChainTaskConcurrentSubmit {
+    CLogger logger = Utils.getLogger(TestChainTaskConcurrentSubmit.class);
+    ComponentLoader loader;
+    ThreadFacade thdf;
+
+    int signatureNum = 64;
+    int tasksPerSubmitter = 20000;
+
+    Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+    Map<String, AtomicInteger> lastIndex = new ConcurrentHashMap<>();
+    AtomicInteger levelViolations = new AtomicInteger();
+    AtomicInteger orderViolations = new AtomicInteger();
+
+    class Tester extends ChainTask {
+        String signature;
+        int syncLevel;
+        int index;
+        CountDownLatch latch;
+
+        Tester(String signature, int syncLevel, int index, CountDownLatch latch) {
+            super(null);
+            this.signature = signature;
+            this.syncLevel = syncLevel;
+            this.index = index;
+            this.latch = latch;
+        }
+
+        @Override
+        public String getName() {
+            return signature;
+        }
+
+        @Override
+        public String getSyncSignature() {
+            return signature;
+        }
+
+        @Override
+        public int getSyncLevel() {
+            return syncLevel;
+        }
+
+        @Override
+        public void run(SyncTaskChain chain) {
+            AtomicInteger count = running.computeIfAbsent(signature, k -> new AtomicInteger());
+            if (count.incrementAndGet() > syncLevel) {
+                levelViolations.incrementAndGet();
+            }
+
+            if (syncLevel == 1) {
+                AtomicInteger last = lastIndex.computeIfAbsent(signature, k -> new AtomicInteger(-1));
+                if (last.getAndSet(index) > index) {
+                    orderViolations.incrementAndGet();
+                }
+            }
+
+            count.decrementAndGet();
+            latch.countDown();
+            chain.next();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        thdf = loader.getComponent(ThreadFacade.class);
+    }
+
+    private long submit(int submitterNum) throws InterruptedException {
+        running.clear();
+        lastIndex.clear();
+        CountDownLatch latch = new CountDownLatch(submitterNum * tasksPerSubmitter);
+
+        List<Thread> submitters = new ArrayList<>();
+        for (int i = 0; i < submitterNum; i++) {
+            final int submitter = i;
+            submitters.add(new Thread(() -> {
+                for (int j = 0; j < tasksPerSubmitter; j++) {
+                    int sig = j % signatureNum;
+                    // each level-1 signature is only fed by one submitter, so its
+                    // submission order is the index order
+                    if (sig % 2 == 0) {
+                        thdf.chainSubmit(new Tester(String.format("level-1-%s-%s", submitter, sig), 1, j, latch));
+                    } else {
+                        thdf.chainSubmit(new Tester(String.format("level-4-%s", sig), 4, j, latch));
+                    }
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        submitters.forEach(Thread::start);
+        for (Thread t : submitters) {
+            t.join();
+        }
+        Assert.assertTrue(latch.await(2, TimeUnit.MINUTES));
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int submitterNum = 1; submitterNum <= cores; submitterNum *= 2) {
+            long cost = submit(submitterNum);
+            long total = (long) submitterNum * tasksPerSubmitter;
+            logger.info(String.format("%s submitters: %s chain tasks in %s ms, %s tasks/s", submitterNum, total,
+                    TimeUnit.NANOSECONDS.toMillis(cost), total * TimeUnit.SECONDS.toNanos(1) / cost));
+        }
+
+        Assert.assertEquals(0, levelViolations.get());
+        Assert.assertEquals(0, orderViolations.get());
+        // idle signatures are evicted once their last runner exits
+        TimeUnit.SECONDS.sleep(1);
+        for (int sig = 1; sig < signatureNum; sig += 2) {
+            Assert.assertFalse(thdf.isChainTaskRunning(String.format("level-4-%s", sig)));
+        }
+    }
+}
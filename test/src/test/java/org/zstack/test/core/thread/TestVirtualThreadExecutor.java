@@ -0,0 +1,96 @@
+package org.zstack.test.core.thread;
+
+import junit.framework.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.zstack.core.thread.ScheduledThreadPoolExecutorExt;
+import org.zstack.core.thread.VirtualThreadExecutor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * tasks on virtual threads waiting for each other all finish, and with -Dbenchmark=true the
+ * thread pool is compared with virtual threads on blocking tasks, the number of tasks can be
+ * changed by -Dtasks. Skipped if the JVM doesn't support virtual threads.
+ */
+public class TestVirtualThreadExecutor {
+    CLogger logger = Utils.getLogger(TestVirtualThreadExecutor.class);
+
+    int poolSize = 150;
+    int blockMillis = 50;
+
+    private long measure(int taskNum, Function<Callable<Void>, Future<Void>> submitter) throws Exception {
+        List<Future<Void>> futures = new ArrayList<>(taskNum);
+        long start = System.nanoTime();
+        for (int i = 0; i < taskNum; i++) {
+            // stands for a blocking HTTP call or a database lock wait
+            futures.add(submitter.apply(() -> {
+                TimeUnit.MILLISECONDS.sleep(blockMillis);
+                return null;
+            }));
+        }
+
+        for (Future<Void> f : futures) {
+            f.get();
+        }
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void testMutuallyWaitingTasksFinish() throws Exception {
+        Assume.assumeTrue(VirtualThreadExecutor.isSupported());
+
+        // far more than the thread pool, every task waits until all of them are running,
+        // like a task making a bus call whose reply needs another task
+        int taskNum = poolSize * 4;
+        VirtualThreadExecutor executor = new VirtualThreadExecutor("test");
+        CountDownLatch allRunning = new CountDownLatch(taskNum);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < taskNum; i++) {
+            futures.add(executor.submit(() -> {
+                allRunning.countDown();
+                Assert.assertTrue(allRunning.await(30, TimeUnit.SECONDS));
+                return null;
+            }));
+        }
+
+        for (Future<Void> f : futures) {
+            f.get(60, TimeUnit.SECONDS);
+        }
+
+        Assert.assertEquals(taskNum, executor.getLargestActiveCount());
+        Assert.assertEquals(taskNum, executor.getCompletedTaskCount());
+        Assert.assertEquals(0, executor.getPendingTaskCount());
+        Assert.assertEquals(0, executor.getActiveCount());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testBlockingWorkload() throws Exception {
+        Assume.assumeTrue(VirtualThreadExecutor.isSupported());
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+
+        int taskNum = Integer.valueOf(System.getProperty("tasks", "3000"));
+
+        ScheduledThreadPoolExecutorExt pool = new ScheduledThreadPoolExecutorExt(poolSize, Thread::new, (r, e) -> {});
+        long poolCost = measure(taskNum, pool::submit);
+        pool.shutdown();
+
+        // blocked tasks don't hold a carrier thread
+        VirtualThreadExecutor executor = new VirtualThreadExecutor("test");
+        long virtualCost = measure(taskNum, executor::submit);
+        executor.shutdown();
+
+        logger.info(String.format("%s tasks blocking %s ms each: thread pool[size:%s] %s ms, virtual threads %s ms",
+                taskNum, blockMillis, poolSize, TimeUnit.NANOSECONDS.toMillis(poolCost),
+                TimeUnit.NANOSECONDS.toMillis(virtualCost)));
+    }
+}
@@ -0,0 +1,79 @@
+package org.zstack.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of durations in milliseconds with fixed buckets,
+ * cheap enough to be updated on every call of a hot path.
+ */
+public class LatencyHistogram {
+    private static final long[] DEFAULT_BOUNDS = {1, 5, 10, 50, 100, 500, 1000, 5000, 10000, 60000};
+
+    private final long[] bounds;
+    private final AtomicLongArray counts;
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram() {
+        this(DEFAULT_BOUNDS);
+    }
+
+    /**
+     * @param bounds ascending upper bounds of the buckets in milliseconds, durations
+     *               above the last bound fall into an extra overflow bucket
+     */
+    public LatencyHistogram(long[] bounds) {
+        this.bounds = bounds.clone();
+        this.counts = new AtomicLongArray(bounds.length + 1);
+    }
+
+    public void record(long millis) {
+        int i = 0;
+        while (i < bounds.length && millis > bounds[i]) {
+            i++;
+        }
+
+        counts.incrementAndGet(i);
+        total.incrementAndGet();
+        sum.addAndGet(millis);
+        max.accumulateAndGet(millis, Math::max);
+    }
+
+    public long getCount() {
+        return total.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        long c = total.get();
+        return c == 0 ? 0 : sum.get() / c;
+    }
+
+    /**
+     * @return bucket name to count, in the order of the buckets, e.g. "<=10ms" -> 3, ">60000ms" -> 0
+     */
+    public Map<String, Long> getBuckets() {
+        Map<String, Long> ret = new LinkedHashMap<>();
+        for (int i = 0; i < bounds.length; i++) {
+            ret.put(String.format("<=%sms", bounds[i]), counts.get(i));
+        }
+        ret.put(String.format(">%sms", bounds[bounds.length - 1]), counts.get(bounds.length));
+        return ret;
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        total.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+}
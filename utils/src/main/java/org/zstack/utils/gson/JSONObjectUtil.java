@@ -3,6 +3,7 @@ package org.zstack.utils.gson;
 import com.google.gson.*;
 import org.json.JSONArray;
 
+import java.io.Reader;
 import java.lang.reflect.Type;
 import java.util.Collection;
 import java.util.LinkedHashMap;
@@ -57,6 +58,10 @@ public class JSONObjectUtil {
         return gson.fromJson(content, clazz);
     }
 
+    public static <T> T toObject(Reader reader, Class<T> clazz) {
+        return gson.fromJson(reader, clazz);
+    }
+
     // Only supports converting content to List, for example: new TypeToken<List<T>>() {}.getType()
     public static <T> List<T> toList(String content, Type type){
         return gson.fromJson(content, type);
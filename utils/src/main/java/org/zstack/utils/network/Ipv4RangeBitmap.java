@@ -0,0 +1,124 @@
+package org.zstack.utils.network;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * A compact usage map of an IPv4 range, one bit per address.
+ *
+ * Finding a free address is a BitSet.nextClearBit() scan from the given
+ * position instead of sorting and walking a list of used addresses.
+ */
+public class Ipv4RangeBitmap {
+    private final long start;
+    private final long end;
+    private final int size;
+    private final BitSet used;
+    private int usedCount;
+
+    public Ipv4RangeBitmap(long start, long end) {
+        if (end < start || end - start + 1 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format("invalid IPv4 range[%s, %s]",
+                    NetworkUtils.longToIpv4String(start), NetworkUtils.longToIpv4String(end)));
+        }
+
+        this.start = start;
+        this.end = end;
+        this.size = (int) (end - start + 1);
+        this.used = new BitSet(size);
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private boolean inRange(long ip) {
+        return ip >= start && ip <= end;
+    }
+
+    public synchronized void setUsed(long ip) {
+        if (!inRange(ip)) {
+            return;
+        }
+
+        int index = (int) (ip - start);
+        if (!used.get(index)) {
+            used.set(index);
+            usedCount++;
+        }
+    }
+
+    public synchronized void setFree(long ip) {
+        if (!inRange(ip)) {
+            return;
+        }
+
+        int index = (int) (ip - start);
+        if (used.get(index)) {
+            used.clear(index);
+            usedCount--;
+        }
+    }
+
+    public synchronized boolean isUsed(long ip) {
+        return inRange(ip) && used.get((int) (ip - start));
+    }
+
+    public synchronized int getUsedCount() {
+        return usedCount;
+    }
+
+    public synchronized boolean isFull() {
+        return usedCount >= size;
+    }
+
+    private int nextFree(int from, int excluded) {
+        int index = used.nextClearBit(from);
+        if (index == excluded) {
+            index = used.nextClearBit(index + 1);
+        }
+        return index;
+    }
+
+    /**
+     * finds the first free address at or after the ip from, wrapping around to the
+     * start of the range, and marks it used
+     *
+     * @return the allocated address, or null if no address other than the excluded one is free
+     */
+    public synchronized Long allocate(long from, Long excludedIp) {
+        if (isFull()) {
+            return null;
+        }
+
+        int excluded = excludedIp != null && inRange(excludedIp) ? (int) (excludedIp - start) : -1;
+        int index = inRange(from) ? nextFree((int) (from - start), excluded) : size;
+        if (index >= size) {
+            index = nextFree(0, excluded);
+        }
+
+        if (index >= size) {
+            return null;
+        }
+
+        used.set(index);
+        usedCount++;
+        return start + index;
+    }
+
+    public Long allocateFirst(Long excludedIp) {
+        return allocate(start, excludedIp);
+    }
+
+    public Long allocateRandom(Random random, Long excludedIp) {
+        return allocate(start + random.nextInt(size), excludedIp);
+    }
+}
@@ -0,0 +1,76 @@
+package org.zstack.utils.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zstack.utils.network.Ipv4RangeBitmap;
+import org.zstack.utils.network.NetworkUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class TestIpv4RangeBitmap {
+    @Test
+    public void testAllocate() {
+        long s = NetworkUtils.ipv4StringToLong("192.168.0.10");
+        long e = NetworkUtils.ipv4StringToLong("192.168.0.14");
+        Ipv4RangeBitmap bitmap = new Ipv4RangeBitmap(s, e);
+        Assert.assertEquals(5, bitmap.size());
+
+        bitmap.setUsed(s);
+        Assert.assertEquals(s + 1, (long) bitmap.allocateFirst(null));
+        // the excluded ip is skipped
+        Assert.assertEquals(s + 3, (long) bitmap.allocateFirst(s + 2));
+        // allocating wraps around to the start of the range
+        Assert.assertEquals(s + 2, (long) bitmap.allocate(e, e));
+        Assert.assertEquals(e, (long) bitmap.allocate(e, null));
+        Assert.assertTrue(bitmap.isFull());
+        Assert.assertNull(bitmap.allocateFirst(null));
+
+        bitmap.setFree(s + 3);
+        Assert.assertFalse(bitmap.isUsed(s + 3));
+        Assert.assertEquals(4, bitmap.getUsedCount());
+        Assert.assertNull(bitmap.allocateFirst(s + 3));
+        Assert.assertEquals(s + 3, (long) bitmap.allocateRandom(new Random(), null));
+
+        // out of range addresses are ignored
+        bitmap.setFree(e + 1);
+        Assert.assertEquals(5, bitmap.getUsedCount());
+    }
+
+    @Test
+    public void testCompareWithNetworkUtils() {
+        long s = NetworkUtils.ipv4StringToLong("10.0.0.1");
+        long e = NetworkUtils.ipv4StringToLong("10.0.255.254");
+        Random random = new Random();
+
+        // a nearly full /16
+        Ipv4RangeBitmap bitmap = new Ipv4RangeBitmap(s, e);
+        List<Long> used = new ArrayList<>();
+        for (long ip = s; ip <= e; ip++) {
+            if ((ip - s) % 500 != 499) {
+                used.add(ip);
+                bitmap.setUsed(ip);
+            }
+        }
+        Assert.assertEquals(used.size(), bitmap.getUsedCount());
+
+        String first = NetworkUtils.findFirstAvailableIpv4Address(NetworkUtils.longToIpv4String(s),
+                NetworkUtils.longToIpv4String(e), used.toArray(new Long[used.size()]));
+        Long bitmapFirst = bitmap.allocateFirst(null);
+        Assert.assertEquals(first, NetworkUtils.longToIpv4String(bitmapFirst));
+        bitmap.setFree(bitmapFirst);
+
+        // random allocation only returns the free IPs the list scan may return
+        for (int i = 0; i < 100; i++) {
+            long listRandom = NetworkUtils.ipv4StringToLong(NetworkUtils.randomAllocateIpv4Address(s, e, used));
+            Assert.assertEquals(499, (listRandom - s) % 500);
+
+            Long ip = bitmap.allocateRandom(random, null);
+            Assert.assertEquals(499, (ip - s) % 500);
+            Assert.assertTrue(bitmap.isUsed(ip));
+            bitmap.setFree(ip);
+        }
+        Assert.assertEquals(used.size(), bitmap.getUsedCount());
+    }
+}